@@ -0,0 +1,41 @@
+package com.androidexperiments.shadercam.benchmarks;
+
+import com.androidexperiments.shadercam.utils.BufferUtils;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.FloatBuffer;
+
+/**
+ * {@code GlUtil.createFloatBuffer()}, which allocates a direct buffer every call. Meant for setup
+ * code, this keeps an eye on it in case it creeps into a per-frame path.
+ */
+@State(Scope.Thread)
+public class BufferBenchmark
+{
+    /**
+     * the camera quad, and a full batch of text vertices
+     */
+    @Param({"16", "480"})
+    public int floats;
+
+    private float[] mCoords;
+
+    @Setup
+    public void setup()
+    {
+        mCoords = new float[floats];
+        for (int i = 0; i < floats; i++)
+            mCoords[i] = i;
+    }
+
+    @Benchmark
+    public FloatBuffer createFloatBuffer()
+    {
+        return BufferUtils.createFloatBuffer(mCoords);
+    }
+}
@@ -0,0 +1,246 @@
+package com.androidexperiments.shadercam.benchmarks;
+
+import com.androidexperiments.shadercam.gl.RecordingGlApi;
+import com.androidexperiments.shadercam.text.SpriteBuffer;
+import com.androidexperiments.shadercam.utils.BufferUtils;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
+
+/**
+ * The GL calls a frame makes to draw the camera quad and a text batch, the way they were made
+ * with client-side arrays and the way {@code StaticGeometry} and texample2's {@code Vertices} make
+ * them now with buffer objects, recorded into a {@link RecordingGlApi} in place of a driver.
+ * <p>
+ * The recorder copies client arrays by value like a driver has to on every draw, and buffer
+ * object offsets as plain ints, so this is the CPU side of what each path hands over per frame.
+ * Per frame, that's:
+ * <ul>
+ * <li>the quad with client arrays: 7 calls, copying 76 bytes of vertices and indices</li>
+ * <li>the quad in a VBO: 11 calls, nothing copied</li>
+ * <li>the quad in a VAO: 3 calls</li>
+ * <li>a 24 sprite text batch with client arrays: 8 calls, copying about 6KB since each of the
+ * three attributes points into the same 1.9KB of vertices</li>
+ * <li>the same batch in the ring VBO: 16 calls, one 1.9KB upload</li>
+ * </ul>
+ * What the GPU does with either, and what the driver does with the buffer objects, only shows on
+ * a device: run with {@code TracingGlApi} and compare GPU frame times for that.
+ */
+@State(Scope.Thread)
+public class GeometryBenchmark
+{
+    //GLES20 values, there's no android.opengl on a desktop jvm
+    private static final int GL_FLOAT = 0x1406;
+    private static final int GL_UNSIGNED_SHORT = 0x1403;
+    private static final int GL_TRIANGLES = 0x0004;
+    private static final int GL_ARRAY_BUFFER = 0x8892;
+    private static final int GL_ELEMENT_ARRAY_BUFFER = 0x8893;
+    private static final int GL_STREAM_DRAW = 0x88E0;
+
+    private static final int FLOAT_SIZE = 4;
+    private static final int INDEX_SIZE = 2;
+
+    private static final int POSITION = 0;
+    private static final int TEXCOORD = 1;
+    private static final int MVP_INDEX = 2;
+
+    private static final int QUAD_BUFFER = 1;
+    private static final int QUAD_INDEX_BUFFER = 2;
+    private static final int QUAD_VAO = 3;
+    private static final int TEXT_BUFFER = 4;
+    private static final int TEXT_INDEX_BUFFER = 5;
+
+    /**
+     * texample2's batch size on GLES2, and how many batches its ring holds
+     */
+    private static final int BATCH_SPRITES = 24;
+    private static final int RING_BATCHES = 4;
+    private static final int INDICES_PER_SPRITE = 6;
+
+    private static final int TEXT_VERTEX_BYTES = SpriteBuffer.VERTEX_SIZE * FLOAT_SIZE;
+    private static final int TEXT_POSITION_CNT = 2;
+    private static final int TEXT_TEXCOORD_CNT = 2;
+
+    private final RecordingGlApi mGl = new RecordingGlApi();
+
+    //CameraRenderer's quad before StaticGeometry: separate position and texcoord arrays
+    private FloatBuffer mQuadPositions;
+    private FloatBuffer mQuadTexCoords;
+    private ShortBuffer mQuadIndices;
+
+    private float[] mBatch;
+    private int mBatchLength;
+    private int[] mScratch;
+    private IntBuffer mBatchBuffer;
+    private ShortBuffer mBatchIndices;
+
+    private int mRingSize;
+    private int mWriteOffset;
+    private int mBatchOffset;
+
+    @Setup
+    public void setup()
+    {
+        mQuadPositions = direct(8).asFloatBuffer();
+        mQuadPositions.put(new float[] {-1.f, 1.f, 1.f, 1.f, -1.f, -1.f, 1.f, -1.f}).flip();
+        mQuadTexCoords = direct(8).asFloatBuffer();
+        mQuadTexCoords.put(new float[] {0.f, 1.f, 1.f, 1.f, 0.f, 0.f, 1.f, 0.f}).flip();
+        mQuadIndices = ByteBuffer.allocateDirect(6 * INDEX_SIZE).order(ByteOrder.nativeOrder()).asShortBuffer();
+        mQuadIndices.put(new short[] {0, 1, 2, 1, 3, 2}).flip();
+
+        mBatchLength = BATCH_SPRITES * SpriteBuffer.VERTICES_PER_SPRITE * SpriteBuffer.VERTEX_SIZE;
+        mBatch = new float[mBatchLength];
+        for (int i = 0; i < mBatchLength; i++)
+            mBatch[i] = i * 0.37f;
+        mScratch = new int[mBatchLength];
+        mBatchBuffer = direct(mBatchLength).asIntBuffer();
+
+        int indexCount = BATCH_SPRITES * INDICES_PER_SPRITE;
+        mBatchIndices = ByteBuffer.allocateDirect(indexCount * INDEX_SIZE).order(ByteOrder.nativeOrder()).asShortBuffer();
+        for (int sprite = 0, vertex = 0; sprite < BATCH_SPRITES; sprite++, vertex += 4) {
+            mBatchIndices.put((short) vertex).put((short) (vertex + 1)).put((short) (vertex + 2))
+                    .put((short) (vertex + 2)).put((short) (vertex + 3)).put((short) vertex);
+        }
+        mBatchIndices.flip();
+
+        mRingSize = mBatchLength * FLOAT_SIZE * RING_BATCHES;
+        mWriteOffset = 0;
+    }
+
+    private static ByteBuffer direct(int floats)
+    {
+        return ByteBuffer.allocateDirect(floats * FLOAT_SIZE).order(ByteOrder.nativeOrder());
+    }
+
+    /**
+     * {@code setUniformsAndAttribs()}, {@code drawElements()} and {@code onDrawCleanup()} before
+     * the quad moved into a buffer object
+     */
+    @Benchmark
+    public RecordingGlApi cameraQuadClientArrays()
+    {
+        mGl.clear();
+        mGl.glEnableVertexAttribArray(POSITION);
+        mGl.glVertexAttribPointer(POSITION, 2, GL_FLOAT, false, 2 * FLOAT_SIZE, mQuadPositions);
+        mGl.glEnableVertexAttribArray(TEXCOORD);
+        mGl.glVertexAttribPointer(TEXCOORD, 2, GL_FLOAT, false, 2 * FLOAT_SIZE, mQuadTexCoords);
+
+        mGl.glDrawElements(GL_TRIANGLES, 6, GL_UNSIGNED_SHORT, mQuadIndices);
+
+        mGl.glDisableVertexAttribArray(POSITION);
+        mGl.glDisableVertexAttribArray(TEXCOORD);
+        return mGl;
+    }
+
+    /**
+     * {@code StaticGeometry} on GLES2: interleaved in a static VBO, indices in an IBO
+     */
+    @Benchmark
+    public RecordingGlApi cameraQuadVbo()
+    {
+        mGl.clear();
+        mGl.glBindBuffer(GL_ARRAY_BUFFER, QUAD_BUFFER);
+        mGl.glEnableVertexAttribArray(POSITION);
+        mGl.glVertexAttribPointer(POSITION, 2, GL_FLOAT, false, 4 * FLOAT_SIZE, 0);
+        mGl.glEnableVertexAttribArray(TEXCOORD);
+        mGl.glVertexAttribPointer(TEXCOORD, 2, GL_FLOAT, false, 4 * FLOAT_SIZE, 2 * FLOAT_SIZE);
+        mGl.glBindBuffer(GL_ARRAY_BUFFER, 0);
+        mGl.glBindBuffer(GL_ELEMENT_ARRAY_BUFFER, QUAD_INDEX_BUFFER);
+
+        mGl.glDrawElements(GL_TRIANGLES, 6, GL_UNSIGNED_SHORT, 0);
+
+        mGl.glDisableVertexAttribArray(POSITION);
+        mGl.glDisableVertexAttribArray(TEXCOORD);
+        mGl.glBindBuffer(GL_ELEMENT_ARRAY_BUFFER, 0);
+        return mGl;
+    }
+
+    /**
+     * {@code StaticGeometry} on GLES3, once the vao is recorded
+     */
+    @Benchmark
+    public RecordingGlApi cameraQuadVao()
+    {
+        mGl.clear();
+        mGl.glBindVertexArray(QUAD_VAO);
+        mGl.glDrawElements(GL_TRIANGLES, 6, GL_UNSIGNED_SHORT, 0);
+        mGl.glBindVertexArray(0);
+        return mGl;
+    }
+
+    /**
+     * texample2's {@code Vertices} before the ring buffer: setVertices(), bind(), draw(), unbind()
+     * with everything pointing into client memory
+     */
+    @Benchmark
+    public RecordingGlApi textBatchClientArrays()
+    {
+        mGl.clear();
+        BufferUtils.putFloatBits(mBatchBuffer, mBatch, 0, mBatchLength, mScratch);
+
+        mBatchBuffer.position(0);
+        mGl.glVertexAttribPointer(POSITION, TEXT_POSITION_CNT, GL_FLOAT, false, TEXT_VERTEX_BYTES, mBatchBuffer);
+        mGl.glEnableVertexAttribArray(POSITION);
+        mBatchBuffer.position(TEXT_POSITION_CNT);
+        mGl.glVertexAttribPointer(TEXCOORD, TEXT_TEXCOORD_CNT, GL_FLOAT, false, TEXT_VERTEX_BYTES, mBatchBuffer);
+        mGl.glEnableVertexAttribArray(TEXCOORD);
+        mBatchBuffer.position(TEXT_POSITION_CNT + TEXT_TEXCOORD_CNT);
+        mGl.glVertexAttribPointer(MVP_INDEX, 1, GL_FLOAT, false, TEXT_VERTEX_BYTES, mBatchBuffer);
+        mGl.glEnableVertexAttribArray(MVP_INDEX);
+
+        mBatchIndices.position(0);
+        mGl.glDrawElements(GL_TRIANGLES, BATCH_SPRITES * INDICES_PER_SPRITE, GL_UNSIGNED_SHORT, mBatchIndices);
+
+        mGl.glDisableVertexAttribArray(TEXCOORD);
+        return mGl;
+    }
+
+    /**
+     * texample2's {@code Vertices} now: the batch streamed into a ring in one VBO, indices in a
+     * static IBO
+     */
+    @Benchmark
+    public RecordingGlApi textBatchRingVbo()
+    {
+        mGl.clear();
+        BufferUtils.putFloatBits(mBatchBuffer, mBatch, 0, mBatchLength, mScratch);
+
+        int bytes = mBatchLength * FLOAT_SIZE;
+        mGl.glBindBuffer(GL_ARRAY_BUFFER, TEXT_BUFFER);
+        if (mWriteOffset + bytes > mRingSize) {
+            mGl.glBufferData(GL_ARRAY_BUFFER, mRingSize, null, GL_STREAM_DRAW);
+            mWriteOffset = 0;
+        }
+        mGl.glBufferSubData(GL_ARRAY_BUFFER, mWriteOffset, bytes, mBatchBuffer);
+        mBatchOffset = mWriteOffset;
+        mWriteOffset += bytes;
+
+        mGl.glBindBuffer(GL_ARRAY_BUFFER, TEXT_BUFFER);
+        mGl.glVertexAttribPointer(POSITION, TEXT_POSITION_CNT, GL_FLOAT, false, TEXT_VERTEX_BYTES, mBatchOffset);
+        mGl.glEnableVertexAttribArray(POSITION);
+        mGl.glVertexAttribPointer(TEXCOORD, TEXT_TEXCOORD_CNT, GL_FLOAT, false, TEXT_VERTEX_BYTES,
+                mBatchOffset + TEXT_POSITION_CNT * FLOAT_SIZE);
+        mGl.glEnableVertexAttribArray(TEXCOORD);
+        mGl.glVertexAttribPointer(MVP_INDEX, 1, GL_FLOAT, false, TEXT_VERTEX_BYTES,
+                mBatchOffset + (TEXT_POSITION_CNT + TEXT_TEXCOORD_CNT) * FLOAT_SIZE);
+        mGl.glEnableVertexAttribArray(MVP_INDEX);
+        mGl.glBindBuffer(GL_ELEMENT_ARRAY_BUFFER, TEXT_INDEX_BUFFER);
+
+        mGl.glDrawElements(GL_TRIANGLES, BATCH_SPRITES * INDICES_PER_SPRITE, GL_UNSIGNED_SHORT, 0);
+
+        mGl.glDisableVertexAttribArray(POSITION);
+        mGl.glDisableVertexAttribArray(TEXCOORD);
+        mGl.glDisableVertexAttribArray(MVP_INDEX);
+        mGl.glBindBuffer(GL_ARRAY_BUFFER, 0);
+        mGl.glBindBuffer(GL_ELEMENT_ARRAY_BUFFER, 0);
+        return mGl;
+    }
+}
@@ -0,0 +1,218 @@
+package com.androidexperiments.shadercam.benchmarks;
+
+import com.androidexperiments.shadercam.text.TextureRegion;
+import com.androidexperiments.shadercam.utils.MatrixMath;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.List;
+
+import static java.util.Arrays.asList;
+
+/**
+ * Baseline for {@link TextBenchmark}: texample2's {@code SpriteBatch.drawSprite()},
+ * {@code Font.draw()} and {@code Font.getLength()} as they were before they moved onto
+ * {@code SpriteBuffer} and {@code GlyphMetrics}, copied from the 1.1.0 sources with
+ * {@code android.opengl.Matrix} swapped for {@link MatrixMath} and the GL calls in
+ * {@code endBatch()} left out. Same text, glyph widths and 24 sprite batch as the uniform
+ * (non instanced) half of {@link TextBenchmark}, so the two can be compared side by side.
+ */
+@State(Scope.Thread)
+public class LegacyTextBenchmark
+{
+    private static final int CHAR_START = 32;
+    private static final int CHAR_END = 126;
+    private static final int CHAR_CNT = CHAR_END - CHAR_START + 2;
+    private static final int CHAR_UNKNOWN = CHAR_CNT - 1;
+    private static final int CHAR_BATCH_SIZE = 24;
+
+    private static final float CELL_SIZE = 48.f;
+
+    @Param({"fps: 29.97", "1920x1080 @ 30fps | 12.4 ms gpu | 2.1 ms cpu | dropped 0 | rec 00:01:23"})
+    public String text;
+
+    private float[] mCharWidths;
+    private TextureRegion[] mRegions;
+    private SpriteBatch mBatch;
+
+    private final float[] mViewProjection = new float[16];
+    private final float[] mModel = new float[16];
+
+    @Setup
+    public void setup()
+    {
+        //same widths and texture layout as TextBenchmark
+        mCharWidths = new float[CHAR_CNT];
+        for (int i = 0; i < CHAR_CNT; i++)
+            mCharWidths[i] = 12.f + (i * 7) % 20;
+
+        int columns = (int) (512 / CELL_SIZE);
+        mRegions = new TextureRegion[CHAR_CNT];
+        for (int i = 0; i < CHAR_CNT; i++) {
+            mRegions[i] = new TextureRegion(512, 512, (i % columns) * CELL_SIZE, (i / columns) * CELL_SIZE,
+                    CELL_SIZE - 1, CELL_SIZE - 1);
+        }
+
+        mBatch = new SpriteBatch(CHAR_BATCH_SIZE);
+
+        MatrixMath.setIdentityM(mViewProjection, 0);
+        MatrixMath.translateM(mViewProjection, 0, -1.f, -1.f, 0.f);
+        MatrixMath.setIdentityM(mModel, 0);
+        mBatch.beginBatch(mViewProjection);
+    }
+
+    @Benchmark
+    public int drawSprite()
+    {
+        mBatch.drawSprite(100.f, 200.f, CELL_SIZE, CELL_SIZE, mRegions[33], mModel);
+        return mBatch.numSprites;
+    }
+
+    /**
+     * {@code Font.draw()} with the rotation {@link TextBenchmark#drawText()} uses, including the
+     * model matrix it allocated on every call
+     */
+    @Benchmark
+    public int drawText()
+    {
+        mBatch.beginBatch(mViewProjection);
+
+        float x = 20.f + CELL_SIZE / 2.0f;
+        float y = 40.f + CELL_SIZE / 2.0f;
+
+        float[] modelMatrix = new float[16];
+        MatrixMath.setIdentityM(modelMatrix, 0);
+        MatrixMath.translateM(modelMatrix, 0, x, y, 0.f);
+        MatrixMath.rotateM(modelMatrix, 0, 15.f, 0, 0, 1);
+        MatrixMath.rotateM(modelMatrix, 0, 0.f, 1, 0, 0);
+        MatrixMath.rotateM(modelMatrix, 0, 0.f, 0, 1, 0);
+
+        float xOffset = 0;
+        for (int i = 0; i < text.length(); i++) {
+            mBatch.drawSprite(xOffset, 0.0f, CELL_SIZE, CELL_SIZE, mRegions[getCharacterIndex(text.charAt(i))], modelMatrix);
+            xOffset += getCharacterWidth(text.charAt(i));
+        }
+        return mBatch.numSprites;
+    }
+
+    /**
+     * {@code Font.getLength()}
+     */
+    @Benchmark
+    public float measureText()
+    {
+        float result = 0.0f;
+        for (int i = 0; i < text.length(); i++)
+            result += getCharacterWidth(text.charAt(i));
+        result += (text.length() - 1) * 0.f;
+        return result * 1.f;
+    }
+
+    private static int getCharacterIndex(char character)
+    {
+        int index = (int) character - CHAR_START;
+        if (index < 0 || index >= CHAR_CNT)
+            index = CHAR_UNKNOWN;
+        return index;
+    }
+
+    private float getCharacterWidth(char character)
+    {
+        return mCharWidths[getCharacterIndex(character)];
+    }
+
+    /**
+     * the old batcher, minus the Vertices it drew through
+     */
+    private static class SpriteBatch
+    {
+        private static final int VERTEX_SIZE = 5;
+        private static final int VERTICES_PER_SPRITE = 4;
+
+        private final float[] vertexBuffer;
+        private final float[] uMVPMatrices;
+        private final float[] mMVPMatrix = new float[16];
+        private final int maxSprites;
+        private int bufferIndex;
+        private int numSprites;
+        private float[] viewProjectionMatrix;
+
+        SpriteBatch(int maxSprites)
+        {
+            this.uMVPMatrices = new float[maxSprites * 16];
+            this.vertexBuffer = new float[maxSprites * VERTICES_PER_SPRITE * VERTEX_SIZE];
+            this.maxSprites = maxSprites;
+        }
+
+        void beginBatch(float[] vpMatrix)
+        {
+            numSprites = 0;
+            bufferIndex = 0;
+            viewProjectionMatrix = vpMatrix;
+        }
+
+        void drawSprite(float x, float y, float width, float height, TextureRegion region, float[] modelMatrix)
+        {
+            if (numSprites == maxSprites) {
+                //endBatch() would upload and draw here
+                numSprites = 0;
+                bufferIndex = 0;
+            }
+
+            float halfWidth = width / 2.0f;
+            float halfHeight = height / 2.0f;
+            float leftX = x - halfWidth;
+            float bottomY = y - halfHeight;
+            float rightX = x + halfWidth;
+            float topY = y + halfHeight;
+
+            List<Vertex> vertices = asList(
+                    new Vertex(leftX, bottomY, region.u1, region.v2, numSprites),
+                    new Vertex(rightX, bottomY, region.u2, region.v2, numSprites),
+                    new Vertex(rightX, topY, region.u2, region.v1, numSprites),
+                    new Vertex(leftX, topY, region.u1, region.v1, numSprites)
+            );
+
+            for (int i = 0; i < vertices.size(); i++) {
+                vertices.get(i).addTo(vertexBuffer, bufferIndex);
+                bufferIndex += VERTEX_SIZE;
+            }
+
+            MatrixMath.multiplyMM(mMVPMatrix, 0, viewProjectionMatrix, 0, modelMatrix, 0);
+            System.arraycopy(mMVPMatrix, 0, uMVPMatrices, numSprites * 16, 16);
+
+            numSprites++;
+        }
+
+        private class Vertex
+        {
+            float x;
+            float y;
+            float u;
+            float v;
+            int numberOfSprites;
+
+            Vertex(float x, float y, float u, float v, int numberOfSprites)
+            {
+                this.x = x;
+                this.y = y;
+                this.u = u;
+                this.v = v;
+                this.numberOfSprites = numberOfSprites;
+            }
+
+            void addTo(float[] vertexBuffer, int offset)
+            {
+                vertexBuffer[offset] = x;
+                vertexBuffer[offset + 1] = y;
+                vertexBuffer[offset + 2] = u;
+                vertexBuffer[offset + 3] = v;
+                vertexBuffer[offset + 4] = numSprites;
+            }
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package com.androidexperiments.shadercam.benchmarks;
+
+import com.androidexperiments.shadercam.utils.StreamUtils;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * {@code ShaderUtils.getStringFromFileInAssets()} on the shaders shadercam ships. The files are
+ * read into memory up front so this measures the line reading and not the disk.
+ */
+@State(Scope.Thread)
+public class ShaderSourceBenchmark
+{
+    @Param({"camera.frag.glsl", "camera.vert.glsl"})
+    public String shader;
+
+    private byte[] mSource;
+
+    @Setup
+    public void setup() throws IOException
+    {
+        InputStream is = getClass().getClassLoader().getResourceAsStream(shader);
+        if (is == null)
+            throw new IOException("missing shader " + shader);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int read;
+        try {
+            while ((read = is.read(buffer)) != -1)
+                out.write(buffer, 0, read);
+        }
+        finally {
+            is.close();
+        }
+        mSource = out.toByteArray();
+    }
+
+    @Benchmark
+    public String readString() throws IOException
+    {
+        return StreamUtils.readString(new ByteArrayInputStream(mSource), true);
+    }
+}
@@ -0,0 +1,54 @@
+package com.androidexperiments.shadercam.benchmarks;
+
+import com.androidexperiments.shadercam.utils.SizeSelectionPolicy;
+import com.androidexperiments.shadercam.utils.SizeSelectionPolicy.Candidate;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * What used to be {@code CameraFragment.chooseVideoSize()}, now {@link SizeSelectionPolicy}, over
+ * the kind of size list a current phone reports.
+ */
+@State(Scope.Thread)
+public class SizeSelectionBenchmark
+{
+    private static final long FRAME_30FPS = 33333333L;
+    private static final long FRAME_60FPS = 16666666L;
+
+    private static final int[][] SIZES = {
+            {4032, 3024}, {4000, 3000}, {3840, 2160}, {3264, 2448}, {3264, 1836}, {2592, 1944},
+            {2560, 1440}, {2048, 1536}, {1920, 1440}, {1920, 1080}, {1600, 1200}, {1440, 1080},
+            {1280, 960}, {1280, 720}, {1024, 768}, {960, 720}, {800, 600}, {720, 480},
+            {640, 480}, {640, 360}, {352, 288}, {320, 240}, {176, 144},
+    };
+
+    private SizeSelectionPolicy mPolicy;
+    private Candidate[] mPreviewChoices;
+    private Candidate[] mVideoChoices;
+
+    @Setup
+    public void setup()
+    {
+        mPolicy = new SizeSelectionPolicy();
+        mPreviewChoices = new Candidate[SIZES.length];
+        mVideoChoices = new Candidate[SIZES.length];
+        for (int i = 0; i < SIZES.length; i++) {
+            int w = SIZES[i][0];
+            int h = SIZES[i][1];
+            //the big sensor modes only manage 30fps or less
+            long duration = (long) w * h > 3840L * 2160 ? FRAME_30FPS * 2 : w * h > 1920 * 1080 ? FRAME_30FPS : FRAME_60FPS;
+            mPreviewChoices[i] = new Candidate(w, h, duration);
+            mVideoChoices[i] = new Candidate(w, h, duration);
+        }
+    }
+
+    @Benchmark
+    public Candidate chooseSizes()
+    {
+        Candidate preview = mPolicy.choosePreviewSize(mPreviewChoices, 1080, 1920);
+        return mPolicy.chooseRecordSize(mVideoChoices, preview);
+    }
+}
@@ -0,0 +1,66 @@
+package com.androidexperiments.shadercam.benchmarks;
+
+import com.androidexperiments.shadercam.text.SpriteBuffer;
+import com.androidexperiments.shadercam.utils.BufferUtils;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+
+/**
+ * texample2's {@code Vertices.setVertices()}, which copies the batch through an int[] of float
+ * bits, next to a plain FloatBuffer put of the same data. If the put is as fast on the devices we
+ * care about the int trick can go.
+ */
+@State(Scope.Thread)
+public class VerticesBenchmark
+{
+    /**
+     * a single sprite and a full 24 sprite batch
+     */
+    @Param({"1", "24"})
+    public int sprites;
+
+    private float[] mVertices;
+    private int mLength;
+    private int[] mScratch;
+    private IntBuffer mIntBuffer;
+    private FloatBuffer mFloatBuffer;
+
+    @Setup
+    public void setup()
+    {
+        mLength = sprites * SpriteBuffer.VERTICES_PER_SPRITE * SpriteBuffer.VERTEX_SIZE;
+        mVertices = new float[mLength];
+        for (int i = 0; i < mLength; i++)
+            mVertices[i] = i * 0.37f;
+        mScratch = new int[mLength];
+
+        ByteBuffer bytes = ByteBuffer.allocateDirect(mLength * 4).order(ByteOrder.nativeOrder());
+        mIntBuffer = bytes.asIntBuffer();
+        mFloatBuffer = bytes.asFloatBuffer();
+    }
+
+    @Benchmark
+    public IntBuffer putFloatBits()
+    {
+        BufferUtils.putFloatBits(mIntBuffer, mVertices, 0, mLength, mScratch);
+        return mIntBuffer;
+    }
+
+    @Benchmark
+    public FloatBuffer putFloats()
+    {
+        mFloatBuffer.clear();
+        mFloatBuffer.put(mVertices, 0, mLength);
+        mFloatBuffer.flip();
+        return mFloatBuffer;
+    }
+}
@@ -0,0 +1,24 @@
+package com.androidexperiments.shadercam.encoder;
+
+/**
+ * Plain stand-in for {@code MediaCodec.BufferInfo}, same fields and flag values, so
+ * {@link EncoderDrainer} and fakes of its codec and muxer don't need the Android framework.
+ */
+public class EncoderBufferInfo
+{
+    public static final int BUFFER_FLAG_KEY_FRAME = 1;
+    public static final int BUFFER_FLAG_CODEC_CONFIG = 2;
+    public static final int BUFFER_FLAG_END_OF_STREAM = 4;
+
+    public int offset;
+    public int size;
+    public long presentationTimeUs;
+    public int flags;
+
+    public void set(int newOffset, int newSize, long newTimeUs, int newFlags) {
+        offset = newOffset;
+        size = newSize;
+        presentationTimeUs = newTimeUs;
+        flags = newFlags;
+    }
+}
@@ -0,0 +1,30 @@
+package com.androidexperiments.shadercam.encoder;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Output side of a {@code MediaCodec} encoder, which is all {@link EncoderDrainer} needs. Lets the
+ * drain loop run against a fake codec that hands out synthetic access units.
+ *
+ * @param <F> output format, a {@code MediaFormat} on a device. Only passed on to the muxer
+ */
+public interface EncoderCodec<F>
+{
+    /**
+     * same values as the {@code MediaCodec} constants
+     */
+    int INFO_TRY_AGAIN_LATER = -1;
+    int INFO_OUTPUT_FORMAT_CHANGED = -2;
+    int INFO_OUTPUT_BUFFERS_CHANGED = -3;
+
+    /**
+     * same as {@code MediaCodec.dequeueOutputBuffer()}, filling in a plain buffer info
+     */
+    int dequeueOutputBuffer(EncoderBufferInfo info, long timeoutUs);
+
+    ByteBuffer getOutputBuffer(int index);
+
+    F getOutputFormat();
+
+    void releaseOutputBuffer(int index);
+}
@@ -0,0 +1,124 @@
+package com.androidexperiments.shadercam.encoder;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Moves encoded access units from an {@link EncoderCodec} into an {@link EncoderMuxer}.
+ * <p>
+ * The muxer track is added and started when the codec reports its output format, codec config
+ * buffers are dropped since that data already lives in the format, and every other non-empty
+ * buffer is written as a sample. Plain Java, so it can be driven from a test with fake codec and
+ * muxer implementations.
+ * <p>
+ * Not thread-safe, call {@link #drain(long)} and {@link #finish()} from a single thread.
+ */
+public class EncoderDrainer<F>
+{
+    private final EncoderCodec<F> mCodec;
+    private final EncoderMuxer<F> mMuxer;
+
+    private final EncoderBufferInfo mBufferInfo = new EncoderBufferInfo();
+
+    private int mTrackIndex = -1;
+    private boolean mMuxerStarted = false;
+    private boolean mEndOfStream = false;
+    private boolean mReleased = false;
+    private int mSamplesWritten = 0;
+
+    public EncoderDrainer(EncoderCodec<F> codec, EncoderMuxer<F> muxer) {
+        mCodec = codec;
+        mMuxer = muxer;
+    }
+
+    /**
+     * Handles at most one output buffer (or format change) from the codec.
+     *
+     * @param timeoutUs how long to wait for the codec to produce something
+     * @return true once the end of stream buffer has been handled
+     */
+    public boolean drain(long timeoutUs) {
+        if (mEndOfStream)
+            return true;
+
+        int index = mCodec.dequeueOutputBuffer(mBufferInfo, timeoutUs);
+
+        if (index == EncoderCodec.INFO_TRY_AGAIN_LATER) {
+            return false;
+        }
+        else if (index == EncoderCodec.INFO_OUTPUT_FORMAT_CHANGED) {
+            //only happens once, before any data, for video
+            if (mMuxerStarted)
+                throw new IllegalStateException("output format changed twice");
+
+            mTrackIndex = mMuxer.addTrack(mCodec.getOutputFormat());
+            mMuxer.start();
+            mMuxerStarted = true;
+            return false;
+        }
+        else if (index < 0) {
+            //INFO_OUTPUT_BUFFERS_CHANGED and friends, nothing to do since we fetch buffers by index
+            return false;
+        }
+
+        if ((mBufferInfo.flags & EncoderBufferInfo.BUFFER_FLAG_CODEC_CONFIG) != 0) {
+            mBufferInfo.size = 0;
+        }
+
+        if (mBufferInfo.size != 0) {
+            if (!mMuxerStarted)
+                throw new IllegalStateException("got encoded data before the output format");
+
+            ByteBuffer data = mCodec.getOutputBuffer(index);
+            data.position(mBufferInfo.offset);
+            data.limit(mBufferInfo.offset + mBufferInfo.size);
+
+            mMuxer.writeSampleData(mTrackIndex, data, mBufferInfo);
+            mSamplesWritten++;
+        }
+
+        mCodec.releaseOutputBuffer(index);
+
+        mEndOfStream = (mBufferInfo.flags & EncoderBufferInfo.BUFFER_FLAG_END_OF_STREAM) != 0;
+        return mEndOfStream;
+    }
+
+    /**
+     * Finalizes and releases the muxer. A muxer that never got a format is only released, since
+     * stopping it would throw.
+     */
+    public void finish() {
+        if (mReleased)
+            return;
+
+        try {
+            if (mMuxerStarted)
+                mMuxer.stop();
+        }
+        finally {
+            release();
+        }
+    }
+
+    /**
+     * Releases the muxer without finalizing it, for when the recording failed and the file is
+     * unusable anyway. Does nothing after {@link #finish()}.
+     */
+    public void abort() {
+        if (!mReleased)
+            release();
+    }
+
+    private void release() {
+        mReleased = true;
+        mMuxerStarted = false;
+        mMuxer.release();
+    }
+
+    public boolean isEndOfStream() {
+        return mEndOfStream;
+    }
+
+    public int getSamplesWritten() {
+        return mSamplesWritten;
+    }
+}
@@ -0,0 +1,21 @@
+package com.androidexperiments.shadercam.encoder;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The bits of {@code android.media.MediaMuxer} that {@link EncoderDrainer} writes through.
+ *
+ * @param <F> output format, as handed out by the {@link EncoderCodec}
+ */
+public interface EncoderMuxer<F>
+{
+    int addTrack(F format);
+
+    void start();
+
+    void writeSampleData(int trackIndex, ByteBuffer data, EncoderBufferInfo info);
+
+    void stop();
+
+    void release();
+}
@@ -0,0 +1,75 @@
+package com.androidexperiments.shadercam.encoder;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * What the user asked for with start/stop recording, flipped right away on the calling thread so
+ * starts and stops pair up without waiting for the render thread to act on them.
+ * <p>
+ * Every request bumps one counter, odd meaning recording. {@link #requestStart()} hands back the
+ * value it moved to as a token, and a start that fails later on the render thread only rolls the
+ * state back with {@link #startFailed(long)} if nothing has been requested since - otherwise a
+ * start that failed late could cancel a newer one made after it was stopped.
+ * <p>
+ * If the requests are passed on as commands, hold the lock on this object across the request and
+ * queueing the command, or a start can overtake the stop before it and reach the render thread
+ * while the previous recording is still running.
+ */
+public class RecordingRequests
+{
+    /**
+     * returned by {@link #requestStart()} if we were already recording. never a real token
+     */
+    public static final long NOT_STARTED = 0;
+
+    private final AtomicLong mState = new AtomicLong(0);
+
+    /**
+     * @return token to hand to {@link #startFailed(long)} if this start doesn't work out, or
+     *         {@link #NOT_STARTED} if a recording was already requested
+     */
+    public long requestStart()
+    {
+        while (true) {
+            long state = mState.get();
+            if (isRecording(state))
+                return NOT_STARTED;
+            if (mState.compareAndSet(state, state + 1))
+                return state + 1;
+        }
+    }
+
+    /**
+     * @return true if this call stopped a requested recording, false if there wasn't one
+     */
+    public boolean requestStop()
+    {
+        while (true) {
+            long state = mState.get();
+            if (!isRecording(state))
+                return false;
+            if (mState.compareAndSet(state, state + 1))
+                return true;
+        }
+    }
+
+    /**
+     * Undo the start with this token, unless it has been stopped or superseded since.
+     *
+     * @return true if the state was rolled back
+     */
+    public boolean startFailed(long token)
+    {
+        return token != NOT_STARTED && mState.compareAndSet(token, token + 1);
+    }
+
+    public boolean isRequested()
+    {
+        return isRecording(mState.get());
+    }
+
+    private static boolean isRecording(long state)
+    {
+        return (state & 1) != 0;
+    }
+}
@@ -0,0 +1,172 @@
+package com.androidexperiments.shadercam.gl;
+
+import java.nio.Buffer;
+
+/**
+ * The GL calls the render loop makes every frame, as an interface so they can be counted, traced,
+ * captured or recorded without a GPU. Signatures are the same as {@code GLES20}/{@code GLES30}.
+ * <p>
+ * Per-frame code in the library calls these on {@code Gl.api()}, partial texture updates included.
+ * One-off setup and teardown (gen, delete, compile, whole texture uploads) still calls GLES
+ * directly, there's nothing to gain from tracing it and it keeps this interface small.
+ * <p>
+ * Implementations: {@code DirectGlApi} (the default), {@code TracingGlApi} which wraps another
+ * one, and {@link RecordingGlApi} which needs no GL at all. This and the recorder live in
+ * shadercam-core so tests and benchmarks can use them on a plain JVM.
+ */
+public interface GlApi
+{
+    //state
+
+    void glUseProgram(int program);
+
+    void glActiveTexture(int texture);
+
+    void glBindTexture(int target, int texture);
+
+    void glBindFramebuffer(int target, int framebuffer);
+
+    void glViewport(int x, int y, int width, int height);
+
+    void glScissor(int x, int y, int width, int height);
+
+    void glEnable(int cap);
+
+    void glDisable(int cap);
+
+    void glBlendFunc(int sfactor, int dfactor);
+
+    void glClearColor(float red, float green, float blue, float alpha);
+
+    //uniforms
+
+    void glUniform1i(int location, int x);
+
+    void glUniform1f(int location, float x);
+
+    void glUniform2f(int location, float x, float y);
+
+    void glUniform3f(int location, float x, float y, float z);
+
+    void glUniform4f(int location, float x, float y, float z, float w);
+
+    void glUniformMatrix4fv(int location, int count, boolean transpose, float[] value, int offset);
+
+    //vertex data
+
+    void glBindBuffer(int target, int buffer);
+
+    void glBufferData(int target, int size, Buffer data, int usage);
+
+    void glBufferSubData(int target, int offset, int size, Buffer data);
+
+    /**
+     * GLES3 only
+     */
+    void glBindVertexArray(int array);
+
+    void glEnableVertexAttribArray(int index);
+
+    void glDisableVertexAttribArray(int index);
+
+    void glVertexAttribPointer(int index, int size, int type, boolean normalized, int stride, int offset);
+
+    void glVertexAttribPointer(int index, int size, int type, boolean normalized, int stride, Buffer ptr);
+
+    /**
+     * GLES3 only
+     */
+    void glVertexAttribDivisor(int index, int divisor);
+
+    //drawing
+
+    void glClear(int mask);
+
+    void glDrawArrays(int mode, int first, int count);
+
+    void glDrawElements(int mode, int count, int type, int offset);
+
+    void glDrawElements(int mode, int count, int type, Buffer indices);
+
+    /**
+     * GLES3 only
+     */
+    void glDrawArraysInstanced(int mode, int first, int count, int instanceCount);
+
+    //texture updates
+
+    void glPixelStorei(int pname, int param);
+
+    void glTexSubImage2D(int target, int level, int xoffset, int yoffset, int width, int height,
+                         int format, int type, Buffer pixels);
+
+    //copies and readback
+
+    /**
+     * GLES3 only
+     */
+    void glBlitFramebuffer(int srcX0, int srcY0, int srcX1, int srcY1,
+                           int dstX0, int dstY0, int dstX1, int dstY1, int mask, int filter);
+
+    void glCopyTexSubImage2D(int target, int level, int xoffset, int yoffset, int x, int y, int width, int height);
+
+    void glReadPixels(int x, int y, int width, int height, int format, int type, Buffer pixels);
+
+    /**
+     * into the bound pixel pack buffer, GLES3 only
+     */
+    void glReadPixels(int x, int y, int width, int height, int format, int type, int offset);
+
+    /**
+     * GLES3 only
+     */
+    Buffer glMapBufferRange(int target, int offset, int length, int access);
+
+    /**
+     * GLES3 only
+     */
+    boolean glUnmapBuffer(int target);
+
+    int glGetError();
+
+    //queries
+
+    void glGetIntegerv(int pname, int[] params, int offset);
+
+    /**
+     * GLES3 only, e.g. with {@code GL_TIME_ELAPSED_EXT}
+     */
+    void glBeginQuery(int target, int id);
+
+    /**
+     * GLES3 only
+     */
+    void glEndQuery(int target);
+
+    /**
+     * GLES3 only
+     */
+    void glGetQueryObjectuiv(int id, int pname, int[] params, int offset);
+
+    //not gl
+
+    /**
+     * Called by {@code CameraRenderer} before it draws anything for a frame.
+     *
+     * @param frameNumber counts up from 0 per renderer
+     */
+    void beginFrame(long frameNumber);
+
+    /**
+     * Called by {@code CameraRenderer} after the frame is drawn and swapped.
+     */
+    void endFrame();
+
+    /**
+     * Where hot paths used to call {@code GlUtil.checkGlError()}. Whether this actually
+     * calls glGetError is up to the implementation, {@code DirectGlApi} always does.
+     *
+     * @throws RuntimeException if it checked and there was an error
+     */
+    void checkError(String op);
+}
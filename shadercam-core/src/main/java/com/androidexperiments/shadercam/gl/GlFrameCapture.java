@@ -0,0 +1,160 @@
+package com.androidexperiments.shadercam.gl;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Command streams of whole frames, as captured by {@code TracingGlApi}, that can be written to a
+ * file, read back and replayed.
+ * <p>
+ * File layout, big endian: magic {@code "SCGL"}, int version, int frame count, then per frame
+ * long frame number, long duration in ns, int stream length and the {@link RecordingGlApi}
+ * stream itself (which is little endian inside).
+ * <p>
+ * A frame's commands only include what it changed, it relies on whatever state and objects the
+ * context had when it started. Replay into the context it was captured from, or into a
+ * {@link RecordingGlApi} to look at it.
+ */
+public class GlFrameCapture
+{
+    private static final int MAGIC = ('S' << 24) | ('C' << 16) | ('G' << 8) | 'L';
+    private static final int VERSION = 1;
+
+    public static class Frame
+    {
+        public final long frameNumber;
+        public final long durationNs;
+        public final RecordingGlApi commands;
+
+        public Frame(long frameNumber, long durationNs, RecordingGlApi commands)
+        {
+            this.frameNumber = frameNumber;
+            this.durationNs = durationNs;
+            this.commands = commands;
+        }
+
+        @Override
+        public String toString()
+        {
+            return "frame " + frameNumber + ": " + durationNs / 1000 + "us, " + commands.getCommandCount()
+                    + " calls, " + commands.getDrawCallCount() + " draws, " + commands.getByteCount() + " bytes";
+        }
+    }
+
+    private final ArrayList<Frame> mFrames = new ArrayList<>();
+
+    public GlFrameCapture() {}
+
+    /**
+     * @param frames copied, later changes to the list don't show up here
+     */
+    public GlFrameCapture(List<Frame> frames)
+    {
+        mFrames.addAll(frames);
+    }
+
+    public void add(Frame frame)
+    {
+        mFrames.add(frame);
+    }
+
+    public List<Frame> getFrames()
+    {
+        return Collections.unmodifiableList(mFrames);
+    }
+
+    public int size()
+    {
+        return mFrames.size();
+    }
+
+    /**
+     * Makes the calls of frame {@code index} (not frame number) again on {@code target}.
+     */
+    public void replay(int index, GlApi target)
+    {
+        mFrames.get(index).commands.replay(target);
+    }
+
+    public void write(File file) throws IOException
+    {
+        OutputStream out = new BufferedOutputStream(new FileOutputStream(file));
+        try {
+            write(out);
+        }
+        finally {
+            out.close();
+        }
+    }
+
+    public void write(OutputStream stream) throws IOException
+    {
+        DataOutputStream out = new DataOutputStream(stream);
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(mFrames.size());
+
+        for (Frame frame : mFrames) {
+            ByteBuffer commands = frame.commands.getStream();
+            out.writeLong(frame.frameNumber);
+            out.writeLong(frame.durationNs);
+            out.writeInt(commands.remaining());
+            out.write(commands.array(), commands.arrayOffset() + commands.position(), commands.remaining());
+        }
+        out.flush();
+    }
+
+    public static GlFrameCapture read(File file) throws IOException
+    {
+        InputStream in = new BufferedInputStream(new FileInputStream(file));
+        try {
+            return read(in);
+        }
+        finally {
+            in.close();
+        }
+    }
+
+    public static GlFrameCapture read(InputStream stream) throws IOException
+    {
+        DataInputStream in = new DataInputStream(stream);
+        if (in.readInt() != MAGIC)
+            throw new IOException("not a frame capture");
+        int version = in.readInt();
+        if (version != VERSION)
+            throw new IOException("unsupported frame capture version " + version);
+
+        GlFrameCapture capture = new GlFrameCapture();
+        int count = in.readInt();
+        for (int i = 0; i < count; i++) {
+            long frameNumber = in.readLong();
+            long durationNs = in.readLong();
+            byte[] bytes = new byte[in.readInt()];
+            in.readFully(bytes);
+
+            //recording the replay gets us the call counts back, and checks the stream while at it
+            RecordingGlApi commands = new RecordingGlApi();
+            try {
+                RecordingGlApi.replay(ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN), commands);
+            }
+            catch (RuntimeException e) {
+                throw new IOException("frame " + frameNumber + " is corrupt", e);
+            }
+            capture.add(new Frame(frameNumber, durationNs, commands));
+        }
+        return capture;
+    }
+}
@@ -0,0 +1,979 @@
+package com.androidexperiments.shadercam.gl;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
+import java.util.Arrays;
+
+/**
+ * A {@link GlApi} that makes no GL calls, it writes each one into a compact binary command stream
+ * instead. {@link #replay(GlApi)} plays the stream into another api, e.g. a {@code DirectGlApi}
+ * to redraw a captured frame, or a fresh recorder.
+ * <p>
+ * Doesn't touch any framework class, so with {@code Gl.setApi()} the render loop can run in
+ * plain JVM tests and benchmarks and the result checked with {@link #getCallCount(int)} or
+ * {@link #toString()}. {@link #glGetError()} always reports no error,
+ * {@link #glMapBufferRange(int, int, int, int)} hands out zeroed memory, glGetIntegerv returns 0
+ * and every query has its result, 0, available right away.
+ * <p>
+ * Buffer arguments are recorded by value, from their position to their limit (or the size passed
+ * along with them), so they can be changed afterwards. Object names are recorded as they are,
+ * replaying only makes sense into the context that created them or into something that doesn't
+ * care, like another recorder. Not thread safe, same as GL.
+ */
+public class RecordingGlApi implements GlApi
+{
+    public static final int OP_USE_PROGRAM = 1;
+    public static final int OP_ACTIVE_TEXTURE = 2;
+    public static final int OP_BIND_TEXTURE = 3;
+    public static final int OP_BIND_FRAMEBUFFER = 4;
+    public static final int OP_VIEWPORT = 5;
+    public static final int OP_SCISSOR = 6;
+    public static final int OP_ENABLE = 7;
+    public static final int OP_DISABLE = 8;
+    public static final int OP_BLEND_FUNC = 9;
+    public static final int OP_CLEAR_COLOR = 10;
+    public static final int OP_UNIFORM_1I = 11;
+    public static final int OP_UNIFORM_1F = 12;
+    public static final int OP_UNIFORM_2F = 13;
+    public static final int OP_UNIFORM_3F = 14;
+    public static final int OP_UNIFORM_4F = 15;
+    public static final int OP_UNIFORM_MATRIX_4FV = 16;
+    public static final int OP_BIND_BUFFER = 17;
+    public static final int OP_BUFFER_DATA = 18;
+    public static final int OP_BUFFER_SUB_DATA = 19;
+    public static final int OP_BIND_VERTEX_ARRAY = 20;
+    public static final int OP_ENABLE_VERTEX_ATTRIB_ARRAY = 21;
+    public static final int OP_DISABLE_VERTEX_ATTRIB_ARRAY = 22;
+    public static final int OP_VERTEX_ATTRIB_POINTER = 23;
+    public static final int OP_VERTEX_ATTRIB_POINTER_CLIENT = 24;
+    public static final int OP_CLEAR = 25;
+    public static final int OP_DRAW_ARRAYS = 26;
+    public static final int OP_DRAW_ELEMENTS = 27;
+    public static final int OP_DRAW_ELEMENTS_CLIENT = 28;
+    public static final int OP_BLIT_FRAMEBUFFER = 29;
+    public static final int OP_COPY_TEX_SUB_IMAGE_2D = 30;
+    public static final int OP_READ_PIXELS = 31;
+    public static final int OP_READ_PIXELS_PBO = 32;
+    public static final int OP_MAP_BUFFER_RANGE = 33;
+    public static final int OP_UNMAP_BUFFER = 34;
+    public static final int OP_GET_ERROR = 35;
+    public static final int OP_VERTEX_ATTRIB_DIVISOR = 36;
+    public static final int OP_DRAW_ARRAYS_INSTANCED = 37;
+    public static final int OP_PIXEL_STOREI = 38;
+    public static final int OP_TEX_SUB_IMAGE_2D = 39;
+    public static final int OP_GET_INTEGERV = 40;
+    public static final int OP_BEGIN_QUERY = 41;
+    public static final int OP_END_QUERY = 42;
+    public static final int OP_GET_QUERY_OBJECTUIV = 43;
+
+    /**
+     * one past the largest op
+     */
+    public static final int OP_COUNT = 44;
+
+    private static final String[] OP_NAMES = new String[OP_COUNT];
+
+    /**
+     * argument layout per op: i int, f float, z boolean, F float array, B buffer contents,
+     * O output buffer (size only)
+     */
+    private static final String[] OP_ARGS = new String[OP_COUNT];
+
+    private static final int KIND_CHANGES_STATE = 1;
+    private static final int KIND_UNIFORM = 2;
+    private static final int KIND_DRAW = 3;
+    private static final int KIND_OTHER = 4;
+
+    private static final int[] OP_KINDS = new int[OP_COUNT];
+
+    static {
+        op(OP_USE_PROGRAM, "glUseProgram", "i", KIND_CHANGES_STATE);
+        op(OP_ACTIVE_TEXTURE, "glActiveTexture", "i", KIND_CHANGES_STATE);
+        op(OP_BIND_TEXTURE, "glBindTexture", "ii", KIND_CHANGES_STATE);
+        op(OP_BIND_FRAMEBUFFER, "glBindFramebuffer", "ii", KIND_CHANGES_STATE);
+        op(OP_VIEWPORT, "glViewport", "iiii", KIND_CHANGES_STATE);
+        op(OP_SCISSOR, "glScissor", "iiii", KIND_CHANGES_STATE);
+        op(OP_ENABLE, "glEnable", "i", KIND_CHANGES_STATE);
+        op(OP_DISABLE, "glDisable", "i", KIND_CHANGES_STATE);
+        op(OP_BLEND_FUNC, "glBlendFunc", "ii", KIND_CHANGES_STATE);
+        op(OP_CLEAR_COLOR, "glClearColor", "ffff", KIND_CHANGES_STATE);
+        op(OP_UNIFORM_1I, "glUniform1i", "ii", KIND_UNIFORM);
+        op(OP_UNIFORM_1F, "glUniform1f", "if", KIND_UNIFORM);
+        op(OP_UNIFORM_2F, "glUniform2f", "iff", KIND_UNIFORM);
+        op(OP_UNIFORM_3F, "glUniform3f", "ifff", KIND_UNIFORM);
+        op(OP_UNIFORM_4F, "glUniform4f", "iffff", KIND_UNIFORM);
+        op(OP_UNIFORM_MATRIX_4FV, "glUniformMatrix4fv", "iizF", KIND_UNIFORM);
+        op(OP_BIND_BUFFER, "glBindBuffer", "ii", KIND_CHANGES_STATE);
+        op(OP_BUFFER_DATA, "glBufferData", "iiBi", KIND_OTHER);
+        op(OP_BUFFER_SUB_DATA, "glBufferSubData", "iiiB", KIND_OTHER);
+        op(OP_BIND_VERTEX_ARRAY, "glBindVertexArray", "i", KIND_CHANGES_STATE);
+        op(OP_ENABLE_VERTEX_ATTRIB_ARRAY, "glEnableVertexAttribArray", "i", KIND_CHANGES_STATE);
+        op(OP_DISABLE_VERTEX_ATTRIB_ARRAY, "glDisableVertexAttribArray", "i", KIND_CHANGES_STATE);
+        op(OP_VERTEX_ATTRIB_POINTER, "glVertexAttribPointer", "iiizii", KIND_CHANGES_STATE);
+        op(OP_VERTEX_ATTRIB_POINTER_CLIENT, "glVertexAttribPointer", "iiiziB", KIND_CHANGES_STATE);
+        op(OP_CLEAR, "glClear", "i", KIND_OTHER);
+        op(OP_DRAW_ARRAYS, "glDrawArrays", "iii", KIND_DRAW);
+        op(OP_DRAW_ELEMENTS, "glDrawElements", "iiii", KIND_DRAW);
+        op(OP_DRAW_ELEMENTS_CLIENT, "glDrawElements", "iiiB", KIND_DRAW);
+        op(OP_BLIT_FRAMEBUFFER, "glBlitFramebuffer", "iiiiiiiiii", KIND_OTHER);
+        op(OP_COPY_TEX_SUB_IMAGE_2D, "glCopyTexSubImage2D", "iiiiiiii", KIND_OTHER);
+        op(OP_READ_PIXELS, "glReadPixels", "iiiiiiO", KIND_OTHER);
+        op(OP_READ_PIXELS_PBO, "glReadPixels", "iiiiiii", KIND_OTHER);
+        op(OP_MAP_BUFFER_RANGE, "glMapBufferRange", "iiii", KIND_OTHER);
+        op(OP_UNMAP_BUFFER, "glUnmapBuffer", "i", KIND_OTHER);
+        op(OP_GET_ERROR, "glGetError", "", KIND_OTHER);
+        op(OP_VERTEX_ATTRIB_DIVISOR, "glVertexAttribDivisor", "ii", KIND_CHANGES_STATE);
+        op(OP_DRAW_ARRAYS_INSTANCED, "glDrawArraysInstanced", "iiii", KIND_DRAW);
+        op(OP_PIXEL_STOREI, "glPixelStorei", "ii", KIND_CHANGES_STATE);
+        op(OP_TEX_SUB_IMAGE_2D, "glTexSubImage2D", "iiiiiiiiB", KIND_OTHER);
+        op(OP_GET_INTEGERV, "glGetIntegerv", "i", KIND_OTHER);
+        op(OP_BEGIN_QUERY, "glBeginQuery", "ii", KIND_OTHER);
+        op(OP_END_QUERY, "glEndQuery", "i", KIND_OTHER);
+        op(OP_GET_QUERY_OBJECTUIV, "glGetQueryObjectuiv", "ii", KIND_OTHER);
+    }
+
+    private static final int BUFFER_NULL = 0;
+    private static final int BUFFER_BYTE = 1;
+    private static final int BUFFER_SHORT = 2;
+    private static final int BUFFER_INT = 3;
+    private static final int BUFFER_FLOAT = 4;
+
+    private static final int INITIAL_CAPACITY = 4096;
+
+    /**
+     * value of GL_NO_ERROR, without pulling in GLES20
+     */
+    private static final int NO_ERROR = 0;
+
+    /**
+     * value of GL_QUERY_RESULT_AVAILABLE, without pulling in GLES30
+     */
+    private static final int QUERY_RESULT_AVAILABLE = 0x8867;
+
+    private ByteBuffer mBytes = newStream(INITIAL_CAPACITY);
+    private int mCommandCount = 0;
+    private final int[] mCallCounts = new int[OP_COUNT];
+    private int mFrameCount = 0;
+
+    private static void op(int op, String name, String args, int kind)
+    {
+        OP_NAMES[op] = name;
+        OP_ARGS[op] = args;
+        OP_KINDS[op] = kind;
+    }
+
+    public static String getOpName(int op)
+    {
+        return op > 0 && op < OP_COUNT ? OP_NAMES[op] : "op" + op;
+    }
+
+    /**
+     * @return true for binds, enables, pointers and the like, uniforms not included
+     */
+    public static boolean isStateChange(int op)
+    {
+        return op > 0 && op < OP_COUNT && OP_KINDS[op] == KIND_CHANGES_STATE;
+    }
+
+    public static boolean isUniform(int op)
+    {
+        return op > 0 && op < OP_COUNT && OP_KINDS[op] == KIND_UNIFORM;
+    }
+
+    public static boolean isDrawCall(int op)
+    {
+        return op > 0 && op < OP_COUNT && OP_KINDS[op] == KIND_DRAW;
+    }
+
+    /**
+     * Forgets everything recorded so far.
+     */
+    public void clear()
+    {
+        mBytes.clear();
+        mCommandCount = 0;
+        Arrays.fill(mCallCounts, 0);
+        mFrameCount = 0;
+    }
+
+    public int getCommandCount()
+    {
+        return mCommandCount;
+    }
+
+    /**
+     * @return size of the recorded stream
+     */
+    public int getByteCount()
+    {
+        return mBytes.position();
+    }
+
+    /**
+     * @param op one of the OP_ constants
+     */
+    public int getCallCount(int op)
+    {
+        return op > 0 && op < OP_COUNT ? mCallCounts[op] : 0;
+    }
+
+    public int getDrawCallCount()
+    {
+        int count = 0;
+        for (int op = 1; op < OP_COUNT; op++) {
+            if (isDrawCall(op))
+                count += mCallCounts[op];
+        }
+        return count;
+    }
+
+    /**
+     * @return calls {@link #isStateChange(int)} or {@link #isUniform(int)} is true for
+     */
+    public int getStateChangeCount()
+    {
+        int count = 0;
+        for (int op = 1; op < OP_COUNT; op++) {
+            if (isStateChange(op) || isUniform(op))
+                count += mCallCounts[op];
+        }
+        return count;
+    }
+
+    /**
+     * @return how many times {@link #beginFrame(long)} was called since the last {@link #clear()}
+     */
+    public int getFrameCount()
+    {
+        return mFrameCount;
+    }
+
+    /**
+     * @return a recorder holding the same commands, trimmed to size
+     */
+    public RecordingGlApi copy()
+    {
+        RecordingGlApi copy = new RecordingGlApi();
+        copy.mBytes = newStream(Math.max(mBytes.position(), 1));
+        copy.mBytes.put(getStream());
+        copy.mCommandCount = mCommandCount;
+        System.arraycopy(mCallCounts, 0, copy.mCallCounts, 0, OP_COUNT);
+        copy.mFrameCount = mFrameCount;
+        return copy;
+    }
+
+    /**
+     * Makes every recorded call again, in order, on {@code target}.
+     */
+    public void replay(GlApi target)
+    {
+        replay(getStream(), target);
+    }
+
+    /**
+     * @return the recorded commands, one per line
+     */
+    @Override
+    public String toString()
+    {
+        StringBuilder out = new StringBuilder();
+        ByteBuffer in = getStream();
+        while (in.hasRemaining()) {
+            int op = in.get();
+            if (op <= 0 || op >= OP_COUNT)
+                throw new IllegalStateException("bad op " + op + " at " + (in.position() - 1));
+
+            out.append(OP_NAMES[op]).append('(');
+            String args = OP_ARGS[op];
+            for (int i = 0; i < args.length(); i++) {
+                if (i > 0)
+                    out.append(", ");
+                switch (args.charAt(i)) {
+                    case 'i':
+                        out.append(in.getInt());
+                        break;
+                    case 'f':
+                        out.append(in.getFloat());
+                        break;
+                    case 'z':
+                        out.append(in.get() != 0);
+                        break;
+                    case 'F': {
+                        int length = in.getInt();
+                        in.position(in.position() + length * 4);
+                        out.append("float[").append(length).append(']');
+                        break;
+                    }
+                    case 'B':
+                    case 'O': {
+                        int kind = in.get();
+                        int count = in.getInt();
+                        if (args.charAt(i) == 'B')
+                            in.position(in.position() + count * elementSize(kind));
+                        out.append(kind == BUFFER_NULL ? "null" : "buffer[" + count + "]");
+                        break;
+                    }
+                }
+            }
+            out.append(")\n");
+        }
+        return out.toString();
+    }
+
+    /**
+     * the stream as written so far, for reading
+     */
+    ByteBuffer getStream()
+    {
+        ByteBuffer stream = mBytes.duplicate();
+        stream.order(ByteOrder.LITTLE_ENDIAN);
+        stream.flip();
+        return stream;
+    }
+
+    static void replay(ByteBuffer in, GlApi target)
+    {
+        while (in.hasRemaining()) {
+            int op = in.get();
+            switch (op) {
+                case OP_USE_PROGRAM:
+                    target.glUseProgram(in.getInt());
+                    break;
+                case OP_ACTIVE_TEXTURE:
+                    target.glActiveTexture(in.getInt());
+                    break;
+                case OP_BIND_TEXTURE:
+                    target.glBindTexture(in.getInt(), in.getInt());
+                    break;
+                case OP_BIND_FRAMEBUFFER:
+                    target.glBindFramebuffer(in.getInt(), in.getInt());
+                    break;
+                case OP_VIEWPORT:
+                    target.glViewport(in.getInt(), in.getInt(), in.getInt(), in.getInt());
+                    break;
+                case OP_SCISSOR:
+                    target.glScissor(in.getInt(), in.getInt(), in.getInt(), in.getInt());
+                    break;
+                case OP_ENABLE:
+                    target.glEnable(in.getInt());
+                    break;
+                case OP_DISABLE:
+                    target.glDisable(in.getInt());
+                    break;
+                case OP_BLEND_FUNC:
+                    target.glBlendFunc(in.getInt(), in.getInt());
+                    break;
+                case OP_CLEAR_COLOR:
+                    target.glClearColor(in.getFloat(), in.getFloat(), in.getFloat(), in.getFloat());
+                    break;
+                case OP_UNIFORM_1I:
+                    target.glUniform1i(in.getInt(), in.getInt());
+                    break;
+                case OP_UNIFORM_1F:
+                    target.glUniform1f(in.getInt(), in.getFloat());
+                    break;
+                case OP_UNIFORM_2F:
+                    target.glUniform2f(in.getInt(), in.getFloat(), in.getFloat());
+                    break;
+                case OP_UNIFORM_3F:
+                    target.glUniform3f(in.getInt(), in.getFloat(), in.getFloat(), in.getFloat());
+                    break;
+                case OP_UNIFORM_4F:
+                    target.glUniform4f(in.getInt(), in.getFloat(), in.getFloat(), in.getFloat(), in.getFloat());
+                    break;
+                case OP_UNIFORM_MATRIX_4FV: {
+                    int location = in.getInt();
+                    int count = in.getInt();
+                    boolean transpose = in.get() != 0;
+                    target.glUniformMatrix4fv(location, count, transpose, readFloats(in), 0);
+                    break;
+                }
+                case OP_BIND_BUFFER:
+                    target.glBindBuffer(in.getInt(), in.getInt());
+                    break;
+                case OP_BUFFER_DATA: {
+                    int bufferTarget = in.getInt();
+                    int size = in.getInt();
+                    Buffer data = readBuffer(in, true);
+                    target.glBufferData(bufferTarget, size, data, in.getInt());
+                    break;
+                }
+                case OP_BUFFER_SUB_DATA:
+                    target.glBufferSubData(in.getInt(), in.getInt(), in.getInt(), readBuffer(in, true));
+                    break;
+                case OP_BIND_VERTEX_ARRAY:
+                    target.glBindVertexArray(in.getInt());
+                    break;
+                case OP_ENABLE_VERTEX_ATTRIB_ARRAY:
+                    target.glEnableVertexAttribArray(in.getInt());
+                    break;
+                case OP_DISABLE_VERTEX_ATTRIB_ARRAY:
+                    target.glDisableVertexAttribArray(in.getInt());
+                    break;
+                case OP_VERTEX_ATTRIB_POINTER:
+                    target.glVertexAttribPointer(in.getInt(), in.getInt(), in.getInt(), in.get() != 0, in.getInt(), in.getInt());
+                    break;
+                case OP_VERTEX_ATTRIB_POINTER_CLIENT:
+                    target.glVertexAttribPointer(in.getInt(), in.getInt(), in.getInt(), in.get() != 0, in.getInt(), readBuffer(in, true));
+                    break;
+                case OP_CLEAR:
+                    target.glClear(in.getInt());
+                    break;
+                case OP_DRAW_ARRAYS:
+                    target.glDrawArrays(in.getInt(), in.getInt(), in.getInt());
+                    break;
+                case OP_DRAW_ELEMENTS:
+                    target.glDrawElements(in.getInt(), in.getInt(), in.getInt(), in.getInt());
+                    break;
+                case OP_DRAW_ELEMENTS_CLIENT:
+                    target.glDrawElements(in.getInt(), in.getInt(), in.getInt(), readBuffer(in, true));
+                    break;
+                case OP_BLIT_FRAMEBUFFER:
+                    target.glBlitFramebuffer(in.getInt(), in.getInt(), in.getInt(), in.getInt(),
+                            in.getInt(), in.getInt(), in.getInt(), in.getInt(), in.getInt(), in.getInt());
+                    break;
+                case OP_COPY_TEX_SUB_IMAGE_2D:
+                    target.glCopyTexSubImage2D(in.getInt(), in.getInt(), in.getInt(), in.getInt(),
+                            in.getInt(), in.getInt(), in.getInt(), in.getInt());
+                    break;
+                case OP_READ_PIXELS:
+                    target.glReadPixels(in.getInt(), in.getInt(), in.getInt(), in.getInt(), in.getInt(), in.getInt(), readBuffer(in, false));
+                    break;
+                case OP_READ_PIXELS_PBO:
+                    target.glReadPixels(in.getInt(), in.getInt(), in.getInt(), in.getInt(), in.getInt(), in.getInt(), in.getInt());
+                    break;
+                case OP_MAP_BUFFER_RANGE:
+                    target.glMapBufferRange(in.getInt(), in.getInt(), in.getInt(), in.getInt());
+                    break;
+                case OP_UNMAP_BUFFER:
+                    target.glUnmapBuffer(in.getInt());
+                    break;
+                case OP_GET_ERROR:
+                    target.glGetError();
+                    break;
+                case OP_VERTEX_ATTRIB_DIVISOR:
+                    target.glVertexAttribDivisor(in.getInt(), in.getInt());
+                    break;
+                case OP_DRAW_ARRAYS_INSTANCED:
+                    target.glDrawArraysInstanced(in.getInt(), in.getInt(), in.getInt(), in.getInt());
+                    break;
+                case OP_PIXEL_STOREI:
+                    target.glPixelStorei(in.getInt(), in.getInt());
+                    break;
+                case OP_TEX_SUB_IMAGE_2D:
+                    target.glTexSubImage2D(in.getInt(), in.getInt(), in.getInt(), in.getInt(), in.getInt(), in.getInt(),
+                            in.getInt(), in.getInt(), readBuffer(in, true));
+                    break;
+                case OP_GET_INTEGERV:
+                    target.glGetIntegerv(in.getInt(), new int[1], 0);
+                    break;
+                case OP_BEGIN_QUERY:
+                    target.glBeginQuery(in.getInt(), in.getInt());
+                    break;
+                case OP_END_QUERY:
+                    target.glEndQuery(in.getInt());
+                    break;
+                case OP_GET_QUERY_OBJECTUIV:
+                    target.glGetQueryObjectuiv(in.getInt(), in.getInt(), new int[1], 0);
+                    break;
+                default:
+                    throw new IllegalStateException("bad op " + op + " at " + (in.position() - 1));
+            }
+        }
+    }
+
+    //recording
+
+    @Override
+    public void glUseProgram(int program)
+    {
+        begin(OP_USE_PROGRAM, 4);
+        mBytes.putInt(program);
+    }
+
+    @Override
+    public void glActiveTexture(int texture)
+    {
+        begin(OP_ACTIVE_TEXTURE, 4);
+        mBytes.putInt(texture);
+    }
+
+    @Override
+    public void glBindTexture(int target, int texture)
+    {
+        begin(OP_BIND_TEXTURE, 8);
+        mBytes.putInt(target).putInt(texture);
+    }
+
+    @Override
+    public void glBindFramebuffer(int target, int framebuffer)
+    {
+        begin(OP_BIND_FRAMEBUFFER, 8);
+        mBytes.putInt(target).putInt(framebuffer);
+    }
+
+    @Override
+    public void glViewport(int x, int y, int width, int height)
+    {
+        begin(OP_VIEWPORT, 16);
+        mBytes.putInt(x).putInt(y).putInt(width).putInt(height);
+    }
+
+    @Override
+    public void glScissor(int x, int y, int width, int height)
+    {
+        begin(OP_SCISSOR, 16);
+        mBytes.putInt(x).putInt(y).putInt(width).putInt(height);
+    }
+
+    @Override
+    public void glEnable(int cap)
+    {
+        begin(OP_ENABLE, 4);
+        mBytes.putInt(cap);
+    }
+
+    @Override
+    public void glDisable(int cap)
+    {
+        begin(OP_DISABLE, 4);
+        mBytes.putInt(cap);
+    }
+
+    @Override
+    public void glBlendFunc(int sfactor, int dfactor)
+    {
+        begin(OP_BLEND_FUNC, 8);
+        mBytes.putInt(sfactor).putInt(dfactor);
+    }
+
+    @Override
+    public void glClearColor(float red, float green, float blue, float alpha)
+    {
+        begin(OP_CLEAR_COLOR, 16);
+        mBytes.putFloat(red).putFloat(green).putFloat(blue).putFloat(alpha);
+    }
+
+    @Override
+    public void glUniform1i(int location, int x)
+    {
+        begin(OP_UNIFORM_1I, 8);
+        mBytes.putInt(location).putInt(x);
+    }
+
+    @Override
+    public void glUniform1f(int location, float x)
+    {
+        begin(OP_UNIFORM_1F, 8);
+        mBytes.putInt(location).putFloat(x);
+    }
+
+    @Override
+    public void glUniform2f(int location, float x, float y)
+    {
+        begin(OP_UNIFORM_2F, 12);
+        mBytes.putInt(location).putFloat(x).putFloat(y);
+    }
+
+    @Override
+    public void glUniform3f(int location, float x, float y, float z)
+    {
+        begin(OP_UNIFORM_3F, 16);
+        mBytes.putInt(location).putFloat(x).putFloat(y).putFloat(z);
+    }
+
+    @Override
+    public void glUniform4f(int location, float x, float y, float z, float w)
+    {
+        begin(OP_UNIFORM_4F, 20);
+        mBytes.putInt(location).putFloat(x).putFloat(y).putFloat(z).putFloat(w);
+    }
+
+    @Override
+    public void glUniformMatrix4fv(int location, int count, boolean transpose, float[] value, int offset)
+    {
+        int length = count * 16;
+        begin(OP_UNIFORM_MATRIX_4FV, 13 + length * 4);
+        mBytes.putInt(location).putInt(count).put((byte) (transpose ? 1 : 0));
+        mBytes.putInt(length);
+        for (int i = 0; i < length; i++)
+            mBytes.putFloat(value[offset + i]);
+    }
+
+    @Override
+    public void glBindBuffer(int target, int buffer)
+    {
+        begin(OP_BIND_BUFFER, 8);
+        mBytes.putInt(target).putInt(buffer);
+    }
+
+    @Override
+    public void glBufferData(int target, int size, Buffer data, int usage)
+    {
+        begin(OP_BUFFER_DATA, 8);
+        mBytes.putInt(target).putInt(size);
+        putBuffer(data, size, true);
+        ensure(4);
+        mBytes.putInt(usage);
+    }
+
+    @Override
+    public void glBufferSubData(int target, int offset, int size, Buffer data)
+    {
+        begin(OP_BUFFER_SUB_DATA, 12);
+        mBytes.putInt(target).putInt(offset).putInt(size);
+        putBuffer(data, size, true);
+    }
+
+    @Override
+    public void glBindVertexArray(int array)
+    {
+        begin(OP_BIND_VERTEX_ARRAY, 4);
+        mBytes.putInt(array);
+    }
+
+    @Override
+    public void glEnableVertexAttribArray(int index)
+    {
+        begin(OP_ENABLE_VERTEX_ATTRIB_ARRAY, 4);
+        mBytes.putInt(index);
+    }
+
+    @Override
+    public void glDisableVertexAttribArray(int index)
+    {
+        begin(OP_DISABLE_VERTEX_ATTRIB_ARRAY, 4);
+        mBytes.putInt(index);
+    }
+
+    @Override
+    public void glVertexAttribPointer(int index, int size, int type, boolean normalized, int stride, int offset)
+    {
+        begin(OP_VERTEX_ATTRIB_POINTER, 21);
+        mBytes.putInt(index).putInt(size).putInt(type).put((byte) (normalized ? 1 : 0)).putInt(stride).putInt(offset);
+    }
+
+    @Override
+    public void glVertexAttribPointer(int index, int size, int type, boolean normalized, int stride, Buffer ptr)
+    {
+        begin(OP_VERTEX_ATTRIB_POINTER_CLIENT, 17);
+        mBytes.putInt(index).putInt(size).putInt(type).put((byte) (normalized ? 1 : 0)).putInt(stride);
+        putBuffer(ptr, -1, true);
+    }
+
+    @Override
+    public void glVertexAttribDivisor(int index, int divisor)
+    {
+        begin(OP_VERTEX_ATTRIB_DIVISOR, 8);
+        mBytes.putInt(index).putInt(divisor);
+    }
+
+    @Override
+    public void glClear(int mask)
+    {
+        begin(OP_CLEAR, 4);
+        mBytes.putInt(mask);
+    }
+
+    @Override
+    public void glDrawArrays(int mode, int first, int count)
+    {
+        begin(OP_DRAW_ARRAYS, 12);
+        mBytes.putInt(mode).putInt(first).putInt(count);
+    }
+
+    @Override
+    public void glDrawElements(int mode, int count, int type, int offset)
+    {
+        begin(OP_DRAW_ELEMENTS, 16);
+        mBytes.putInt(mode).putInt(count).putInt(type).putInt(offset);
+    }
+
+    @Override
+    public void glDrawElements(int mode, int count, int type, Buffer indices)
+    {
+        begin(OP_DRAW_ELEMENTS_CLIENT, 12);
+        mBytes.putInt(mode).putInt(count).putInt(type);
+        putBuffer(indices, -1, true);
+    }
+
+    @Override
+    public void glDrawArraysInstanced(int mode, int first, int count, int instanceCount)
+    {
+        begin(OP_DRAW_ARRAYS_INSTANCED, 16);
+        mBytes.putInt(mode).putInt(first).putInt(count).putInt(instanceCount);
+    }
+
+    @Override
+    public void glBlitFramebuffer(int srcX0, int srcY0, int srcX1, int srcY1,
+                                  int dstX0, int dstY0, int dstX1, int dstY1, int mask, int filter)
+    {
+        begin(OP_BLIT_FRAMEBUFFER, 40);
+        mBytes.putInt(srcX0).putInt(srcY0).putInt(srcX1).putInt(srcY1);
+        mBytes.putInt(dstX0).putInt(dstY0).putInt(dstX1).putInt(dstY1);
+        mBytes.putInt(mask).putInt(filter);
+    }
+
+    @Override
+    public void glPixelStorei(int pname, int param)
+    {
+        begin(OP_PIXEL_STOREI, 8);
+        mBytes.putInt(pname).putInt(param);
+    }
+
+    /**
+     * Records the pixels from the buffer's position to its limit, we don't track the unpack
+     * state that says how much of that GL would actually read.
+     */
+    @Override
+    public void glTexSubImage2D(int target, int level, int xoffset, int yoffset, int width, int height,
+                                int format, int type, Buffer pixels)
+    {
+        begin(OP_TEX_SUB_IMAGE_2D, 32);
+        mBytes.putInt(target).putInt(level).putInt(xoffset).putInt(yoffset);
+        mBytes.putInt(width).putInt(height).putInt(format).putInt(type);
+        putBuffer(pixels, -1, true);
+    }
+
+    @Override
+    public void glCopyTexSubImage2D(int target, int level, int xoffset, int yoffset, int x, int y, int width, int height)
+    {
+        begin(OP_COPY_TEX_SUB_IMAGE_2D, 32);
+        mBytes.putInt(target).putInt(level).putInt(xoffset).putInt(yoffset);
+        mBytes.putInt(x).putInt(y).putInt(width).putInt(height);
+    }
+
+    @Override
+    public void glReadPixels(int x, int y, int width, int height, int format, int type, Buffer pixels)
+    {
+        begin(OP_READ_PIXELS, 24);
+        mBytes.putInt(x).putInt(y).putInt(width).putInt(height).putInt(format).putInt(type);
+        putBuffer(pixels, -1, false);
+    }
+
+    @Override
+    public void glReadPixels(int x, int y, int width, int height, int format, int type, int offset)
+    {
+        begin(OP_READ_PIXELS_PBO, 28);
+        mBytes.putInt(x).putInt(y).putInt(width).putInt(height).putInt(format).putInt(type).putInt(offset);
+    }
+
+    @Override
+    public Buffer glMapBufferRange(int target, int offset, int length, int access)
+    {
+        begin(OP_MAP_BUFFER_RANGE, 16);
+        mBytes.putInt(target).putInt(offset).putInt(length).putInt(access);
+        return ByteBuffer.allocateDirect(length).order(ByteOrder.nativeOrder());
+    }
+
+    @Override
+    public boolean glUnmapBuffer(int target)
+    {
+        begin(OP_UNMAP_BUFFER, 4);
+        mBytes.putInt(target);
+        return true;
+    }
+
+    @Override
+    public int glGetError()
+    {
+        begin(OP_GET_ERROR, 0);
+        return NO_ERROR;
+    }
+
+    @Override
+    public void glGetIntegerv(int pname, int[] params, int offset)
+    {
+        begin(OP_GET_INTEGERV, 4);
+        mBytes.putInt(pname);
+        params[offset] = 0;
+    }
+
+    @Override
+    public void glBeginQuery(int target, int id)
+    {
+        begin(OP_BEGIN_QUERY, 8);
+        mBytes.putInt(target).putInt(id);
+    }
+
+    @Override
+    public void glEndQuery(int target)
+    {
+        begin(OP_END_QUERY, 4);
+        mBytes.putInt(target);
+    }
+
+    @Override
+    public void glGetQueryObjectuiv(int id, int pname, int[] params, int offset)
+    {
+        begin(OP_GET_QUERY_OBJECTUIV, 8);
+        mBytes.putInt(id).putInt(pname);
+        params[offset] = pname == QUERY_RESULT_AVAILABLE ? 1 : 0;
+    }
+
+    @Override
+    public void beginFrame(long frameNumber)
+    {
+        mFrameCount++;
+    }
+
+    @Override
+    public void endFrame() {}
+
+    @Override
+    public void checkError(String op) {}
+
+    private void begin(int op, int argBytes)
+    {
+        ensure(1 + argBytes);
+        mBytes.put((byte) op);
+        mCommandCount++;
+        mCallCounts[op]++;
+    }
+
+    /**
+     * @param maxBytes the size argument that came with the buffer, or -1
+     * @param contents false for buffers GL writes into, we only keep their size
+     */
+    private void putBuffer(Buffer buffer, int maxBytes, boolean contents)
+    {
+        int kind = bufferKind(buffer);
+        int count = 0;
+        if (buffer != null) {
+            count = buffer.remaining();
+            if (maxBytes >= 0)
+                count = Math.min(count, maxBytes / elementSize(kind));
+        }
+
+        ensure(5 + (contents ? count * elementSize(kind) : 0));
+        mBytes.put((byte) kind);
+        mBytes.putInt(count);
+        if (!contents || count == 0)
+            return;
+
+        int start = buffer.position();
+        switch (kind) {
+            case BUFFER_BYTE: {
+                ByteBuffer bytes = ((ByteBuffer) buffer).duplicate();
+                bytes.limit(start + count);
+                mBytes.put(bytes);
+                break;
+            }
+            case BUFFER_SHORT: {
+                ShortBuffer shorts = (ShortBuffer) buffer;
+                for (int i = 0; i < count; i++)
+                    mBytes.putShort(shorts.get(start + i));
+                break;
+            }
+            case BUFFER_INT: {
+                IntBuffer ints = (IntBuffer) buffer;
+                for (int i = 0; i < count; i++)
+                    mBytes.putInt(ints.get(start + i));
+                break;
+            }
+            case BUFFER_FLOAT: {
+                FloatBuffer floats = (FloatBuffer) buffer;
+                for (int i = 0; i < count; i++)
+                    mBytes.putFloat(floats.get(start + i));
+                break;
+            }
+        }
+    }
+
+    private static Buffer readBuffer(ByteBuffer in, boolean contents)
+    {
+        int kind = in.get();
+        int count = in.getInt();
+        if (kind == BUFFER_NULL)
+            return null;
+
+        ByteBuffer bytes = ByteBuffer.allocateDirect(Math.max(count * elementSize(kind), 1));
+        bytes.order(ByteOrder.nativeOrder());
+
+        switch (kind) {
+            case BUFFER_SHORT: {
+                ShortBuffer shorts = bytes.asShortBuffer();
+                for (int i = 0; contents && i < count; i++)
+                    shorts.put(i, in.getShort());
+                shorts.limit(count);
+                return shorts;
+            }
+            case BUFFER_INT: {
+                IntBuffer ints = bytes.asIntBuffer();
+                for (int i = 0; contents && i < count; i++)
+                    ints.put(i, in.getInt());
+                ints.limit(count);
+                return ints;
+            }
+            case BUFFER_FLOAT: {
+                FloatBuffer floats = bytes.asFloatBuffer();
+                for (int i = 0; contents && i < count; i++)
+                    floats.put(i, in.getFloat());
+                floats.limit(count);
+                return floats;
+            }
+            default: {
+                for (int i = 0; contents && i < count; i++)
+                    bytes.put(i, in.get());
+                bytes.limit(count);
+                return bytes;
+            }
+        }
+    }
+
+    private static float[] readFloats(ByteBuffer in)
+    {
+        float[] values = new float[in.getInt()];
+        for (int i = 0; i < values.length; i++)
+            values[i] = in.getFloat();
+        return values;
+    }
+
+    private static int bufferKind(Buffer buffer)
+    {
+        if (buffer == null)
+            return BUFFER_NULL;
+        if (buffer instanceof FloatBuffer)
+            return BUFFER_FLOAT;
+        if (buffer instanceof ShortBuffer)
+            return BUFFER_SHORT;
+        if (buffer instanceof IntBuffer)
+            return BUFFER_INT;
+        if (buffer instanceof ByteBuffer)
+            return BUFFER_BYTE;
+        throw new IllegalArgumentException("can't record a " + buffer.getClass().getSimpleName());
+    }
+
+    private static int elementSize(int kind)
+    {
+        switch (kind) {
+            case BUFFER_SHORT:
+                return 2;
+            case BUFFER_INT:
+            case BUFFER_FLOAT:
+                return 4;
+            default:
+                return 1;
+        }
+    }
+
+    private void ensure(int bytes)
+    {
+        if (mBytes.remaining() >= bytes)
+            return;
+
+        ByteBuffer grown = newStream(Math.max(mBytes.capacity() * 2, mBytes.position() + bytes));
+        mBytes.flip();
+        grown.put(mBytes);
+        mBytes = grown;
+    }
+
+    private static ByteBuffer newStream(int capacity)
+    {
+        return ByteBuffer.allocate(capacity).order(ByteOrder.LITTLE_ENDIAN);
+    }
+}
@@ -0,0 +1,73 @@
+package com.androidexperiments.shadercam.text;
+
+/**
+ * Advance widths of a contiguous range of characters plus one for anything outside it, and the
+ * per-character loops built on them: measuring a string and laying it out as sprites. The widths
+ * come from {@code Paint} on the device, everything after that is plain Java.
+ */
+public class GlyphMetrics
+{
+    private final float[] mWidths;
+    private final int mFirstChar;
+    private final int mUnknownIndex;
+
+    /**
+     * @param widths    one per character starting at {@code firstChar}, the last one is used for
+     *                  characters out of range
+     */
+    public GlyphMetrics(float[] widths, int firstChar)
+    {
+        mWidths = widths;
+        mFirstChar = firstChar;
+        mUnknownIndex = widths.length - 1;
+    }
+
+    /**
+     * @return index of the character's width and texture region
+     */
+    public int getIndex(char character)
+    {
+        int index = (int) character - mFirstChar;
+        if (index < 0 || index >= mWidths.length)
+            index = mUnknownIndex;
+        return index;
+    }
+
+    public float getWidth(char character)
+    {
+        return mWidths[getIndex(character)];
+    }
+
+    /**
+     * @param spacing extra space between characters, unscaled
+     */
+    public float measure(CharSequence text, float spacing, float scale)
+    {
+        float result = 0.0f;
+        for (int i = 0; i < text.length(); i++)
+            result += getWidth(text.charAt(i));
+        result += (text.length() - 1) * spacing;
+        return result * scale;
+    }
+
+    /**
+     * Adds one sprite per character to {@code sprites}, left to right from the model space origin.
+     *
+     * @param regions   texture region per index, see {@link #getIndex(char)}
+     * @param spacing   extra space between characters, unscaled
+     * @param model     model matrix shared by all characters
+     */
+    public void layout(CharSequence text, TextureRegion[] regions, float cellWidth, float cellHeight,
+                       float spacing, float scaleX, float scaleY, float[] model, SpriteBuffer sprites)
+    {
+        float width = cellWidth * scaleX;
+        float height = cellHeight * scaleY;
+        float xOffset = 0;
+
+        for (int i = 0; i < text.length(); i++) {
+            int index = getIndex(text.charAt(i));
+            sprites.add(xOffset, 0.0f, width, height, regions[index], model);
+            xOffset += (mWidths[index] + spacing) * scaleX;
+        }
+    }
+}
@@ -0,0 +1,231 @@
+package com.androidexperiments.shadercam.text;
+
+import com.androidexperiments.shadercam.utils.MatrixMath;
+
+/**
+ * The CPU half of texample2's sprite batch: collects textured quads until whoever owns it draws
+ * them. Nothing here touches GL, so the per-glyph work can be measured and tested off-device.
+ * <p>
+ * Sprites are kept one of two ways. For GLES2, four vertices of (x, y, u, v, matrix index) and
+ * one MVP matrix each, the matrices going into a uniform array. For instanced drawing on GLES3,
+ * one {@link #INSTANCE_SIZE} record each, so a single draw of a unit quad covers them all.
+ * <p>
+ * When it fills up the {@link OnFullListener} gets a chance to draw what's there and
+ * {@link #clear()} it before the next sprite goes in.
+ */
+public class SpriteBuffer
+{
+    /**
+     * x, y, u, v and the index of the sprite's matrix
+     */
+    public static final int VERTEX_SIZE = 5;
+    public static final int VERTICES_PER_SPRITE = 4;
+    public static final int INDICES_PER_SPRITE = 6;
+
+    /**
+     * per instance: left, bottom, width and height of the quad in model space, the region's u1,
+     * v1, u2 and v2, then the 16 floats of its MVP matrix
+     */
+    public static final int INSTANCE_SIZE = 24;
+    public static final int INSTANCE_RECT_OFFSET = 0;
+    public static final int INSTANCE_REGION_OFFSET = 4;
+    public static final int INSTANCE_MATRIX_OFFSET = 8;
+
+    public interface OnFullListener
+    {
+        /**
+         * Draw and {@link #clear()} the buffer here, otherwise its sprites are dropped.
+         */
+        void onFull(SpriteBuffer buffer);
+    }
+
+    private final int mMaxSprites;
+    private final boolean mInstanced;
+    private final float[] mVertices;
+    private final float[] mMatrices;
+    private final float[] mInstances;
+    private final float[] mMvp = new float[16];
+
+    private float[] mViewProjection;
+    private int mSpriteCount = 0;
+    private int mVertexIndex = 0;
+
+    private OnFullListener mOnFullListener;
+
+    public SpriteBuffer(int maxSprites)
+    {
+        this(maxSprites, false);
+    }
+
+    /**
+     * @param instanced keep sprites as instances rather than vertices and matrices, see
+     *                  {@link #getInstances()}
+     */
+    public SpriteBuffer(int maxSprites, boolean instanced)
+    {
+        mMaxSprites = maxSprites;
+        mInstanced = instanced;
+        if (instanced) {
+            mVertices = null;
+            mMatrices = null;
+            mInstances = new float[maxSprites * INSTANCE_SIZE];
+        }
+        else {
+            mVertices = new float[maxSprites * VERTICES_PER_SPRITE * VERTEX_SIZE];
+            mMatrices = new float[maxSprites * 16];
+            mInstances = null;
+        }
+    }
+
+    /**
+     * Two triangles per sprite, for drawing the vertices with glDrawElements.
+     */
+    public static short[] createIndices(int maxSprites)
+    {
+        short[] indices = new short[maxSprites * INDICES_PER_SPRITE];
+        short j = 0;
+        for (int i = 0; i < indices.length; i += INDICES_PER_SPRITE, j += VERTICES_PER_SPRITE) {
+            indices[i] = j;
+            indices[i + 1] = (short) (j + 1);
+            indices[i + 2] = (short) (j + 2);
+            indices[i + 3] = (short) (j + 2);
+            indices[i + 4] = (short) (j + 3);
+            indices[i + 5] = j;
+        }
+        return indices;
+    }
+
+    public void setOnFullListener(OnFullListener listener)
+    {
+        mOnFullListener = listener;
+    }
+
+    /**
+     * Starts over with a new view and projection matrix, kept by reference.
+     */
+    public void begin(float[] viewProjection)
+    {
+        mViewProjection = viewProjection;
+        clear();
+    }
+
+    /**
+     * Forgets the sprites, keeping the view and projection matrix.
+     */
+    public void clear()
+    {
+        mSpriteCount = 0;
+        mVertexIndex = 0;
+    }
+
+    /**
+     * @param x      center of the sprite in model space
+     * @param y      center of the sprite in model space
+     * @param model  model matrix for this sprite, combined with the one from {@link #begin(float[])}
+     */
+    public void add(float x, float y, float width, float height, TextureRegion region, float[] model)
+    {
+        if (mSpriteCount == mMaxSprites) {
+            if (mOnFullListener != null)
+                mOnFullListener.onFull(this);
+            if (mSpriteCount == mMaxSprites)
+                clear();
+        }
+
+        float halfWidth = width / 2.0f;
+        float halfHeight = height / 2.0f;
+        float leftX = x - halfWidth;
+        float bottomY = y - halfHeight;
+
+        if (mInstanced) {
+            //the shader stretches a unit quad over the rect and picks the corners of the region
+            int i = mSpriteCount * INSTANCE_SIZE;
+            mInstances[i + INSTANCE_RECT_OFFSET] = leftX;
+            mInstances[i + INSTANCE_RECT_OFFSET + 1] = bottomY;
+            mInstances[i + INSTANCE_RECT_OFFSET + 2] = width;
+            mInstances[i + INSTANCE_RECT_OFFSET + 3] = height;
+            mInstances[i + INSTANCE_REGION_OFFSET] = region.u1;
+            mInstances[i + INSTANCE_REGION_OFFSET + 1] = region.v1;
+            mInstances[i + INSTANCE_REGION_OFFSET + 2] = region.u2;
+            mInstances[i + INSTANCE_REGION_OFFSET + 3] = region.v2;
+            MatrixMath.multiplyMM(mInstances, i + INSTANCE_MATRIX_OFFSET, mViewProjection, 0, model, 0);
+        }
+        else {
+            float rightX = x + halfWidth;
+            float topY = y + halfHeight;
+
+            //written straight into the vertex array, this runs per glyph so nothing is allocated here
+            addVertex(leftX, bottomY, region.u1, region.v2);
+            addVertex(rightX, bottomY, region.u2, region.v2);
+            addVertex(rightX, topY, region.u2, region.v1);
+            addVertex(leftX, topY, region.u1, region.v1);
+
+            MatrixMath.multiplyMM(mMvp, 0, mViewProjection, 0, model, 0);
+            System.arraycopy(mMvp, 0, mMatrices, mSpriteCount * 16, 16);
+        }
+
+        mSpriteCount++;
+    }
+
+    public int getSpriteCount()
+    {
+        return mSpriteCount;
+    }
+
+    public int getMaxSprites()
+    {
+        return mMaxSprites;
+    }
+
+    public boolean isInstanced()
+    {
+        return mInstanced;
+    }
+
+    /**
+     * @return {@link #VERTEX_SIZE} floats per vertex, {@link #getVertexFloatCount()} of them in
+     * use, null if {@link #isInstanced()}
+     */
+    public float[] getVertices()
+    {
+        return mVertices;
+    }
+
+    public int getVertexFloatCount()
+    {
+        return mVertexIndex;
+    }
+
+    /**
+     * @return one MVP matrix per sprite, {@link #getSpriteCount()} of them in use, null if
+     * {@link #isInstanced()}
+     */
+    public float[] getMatrices()
+    {
+        return mMatrices;
+    }
+
+    /**
+     * @return {@link #INSTANCE_SIZE} floats per sprite, {@link #getInstanceFloatCount()} of them in
+     * use, null unless {@link #isInstanced()}
+     */
+    public float[] getInstances()
+    {
+        return mInstances;
+    }
+
+    public int getInstanceFloatCount()
+    {
+        return mSpriteCount * INSTANCE_SIZE;
+    }
+
+    private void addVertex(float x, float y, float u, float v)
+    {
+        mVertices[mVertexIndex] = x;
+        mVertices[mVertexIndex + 1] = y;
+        mVertices[mVertexIndex + 2] = u;
+        mVertices[mVertexIndex + 3] = v;
+        mVertices[mVertexIndex + 4] = mSpriteCount;
+        mVertexIndex += VERTEX_SIZE;
+    }
+}
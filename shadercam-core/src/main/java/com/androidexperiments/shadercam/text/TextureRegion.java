@@ -1,7 +1,7 @@
-package com.android.texample2.domain;
+package com.androidexperiments.shadercam.text;
 
 
-class TextureRegion {
+public class TextureRegion {
 
     // Top/Left U,V Coordinates
     public float u1, v1;
@@ -0,0 +1,61 @@
+package com.androidexperiments.shadercam.utils;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
+
+/**
+ * Direct buffers for handing vertex data to GL. {@code GlUtil} keeps its createFloatBuffer and
+ * createShortBuffer, they just call through to here.
+ */
+public class BufferUtils
+{
+    private static final int SIZEOF_FLOAT = 4;
+    private static final int SIZEOF_SHORT = 2;
+
+    private BufferUtils() {}
+
+    /**
+     * Allocates a direct float buffer, and populates it with the float array data.
+     */
+    public static FloatBuffer createFloatBuffer(float[] coords)
+    {
+        ByteBuffer bb = ByteBuffer.allocateDirect(coords.length * SIZEOF_FLOAT);
+        bb.order(ByteOrder.nativeOrder());
+        FloatBuffer fb = bb.asFloatBuffer();
+        fb.put(coords);
+        fb.position(0);
+        return fb;
+    }
+
+    /**
+     * Allocates a direct short buffer, and populates it with the short array data.
+     */
+    public static ShortBuffer createShortBuffer(short[] values)
+    {
+        ByteBuffer bb = ByteBuffer.allocateDirect(values.length * SIZEOF_SHORT);
+        bb.order(ByteOrder.nativeOrder());
+        ShortBuffer sb = bb.asShortBuffer();
+        sb.put(values);
+        sb.position(0);
+        return sb;
+    }
+
+    /**
+     * Replaces the contents of {@code dst} with the raw bits of the floats, ready to read from
+     * position 0. Old Dalvik was much quicker putting an int[] than a float[], which is why
+     * texample2 keeps its vertices in an IntBuffer.
+     *
+     * @param scratch at least {@code length} long, so this doesn't allocate
+     */
+    public static void putFloatBits(IntBuffer dst, float[] src, int offset, int length, int[] scratch)
+    {
+        dst.clear();
+        for (int i = 0; i < length; i++)
+            scratch[i] = Float.floatToRawIntBits(src[offset + i]);
+        dst.put(scratch, 0, length);
+        dst.flip();
+    }
+}
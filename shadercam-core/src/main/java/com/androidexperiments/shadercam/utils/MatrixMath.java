@@ -0,0 +1,84 @@
+package com.androidexperiments.shadercam.utils;
+
+/**
+ * The few {@code android.opengl.Matrix} operations the text renderer needs per string and per
+ * glyph, same signatures and the same column-major float[16] layout, in plain Java so they run
+ * off-device too. For 4x4 matrices this is no slower than going through JNI.
+ */
+public class MatrixMath
+{
+    private MatrixMath() {}
+
+    public static void setIdentityM(float[] m, int offset)
+    {
+        for (int i = 0; i < 16; i++)
+            m[offset + i] = 0.f;
+        for (int i = 0; i < 16; i += 5)
+            m[offset + i] = 1.f;
+    }
+
+    /**
+     * Translates m in place by (x, y, z).
+     */
+    public static void translateM(float[] m, int offset, float x, float y, float z)
+    {
+        for (int i = 0; i < 4; i++) {
+            int mi = offset + i;
+            m[12 + mi] += m[mi] * x + m[4 + mi] * y + m[8 + mi] * z;
+        }
+    }
+
+    /**
+     * Rotates m in place by angle degrees around the axis (x, y, z).
+     */
+    public static void rotateM(float[] m, int offset, float angle, float x, float y, float z)
+    {
+        if (angle == 0.f)
+            return;
+
+        float length = (float) Math.sqrt(x * x + y * y + z * z);
+        if (length == 0.f)
+            return;
+        x /= length;
+        y /= length;
+        z /= length;
+
+        double radians = Math.toRadians(angle);
+        float s = (float) Math.sin(radians);
+        float c = (float) Math.cos(radians);
+        float nc = 1.f - c;
+
+        //rotation matrix r[column][row], the same one Matrix.setRotateM() builds
+        float r00 = x * x * nc + c,      r01 = x * y * nc + z * s,  r02 = z * x * nc - y * s;
+        float r10 = x * y * nc - z * s,  r11 = y * y * nc + c,      r12 = y * z * nc + x * s;
+        float r20 = z * x * nc + y * s,  r21 = y * z * nc - x * s,  r22 = z * z * nc + c;
+
+        //m = m * r, the last column doesn't change
+        for (int row = 0; row < 4; row++) {
+            int i = offset + row;
+            float m0 = m[i], m1 = m[4 + i], m2 = m[8 + i];
+            m[i] = m0 * r00 + m1 * r01 + m2 * r02;
+            m[4 + i] = m0 * r10 + m1 * r11 + m2 * r12;
+            m[8 + i] = m0 * r20 + m1 * r21 + m2 * r22;
+        }
+    }
+
+    /**
+     * result = lhs * rhs. result may not overlap either of them.
+     */
+    public static void multiplyMM(float[] result, int resultOffset, float[] lhs, int lhsOffset, float[] rhs, int rhsOffset)
+    {
+        for (int column = 0; column < 4; column++) {
+            float r0 = rhs[rhsOffset + column * 4];
+            float r1 = rhs[rhsOffset + column * 4 + 1];
+            float r2 = rhs[rhsOffset + column * 4 + 2];
+            float r3 = rhs[rhsOffset + column * 4 + 3];
+            for (int row = 0; row < 4; row++) {
+                result[resultOffset + column * 4 + row] = lhs[lhsOffset + row] * r0
+                        + lhs[lhsOffset + 4 + row] * r1
+                        + lhs[lhsOffset + 8 + row] * r2
+                        + lhs[lhsOffset + 12 + row] * r3;
+            }
+        }
+    }
+}
@@ -0,0 +1,220 @@
+package com.androidexperiments.shadercam.utils;
+
+import java.util.ArrayList;
+
+/**
+ * Picks camera output sizes for the preview and for recording within a performance budget.
+ * <p>
+ * Every pixel of the preview runs through the effect's fragment shader, so a preview much larger
+ * than the view it's shown in is wasted work. The preview gets the smallest size that still covers
+ * the view, the recording the largest size up to {@link #setMaxRecordShortEdge(int)}; both must
+ * reach the target frame rate and stay under the pixel rate budget.
+ * <p>
+ * Sizes are in sensor orientation (landscape), view sizes in any orientation. Pure Java with no
+ * framework calls, the library's {@code CameraFragment} does the {@code StreamConfigurationMap}
+ * lookups and hands us {@link Candidate}s.
+ */
+public class SizeSelectionPolicy
+{
+    /**
+     * aspect ratios closer than this count as the same
+     */
+    private static final float ASPECT_TOLERANCE = 0.01f;
+
+    private static final long NANOS_PER_SECOND = 1000000000L;
+
+    /**
+     * An output size the camera supports and how fast it can deliver it.
+     */
+    public static class Candidate
+    {
+        public final int width;
+        public final int height;
+
+        /**
+         * from {@code StreamConfigurationMap.getOutputMinFrameDuration()}, 0 if unknown
+         */
+        public final long minFrameDurationNs;
+
+        public Candidate(int width, int height, long minFrameDurationNs)
+        {
+            this.width = width;
+            this.height = height;
+            this.minFrameDurationNs = minFrameDurationNs;
+        }
+
+        public long getPixels()
+        {
+            return (long) width * height;
+        }
+
+        /**
+         * @return long edge over short edge, so orientation doesn't matter
+         */
+        public float getAspect()
+        {
+            return (float) Math.max(width, height) / Math.min(width, height);
+        }
+
+        @Override
+        public String toString()
+        {
+            return width + "x" + height;
+        }
+    }
+
+    private int mTargetFps = 30;
+    private long mMaxPixelsPerSecond = 1920L * 1080 * 30;
+    private int mMaxRecordShortEdge = 1080;
+
+    /**
+     * @param fps sizes the camera can't deliver at this rate are skipped, 30 by default
+     */
+    public SizeSelectionPolicy setTargetFps(int fps)
+    {
+        mTargetFps = Math.max(1, fps);
+        return this;
+    }
+
+    /**
+     * @param pixelsPerSecond most pixels per second we let the effect shade at the target fps,
+     *                        1080p30 by default
+     */
+    public SizeSelectionPolicy setMaxPixelsPerSecond(long pixelsPerSecond)
+    {
+        mMaxPixelsPerSecond = pixelsPerSecond;
+        return this;
+    }
+
+    /**
+     * @param shortEdge largest height (in landscape) we record at, 1080 by default
+     */
+    public SizeSelectionPolicy setMaxRecordShortEdge(int shortEdge)
+    {
+        mMaxRecordShortEdge = shortEdge;
+        return this;
+    }
+
+    public int getTargetFps()
+    {
+        return mTargetFps;
+    }
+
+    public long getMaxPixelsPerSecond()
+    {
+        return mMaxPixelsPerSecond;
+    }
+
+    public int getMaxRecordShortEdge()
+    {
+        return mMaxRecordShortEdge;
+    }
+
+    /**
+     * Smallest size within budget that covers the view, preferring the view's aspect ratio. If
+     * nothing within budget covers it, the largest size within budget.
+     *
+     * @param choices the camera's {@code SurfaceTexture} output sizes
+     * @return null only if there are no choices
+     */
+    public Candidate choosePreviewSize(Candidate[] choices, int viewWidth, int viewHeight)
+    {
+        int viewLong = Math.max(viewWidth, viewHeight);
+        int viewShort = Math.min(viewWidth, viewHeight);
+        float viewAspect = viewShort > 0 ? (float) viewLong / viewShort : 0.f;
+
+        ArrayList<Candidate> candidates = preferAspect(withinBudget(choices), viewAspect);
+        if (candidates.isEmpty())
+            return smallest(choices);
+
+        Candidate smallestCovering = null;
+        Candidate largest = null;
+        for (Candidate candidate : candidates) {
+            if (largest == null || candidate.getPixels() > largest.getPixels())
+                largest = candidate;
+
+            boolean covers = Math.max(candidate.width, candidate.height) >= viewLong
+                    && Math.min(candidate.width, candidate.height) >= viewShort;
+            if (covers && (smallestCovering == null || candidate.getPixels() < smallestCovering.getPixels()))
+                smallestCovering = candidate;
+        }
+
+        return smallestCovering != null ? smallestCovering : largest;
+    }
+
+    /**
+     * Largest size within budget and {@link #setMaxRecordShortEdge(int)}, preferring the
+     * preview's aspect ratio so what gets recorded looks like what's on screen.
+     *
+     * @param choices the camera's {@code MediaRecorder} output sizes
+     * @param preview what {@link #choosePreviewSize(Candidate[], int, int)} picked, or null
+     * @return null only if there are no choices
+     */
+    public Candidate chooseRecordSize(Candidate[] choices, Candidate preview)
+    {
+        ArrayList<Candidate> candidates = new ArrayList<>();
+        for (Candidate candidate : withinBudget(choices)) {
+            if (Math.min(candidate.width, candidate.height) <= mMaxRecordShortEdge)
+                candidates.add(candidate);
+        }
+
+        if (preview != null)
+            candidates = preferAspect(candidates, preview.getAspect());
+        if (candidates.isEmpty())
+            return smallest(choices);
+
+        Candidate largest = null;
+        for (Candidate candidate : candidates) {
+            if (largest == null || candidate.getPixels() > largest.getPixels())
+                largest = candidate;
+        }
+        return largest;
+    }
+
+    /**
+     * @return whether the camera can deliver this size at our fps and it's within the pixel rate budget
+     */
+    public boolean isWithinBudget(Candidate candidate)
+    {
+        if (candidate.minFrameDurationNs > 0 && candidate.minFrameDurationNs > NANOS_PER_SECOND / mTargetFps)
+            return false;
+
+        return candidate.getPixels() * mTargetFps <= mMaxPixelsPerSecond;
+    }
+
+    private ArrayList<Candidate> withinBudget(Candidate[] choices)
+    {
+        ArrayList<Candidate> result = new ArrayList<>();
+        for (Candidate candidate : choices) {
+            if (isWithinBudget(candidate))
+                result.add(candidate);
+        }
+        return result;
+    }
+
+    /**
+     * @return the candidates matching the aspect ratio, or all of them if none do
+     */
+    private static ArrayList<Candidate> preferAspect(ArrayList<Candidate> candidates, float aspect)
+    {
+        ArrayList<Candidate> matching = new ArrayList<>();
+        for (Candidate candidate : candidates) {
+            if (Math.abs(candidate.getAspect() - aspect) < ASPECT_TOLERANCE)
+                matching.add(candidate);
+        }
+        return matching.isEmpty() ? candidates : matching;
+    }
+
+    /**
+     * nothing fits the budget, so at least keep the cost down
+     */
+    private static Candidate smallest(Candidate[] choices)
+    {
+        Candidate smallest = null;
+        for (Candidate candidate : choices) {
+            if (smallest == null || candidate.getPixels() < smallest.getPixels())
+                smallest = candidate;
+        }
+        return smallest;
+    }
+}
@@ -0,0 +1,37 @@
+package com.androidexperiments.shadercam.utils;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+
+/**
+ * Reading text out of streams, without needing a {@code Context} to open them.
+ */
+public class StreamUtils
+{
+    private StreamUtils() {}
+
+    /**
+     * Reads the whole stream as text and closes it.
+     *
+     * @param useNewline end every line with <code>\n</code>, otherwise lines are run together
+     */
+    public static String readString(InputStream is, boolean useNewline) throws IOException
+    {
+        try {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(is));
+            StringBuilder builder = new StringBuilder();
+            String line;
+            while ((line = reader.readLine()) != null) {
+                builder.append(line);
+                if (useNewline)
+                    builder.append('\n');
+            }
+            return builder.toString();
+        }
+        finally {
+            is.close();
+        }
+    }
+}
@@ -0,0 +1,288 @@
+package com.androidexperiments.shadercam.encoder;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class EncoderDrainerTest
+{
+    private static final String FORMAT = "video/avc 720x1280";
+
+    private FakeCodec mCodec;
+    private FakeMuxer mMuxer;
+    private EncoderDrainer<String> mDrainer;
+
+    @Before
+    public void setUp()
+    {
+        mCodec = new FakeCodec();
+        mMuxer = new FakeMuxer();
+        mDrainer = new EncoderDrainer<>(mCodec, mMuxer);
+    }
+
+    @Test
+    public void formatChangeStartsMuxerBeforeSamples()
+    {
+        mCodec.formatChanged();
+        mCodec.output(100, 0, 0);
+        mCodec.output(120, 33333, 0);
+
+        drainAll(3);
+        assertEquals(Arrays.asList("addTrack " + FORMAT, "start", "write 0 100@0", "write 0 120@33333"), mMuxer.calls);
+        assertEquals(2, mDrainer.getSamplesWritten());
+        assertEquals(Arrays.asList(0, 1), mCodec.released);
+    }
+
+    @Test
+    public void codecConfigIsDroppedButReleased()
+    {
+        mCodec.formatChanged();
+        mCodec.output(30, 0, EncoderBufferInfo.BUFFER_FLAG_CODEC_CONFIG);
+        mCodec.output(100, 0, EncoderBufferInfo.BUFFER_FLAG_KEY_FRAME);
+
+        drainAll(3);
+        assertEquals(Arrays.asList("addTrack " + FORMAT, "start", "write 0 100@0"), mMuxer.calls);
+        assertEquals(Arrays.asList(0, 1), mCodec.released);
+    }
+
+    @Test
+    public void tryAgainAndBuffersChangedAreSkipped()
+    {
+        mCodec.status(EncoderCodec.INFO_TRY_AGAIN_LATER);
+        mCodec.formatChanged();
+        mCodec.status(EncoderCodec.INFO_OUTPUT_BUFFERS_CHANGED);
+        mCodec.output(100, 0, 0);
+
+        drainAll(4);
+        assertEquals(1, mDrainer.getSamplesWritten());
+        assertFalse(mDrainer.isEndOfStream());
+    }
+
+    @Test
+    public void endOfStreamEndsDrainAndWritesItsData()
+    {
+        mCodec.formatChanged();
+        mCodec.output(100, 0, 0);
+        mCodec.output(80, 33333, EncoderBufferInfo.BUFFER_FLAG_END_OF_STREAM);
+
+        assertFalse(mDrainer.drain(0));
+        assertFalse(mDrainer.drain(0));
+        assertTrue(mDrainer.drain(0));
+        assertTrue(mDrainer.isEndOfStream());
+        assertEquals(2, mDrainer.getSamplesWritten());
+
+        //nothing more is dequeued once we've seen end of stream
+        mCodec.output(100, 66666, 0);
+        assertTrue(mDrainer.drain(0));
+        assertEquals(2, mDrainer.getSamplesWritten());
+    }
+
+    @Test
+    public void emptyEndOfStreamIsNotWritten()
+    {
+        mCodec.formatChanged();
+        mCodec.output(0, 0, EncoderBufferInfo.BUFFER_FLAG_END_OF_STREAM);
+
+        drainAll(1);
+        assertTrue(mDrainer.drain(0));
+        assertEquals(Arrays.asList("addTrack " + FORMAT, "start"), mMuxer.calls);
+        assertEquals(Arrays.asList(0), mCodec.released);
+    }
+
+    @Test
+    public void secondFormatChangeThrows()
+    {
+        mCodec.formatChanged();
+        mCodec.formatChanged();
+
+        mDrainer.drain(0);
+        try {
+            mDrainer.drain(0);
+            fail("expected an IllegalStateException");
+        }
+        catch (IllegalStateException expected) {
+            assertEquals("output format changed twice", expected.getMessage());
+        }
+    }
+
+    @Test
+    public void dataBeforeFormatThrows()
+    {
+        mCodec.output(100, 0, 0);
+
+        try {
+            mDrainer.drain(0);
+            fail("expected an IllegalStateException");
+        }
+        catch (IllegalStateException expected) {
+            assertEquals("got encoded data before the output format", expected.getMessage());
+        }
+        assertTrue(mMuxer.calls.isEmpty());
+    }
+
+    @Test
+    public void finishStopsAndReleasesStartedMuxer()
+    {
+        mCodec.formatChanged();
+        mDrainer.drain(0);
+
+        mDrainer.finish();
+        mDrainer.finish();
+        mDrainer.abort();
+        assertEquals(Arrays.asList("addTrack " + FORMAT, "start", "stop", "release"), mMuxer.calls);
+    }
+
+    @Test
+    public void finishWithoutFormatOnlyReleases()
+    {
+        mDrainer.finish();
+        assertEquals(Arrays.asList("release"), mMuxer.calls);
+    }
+
+    @Test
+    public void finishReleasesEvenIfStopThrows()
+    {
+        mCodec.formatChanged();
+        mDrainer.drain(0);
+        mMuxer.failStop = true;
+
+        try {
+            mDrainer.finish();
+            fail("expected an IllegalStateException");
+        }
+        catch (IllegalStateException expected) {
+            //no samples, MediaMuxer.stop() throws
+        }
+        assertEquals("release", mMuxer.calls.get(mMuxer.calls.size() - 1));
+    }
+
+    @Test
+    public void abortReleasesWithoutStopping()
+    {
+        mCodec.formatChanged();
+        mCodec.output(100, 0, 0);
+        drainAll(2);
+
+        mDrainer.abort();
+        mDrainer.finish();
+        assertEquals(Arrays.asList("addTrack " + FORMAT, "start", "write 0 100@0", "release"), mMuxer.calls);
+    }
+
+    private void drainAll(int steps)
+    {
+        for (int i = 0; i < steps; i++)
+            mDrainer.drain(0);
+    }
+
+    /**
+     * Hands out scripted statuses and buffers, then INFO_TRY_AGAIN_LATER once it runs out.
+     */
+    private static class FakeCodec implements EncoderCodec<String>
+    {
+        private final ArrayDeque<int[]> mSteps = new ArrayDeque<>();
+        private final List<ByteBuffer> mBuffers = new ArrayList<>();
+        final List<Integer> released = new ArrayList<>();
+
+        void status(int status)
+        {
+            mSteps.add(new int[] {status});
+        }
+
+        void formatChanged()
+        {
+            status(INFO_OUTPUT_FORMAT_CHANGED);
+        }
+
+        /**
+         * @param timeUs kept to an int, plenty for a test
+         */
+        void output(int size, int timeUs, int flags)
+        {
+            mSteps.add(new int[] {mBuffers.size(), size, timeUs, flags});
+            //a bit of slack in front, like codecs that hand out buffers with an offset
+            mBuffers.add(ByteBuffer.allocate(size + 16));
+        }
+
+        @Override
+        public int dequeueOutputBuffer(EncoderBufferInfo info, long timeoutUs)
+        {
+            int[] step = mSteps.poll();
+            if (step == null)
+                return INFO_TRY_AGAIN_LATER;
+            if (step.length == 1)
+                return step[0];
+
+            info.set(16, step[1], step[2], step[3]);
+            return step[0];
+        }
+
+        @Override
+        public ByteBuffer getOutputBuffer(int index)
+        {
+            return mBuffers.get(index);
+        }
+
+        @Override
+        public String getOutputFormat()
+        {
+            return FORMAT;
+        }
+
+        @Override
+        public void releaseOutputBuffer(int index)
+        {
+            released.add(index);
+        }
+    }
+
+    private static class FakeMuxer implements EncoderMuxer<String>
+    {
+        final List<String> calls = new ArrayList<>();
+        boolean failStop = false;
+
+        @Override
+        public int addTrack(String format)
+        {
+            calls.add("addTrack " + format);
+            return 0;
+        }
+
+        @Override
+        public void start()
+        {
+            calls.add("start");
+        }
+
+        @Override
+        public void writeSampleData(int trackIndex, ByteBuffer data, EncoderBufferInfo info)
+        {
+            assertEquals(info.offset, data.position());
+            assertEquals(info.size, data.remaining());
+            calls.add("write " + trackIndex + " " + info.size + "@" + info.presentationTimeUs);
+        }
+
+        @Override
+        public void stop()
+        {
+            calls.add("stop");
+            if (failStop)
+                throw new IllegalStateException("muxer stop failed");
+        }
+
+        @Override
+        public void release()
+        {
+            calls.add("release");
+        }
+    }
+}
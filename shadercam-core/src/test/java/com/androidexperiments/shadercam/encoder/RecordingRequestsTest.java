@@ -0,0 +1,149 @@
+package com.androidexperiments.shadercam.encoder;
+
+import org.junit.Test;
+
+import java.util.Random;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class RecordingRequestsTest
+{
+    private static final int CALLER_THREADS = 4;
+    private static final int CALLS_PER_THREAD = 20000;
+
+    private final RecordingRequests mRequests = new RecordingRequests();
+
+    @Test
+    public void startAndStopPairUp()
+    {
+        assertFalse(mRequests.requestStop());
+
+        long token = mRequests.requestStart();
+        assertTrue(token != RecordingRequests.NOT_STARTED);
+        assertTrue(mRequests.isRequested());
+        assertEquals(RecordingRequests.NOT_STARTED, mRequests.requestStart());
+
+        assertTrue(mRequests.requestStop());
+        assertFalse(mRequests.isRequested());
+        assertFalse(mRequests.requestStop());
+    }
+
+    @Test
+    public void failedStartIsRolledBack()
+    {
+        long token = mRequests.requestStart();
+
+        assertTrue(mRequests.startFailed(token));
+        assertFalse(mRequests.isRequested());
+        //and the stop the user sends afterwards finds nothing to stop
+        assertFalse(mRequests.requestStop());
+    }
+
+    @Test
+    public void lateFailureDoesNotClearNewerStart()
+    {
+        //start A, stop, start B all happen before the render thread gets to A and fails it
+        long a = mRequests.requestStart();
+        assertTrue(mRequests.requestStop());
+        long b = mRequests.requestStart();
+
+        assertFalse(mRequests.startFailed(a));
+        assertTrue(mRequests.isRequested());
+
+        assertTrue(mRequests.startFailed(b));
+        assertFalse(mRequests.isRequested());
+    }
+
+    @Test
+    public void failureAfterStopChangesNothing()
+    {
+        long token = mRequests.requestStart();
+        assertTrue(mRequests.requestStop());
+
+        assertFalse(mRequests.startFailed(token));
+        assertFalse(mRequests.isRequested());
+        assertFalse(mRequests.startFailed(RecordingRequests.NOT_STARTED));
+    }
+
+    /**
+     * Callers hammer start/stop the way {@code CameraRenderer} does, queueing a command under the
+     * lock, while a fake render thread works through the queue and fails every few starts. Every
+     * command has to arrive in an order that makes sense, and once everyone's done the request
+     * state has to agree with whether the render thread is recording.
+     */
+    @Test
+    public void stressStartStopAgainstRenderThread() throws Exception
+    {
+        final ConcurrentLinkedQueue<long[]> commands = new ConcurrentLinkedQueue<>();
+        final AtomicInteger misordered = new AtomicInteger();
+        final CountDownLatch callersDone = new CountDownLatch(CALLER_THREADS);
+        final boolean[] recording = new boolean[1];
+
+        Thread renderThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                Random random = new Random(42);
+                while (true) {
+                    long[] command = commands.poll();
+                    if (command == null) {
+                        if (callersDone.getCount() == 0 && commands.isEmpty())
+                            return;
+                        Thread.yield();
+                        continue;
+                    }
+
+                    if (command[0] != RecordingRequests.NOT_STARTED) {
+                        if (recording[0])
+                            misordered.incrementAndGet();
+                        else if (random.nextInt(4) == 0)
+                            mRequests.startFailed(command[0]);
+                        else
+                            recording[0] = true;
+                    }
+                    else {
+                        //a stop for a start that failed just finds nothing running, like finishRecording()
+                        recording[0] = false;
+                    }
+                }
+            }
+        });
+        renderThread.start();
+
+        Thread[] callers = new Thread[CALLER_THREADS];
+        for (int i = 0; i < CALLER_THREADS; i++) {
+            final int seed = i;
+            callers[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    Random random = new Random(seed);
+                    for (int call = 0; call < CALLS_PER_THREAD; call++) {
+                        synchronized (mRequests) {
+                            if (random.nextBoolean()) {
+                                long token = mRequests.requestStart();
+                                if (token != RecordingRequests.NOT_STARTED)
+                                    commands.offer(new long[] {token});
+                            }
+                            else if (mRequests.requestStop()) {
+                                commands.offer(new long[] {RecordingRequests.NOT_STARTED});
+                            }
+                        }
+                    }
+                    callersDone.countDown();
+                }
+            });
+            callers[i].start();
+        }
+
+        for (Thread caller : callers)
+            caller.join();
+        renderThread.join();
+
+        assertEquals(0, misordered.get());
+        assertEquals(recording[0], mRequests.isRequested());
+    }
+}
@@ -0,0 +1,208 @@
+package com.androidexperiments.shadercam.gl;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class RecordingGlApiTest
+{
+    private RecordingGlApi mGl;
+
+    @Before
+    public void setUp()
+    {
+        mGl = new RecordingGlApi();
+    }
+
+    @Test
+    public void replayIntoAnotherRecorderReproducesTheStream()
+    {
+        recordFrame(mGl);
+
+        RecordingGlApi replayed = new RecordingGlApi();
+        mGl.replay(replayed);
+
+        assertSameCommands(mGl, replayed);
+    }
+
+    @Test
+    public void everyOpSurvivesTheRoundTrip()
+    {
+        recordFrame(mGl);
+
+        for (int op = 1; op < RecordingGlApi.OP_COUNT; op++)
+            assertTrue(RecordingGlApi.getOpName(op) + " not covered", mGl.getCallCount(op) > 0);
+    }
+
+    @Test
+    public void buffersAreRecordedByValue()
+    {
+        FloatBuffer vertices = floats(1.f, 2.f, 3.f, 4.f);
+        mGl.glBufferSubData(0x8892, 0, 16, vertices);
+        vertices.put(0, 99.f);
+
+        RecordingGlApi expected = new RecordingGlApi();
+        expected.glBufferSubData(0x8892, 0, 16, floats(1.f, 2.f, 3.f, 4.f));
+        assertEquals(expected.getStream(), mGl.getStream());
+
+        //and only what the size argument covers
+        RecordingGlApi clipped = new RecordingGlApi();
+        clipped.glBufferSubData(0x8892, 0, 8, floats(1.f, 2.f, 3.f, 4.f));
+        expected.clear();
+        expected.glBufferSubData(0x8892, 0, 8, floats(1.f, 2.f));
+        assertEquals(expected.getStream(), clipped.getStream());
+    }
+
+    @Test
+    public void copyIsIndependent()
+    {
+        recordFrame(mGl);
+        RecordingGlApi copy = mGl.copy();
+        String before = copy.toString();
+
+        mGl.glClear(0x4000);
+        assertEquals(before, copy.toString());
+        assertEquals(mGl.getCommandCount() - 1, copy.getCommandCount());
+        assertEquals(mGl.getDrawCallCount(), copy.getDrawCallCount());
+        assertEquals(mGl.getStateChangeCount(), copy.getStateChangeCount());
+    }
+
+    @Test
+    public void frameCaptureWritesAndReadsBack() throws Exception
+    {
+        recordFrame(mGl);
+        RecordingGlApi second = new RecordingGlApi();
+        second.glUseProgram(7);
+        second.glDrawArrays(0x0005, 0, 4);
+
+        GlFrameCapture capture = new GlFrameCapture();
+        capture.add(new GlFrameCapture.Frame(41, 16000000L, mGl));
+        capture.add(new GlFrameCapture.Frame(42, 17000000L, second));
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        capture.write(out);
+        GlFrameCapture read = GlFrameCapture.read(new ByteArrayInputStream(out.toByteArray()));
+
+        assertEquals(2, read.size());
+        assertEquals(41, read.getFrames().get(0).frameNumber);
+        assertEquals(17000000L, read.getFrames().get(1).durationNs);
+        assertSameCommands(mGl, read.getFrames().get(0).commands);
+        assertSameCommands(second, read.getFrames().get(1).commands);
+
+        RecordingGlApi replayed = new RecordingGlApi();
+        read.replay(0, replayed);
+        assertSameCommands(mGl, replayed);
+    }
+
+    private static void assertSameCommands(RecordingGlApi expected, RecordingGlApi actual)
+    {
+        assertEquals(expected.toString(), actual.toString());
+        assertEquals(expected.getCommandCount(), actual.getCommandCount());
+        assertEquals(expected.getByteCount(), actual.getByteCount());
+        assertEquals(expected.getStream(), actual.getStream());
+        for (int op = 1; op < RecordingGlApi.OP_COUNT; op++)
+            assertEquals(RecordingGlApi.getOpName(op), expected.getCallCount(op), actual.getCallCount(op));
+    }
+
+    /**
+     * one of every call, with every kind of buffer
+     */
+    private static void recordFrame(GlApi gl)
+    {
+        gl.beginFrame(1);
+        gl.glBindFramebuffer(0x8D40, 3);
+        gl.glViewport(0, 0, 1280, 720);
+        gl.glScissor(10, 20, 30, 40);
+        gl.glEnable(0x0BE2);
+        gl.glDisable(0x0B71);
+        gl.glBlendFunc(0x0302, 0x0303);
+        gl.glClearColor(0.1f, 0.2f, 0.3f, 1.f);
+        gl.glClear(0x4000);
+
+        gl.glUseProgram(5);
+        gl.glActiveTexture(0x84C0);
+        gl.glBindTexture(0x0DE1, 9);
+        gl.glUniform1i(1, 0);
+        gl.glUniform1f(2, 0.5f);
+        gl.glUniform2f(3, 1.f, 2.f);
+        gl.glUniform3f(4, 1.f, 2.f, 3.f);
+        gl.glUniform4f(5, 1.f, 2.f, 3.f, 4.f);
+        float[] matrix = new float[32];
+        for (int i = 0; i < matrix.length; i++)
+            matrix[i] = i;
+        gl.glUniformMatrix4fv(6, 1, false, matrix, 16);
+
+        gl.glBindBuffer(0x8892, 11);
+        gl.glBufferData(0x8892, 16, null, 0x88E0);
+        gl.glBufferSubData(0x8892, 0, 16, floats(1.f, 2.f, 3.f, 4.f));
+        gl.glBindVertexArray(2);
+        gl.glEnableVertexAttribArray(0);
+        gl.glVertexAttribPointer(0, 2, 0x1406, false, 16, 8);
+        gl.glVertexAttribPointer(1, 2, 0x1406, true, 8, ints(1, 2, 3, 4));
+        gl.glVertexAttribDivisor(1, 1);
+        gl.glDrawArrays(0x0005, 0, 4);
+        gl.glDrawElements(0x0004, 6, 0x1403, 0);
+        gl.glDrawElements(0x0004, 6, 0x1403, shorts((short) 0, (short) 1, (short) 2, (short) 1, (short) 3, (short) 2));
+        gl.glDrawArraysInstanced(0x0005, 0, 4, 24);
+        gl.glDisableVertexAttribArray(0);
+
+        ByteBuffer pixels = ByteBuffer.allocateDirect(4 * 4 * 4);
+        for (int i = 0; i < pixels.capacity(); i++)
+            pixels.put(i, (byte) i);
+        pixels.position(16);
+        gl.glPixelStorei(0x0CF2, 4);
+        gl.glTexSubImage2D(0x0DE1, 0, 1, 1, 2, 2, 0x1908, 0x1401, pixels);
+        gl.glPixelStorei(0x0CF2, 0);
+
+        gl.glBlitFramebuffer(0, 0, 1280, 720, 0, 0, 640, 360, 0x4000, 0x2601);
+        gl.glCopyTexSubImage2D(0x0DE1, 0, 0, 0, 0, 0, 64, 64);
+        gl.glReadPixels(0, 0, 2, 2, 0x1908, 0x1401, ByteBuffer.allocateDirect(16));
+        gl.glReadPixels(0, 0, 2, 2, 0x1908, 0x1401, 0);
+        gl.glMapBufferRange(0x88EB, 0, 16, 0x0001);
+        gl.glUnmapBuffer(0x88EB);
+        gl.glGetError();
+
+        int[] result = new int[2];
+        gl.glGetIntegerv(0x8FBB, result, 0);
+        gl.glBeginQuery(0x88BF, 4);
+        gl.glEndQuery(0x88BF);
+        gl.glGetQueryObjectuiv(4, 0x8867, result, 1);
+        gl.endFrame();
+    }
+
+    private static FloatBuffer floats(float... values)
+    {
+        FloatBuffer buffer = direct(values.length * 4).asFloatBuffer();
+        buffer.put(values).flip();
+        return buffer;
+    }
+
+    private static IntBuffer ints(int... values)
+    {
+        IntBuffer buffer = direct(values.length * 4).asIntBuffer();
+        buffer.put(values).flip();
+        return buffer;
+    }
+
+    private static ShortBuffer shorts(short... values)
+    {
+        ShortBuffer buffer = direct(values.length * 2).asShortBuffer();
+        buffer.put(values).flip();
+        return buffer;
+    }
+
+    private static ByteBuffer direct(int bytes)
+    {
+        return ByteBuffer.allocateDirect(bytes).order(ByteOrder.nativeOrder());
+    }
+}
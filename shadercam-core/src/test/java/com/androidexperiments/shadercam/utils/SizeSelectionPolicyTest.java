@@ -0,0 +1,132 @@
+package com.androidexperiments.shadercam.utils;
+
+import com.androidexperiments.shadercam.utils.SizeSelectionPolicy.Candidate;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class SizeSelectionPolicyTest
+{
+    private static final long FPS_30 = 33333333L;
+    private static final long FPS_20 = 50000000L;
+
+    /**
+     * a recent phone: everything up to 4K at 30fps, full sensor resolution at 20
+     */
+    private static final Candidate[] PHONE = {
+            new Candidate(4032, 3024, FPS_20),
+            new Candidate(4000, 3000, FPS_20),
+            new Candidate(3840, 2160, FPS_30),
+            new Candidate(2560, 1440, FPS_30),
+            new Candidate(1920, 1080, FPS_30),
+            new Candidate(1440, 1080, FPS_30),
+            new Candidate(1280, 960, FPS_30),
+            new Candidate(1280, 720, FPS_30),
+            new Candidate(960, 720, FPS_30),
+            new Candidate(720, 480, FPS_30),
+            new Candidate(640, 480, FPS_30),
+            new Candidate(352, 288, FPS_30),
+            new Candidate(320, 240, FPS_30),
+            new Candidate(176, 144, FPS_30),
+    };
+
+    /**
+     * an older device that only manages 1080p at 20fps, with durations it doesn't report
+     */
+    private static final Candidate[] OLD_PHONE = {
+            new Candidate(1920, 1080, FPS_20),
+            new Candidate(1280, 720, 0),
+            new Candidate(640, 480, 0),
+            new Candidate(320, 240, 0),
+    };
+
+    @Test
+    public void choosePreviewSize()
+    {
+        //device, fps, view width, view height, expected
+        Object[][] cases = {
+                {PHONE, 30, 1080, 1920, "1920x1080"},
+                {PHONE, 30, 1920, 1080, "1920x1080"},
+                {PHONE, 30, 720, 1280, "1280x720"},
+                {PHONE, 30, 480, 640, "640x480"},
+                {PHONE, 30, 600, 800, "960x720"},      //smallest 4:3 covering the view
+                {PHONE, 30, 1080, 2160, "1920x1080"},  //no 18:9 sizes and nothing in budget covers it
+                {PHONE, 30, 1440, 2560, "1920x1080"},  //2560x1440 would be over the pixel rate budget
+                {PHONE, 30, 0, 0, "176x144"},          //view not laid out yet
+                {OLD_PHONE, 30, 1080, 1920, "1280x720"},
+                {OLD_PHONE, 20, 1080, 1920, "1920x1080"},
+                {OLD_PHONE, 30, 480, 640, "640x480"},
+        };
+
+        for (Object[] c : cases) {
+            SizeSelectionPolicy policy = new SizeSelectionPolicy().setTargetFps((Integer) c[1]);
+            Candidate chosen = policy.choosePreviewSize((Candidate[]) c[0], (Integer) c[2], (Integer) c[3]);
+            assertEquals("view " + c[2] + "x" + c[3] + " at " + c[1] + "fps", c[4], String.valueOf(chosen));
+        }
+    }
+
+    @Test
+    public void chooseRecordSize()
+    {
+        //device, max short edge, preview, expected
+        Object[][] cases = {
+                {PHONE, 1080, new Candidate(1920, 1080, FPS_30), "1920x1080"},
+                {PHONE, 1080, new Candidate(640, 480, FPS_30), "1440x1080"},
+                {PHONE, 1080, null, "1920x1080"},
+                {PHONE, 720, new Candidate(1920, 1080, FPS_30), "1280x720"},
+                {PHONE, 720, new Candidate(640, 480, FPS_30), "960x720"},
+                {PHONE, 480, new Candidate(352, 288, FPS_30), "352x288"},
+                {OLD_PHONE, 1080, new Candidate(1280, 720, 0), "1280x720"},
+                {OLD_PHONE, 1080, null, "1280x720"},
+        };
+
+        for (Object[] c : cases) {
+            SizeSelectionPolicy policy = new SizeSelectionPolicy().setMaxRecordShortEdge((Integer) c[1]);
+            Candidate chosen = policy.chooseRecordSize((Candidate[]) c[0], (Candidate) c[2]);
+            assertEquals("preview " + c[2] + ", short edge " + c[1], c[3], String.valueOf(chosen));
+        }
+    }
+
+    @Test
+    public void nothingInBudgetFallsBackToSmallest()
+    {
+        SizeSelectionPolicy policy = new SizeSelectionPolicy().setMaxPixelsPerSecond(1000);
+
+        assertEquals("176x144", policy.choosePreviewSize(PHONE, 1080, 1920).toString());
+        assertEquals("176x144", policy.chooseRecordSize(PHONE, null).toString());
+        assertNull(policy.choosePreviewSize(new Candidate[0], 1080, 1920));
+        assertNull(policy.chooseRecordSize(new Candidate[0], null));
+    }
+
+    @Test
+    public void isWithinBudget()
+    {
+        long fullHd30 = 1920L * 1080 * 30;
+        long uhd30 = 3840L * 2160 * 30;
+
+        //width, height, min frame duration, fps, max pixels per second, expected
+        Object[][] cases = {
+                {1920, 1080, FPS_30, 30, fullHd30, true},         //exactly on budget
+                {1920, 1088, FPS_30, 30, fullHd30, false},
+                {3840, 2160, FPS_30, 30, fullHd30, false},
+                {3840, 2160, FPS_30, 30, uhd30, true},
+                {3840, 2160, FPS_30, 60, uhd30, false},           //can't do 60, and twice the pixels
+                {1280, 720, FPS_20, 30, fullHd30, false},         //fast enough to shade, too slow to capture
+                {1280, 720, FPS_20, 20, fullHd30, true},
+                {1280, 720, FPS_30 + 1, 30, fullHd30, false},
+                {1280, 720, 0L, 30, fullHd30, true},              //unknown duration only checks pixels
+                {640, 480, 0L, 120, fullHd30, true},
+                {1920, 1080, 0L, 60, fullHd30, false},
+        };
+
+        for (Object[] c : cases) {
+            SizeSelectionPolicy policy = new SizeSelectionPolicy()
+                    .setTargetFps((Integer) c[3])
+                    .setMaxPixelsPerSecond((Long) c[4]);
+            Candidate candidate = new Candidate((Integer) c[0], (Integer) c[1], (Long) c[2]);
+            assertEquals(candidate + " at " + c[3] + "fps, " + c[2] + "ns", c[5], policy.isWithinBudget(candidate));
+        }
+    }
+}
@@ -4,7 +4,12 @@ package com.android.texample2;
 public enum AttributeVariable {
     POSITION("a_Position"),
     TEXTURE_COORDINATE("a_TexCoordinate"),
-    MVP_MATRIX("a_MVPMatrixIndex");
+    MVP_MATRIX("a_MVPMatrixIndex"),
+
+    // per instance, batch_instanced_vertex_shader only
+    SPRITE_RECT("a_SpriteRect"),
+    TEXTURE_REGION("a_TexRegion"),
+    INSTANCE_MVP_MATRIX("a_MVPMatrix");
 
     private String name;
 
@@ -11,7 +11,9 @@ package com.android.texample2.domain;
 
 import android.graphics.Paint;
 import android.graphics.Typeface;
-import android.opengl.Matrix;
+import com.androidexperiments.shadercam.gl.Gl;
+import com.androidexperiments.shadercam.text.GlyphMetrics;
+import com.androidexperiments.shadercam.utils.MatrixMath;
 
 import static android.opengl.GLES20.*;
 import static java.lang.Math.abs;
@@ -27,9 +29,8 @@ public class Font {
     public final static int CHAR_CNT = CHAR_END - CHAR_START + 2;  // Character Count (Including Character to use for Unknown)
 
     public final static int CHAR_NONE = 32;            // Character to Use for Unknown (ASCII Code)
-    private final static int CHAR_UNKNOWN = (CHAR_CNT - 1);  // Index of the Unknown Character
 
-    private final static int CHAR_BATCH_SIZE = 24;     // Number of Characters to Render Per Batch must be the same as the size of u_MVPMatrix in BatchTextProgram
+    private final static int INSTANCED_BATCH_SIZE = 512;   // Characters Per Instanced Draw (GLES3), otherwise the size of u_MVPMatrix in BatchTextProgram
     private static final String TAG = "GLTEXT";
 
     //--Members--//
@@ -50,9 +51,12 @@ public class Font {
 
     private FontProgram program;
 
+    private final float[] modelMatrix = new float[16];         // reused by draw() so drawing text doesn't allocate
+
     Font(FontProgram program) {
         this.program = program;
-        batch = new SpriteBatch(CHAR_BATCH_SIZE, program);  // Create Sprite Batch (with Defined Size)
+        int batchSize = program.isInstanced() ? INSTANCED_BATCH_SIZE : program.getMvpMatricesSize();
+        batch = new SpriteBatch(batchSize, program);  // Create Sprite Batch (with Defined Size)
     }
 
     /**
@@ -65,22 +69,43 @@ public class Font {
      * @param padY     Extra padding per character on Y-Axis to prevent overlapping characters.
      */
     public void load(Typeface typeface, int size, int padX, int padY) {
+        Paint paint = setUpPaint(typeface, size);
+        load(FontCharacters.createFontCharacters(paint), FontMetrics.loadFromPaint(paint), padX, padY);
+
+        float xOffset = fontPadX;
+        float yOffset = (cellHeight - 1) - metrics.descentInPixels - fontPadY;
+
+        fontTexture.buildFontMap(paint, cellWidth, cellHeight, xOffset, yOffset);
+    }
+
+    /**
+     * Lay out the character cells for glyphs that were already measured, without rendering the
+     * font map, so text can be drawn where there's no android.graphics to measure with (unit tests).
+     *
+     * @param charWidths width of each character from {@link #CHAR_START} to {@link #CHAR_END}, then {@link #CHAR_NONE}
+     * @param height     actual height of the font in pixels, ascent and descent in pixels as well
+     */
+    void load(float[] charWidths, float height, float ascent, float descent, int padX, int padY) {
+        float charWidthMax = 0.0f;
+        for (float width : charWidths) {
+            if (width > charWidthMax) {
+                charWidthMax = width;
+            }
+        }
+        load(new FontCharacters(charWidths, charWidthMax), new FontMetrics(height, ascent, descent), padX, padY);
+    }
+
+    private void load(FontCharacters characters, FontMetrics metrics, int padX, int padY) {
         fontPadX = padX;
         fontPadY = padY;
 
-        Paint paint = setUpPaint(typeface, size);
-        metrics = FontMetrics.loadFromPaint(paint);
-        characters = FontCharacters.createFontCharacters(paint);
+        this.metrics = metrics;
+        this.characters = characters;
 
         cellWidth = (int) characters.charWidthMax + (2 * fontPadX);
         cellHeight = (int) metrics.actualHeightInPixels + (2 * fontPadY);
 
         fontTexture = new FontTexture(cellWidth, cellHeight);
-
-        float xOffset = fontPadX;
-        float yOffset = (cellHeight - 1) - metrics.descentInPixels - fontPadY;
-
-        fontTexture.buildFontMap(paint, cellWidth, cellHeight, xOffset, yOffset);
     }
 
     private Paint setUpPaint(Typeface typeface, int size) {
@@ -95,11 +120,11 @@ public class Font {
 
     private static class FontCharacters {
 
-        private final float[] charWidths;
+        private final GlyphMetrics metrics;
         private final float charWidthMax;
 
         public FontCharacters(float[] charWidths, float charWidthMax) {
-            this.charWidths = charWidths;
+            this.metrics = new GlyphMetrics(charWidths, CHAR_START);
             this.charWidthMax = charWidthMax;
         }
 
@@ -127,28 +152,10 @@ public class Font {
             return new FontCharacters(charWidths, charWidthMax);
         }
 
-        private int getCharacterIndex(char character) {
-            int index = (int) character - CHAR_START;
-            if (index < 0 || index >= CHAR_CNT) {
-                index = CHAR_UNKNOWN;
-            }
-            return index;
-        }
-
-        private float getCharacterWidth(char character) {
-            int characterIndex = getCharacterIndex(character);
-            return charWidths[characterIndex];
-        }
-
     }
 
-    public float getLength(String text) {
-        float result = 0.0f;
-        for (int i = 0; i < text.length(); i++) {
-            result += characters.getCharacterWidth(text.charAt(i));
-        }
-        result += (text.length() - 1) * spaceX;
-        return result * scaleX;
+    public float getLength(CharSequence text) {
+        return characters.metrics.measure(text, spaceX, scaleX);
     }
 
     public float getScaledCharHeight() {
@@ -173,24 +180,23 @@ public class Font {
     }
 
     private void initDraw(float red, float green, float blue, float alpha) {
-        glUseProgram(program.getProgramHandle()); // specify the program to use
+        Gl.api().glUseProgram(program.getProgramHandle()); // specify the program to use
 
         // set color TODO: only alpha component works, text is always black #BUG
-        float[] color = {red, green, blue, alpha};
-        glUniform4fv(program.getColorHandle(), 1, color, 0);
-        glEnableVertexAttribArray(program.getColorHandle());
+        Gl.api().glUniform4f(program.getColorHandle(), red, green, blue, alpha);
+        Gl.api().glEnableVertexAttribArray(program.getColorHandle());
 
-        glActiveTexture(GL_TEXTURE0);  // Set the active texture unit to texture unit 0
+        Gl.api().glActiveTexture(GL_TEXTURE0);  // Set the active texture unit to texture unit 0
 
         fontTexture.bindTexture();
 
         // Tell the texture uniform sampler to use this texture in the shader by binding to texture unit 0
-        glUniform1i(program.getTextureUniformHandle(), 0);
+        Gl.api().glUniform1i(program.getTextureUniformHandle(), 0);
     }
 
     public void end() {
         batch.endBatch();
-        glDisableVertexAttribArray(program.getColorHandle());
+        Gl.api().glDisableVertexAttribArray(program.getColorHandle());
     }
 
     /**
@@ -221,25 +227,20 @@ public class Font {
      * @param angleDegY the y-position of the angle to rotate the text
      * @param angleDegZ the z-position of the angle to rotate the text
      */
-    private void draw(String text, float x, float y, float z, float angleDegX, float angleDegY, float angleDegZ) {
+    private void draw(CharSequence text, float x, float y, float z, float angleDegX, float angleDegY, float angleDegZ) {
         x += ((cellWidth / 2.0f) - fontPadX) * scaleX;
         y += ((cellHeight / 2.0f) - fontPadY) * scaleY;
 
         // create a model matrix based on x, y and angleDeg
-        float[] modelMatrix = new float[16];
-        Matrix.setIdentityM(modelMatrix, 0);
-        Matrix.translateM(modelMatrix, 0, x, y, z);
-        Matrix.rotateM(modelMatrix, 0, angleDegZ, 0, 0, 1);
-        Matrix.rotateM(modelMatrix, 0, angleDegX, 1, 0, 0);
-        Matrix.rotateM(modelMatrix, 0, angleDegY, 0, 1, 0);
-
-        float xOffset = 0;
-
-        for (int i = 0; i < text.length(); i++) {              // FOR Each Character in String
-            //TODO: optimize - applying the same model matrix to all the characters in the string
-            batch.drawSprite(xOffset, 0.0f, cellWidth * scaleX, cellHeight * scaleY, fontTexture.getTextureCoordinates(characters.getCharacterIndex(text.charAt(i))), modelMatrix);
-            xOffset += (characters.getCharacterWidth(text.charAt(i)) + spaceX) * scaleX;
-        }
+        MatrixMath.setIdentityM(modelMatrix, 0);
+        MatrixMath.translateM(modelMatrix, 0, x, y, z);
+        MatrixMath.rotateM(modelMatrix, 0, angleDegZ, 0, 0, 1);
+        MatrixMath.rotateM(modelMatrix, 0, angleDegX, 1, 0, 0);
+        MatrixMath.rotateM(modelMatrix, 0, angleDegY, 0, 1, 0);
+
+        //TODO: optimize - applying the same model matrix to all the characters in the string
+        characters.metrics.layout(text, fontTexture.getTextureCoordinates(), cellWidth, cellHeight,
+                spaceX, scaleX, scaleY, modelMatrix, batch.getSprites());
     }
 
     public TextBuilder startDrawing(String text) {
@@ -306,7 +307,7 @@ public class Font {
         }
     }
 
-    public void draw(String text, float x, float y) {
+    public void draw(CharSequence text, float x, float y) {
 
         draw(text, x, y, 0.0f, 0.0f, 0.0f, 0.0f);
     }
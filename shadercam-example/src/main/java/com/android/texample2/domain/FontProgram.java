@@ -3,16 +3,37 @@ package com.android.texample2.domain;
 
 import com.android.texample2.AttributeVariable;
 import com.android.texample2.UniformVariable;
+import com.androidexperiments.shadercam.gl.GlProgram;
 
-import static android.opengl.GLES20.*;
 import static com.android.texample2.UniformVariable.*;
 
 public class FontProgram {
 
     private int programHandle;
 
+    // locations are introspected once here instead of being queried by name on every draw
+    private GlProgram program;
+    private int colorHandle;
+    private int textureUniformHandle;
+    private int mvpMatricesHandle;
+    private int mvpMatricesSize;
+    private boolean instanced;
+
     public FontProgram(int programHandle) {
         this.programHandle = programHandle;
+        this.program = GlProgram.introspect(programHandle);
+
+        colorHandle = getHandle(COLOR);
+        textureUniformHandle = getHandle(TEXTURE);
+
+        // BatchTextProgram picks the shaders, what they declare tells us which ones we got
+        instanced = program.hasAttribute(AttributeVariable.INSTANCE_MVP_MATRIX.getName());
+        if (!instanced) {
+            mvpMatricesHandle = getHandle(MVP_MATRIX);
+            mvpMatricesSize = program.getUniform(MVP_MATRIX.getName()).size;
+        } else {
+            mvpMatricesHandle = GlProgram.INVALID_LOCATION;
+        }
     }
 
     public int getProgramHandle() {
@@ -20,22 +41,36 @@ public class FontProgram {
     }
 
     public int getColorHandle() {
-        return getHandle(COLOR);
+        return colorHandle;
     }
 
     public int getTextureUniformHandle() {
-        return getHandle(TEXTURE);
+        return textureUniformHandle;
     }
 
     public int getMvpMatricesHandle() {
-        return getHandle(MVP_MATRIX);
+        return mvpMatricesHandle;
+    }
+
+    /**
+     * @return length of the u_MVPMatrix array, so how many sprites fit in a batch, 0 if instanced
+     */
+    public int getMvpMatricesSize() {
+        return mvpMatricesSize;
+    }
+
+    /**
+     * @return true if sprites are drawn as instances, with their matrices in an attribute buffer
+     */
+    public boolean isInstanced() {
+        return instanced;
     }
 
     public int getHandle(UniformVariable uniformVariable) {
-        return glGetUniformLocation(programHandle, uniformVariable.getName());
+        return program.getUniformLocation(uniformVariable.getName());
     }
 
     public int getHandle(AttributeVariable attributeVariable) {
-        return glGetAttribLocation(programHandle, attributeVariable.getName());
+        return program.getAttribLocation(attributeVariable.getName());
     }
 }
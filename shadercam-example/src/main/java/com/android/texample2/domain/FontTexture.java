@@ -6,8 +6,10 @@ import android.graphics.Canvas;
 import android.graphics.Paint;
 import android.opengl.Matrix;
 
+import com.androidexperiments.shadercam.gl.Gl;
+import com.androidexperiments.shadercam.text.TextureRegion;
+
 import static android.opengl.GLES20.GL_TEXTURE_2D;
-import static android.opengl.GLES20.glBindTexture;
 import static com.android.texample2.domain.Font.CHAR_CNT;
 import static com.android.texample2.domain.Font.CHAR_END;
 import static com.android.texample2.domain.Font.CHAR_NONE;
@@ -121,8 +123,12 @@ class FontTexture {
         return textureCoordinates[characterIndex];
     }
 
+    public TextureRegion[] getTextureCoordinates() {
+        return textureCoordinates;
+    }
+
     public void bindTexture() {
         // Bind the texture to this unit
-        glBindTexture(GL_TEXTURE_2D, textureId);
+        Gl.api().glBindTexture(GL_TEXTURE_2D, textureId);
     }
 }
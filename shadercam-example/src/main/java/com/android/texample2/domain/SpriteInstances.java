@@ -0,0 +1,147 @@
+package com.android.texample2.domain;
+
+import com.android.texample2.AttributeVariable;
+import com.androidexperiments.shadercam.gl.Gl;
+import com.androidexperiments.shadercam.text.SpriteBuffer;
+import com.androidexperiments.shadercam.utils.BufferUtils;
+
+import java.nio.FloatBuffer;
+
+import static android.opengl.GLES20.*;
+import static java.nio.ByteBuffer.allocateDirect;
+import static java.nio.ByteOrder.nativeOrder;
+
+/**
+ * GLES3 counterpart of {@link Vertices}: a unit quad drawn once per sprite, with each sprite's
+ * rect, texture region and MVP matrix read from a per-instance attribute buffer instead of the
+ * u_MVPMatrix uniform array, so a batch isn't capped by uniform space.
+ */
+class SpriteInstances {
+
+    //--Constants--//
+    private final static int FLOAT_SIZE = 4;
+    private final static int INSTANCE_BYTES = SpriteBuffer.INSTANCE_SIZE * FLOAT_SIZE;  // Bytesize of a Single Instance
+    private final static int POSITION_CNT = 2;                 // Number of Components in a Quad Corner
+    private final static int VEC4_CNT = 4;
+    private final static int RING_BATCHES = 4;                 // Full Batches that fit in the Streaming Instance Buffer before it wraps
+
+    private final static float[] QUAD = {0, 0, 1, 0, 0, 1, 1, 1};  // Unit Quad Corners, as a Triangle Strip
+
+    //--Members--//
+    private final FloatBuffer instances;                       // Staging Buffer for the Instance Upload
+    private final int mQuadBufferId;                           // Static VBO with the Quad Corners
+    private final int mInstanceBufferId;                       // Streaming VBO, written as a ring
+    private final int mRingSize;                               // Bytesize of the Streaming VBO
+    private int mWriteOffset;                                  // Where the Next Batch gets Written in the Ring
+    private int mBatchOffset;                                  // Where the Current Batch Starts in the Ring
+    private final int mPositionHandle;
+    private final int mRectHandle;
+    private final int mRegionHandle;
+    private final int mMVPMatrixHandle;                        // First of the Four Locations the mat4 Takes
+
+    /**
+     * @param maxInstances maximum sprites per draw
+     */
+    public SpriteInstances(int maxInstances, FontProgram program) {
+        this.instances = allocateDirect(maxInstances * INSTANCE_BYTES).order(nativeOrder()).asFloatBuffer();
+
+        int[] ids = new int[2];
+        glGenBuffers(2, ids, 0);
+        mQuadBufferId = ids[0];
+        mInstanceBufferId = ids[1];
+
+        glBindBuffer(GL_ARRAY_BUFFER, mQuadBufferId);
+        glBufferData(GL_ARRAY_BUFFER, QUAD.length * FLOAT_SIZE, BufferUtils.createFloatBuffer(QUAD), GL_STATIC_DRAW);
+
+        // instances change every batch, so they stream through a ring in one buffer object like Vertices does
+        mRingSize = maxInstances * INSTANCE_BYTES * RING_BATCHES;
+        glBindBuffer(GL_ARRAY_BUFFER, mInstanceBufferId);
+        glBufferData(GL_ARRAY_BUFFER, mRingSize, null, GL_STREAM_DRAW);
+        glBindBuffer(GL_ARRAY_BUFFER, 0);
+        mWriteOffset = 0;
+        mBatchOffset = 0;
+
+        mPositionHandle = program.getHandle(AttributeVariable.POSITION);
+        mRectHandle = program.getHandle(AttributeVariable.SPRITE_RECT);
+        mRegionHandle = program.getHandle(AttributeVariable.TEXTURE_REGION);
+        mMVPMatrixHandle = program.getHandle(AttributeVariable.INSTANCE_MVP_MATRIX);
+    }
+
+    /**
+     * upload the instances for the next draw
+     *
+     * @param data         {@link SpriteBuffer#INSTANCE_SIZE} floats per instance
+     * @param numInstances number of instances in data
+     */
+    public void setInstances(float[] data, int numInstances) {
+        int length = numInstances * SpriteBuffer.INSTANCE_SIZE;
+        // a plain put, the int[] conversion Vertices does doesn't pay off any more (see VerticesBenchmark)
+        instances.clear();
+        instances.put(data, 0, length).flip();
+
+        int bytes = length * FLOAT_SIZE;
+        Gl.api().glBindBuffer(GL_ARRAY_BUFFER, mInstanceBufferId);
+        if (mWriteOffset + bytes > mRingSize) {
+            // ring is full: orphan the storage rather than wait on draws still reading it
+            Gl.api().glBufferData(GL_ARRAY_BUFFER, mRingSize, null, GL_STREAM_DRAW);
+            mWriteOffset = 0;
+        }
+        Gl.api().glBufferSubData(GL_ARRAY_BUFFER, mWriteOffset, bytes, instances);
+        mBatchOffset = mWriteOffset;
+        mWriteOffset += bytes;
+    }
+
+    /**
+     * point the attributes at the quad and the instances set last.<br/>
+     * USAGE: call once before draw(), and unbind() after.
+     */
+    public void bind() {
+        Gl.api().glBindBuffer(GL_ARRAY_BUFFER, mQuadBufferId);
+        Gl.api().glVertexAttribPointer(mPositionHandle, POSITION_CNT, GL_FLOAT, false, POSITION_CNT * FLOAT_SIZE, 0);
+        Gl.api().glEnableVertexAttribArray(mPositionHandle);
+
+        // everything else advances once per sprite instead of once per vertex
+        Gl.api().glBindBuffer(GL_ARRAY_BUFFER, mInstanceBufferId);
+        bindInstanceAttribute(mRectHandle, SpriteBuffer.INSTANCE_RECT_OFFSET);
+        bindInstanceAttribute(mRegionHandle, SpriteBuffer.INSTANCE_REGION_OFFSET);
+        for (int column = 0; column < 4; column++) {     // a mat4 attribute is four vec4 columns
+            bindInstanceAttribute(mMVPMatrixHandle + column, SpriteBuffer.INSTANCE_MATRIX_OFFSET + column * VEC4_CNT);
+        }
+    }
+
+    private void bindInstanceAttribute(int handle, int floatOffset) {
+        Gl.api().glVertexAttribPointer(handle, VEC4_CNT, GL_FLOAT, false, INSTANCE_BYTES, mBatchOffset + floatOffset * FLOAT_SIZE);
+        Gl.api().glEnableVertexAttribArray(handle);
+        Gl.api().glVertexAttribDivisor(handle, 1);
+    }
+
+    /**
+     * draw all the sprites in one call<br/>
+     * USAGE: can only be called after calling bind().
+     *
+     * @param numInstances number of instances to draw, from the start of the last setInstances()
+     */
+    public void draw(int numInstances) {
+        Gl.api().glDrawArraysInstanced(GL_TRIANGLE_STRIP, 0, QUAD.length / POSITION_CNT, numInstances);
+    }
+
+    /**
+     * clear binding states when done rendering.<br/>
+     * divisors are reset too, they stick to the attribute locations and would break whoever draws next
+     */
+    public void unbind() {
+        Gl.api().glDisableVertexAttribArray(mPositionHandle);
+        unbindInstanceAttribute(mRectHandle);
+        unbindInstanceAttribute(mRegionHandle);
+        for (int column = 0; column < 4; column++) {
+            unbindInstanceAttribute(mMVPMatrixHandle + column);
+        }
+
+        Gl.api().glBindBuffer(GL_ARRAY_BUFFER, 0);
+    }
+
+    private void unbindInstanceAttribute(int handle) {
+        Gl.api().glVertexAttribDivisor(handle, 0);
+        Gl.api().glDisableVertexAttribArray(handle);
+    }
+}
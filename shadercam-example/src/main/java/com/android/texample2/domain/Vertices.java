@@ -1,6 +1,8 @@
 package com.android.texample2.domain;
 
 import com.android.texample2.AttributeVariable;
+import com.androidexperiments.shadercam.gl.Gl;
+import com.androidexperiments.shadercam.utils.BufferUtils;
 
 import java.nio.IntBuffer;
 import java.nio.ShortBuffer;
@@ -20,6 +22,7 @@ class Vertices {
     private static final int MVP_MATRIX_INDEX_CNT = 1; // Number of Components in MVP matrix index
 
     private final static int INDEX_SIZE = Short.SIZE / 8;      // Index Byte Size (Short.SIZE = bits)
+    private final static int RING_BATCHES = 4;                 // Full Batches that fit in the Streaming Vertex Buffer before it wraps
 
     private static final String TAG = "Vertices";
 
@@ -33,6 +36,11 @@ class Vertices {
     public int numVertices;                            // Number of Vertices in Buffer
     public int numIndices;                             // Number of Indices in Buffer
     final int[] tmpBuffer;                             // Temp Buffer for Vertex Conversion
+    private final int mVertexBufferId;                 // Streaming VBO, written as a ring
+    private final int mIndexBufferId;                  // Static IBO, uploaded once by setIndices()
+    private final int mRingSize;                       // Bytesize of the Streaming VBO
+    private int mWriteOffset;                          // Where the Next Batch gets Written in the Ring
+    private int mBatchOffset;                          // Where the Current Batch Starts in the Ring
     private int mTextureCoordinateHandle;
     private int mPositionHandle;
     private int mMVPIndexHandle;
@@ -61,6 +69,18 @@ class Vertices {
 
         this.tmpBuffer = new int[maxVertices * vertexSize / 4];  // Create Temp Buffer
 
+        // vertices change every batch, so they stream through a ring in one buffer object
+        int[] ids = new int[2];
+        glGenBuffers(2, ids, 0);
+        mVertexBufferId = ids[0];
+        mIndexBufferId = ids[1];
+        mRingSize = maxVertices * vertexSize * RING_BATCHES;
+        glBindBuffer(GL_ARRAY_BUFFER, mVertexBufferId);
+        glBufferData(GL_ARRAY_BUFFER, mRingSize, null, GL_STREAM_DRAW);
+        glBindBuffer(GL_ARRAY_BUFFER, 0);
+        mWriteOffset = 0;
+        mBatchOffset = 0;
+
         // initialize the shader attribute handles
         mTextureCoordinateHandle = program.getHandle(AttributeVariable.TEXTURE_COORDINATE);
         mMVPIndexHandle = program.getHandle(AttributeVariable.MVP_MATRIX);
@@ -76,14 +96,20 @@ class Vertices {
      * @param length   number of floats in the vertex array (total) <br/>for easy setting use: vtx_cnt * (this.vertexSize / 4)
      */
     public void setVertices(float[] vertices, int offset, int length) {
-        this.vertices.clear();                          // Remove Existing Vertices
-        int last = offset + length;                     // Calculate Last Element
-        for (int i = offset, j = 0; i < last; i++, j++) { // FOR Each Specified Vertex
-            tmpBuffer[j] = Float.floatToRawIntBits(vertices[i]);  // Set Vertex as Raw Integer Bits in Buffer
-        }
-        this.vertices.put(tmpBuffer, 0, length);      // Set New Vertices
-        this.vertices.flip();                           // Flip Vertex Buffer
+        BufferUtils.putFloatBits(this.vertices, vertices, offset, length, tmpBuffer);  // Set Vertices as Raw Integer Bits
         this.numVertices = length / this.vertexStride;  // Save Number of Vertices
+
+        int bytes = length * 4;
+        Gl.api().glBindBuffer(GL_ARRAY_BUFFER, mVertexBufferId);
+        if (mWriteOffset + bytes > mRingSize) {
+            // ring is full: orphan the storage so the driver hands us fresh memory instead of
+            // waiting on draws still reading the old batches
+            Gl.api().glBufferData(GL_ARRAY_BUFFER, mRingSize, null, GL_STREAM_DRAW);
+            mWriteOffset = 0;
+        }
+        Gl.api().glBufferSubData(GL_ARRAY_BUFFER, mWriteOffset, bytes, this.vertices);
+        mBatchOffset = mWriteOffset;
+        mWriteOffset += bytes;
     }
 
     /**
@@ -97,6 +123,11 @@ class Vertices {
         this.indices.clear();
         this.indices.put(indices, offset, length).flip();
         this.numIndices = length;
+
+        // indices never change, so they're uploaded once
+        glBindBuffer(GL_ELEMENT_ARRAY_BUFFER, mIndexBufferId);
+        glBufferData(GL_ELEMENT_ARRAY_BUFFER, length * INDEX_SIZE, this.indices, GL_STATIC_DRAW);
+        glBindBuffer(GL_ELEMENT_ARRAY_BUFFER, 0);
     }
 
     /**
@@ -104,17 +135,21 @@ class Vertices {
      * USAGE: call once before calling draw() multiple times for this buffer.
      */
     public void bind() {
-        vertices.position(0);                         // Set Vertex Buffer to Position
-        glVertexAttribPointer(mPositionHandle, positionCnt, GL_FLOAT, false, vertexSize, vertices);
-        glEnableVertexAttribArray(mPositionHandle);
+        Gl.api().glBindBuffer(GL_ARRAY_BUFFER, mVertexBufferId);
 
-        vertices.position(positionCnt);  // Set Vertex Buffer to Texture Coords (NOTE: position based on whether color is also specified)
-        glVertexAttribPointer(mTextureCoordinateHandle, TEXCOORD_CNT, GL_FLOAT, false, vertexSize, vertices);
-        glEnableVertexAttribArray(mTextureCoordinateHandle);
+        Gl.api().glVertexAttribPointer(mPositionHandle, positionCnt, GL_FLOAT, false, vertexSize, mBatchOffset);
+        Gl.api().glEnableVertexAttribArray(mPositionHandle);
 
-        vertices.position(positionCnt + TEXCOORD_CNT);
-        glVertexAttribPointer(mMVPIndexHandle, MVP_MATRIX_INDEX_CNT, GL_FLOAT, false, vertexSize, vertices);
-        glEnableVertexAttribArray(mMVPIndexHandle);
+        // Texture Coords (NOTE: offset based on whether color is also specified)
+        Gl.api().glVertexAttribPointer(mTextureCoordinateHandle, TEXCOORD_CNT, GL_FLOAT, false, vertexSize, mBatchOffset + positionCnt * 4);
+        Gl.api().glEnableVertexAttribArray(mTextureCoordinateHandle);
+
+        Gl.api().glVertexAttribPointer(mMVPIndexHandle, MVP_MATRIX_INDEX_CNT, GL_FLOAT, false, vertexSize, mBatchOffset + (positionCnt + TEXCOORD_CNT) * 4);
+        Gl.api().glEnableVertexAttribArray(mMVPIndexHandle);
+
+        if (indices != null) {
+            Gl.api().glBindBuffer(GL_ELEMENT_ARRAY_BUFFER, mIndexBufferId);
+        }
     }
 
     /**
@@ -127,12 +162,11 @@ class Vertices {
      */
     public void draw(int primitiveType, int offset, int numVertices) {
         if (indices != null) {                       // IF Indices Exist
-            indices.position(offset);                  // Set Index Buffer to Specified Offset
-            //draw indexed
-            glDrawElements(primitiveType, numVertices, GL_UNSIGNED_SHORT, indices);
+            //draw indexed, offset is in bytes into the bound index buffer
+            Gl.api().glDrawElements(primitiveType, numVertices, GL_UNSIGNED_SHORT, offset * INDEX_SIZE);
         } else {                                         // ELSE No Indices Exist
             //draw direct
-            glDrawArrays(primitiveType, offset, numVertices);
+            Gl.api().glDrawArrays(primitiveType, offset, numVertices);
         }
     }
 
@@ -141,6 +175,12 @@ class Vertices {
      * USAGE: call once before calling draw() multiple times for this buffer.
      */
     public void unbind() {
-        glDisableVertexAttribArray(mTextureCoordinateHandle);
+        Gl.api().glDisableVertexAttribArray(mPositionHandle);
+        Gl.api().glDisableVertexAttribArray(mTextureCoordinateHandle);
+        Gl.api().glDisableVertexAttribArray(mMVPIndexHandle);
+
+        // back to client-side arrays for whoever draws next
+        Gl.api().glBindBuffer(GL_ARRAY_BUFFER, 0);
+        Gl.api().glBindBuffer(GL_ELEMENT_ARRAY_BUFFER, 0);
     }
 }
@@ -1,19 +1,70 @@
 package com.android.texample2.programs;
 
 import com.android.texample2.AttributeVariable;
+import com.androidexperiments.shadercam.gl.GlUtil;
+import com.androidexperiments.shadercam.gl.ProgramCache;
 
+import static android.opengl.GLES20.GL_MAX_VERTEX_UNIFORM_VECTORS;
+import static android.opengl.GLES20.glGetIntegerv;
 import static com.android.texample2.AttributeVariable.*;
 import static com.android.texample2.RawResourceReader.readShaderFileFromResource;
 
 
 public class BatchTextProgram {
 
+    private static final int DEFAULT_BATCH_SIZE = 24;          // what batch_vertex_shader declares when we don't, fits the GLES2 minimum of 128 vectors
+    private static final int MAX_UNIFORM_BATCH_SIZE = 256;     // more than this and the uniform array only slows down shader compiles
+    private static final int RESERVED_UNIFORM_VECTORS = 4;     // left for the driver, some use a few for their own constants
+
+    // the mat4 goes last, it takes four locations from where it's bound
+    private static final AttributeVariable[] UNIFORM_VARIABLES = {POSITION, TEXTURE_COORDINATE, MVP_MATRIX};
+    private static final AttributeVariable[] INSTANCED_VARIABLES = {POSITION, SPRITE_RECT, TEXTURE_REGION, INSTANCE_MVP_MATRIX};
+
+    /**
+     * instanced on GLES3 contexts, otherwise with a uniform array of MVP matrices as big as the
+     * device allows. {@link com.android.texample2.domain.FontProgram} tells them apart.
+     */
     public static Program createBatchTextProgram() {
-        String vertexShaderCode = readShaderFileFromResource("batch_vertex_shader");
-        String fragmentShaderCode = readShaderFileFromResource("batch_fragment_shader");
-        AttributeVariable[] programVariables = {POSITION, TEXTURE_COORDINATE, MVP_MATRIX};
+        return createBatchTextProgram(null);
+    }
+
+    /**
+     * @param cache where to look for an already linked binary, null to always compile
+     */
+    public static Program createBatchTextProgram(ProgramCache cache) {
+        String vertexShaderCode;
+        String fragmentShaderCode;
+        AttributeVariable[] programVariables;
+
+        if (GlUtil.getGlMajorVersion() >= 3) {
+            vertexShaderCode = readShaderFileFromResource("batch_instanced_vertex_shader");
+            fragmentShaderCode = readShaderFileFromResource("batch_instanced_fragment_shader");
+            programVariables = INSTANCED_VARIABLES;
+        } else {
+            vertexShaderCode = "#define BATCH_SIZE " + getMaxUniformBatchSize() + "\n"
+                    + readShaderFileFromResource("batch_vertex_shader");
+            fragmentShaderCode = readShaderFileFromResource("batch_fragment_shader");
+            programVariables = UNIFORM_VARIABLES;
+        }
+
+        if (cache == null) {
+            return new Program(vertexShaderCode, fragmentShaderCode, programVariables);
+        }
+        return new Program(vertexShaderCode, fragmentShaderCode, programVariables, cache);
+    }
+
+    /**
+     * @return how many mat4s fit in a vertex shader uniform array on this device
+     */
+    public static int getMaxUniformBatchSize() {
+        int[] vectors = new int[1];
+        glGetIntegerv(GL_MAX_VERTEX_UNIFORM_VECTORS, vectors, 0);
+        if (vectors[0] <= 0) {
+            return DEFAULT_BATCH_SIZE;
+        }
 
-        return new Program(vertexShaderCode, fragmentShaderCode, programVariables);
+        int size = (vectors[0] - RESERVED_UNIFORM_VECTORS) / 4;  // four vectors per mat4
+        return Math.max(DEFAULT_BATCH_SIZE, Math.min(size, MAX_UNIFORM_BATCH_SIZE));
     }
 
 }
@@ -4,6 +4,7 @@ import android.opengl.GLES20;
 import android.util.Log;
 
 import com.android.texample2.AttributeVariable;
+import com.androidexperiments.shadercam.gl.ProgramCache;
 
 
 public class Program {
@@ -19,6 +20,21 @@ public class Program {
         programHandle = createProgram(vertexShaderHandle, fragmentShaderHandle, programVariables);
     }
 
+    /**
+     * same as above, but loads a previously linked binary from the cache when there is one
+     */
+    public Program(String vertexShaderCode, String fragmentShaderCode, AttributeVariable[] programVariables, ProgramCache cache) {
+        String[] attributeNames = new String[programVariables.length];
+        for (int i = 0; i < programVariables.length; i++) {
+            attributeNames[i] = programVariables[i].getName();
+        }
+
+        programHandle = cache.getProgram(vertexShaderCode, fragmentShaderCode, attributeNames);
+        if (programHandle == 0) {
+            throw new RuntimeException("Error creating program.");
+        }
+    }
+
     public int getHandle() {
         return programHandle;
     }
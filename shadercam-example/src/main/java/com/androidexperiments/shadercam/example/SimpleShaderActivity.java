@@ -2,9 +2,7 @@ package com.androidexperiments.shadercam.example;
 
 import android.Manifest;
 import android.content.Context;
-import android.content.res.AssetManager;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.graphics.SurfaceTexture;
 import android.opengl.GLSurfaceView;
 import android.os.Bundle;
@@ -20,14 +18,14 @@ import android.widget.Toast;
 
 import com.androidexperiments.shadercam.example.gl.ExampleRenderer;
 import com.androidexperiments.shadercam.example.gl.TextRenderer;
+import com.androidexperiments.shadercam.encoder.MediaRecorderVideoEncoder;
 import com.androidexperiments.shadercam.fragments.CameraFragment;
 import com.androidexperiments.shadercam.fragments.PermissionsHelper;
 import com.androidexperiments.shadercam.gl.CameraRenderer;
+import com.androidexperiments.shadercam.gl.TextureLoader;
 import com.androidexperiments.shadercam.utils.ShaderUtils;
 
 import java.io.File;
-import java.io.IOException;
-import java.io.InputStream;
 import java.util.Arrays;
 
 import butterknife.ButterKnife;
@@ -219,6 +217,8 @@ public class SimpleShaderActivity extends FragmentActivity implements CameraRend
     protected void setReady(SurfaceTexture surface, int width, int height) {
         mRenderer = getRenderer(surface, width, height);
         mRenderer.setCameraFragment(mCameraFragment);
+        //the default MediaCodecVideoEncoder is video only, and we asked for the mic
+        mRenderer.setVideoEncoder(new MediaRecorderVideoEncoder(this));
         mRenderer.setOnRendererReadyListener(this);
         mRenderer.start();
 
@@ -228,18 +228,15 @@ public class SimpleShaderActivity extends FragmentActivity implements CameraRend
             ((TextRenderer) mRenderer).onSurfaceChanged(width, height);
     }
 
+    /**
+     * decodes no bigger than our preview needs. off the UI thread, or better yet just hand
+     * {@link TextureLoader.Request#fromAsset(Context, String)} to
+     * {@link CameraRenderer#addTexture(TextureLoader.Request, String)} and let it decode in the background
+     */
     private Bitmap getBitmapFromAssets(Context context, String fileName) {
-        AssetManager asset = context.getAssets();
-        InputStream is;
-        try {
-            is = asset.open(fileName);
-            BitmapFactory.Options options = new BitmapFactory.Options();
-            Bitmap bit = BitmapFactory.decodeStream(is, null, options);
-            return bit;
-        } catch (IOException e) {
-            e.printStackTrace();
-            return null;
-        }
+        return TextureLoader.Request.fromAsset(context, fileName)
+                .setTargetSize(mTextureView.getWidth(), mTextureView.getHeight())
+                .load();
     }
 
     /**
@@ -256,13 +253,31 @@ public class SimpleShaderActivity extends FragmentActivity implements CameraRend
     }
 
     private void stopRecording() {
-        mRenderer.stopRecording();
+        //file is finished in the background, so only tell the user once its actually there
+        mRenderer.stopRecording(new CameraRenderer.OnRecordingFinishedListener() {
+            @Override
+            public void onRecordingFinished(File outputFile) {
+                showToast("File recording complete: " + outputFile.getAbsolutePath());
+            }
+
+            @Override
+            public void onRecordingFailed(File outputFile, Exception e) {
+                showToast("Recording failed: " + e.getMessage());
+            }
+        });
         mRecordBtn.setText("Record");
 
         //restart so surface is recreated
         shutdownCamera(true);
+    }
 
-        Toast.makeText(this, "File recording complete: " + getVideoFile().getAbsolutePath(), Toast.LENGTH_LONG).show();
+    private void showToast(final String message) {
+        runOnUiThread(new Runnable() {
+            @Override
+            public void run() {
+                Toast.makeText(SimpleShaderActivity.this, message, Toast.LENGTH_LONG).show();
+            }
+        });
     }
 
     private File getVideoFile() {
@@ -2,10 +2,10 @@ package com.androidexperiments.shadercam.example.gl;
 
 import android.content.Context;
 import android.graphics.SurfaceTexture;
-import android.opengl.GLES20;
 
 import com.androidexperiments.shadercam.fragments.CameraFragment;
 import com.androidexperiments.shadercam.gl.CameraRenderer;
+import com.androidexperiments.shadercam.gl.GlProgram;
 
 /**
  * Example renderer that changes colors and tones of camera feed
@@ -17,6 +17,10 @@ public class ExampleRenderer extends CameraRenderer
     private float offsetG = 0.5f;
     private float offsetB = 0.5f;
 
+    private GlProgram.Uniform mOffsetRUniform;
+    private GlProgram.Uniform mOffsetGUniform;
+    private GlProgram.Uniform mOffsetBUniform;
+
     /**
      * By not modifying anything, our default shaders will be used in the assets folder of shadercam.
      *
@@ -30,6 +34,19 @@ public class ExampleRenderer extends CameraRenderer
         //other setup if need be done here
     }
 
+    /**
+     * grab handles to our own uniforms once, right after the program is linked
+     */
+    @Override
+    protected void setupProgramLocations()
+    {
+        super.setupProgramLocations();
+
+        mOffsetRUniform = mCameraProgram.getUniform("offsetR");
+        mOffsetGUniform = mCameraProgram.getUniform("offsetG");
+        mOffsetBUniform = mCameraProgram.getUniform("offsetB");
+    }
+
     /**
      * we override {@link #setUniformsAndAttribs()} and make sure to call the super so we can add
      * our own uniforms to our shaders here. CameraRenderer handles the rest for us automatically
@@ -39,13 +56,9 @@ public class ExampleRenderer extends CameraRenderer
     {
         super.setUniformsAndAttribs();
 
-        int offsetRLoc = GLES20.glGetUniformLocation(mCameraShaderProgram, "offsetR");
-        int offsetGLoc = GLES20.glGetUniformLocation(mCameraShaderProgram, "offsetG");
-        int offsetBLoc = GLES20.glGetUniformLocation(mCameraShaderProgram, "offsetB");
-
-        GLES20.glUniform1f(offsetRLoc, offsetR);
-        GLES20.glUniform1f(offsetGLoc, offsetG);
-        GLES20.glUniform1f(offsetBLoc, offsetB);
+        mOffsetRUniform.set(offsetR);
+        mOffsetGUniform.set(offsetG);
+        mOffsetBUniform.set(offsetB);
     }
 
     /**
@@ -2,10 +2,10 @@ package com.androidexperiments.shadercam.example.gl;
 
 import android.content.Context;
 import android.graphics.SurfaceTexture;
-import android.opengl.GLES20;
 import android.os.SystemClock;
 
 import com.androidexperiments.shadercam.gl.CameraRenderer;
+import com.androidexperiments.shadercam.gl.GlProgram;
 
 /**
  * Our super awesome shader. It calls its super constructor with the new
@@ -15,20 +15,28 @@ import com.androidexperiments.shadercam.gl.CameraRenderer;
 public class SuperAwesomeRenderer extends CameraRenderer {
     private float mTileAmount = 1.f;
 
+    private GlProgram.Uniform mGlobalTimeUniform;
+    private GlProgram.Uniform mResolutionUniform;
+
     public SuperAwesomeRenderer(Context context, SurfaceTexture texture, int width, int height) {
         super(context, texture, width, height, "superawesome.frag.glsl", "superawesome.vert.glsl");
     }
 
+    @Override
+    protected void setupProgramLocations() {
+        super.setupProgramLocations();
+
+        mGlobalTimeUniform = mCameraProgram.getUniform("iGlobalTime");
+        mResolutionUniform = mCameraProgram.getUniform("iResolution");
+    }
+
     @Override
     protected void setUniformsAndAttribs() {
         //always call super so that the built-in fun stuff can be set first
         super.setUniformsAndAttribs();
 
-        int globalTimeHandle = GLES20.glGetUniformLocation(mCameraShaderProgram, "iGlobalTime");
-        GLES20.glUniform1f(globalTimeHandle, SystemClock.currentThreadTimeMillis() / 100.0f);
-
-        int resolutionHandle = GLES20.glGetUniformLocation(mCameraShaderProgram, "iResolution");
-        GLES20.glUniform3f(resolutionHandle, mTileAmount, mTileAmount, 1.f);
+        mGlobalTimeUniform.set(SystemClock.currentThreadTimeMillis() / 100.0f);
+        mResolutionUniform.set(mTileAmount, mTileAmount, 1.f);
     }
 
     public void setTileAmount(float tileAmount) {
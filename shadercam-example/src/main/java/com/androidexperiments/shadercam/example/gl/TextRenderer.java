@@ -37,6 +37,11 @@ public class TextRenderer extends CameraRenderer {
     private float[] mVPMatrix = new float[16];
     private Context context;
 
+    /**
+     * reused every frame for the timestamp we draw, so we don't box and concat a new String per frame
+     */
+    private final StringBuilder mTimeText = new StringBuilder(20);
+
     /**
      * By not modifying anything, our default shaders will be used in the assets folder of shadercam.
      * <p>
@@ -48,6 +53,9 @@ public class TextRenderer extends CameraRenderer {
 
         //other setup if need be done here
         this.context = context;
+
+        //texample2 binds its own program and font texture through Gl.api()
+        setDrawUsesRawGl(true);
     }
 
     @Override
@@ -57,18 +65,25 @@ public class TextRenderer extends CameraRenderer {
         // Set the background frame color
 //        glClearColor(0.5f, 0.5f, 0.5f, 1.0f);
 
-        Program program = BatchTextProgram.createBatchTextProgram();
-        font = createFont().program(createFontProgram(program))
-                .assets(context.getAssets())
-                .font("Roboto-Regular.ttf")
-                .size(60)
-                .build();
+        font = loadFont();
 
         // enable texture + alpha blending
         glEnable(GL_BLEND);
         glBlendFunc(GL_ONE, GL_ONE_MINUS_SRC_ALPHA);
     }
 
+    /**
+     * links the batch text program and renders the font map we draw the time with, on the GL thread
+     */
+    protected Font loadFont() {
+        Program program = BatchTextProgram.createBatchTextProgram(getProgramCache());
+        return createFont().program(createFontProgram(program))
+                .assets(context.getAssets())
+                .font("Roboto-Regular.ttf")
+                .size(60)
+                .build();
+    }
+
     /**
      * we override {@link #setUniformsAndAttribs()} and make sure to call the super so we can add
      * our own uniforms to our shaders here. CameraRenderer handles the rest for us automatically
@@ -106,7 +121,9 @@ public class TextRenderer extends CameraRenderer {
 //
         font.begin(0.0f, 0.0f, 1.0f, 1.0f, mVPMatrix);
         {
-            font.draw(System.currentTimeMillis() + "", 150, 0);
+            mTimeText.setLength(0);
+            mTimeText.append(System.currentTimeMillis());
+            font.draw(mTimeText, 150, 0);
 //            font.draw("More Lines...", 150, -font.getScaledCharHeight());
 //            font.startDrawing("The End.").at(50.0f, 200.0f).rotateZ(180.0f).draw();
         }
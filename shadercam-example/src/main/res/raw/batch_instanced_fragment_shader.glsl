@@ -0,0 +1,11 @@
+#version 300 es
+precision mediump float;       // Set the default precision to medium. We don't need as high of a precision in the fragment shader.
+uniform sampler2D u_Texture;   // The input texture.
+uniform vec4 u_Color;
+in vec2 v_TexCoordinate;       // Interpolated texture coordinate per fragment.
+out vec4 fragColor;
+
+void main() {
+   //same as batch_fragment_shader, which a 300 es vertex shader can't be linked with
+   fragColor = texture(u_Texture, v_TexCoordinate).w * u_Color;
+}
\ No newline at end of file
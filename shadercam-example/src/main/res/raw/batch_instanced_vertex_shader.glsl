@@ -0,0 +1,12 @@
+#version 300 es
+// GLES3 version of batch_vertex_shader: one unit quad drawn once per sprite, everything else per instance
+in vec2 a_Position;                // Corner of the unit quad, (0,0) bottom left to (1,1) top right
+in vec4 a_SpriteRect;              // Per sprite: left, bottom, width, height in model space
+in vec4 a_TexRegion;               // Per sprite: u1, v1 (top left), u2, v2 (bottom right)
+in mat4 a_MVPMatrix;               // Per sprite: the combined model/view/projection matrix
+out vec2 v_TexCoordinate;          // This will be passed into the fragment shader.
+void main()
+{
+   v_TexCoordinate = vec2(mix(a_TexRegion.x, a_TexRegion.z, a_Position.x), mix(a_TexRegion.w, a_TexRegion.y, a_Position.y));
+   gl_Position = a_MVPMatrix * vec4(a_SpriteRect.xy + a_Position * a_SpriteRect.zw, 0.0, 1.0);
+}
\ No newline at end of file
@@ -1,4 +1,7 @@
-uniform mat4 u_MVPMatrix[24];      // An array representing the combined model/view/projection matrices for each sprite
+#ifndef BATCH_SIZE
+#define BATCH_SIZE 24              // BatchTextProgram defines this from GL_MAX_VERTEX_UNIFORM_VECTORS
+#endif
+uniform mat4 u_MVPMatrix[BATCH_SIZE];  // An array representing the combined model/view/projection matrices for each sprite
 
 attribute float a_MVPMatrixIndex;  // The index of the MVPMatrix of the particular sprite
 attribute vec4 a_Position;         // Per-vertex position information we will pass in.
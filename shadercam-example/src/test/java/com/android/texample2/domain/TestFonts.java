@@ -0,0 +1,37 @@
+package com.android.texample2.domain;
+
+/**
+ * Fonts that draw through the real {@link Font} and {@link SpriteBatch} without android.graphics
+ * or a linked program, for JVM tests where android.jar only returns default values.
+ */
+public class TestFonts {
+
+    /**
+     * @param instanced true for the GLES3 instanced batch, false for the u_MVPMatrix uniform array
+     * @param batchSize how many sprites fit in a uniform batch, ignored when instanced
+     * @return a font with made up glyph widths, 48 pixel high cells and no font map texture
+     */
+    public static Font createFont(final boolean instanced, final int batchSize) {
+        // program 0 introspects nothing, so we say which kind of batch BatchTextProgram would have picked
+        FontProgram program = new FontProgram(0) {
+            @Override
+            public boolean isInstanced() {
+                return instanced;
+            }
+
+            @Override
+            public int getMvpMatricesSize() {
+                return instanced ? 0 : batchSize;
+            }
+        };
+
+        float[] charWidths = new float[Font.CHAR_CNT];
+        for (int i = 0; i < charWidths.length; i++) {
+            charWidths[i] = 12.f + (i * 7) % 20;
+        }
+
+        Font font = new Font(program);
+        font.load(charWidths, 44.f, 34.f, 10.f, 2, 2);
+        return font;
+    }
+}
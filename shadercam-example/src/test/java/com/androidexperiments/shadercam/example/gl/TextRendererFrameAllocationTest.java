@@ -0,0 +1,137 @@
+package com.androidexperiments.shadercam.example.gl;
+
+import android.content.ContextWrapper;
+import android.graphics.SurfaceTexture;
+
+import com.android.texample2.domain.Font;
+import com.android.texample2.domain.TestFonts;
+import com.androidexperiments.shadercam.gl.CameraRenderer;
+import com.androidexperiments.shadercam.gl.Gl;
+import com.androidexperiments.shadercam.gl.RecordingGlApi;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Runs {@link TextRenderer#draw()} (the camera quad, its texture binds, then the timestamp through
+ * texample2's Font and SpriteBatch) with every per-frame GL call going into a {@link RecordingGlApi},
+ * and checks the steady state allocates nothing. Setup runs against android.jar's default values,
+ * so the programs introspect nothing and uniforms are skipped, but every bind, upload and draw the
+ * frame issues through {@link Gl#api()} still happens.
+ */
+public class TextRendererFrameAllocationTest {
+
+    /**
+     * enough for the jit to settle, so what's left is what the code itself allocates
+     */
+    private static final int WARMUP_FRAMES = 20000;
+    private static final int FRAMES = 5000;
+
+    private final RecordingGlApi mGl = new RecordingGlApi();
+
+    @Before
+    public void setUp() {
+        Gl.setApi(mGl);
+    }
+
+    @After
+    public void tearDown() {
+        Gl.setApi(null);
+    }
+
+    @Test
+    public void uniformBatchFrameDoesNotAllocate() {
+        //small enough that the timestamp flushes a batch mid string, like the old 24 glyph limit did
+        assertSteadyStateAllocatesNothing(new FrameTextRenderer(2, false, 8));
+    }
+
+    @Test
+    public void instancedFrameDoesNotAllocate() {
+        assertSteadyStateAllocatesNothing(new FrameTextRenderer(3, true, 0));
+    }
+
+    private void assertSteadyStateAllocatesNothing(TextRenderer renderer) {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+        assumeTrue(threads.isThreadAllocatedMemorySupported() && threads.isThreadAllocatedMemoryEnabled());
+
+        for (int i = 0; i < WARMUP_FRAMES; i++)
+            drawFrame(renderer);
+
+        long thread = Thread.currentThread().getId();
+        long before = threads.getThreadAllocatedBytes(thread);
+        for (int i = 0; i < FRAMES; i++)
+            drawFrame(renderer);
+        long allocated = threads.getThreadAllocatedBytes(thread) - before;
+
+        //anything allocated per frame is at least an object header per frame, reading the counter isn't
+        assertEquals("bytes allocated per frame, " + allocated + " over " + FRAMES + " frames",
+                0, allocated / FRAMES);
+
+        //the camera quad, then at least one batch of text
+        assertEquals(1, mGl.getFrameCount());
+        assertTrue("draw calls: " + mGl.getDrawCallCount(), mGl.getDrawCallCount() >= 2);
+    }
+
+    private void drawFrame(TextRenderer renderer) {
+        mGl.clear();
+        mGl.beginFrame(0);
+        renderer.draw();
+        mGl.endFrame();
+    }
+
+    /**
+     * a TextRenderer set up without EGL: the context version and the font are ours, the rest of
+     * {@link CameraRenderer}'s GL setup runs as is
+     */
+    private static class FrameTextRenderer extends TextRenderer {
+        private final int glVersion;
+        private final boolean instanced;
+        private final int batchSize;
+
+        FrameTextRenderer(int glVersion, boolean instanced, int batchSize) {
+            super(new ContextWrapper(null), new SurfaceTexture(0), 1920, 1080);
+            this.glVersion = glVersion;
+            this.instanced = instanced;
+            this.batchSize = batchSize;
+
+            //shaders are never compiled against android.jar, there's nothing to read them from either
+            setProgramCache(null);
+            vertexShaderCode = "";
+            fragmentShaderCode = "";
+
+            setOnRendererReadyListener(new CameraRenderer.OnRendererReadyListener() {
+                @Override
+                public void onRendererReady() {
+                }
+
+                @Override
+                public void onRendererFinished() {
+                }
+            });
+
+            setViewport(1920, 1080);
+            onSurfaceChanged(1920, 1080);
+            initGLComponents();
+        }
+
+        @Override
+        protected int getGlVersion() {
+            return glVersion;
+        }
+
+        @Override
+        protected Font loadFont() {
+            return TestFonts.createFont(instanced, batchSize);
+        }
+    }
+}
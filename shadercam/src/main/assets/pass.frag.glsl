@@ -0,0 +1,14 @@
+precision mediump float;
+
+//output of the previous pass
+uniform sampler2D inputTexture;
+
+//size of one texel of inputTexture, handy for blurs and other neighbourhood effects
+uniform vec2 inputTexelSize;
+
+varying vec2 v_TexCoordinate;
+
+void main ()
+{
+    gl_FragColor = texture2D(inputTexture, v_TexCoordinate);
+}
\ No newline at end of file
@@ -0,0 +1,14 @@
+//position
+attribute vec4 position;
+
+//texture coordinates of the fullscreen quad
+attribute vec2 texCoordinate;
+
+//tex coords
+varying vec2 v_TexCoordinate;
+
+void main()
+{
+    v_TexCoordinate = texCoordinate;
+    gl_Position = position;
+}
\ No newline at end of file
@@ -0,0 +1,27 @@
+precision mediump float;
+
+//effect output, sampled at 4 luma pixels per output texel
+uniform sampler2D inputTexture;
+
+//size of the luma image we're packing, width is 4x the width of what we draw into
+uniform vec2 lumaSize;
+
+varying vec2 v_TexCoordinate;
+
+const vec3 LUMA = vec3(0.299, 0.587, 0.114);
+
+float luma(float x, float v)
+{
+    return dot(texture2D(inputTexture, vec2((x + 0.5) / lumaSize.x, v)).rgb, LUMA);
+}
+
+void main ()
+{
+    //first of the 4 luma pixels this texel holds
+    float x = floor(gl_FragCoord.x) * 4.0;
+
+    //flipped so the top row is read back first
+    float v = 1.0 - v_TexCoordinate.y;
+
+    gl_FragColor = vec4(luma(x, v), luma(x + 1.0, v), luma(x + 2.0, v), luma(x + 3.0, v));
+}
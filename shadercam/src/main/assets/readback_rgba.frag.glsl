@@ -0,0 +1,12 @@
+precision mediump float;
+
+//effect output
+uniform sampler2D inputTexture;
+
+varying vec2 v_TexCoordinate;
+
+void main ()
+{
+    //flipped so the top row is read back first
+    gl_FragColor = texture2D(inputTexture, vec2(v_TexCoordinate.x, 1.0 - v_TexCoordinate.y));
+}
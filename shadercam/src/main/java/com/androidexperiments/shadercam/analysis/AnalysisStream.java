@@ -0,0 +1,412 @@
+package com.androidexperiments.shadercam.analysis;
+
+import android.graphics.ImageFormat;
+import android.media.Image;
+import android.media.ImageReader;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.util.Log;
+import android.util.Size;
+import android.view.Surface;
+
+import com.androidexperiments.shadercam.gl.SampleRing;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Optional second output of the camera, next to the preview: a reduced resolution
+ * {@link ImageFormat#YUV_420_888} stream handed to {@link FrameAnalyzer}s on a small pool of
+ * worker threads.
+ * <p>
+ * Hand one to {@link com.androidexperiments.shadercam.fragments.CameraFragment#setAnalysisStream(AnalysisStream)}
+ * before the camera opens. Frames wait in a short queue for a free worker; when analysis can't
+ * keep up the oldest waiting frame is dropped, so analyzers always work on something recent and
+ * the camera never runs out of buffers. Images are passed along as-is, without copying.
+ */
+public class AnalysisStream
+{
+    private static final String TAG = AnalysisStream.class.getSimpleName();
+    private static final String READER_THREAD_NAME = "AnalysisReaderThread";
+    private static final String WORKER_THREAD_NAME = "AnalysisWorkerThread";
+
+    /**
+     * how many latencies we keep per analyzer for {@link #getLatency(FrameAnalyzer, Latency)}
+     */
+    private static final int LATENCY_SAMPLES = 128;
+
+    /**
+     * aspect ratios closer than this count as the same when picking our size
+     */
+    private static final float ASPECT_TOLERANCE = 0.01f;
+
+    private final int mTargetWidth;
+    private final int mTargetHeight;
+
+    private int mWorkerCount = 1;
+    private int mQueueCapacity = 1;
+
+    private final CopyOnWriteArrayList<AnalyzerEntry> mAnalyzers = new CopyOnWriteArrayList<>();
+
+    private ImageReader mImageReader;
+    private HandlerThread mReaderThread;
+    private LinkedBlockingDeque<Image> mQueue;
+    private final ArrayList<Thread> mWorkers = new ArrayList<>();
+    private volatile boolean mClosed = true;
+
+    private final AtomicLong mFramesReceived = new AtomicLong();
+    private final AtomicLong mFramesAnalyzed = new AtomicLong();
+    private final AtomicLong mFramesDropped = new AtomicLong();
+
+    /**
+     * @param targetWidth smallest width we'd like, in sensor orientation (landscape). we pick the
+     *                    smallest supported size that covers the target and matches the preview's
+     *                    aspect ratio
+     */
+    public AnalysisStream(int targetWidth, int targetHeight)
+    {
+        mTargetWidth = targetWidth;
+        mTargetHeight = targetHeight;
+    }
+
+    /**
+     * @param workerCount threads running analyzers in parallel, 1 by default. takes effect the
+     *                    next time the camera opens
+     */
+    public AnalysisStream setWorkerCount(int workerCount)
+    {
+        mWorkerCount = Math.max(1, workerCount);
+        return this;
+    }
+
+    /**
+     * @param queueCapacity frames that may wait for a worker before the oldest gets dropped, 1
+     *                      by default. takes effect the next time the camera opens
+     */
+    public AnalysisStream setQueueCapacity(int queueCapacity)
+    {
+        mQueueCapacity = Math.max(1, queueCapacity);
+        return this;
+    }
+
+    /**
+     * Analyzers run one after the other on each frame, in the order they were added. Any thread.
+     */
+    public void addAnalyzer(FrameAnalyzer analyzer)
+    {
+        mAnalyzers.add(new AnalyzerEntry(analyzer));
+    }
+
+    public void removeAnalyzer(FrameAnalyzer analyzer)
+    {
+        for (AnalyzerEntry entry : mAnalyzers) {
+            if (entry.analyzer == analyzer)
+                mAnalyzers.remove(entry);
+        }
+    }
+
+    /**
+     * Creates our reader and starts the workers. Called by the camera fragment while it opens
+     * the camera; any previous configuration is closed first.
+     *
+     * @param choices the camera's YUV_420_888 output sizes
+     * @param previewSize size of the preview stream, whose aspect ratio we try to match
+     */
+    public void configure(Size[] choices, Size previewSize)
+    {
+        close();
+
+        Size size = chooseSize(choices, previewSize);
+
+        //every worker holds one, the queue holds some, and one more is being acquired
+        int maxImages = mWorkerCount + mQueueCapacity + 1;
+
+        mReaderThread = new HandlerThread(READER_THREAD_NAME);
+        mReaderThread.start();
+
+        mQueue = new LinkedBlockingDeque<>(mQueueCapacity);
+        mClosed = false;
+
+        mImageReader = ImageReader.newInstance(size.getWidth(), size.getHeight(), ImageFormat.YUV_420_888, maxImages);
+        mImageReader.setOnImageAvailableListener(mOnImageAvailableListener, new Handler(mReaderThread.getLooper()));
+
+        for (int i = 0; i < mWorkerCount; i++) {
+            Thread worker = new Thread(mWorkerLoop, WORKER_THREAD_NAME + "-" + i);
+            mWorkers.add(worker);
+            worker.start();
+        }
+
+        Log.i(TAG, "configure() " + size.getWidth() + "x" + size.getHeight() + " for target " + mTargetWidth + "x"
+                + mTargetHeight + ", workers: " + mWorkerCount + ", maxImages: " + maxImages);
+    }
+
+    /**
+     * @return surface to add to the capture session, null until configured
+     */
+    public Surface getSurface()
+    {
+        return mImageReader != null ? mImageReader.getSurface() : null;
+    }
+
+    /**
+     * @return size of the frames we deliver, null until configured
+     */
+    public Size getSize()
+    {
+        return mImageReader != null ? new Size(mImageReader.getWidth(), mImageReader.getHeight()) : null;
+    }
+
+    /**
+     * Stops the workers and closes the reader. Called by the camera fragment once the camera is
+     * closed.
+     */
+    public void close()
+    {
+        if (mClosed)
+            return;
+        mClosed = true;
+
+        for (Thread worker : mWorkers)
+            worker.interrupt();
+        for (Thread worker : mWorkers) {
+            try {
+                worker.join();
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        mWorkers.clear();
+
+        Image image;
+        while ((image = mQueue.pollFirst()) != null)
+            image.close();
+
+        mImageReader.setOnImageAvailableListener(null, null);
+        mImageReader.close();
+        mImageReader = null;
+
+        mReaderThread.quitSafely();
+        mReaderThread = null;
+
+        logStats();
+    }
+
+    /**
+     * smallest size matching the preview's aspect that still covers our target, the largest
+     * available if none covers it
+     */
+    private Size chooseSize(Size[] choices, Size previewSize)
+    {
+        float previewAspect = (float) previewSize.getWidth() / previewSize.getHeight();
+
+        ArrayList<Size> candidates = new ArrayList<>();
+        for (Size size : choices) {
+            if (Math.abs((float) size.getWidth() / size.getHeight() - previewAspect) < ASPECT_TOLERANCE)
+                candidates.add(size);
+        }
+        if (candidates.isEmpty())
+            candidates.addAll(Arrays.asList(choices));
+
+        Size smallestCovering = null;
+        Size largest = null;
+        for (Size size : candidates) {
+            long area = (long) size.getWidth() * size.getHeight();
+
+            if (largest == null || area > (long) largest.getWidth() * largest.getHeight())
+                largest = size;
+
+            if (size.getWidth() >= mTargetWidth && size.getHeight() >= mTargetHeight
+                    && (smallestCovering == null || area < (long) smallestCovering.getWidth() * smallestCovering.getHeight()))
+                smallestCovering = size;
+        }
+
+        return smallestCovering != null ? smallestCovering : largest;
+    }
+
+    /**
+     * runs on {@link #mReaderThread}, queues the new frame and drops the oldest waiting one if full
+     */
+    private final ImageReader.OnImageAvailableListener mOnImageAvailableListener = new ImageReader.OnImageAvailableListener() {
+        @Override
+        public void onImageAvailable(ImageReader reader) {
+            Image image;
+            try {
+                image = reader.acquireNextImage();
+            }
+            catch (IllegalStateException e) {
+                //every image is out with the workers, the camera drops this one for us
+                mFramesDropped.incrementAndGet();
+                return;
+            }
+            if (image == null)
+                return;
+
+            mFramesReceived.incrementAndGet();
+
+            if (mClosed) {
+                image.close();
+                return;
+            }
+
+            while (!mQueue.offerLast(image)) {
+                Image oldest = mQueue.pollFirst();
+                if (oldest != null) {
+                    oldest.close();
+                    mFramesDropped.incrementAndGet();
+                }
+            }
+        }
+    };
+
+    private final Runnable mWorkerLoop = new Runnable() {
+        @Override
+        public void run() {
+            LinkedBlockingDeque<Image> queue = mQueue;
+
+            while (!mClosed) {
+                Image image;
+                try {
+                    image = queue.takeFirst();
+                }
+                catch (InterruptedException e) {
+                    return;
+                }
+
+                try {
+                    for (AnalyzerEntry entry : mAnalyzers)
+                        entry.run(image);
+                }
+                finally {
+                    image.close();
+                }
+                mFramesAnalyzed.incrementAndGet();
+            }
+        }
+    };
+
+    public long getFramesReceived()
+    {
+        return mFramesReceived.get();
+    }
+
+    public long getFramesAnalyzed()
+    {
+        return mFramesAnalyzed.get();
+    }
+
+    /**
+     * @return frames that arrived while analysis was behind and never got analyzed
+     */
+    public long getFramesDropped()
+    {
+        return mFramesDropped.get();
+    }
+
+    /**
+     * Latency of one analyzer's {@link FrameAnalyzer#analyze(Image)} over its recent frames.
+     *
+     * @param out where to put the result, reuse it to avoid allocating
+     * @return out, or null if the analyzer isn't ours
+     */
+    public Latency getLatency(FrameAnalyzer analyzer, Latency out)
+    {
+        for (AnalyzerEntry entry : mAnalyzers) {
+            if (entry.analyzer == analyzer) {
+                out.compute(entry);
+                return out;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Writes frame counts and per-analyzer latencies to the log.
+     */
+    public void logStats()
+    {
+        Log.i(TAG, "frames received: " + mFramesReceived.get() + ", analyzed: " + mFramesAnalyzed.get()
+                + ", dropped: " + mFramesDropped.get());
+
+        Latency latency = new Latency();
+        for (AnalyzerEntry entry : mAnalyzers) {
+            latency.compute(entry);
+            Log.i(TAG, entry.analyzer.getClass().getSimpleName() + " " + latency);
+        }
+    }
+
+    /**
+     * an analyzer and its timings
+     */
+    private static class AnalyzerEntry
+    {
+        private final FrameAnalyzer analyzer;
+
+        /**
+         * analyze() durations in ns. several workers may write, so adds are synchronized
+         */
+        private final SampleRing latencies = new SampleRing(LATENCY_SAMPLES);
+
+        private AnalyzerEntry(FrameAnalyzer analyzer)
+        {
+            this.analyzer = analyzer;
+        }
+
+        private void run(Image image)
+        {
+            long start = System.nanoTime();
+            try {
+                analyzer.analyze(image);
+            }
+            catch (RuntimeException e) {
+                Log.e(TAG, analyzer.getClass().getSimpleName() + " failed", e);
+            }
+
+            long elapsed = System.nanoTime() - start;
+            synchronized (latencies) {
+                latencies.add(elapsed);
+            }
+        }
+    }
+
+    /**
+     * Latency percentiles of an analyzer, in nanoseconds.
+     */
+    public static class Latency
+    {
+        /**
+         * samples these were computed from
+         */
+        public int count;
+
+        public long p50;
+        public long p95;
+        public long max;
+
+        private final long[] mScratch = new long[LATENCY_SAMPLES];
+
+        private void compute(AnalyzerEntry entry)
+        {
+            count = entry.latencies.copyTo(mScratch);
+            if (count == 0) {
+                p50 = p95 = max = 0;
+                return;
+            }
+
+            Arrays.sort(mScratch, 0, count);
+            p50 = mScratch[(int) (0.50f * (count - 1))];
+            p95 = mScratch[(int) (0.95f * (count - 1))];
+            max = mScratch[count - 1];
+        }
+
+        @Override
+        public String toString()
+        {
+            return "latency (" + count + " frames) p50: " + p50 / 1000 + "us p95: " + p95 / 1000
+                    + "us max: " + max / 1000 + "us";
+        }
+    }
+}
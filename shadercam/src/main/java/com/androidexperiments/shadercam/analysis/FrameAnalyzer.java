@@ -0,0 +1,21 @@
+package com.androidexperiments.shadercam.analysis;
+
+import android.media.Image;
+
+/**
+ * CPU-side consumer of camera frames from an {@link AnalysisStream}: barcode detection,
+ * histograms, motion detection and the like.
+ */
+public interface FrameAnalyzer
+{
+    /**
+     * Called on one of the stream's worker threads with a {@link android.graphics.ImageFormat#YUV_420_888}
+     * frame. The planes are the camera's own buffers, not copies, and go back to the camera as
+     * soon as every analyzer returns - so read what you need here and don't hold on to the image
+     * or its buffers.
+     * <p>
+     * With more than one worker, different frames are analyzed at the same time, so keep this
+     * thread-safe or use a single worker.
+     */
+    void analyze(Image image);
+}
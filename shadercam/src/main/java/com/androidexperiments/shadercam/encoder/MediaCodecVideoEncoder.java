@@ -0,0 +1,307 @@
+package com.androidexperiments.shadercam.encoder;
+
+import android.media.MediaCodec;
+import android.media.MediaCodecInfo;
+import android.media.MediaFormat;
+import android.media.MediaMuxer;
+import android.util.Log;
+import android.view.Surface;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Default {@link VideoEncoder}: a surface-input {@link MediaCodec} feeding a {@link MediaMuxer}
+ * that writes straight into the destination file, so there is nothing left to copy once a
+ * recording stops.
+ * <p>
+ * Encoded buffers are pulled off the codec by a dedicated drain thread, which keeps the render
+ * thread free to just draw and swap. Video only - use {@link MediaRecorderVideoEncoder} if you
+ * need the microphone recorded as well.
+ */
+public class MediaCodecVideoEncoder implements VideoEncoder
+{
+    private static final String TAG = MediaCodecVideoEncoder.class.getSimpleName();
+    private static final String THREAD_NAME = "VideoEncoderDrainThread";
+
+    /**
+     * how long the drain thread blocks waiting for output before checking again
+     */
+    private static final long DRAIN_TIMEOUT_US = 10000;
+
+    /**
+     * how long {@link #stop()} waits for the codec to flush out its end of stream
+     */
+    private static final long STOP_TIMEOUT_MS = 5000;
+
+    /**
+     * how long {@link #stop()} then gives the drain thread to notice it should give up, a few
+     * {@link #DRAIN_TIMEOUT_US} worth
+     */
+    private static final long ABANDON_TIMEOUT_MS = 100;
+
+    private final VideoEncoderConfig mConfig;
+
+    private MediaCodec mCodec;
+    private Surface mInputSurface;
+
+    private EncoderDrainer<MediaFormat> mDrainer;
+    private Thread mDrainThread;
+
+    /**
+     * set by {@link #stop()} when the codec never finished, the drain thread gives up on seeing it
+     */
+    private volatile boolean mAbandoned = false;
+
+    /**
+     * whatever killed the drain thread, reported by {@link #stop()}
+     */
+    private volatile RuntimeException mDrainError;
+
+    public MediaCodecVideoEncoder() {
+        this(new VideoEncoderConfig());
+    }
+
+    public MediaCodecVideoEncoder(VideoEncoderConfig config) {
+        mConfig = config;
+    }
+
+    @Override
+    public void prepare() throws IOException {
+        Log.d(TAG, "prepare() " + mConfig);
+
+        boolean withProfile = mConfig.getProfile() != VideoEncoderConfig.PROFILE_DEFAULT;
+
+        mCodec = MediaCodec.createEncoderByType(mConfig.getMimeType());
+        try {
+            mCodec.configure(createFormat(withProfile), null, null, MediaCodec.CONFIGURE_FLAG_ENCODE);
+        }
+        catch (RuntimeException e) {
+            //most likely an unsupported profile, which is the one thing users can't easily check up front
+            if (!withProfile)
+                throw e;
+
+            Log.w(TAG, "configure() failed with profile " + mConfig.getProfile() + ", retrying with default profile", e);
+            mCodec.release();
+            mCodec = MediaCodec.createEncoderByType(mConfig.getMimeType());
+            mCodec.configure(createFormat(false), null, null, MediaCodec.CONFIGURE_FLAG_ENCODE);
+        }
+
+        mInputSurface = mCodec.createInputSurface();
+    }
+
+    private MediaFormat createFormat(boolean withProfile) {
+        MediaFormat format = MediaFormat.createVideoFormat(mConfig.getMimeType(), mConfig.getWidth(), mConfig.getHeight());
+        format.setInteger(MediaFormat.KEY_COLOR_FORMAT, MediaCodecInfo.CodecCapabilities.COLOR_FormatSurface);
+        format.setInteger(MediaFormat.KEY_BIT_RATE, mConfig.getBitRate());
+        format.setInteger(MediaFormat.KEY_FRAME_RATE, mConfig.getFrameRate());
+        format.setInteger(MediaFormat.KEY_I_FRAME_INTERVAL, mConfig.getKeyFrameInterval());
+
+        if (withProfile) {
+            format.setInteger(MediaFormat.KEY_PROFILE, mConfig.getProfile());
+            //KEY_LEVEL is api 23, but the key itself is understood by older encoders too
+            if (mConfig.getLevel() != 0)
+                format.setInteger("level", mConfig.getLevel());
+        }
+        return format;
+    }
+
+    @Override
+    public Surface getInputSurface() {
+        return mInputSurface;
+    }
+
+    @Override
+    public void start(File outputFile) throws IOException {
+        if (mCodec == null)
+            throw new IllegalStateException("prepare() must be called before start()");
+
+        MediaMuxer muxer = new MediaMuxer(outputFile.getPath(), MediaMuxer.OutputFormat.MUXER_OUTPUT_MPEG_4);
+        muxer.setOrientationHint(mConfig.getOrientationHint());
+
+        mDrainer = new EncoderDrainer<>(new CodecAdapter(mCodec), new MuxerAdapter(muxer));
+        mCodec.start();
+
+        mDrainThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    while (!mAbandoned && !mDrainer.drain(DRAIN_TIMEOUT_US)) {
+                        //keep going until the codec hands us end of stream
+                    }
+                }
+                catch (RuntimeException e) {
+                    //a CodecException, the codec released under us, or a drainer sanity check. nothing
+                    //catches it on this thread, so leave it for stop() to report
+                    Log.e(TAG, "drain thread failed", e);
+                    mDrainError = e;
+                }
+            }
+        }, THREAD_NAME);
+        mDrainThread.start();
+    }
+
+    /**
+     * @throws IllegalStateException if the codec failed while recording or never finished. The
+     *                               muxer is released either way, unless the drain thread is
+     *                               stuck in it, in which case it is leaked rather than released
+     *                               from under that thread
+     */
+    @Override
+    public void stop() {
+        if (mDrainThread == null)
+            return;
+
+        Thread drainThread = mDrainThread;
+        mDrainThread = null;
+
+        boolean finished = false;
+        try {
+            if (mDrainError == null)
+                mCodec.signalEndOfInputStream();
+            join(drainThread, STOP_TIMEOUT_MS);
+
+            if (drainThread.isAlive()) {
+                //codec never sent end of stream, tell the drain thread to give up before we let go of the muxer
+                mAbandoned = true;
+                join(drainThread, ABANDON_TIMEOUT_MS);
+            }
+            if (drainThread.isAlive()) {
+                //still stuck in dequeueOutputBuffer(), stopping the codec makes that throw
+                Log.w(TAG, "drain thread still running, stopping the codec under it");
+                stopCodec();
+                join(drainThread, ABANDON_TIMEOUT_MS);
+            }
+            if (drainThread.isAlive())
+                throw new IllegalStateException("encoder did not finish within " + STOP_TIMEOUT_MS + "ms");
+            if (mDrainError != null)
+                throw new IllegalStateException("encoder failed while recording", mDrainError);
+            if (!mDrainer.isEndOfStream())
+                throw new IllegalStateException("encoder did not finish within " + STOP_TIMEOUT_MS + "ms");
+
+            mDrainer.finish();
+            finished = true;
+            Log.d(TAG, "stop() wrote " + mDrainer.getSamplesWritten() + " samples");
+
+            mCodec.stop();
+        }
+        finally {
+            //the file is no good, but the muxer's file descriptor shouldn't leak with it. the muxer
+            //isn't thread-safe though, so only once nothing else can be writing to it
+            if (!finished) {
+                if (drainThread.isAlive())
+                    Log.e(TAG, "drain thread never exited, leaking its muxer");
+                else
+                    mDrainer.abort();
+            }
+        }
+    }
+
+    private void stopCodec() {
+        try {
+            mCodec.stop();
+        }
+        catch (RuntimeException e) {
+            Log.w(TAG, "codec stop() failed", e);
+        }
+    }
+
+    private static void join(Thread thread, long timeoutMs) {
+        try {
+            thread.join(timeoutMs);
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public void release() {
+        if (mCodec != null) {
+            mCodec.release();
+            mCodec = null;
+        }
+
+        if (mInputSurface != null) {
+            mInputSurface.release();
+            mInputSurface = null;
+        }
+    }
+
+    public VideoEncoderConfig getConfig() {
+        return mConfig;
+    }
+
+    /**
+     * {@link EncoderCodec} and {@link EncoderBufferInfo} use the same constants as MediaCodec, so
+     * only the buffer info needs copying across
+     */
+    private static class CodecAdapter implements EncoderCodec<MediaFormat>
+    {
+        private final MediaCodec mCodec;
+        private final MediaCodec.BufferInfo mInfo = new MediaCodec.BufferInfo();
+
+        private CodecAdapter(MediaCodec codec) {
+            mCodec = codec;
+        }
+
+        @Override
+        public int dequeueOutputBuffer(EncoderBufferInfo info, long timeoutUs) {
+            int index = mCodec.dequeueOutputBuffer(mInfo, timeoutUs);
+            info.set(mInfo.offset, mInfo.size, mInfo.presentationTimeUs, mInfo.flags);
+            return index;
+        }
+
+        @Override
+        public ByteBuffer getOutputBuffer(int index) {
+            return mCodec.getOutputBuffer(index);
+        }
+
+        @Override
+        public MediaFormat getOutputFormat() {
+            return mCodec.getOutputFormat();
+        }
+
+        @Override
+        public void releaseOutputBuffer(int index) {
+            mCodec.releaseOutputBuffer(index, false);
+        }
+    }
+
+    private static class MuxerAdapter implements EncoderMuxer<MediaFormat>
+    {
+        private final MediaMuxer mMuxer;
+        private final MediaCodec.BufferInfo mInfo = new MediaCodec.BufferInfo();
+
+        private MuxerAdapter(MediaMuxer muxer) {
+            mMuxer = muxer;
+        }
+
+        @Override
+        public int addTrack(MediaFormat format) {
+            return mMuxer.addTrack(format);
+        }
+
+        @Override
+        public void start() {
+            mMuxer.start();
+        }
+
+        @Override
+        public void writeSampleData(int trackIndex, ByteBuffer data, EncoderBufferInfo info) {
+            mInfo.set(info.offset, info.size, info.presentationTimeUs, info.flags);
+            mMuxer.writeSampleData(trackIndex, data, mInfo);
+        }
+
+        @Override
+        public void stop() {
+            mMuxer.stop();
+        }
+
+        @Override
+        public void release() {
+            mMuxer.release();
+        }
+    }
+}
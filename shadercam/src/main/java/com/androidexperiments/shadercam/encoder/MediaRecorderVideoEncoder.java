@@ -0,0 +1,146 @@
+package com.androidexperiments.shadercam.encoder;
+
+import android.content.Context;
+import android.media.MediaRecorder;
+import android.util.Log;
+import android.view.Surface;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+
+/**
+ * {@link VideoEncoder} backed by the stock {@link MediaRecorder}, which is what shadercam used
+ * before {@link MediaCodecVideoEncoder}. Use it when you want the microphone recorded alongside
+ * the video.
+ * <p>
+ * MediaRecorder needs its output file before {@link #prepare()}, so it records into a temp file
+ * in the cache dir and moves it to the real destination in {@link #stop()}. That's a cheap rename
+ * when both live on the same filesystem, and a full copy otherwise, which takes as long as the
+ * clip is big - another reason {@link com.androidexperiments.shadercam.gl.CameraRenderer} stops
+ * recordings on a background thread.
+ */
+public class MediaRecorderVideoEncoder implements VideoEncoder
+{
+    private static final String TAG = MediaRecorderVideoEncoder.class.getSimpleName();
+
+    private final Context mContext;
+    private final VideoEncoderConfig mConfig;
+
+    private MediaRecorder mMediaRecorder;
+
+    /**
+     * temp file we write to for recording, then copy to where user wants to save video file
+     */
+    private File mTempOutputFile;
+
+    private File mOutputFile;
+
+    public MediaRecorderVideoEncoder(Context context) {
+        this(context, new VideoEncoderConfig());
+    }
+
+    public MediaRecorderVideoEncoder(Context context, VideoEncoderConfig config) {
+        mContext = context;
+        mConfig = config;
+    }
+
+    @Override
+    public void prepare() throws IOException {
+        mTempOutputFile = File.createTempFile("temp_mov", "mp4", mContext.getCacheDir());
+
+        mMediaRecorder = new MediaRecorder();
+
+        /**
+         * {@link MediaRecorder.AudioSource.CAMCORDER} is nice because on some fancier
+         * phones microphones will be aligned towards whatever camera is being used, giving us better
+         * directional audio. And if it doesn't have that, it will fallback to the default Microphone.
+         */
+        mMediaRecorder.setAudioSource(MediaRecorder.AudioSource.CAMCORDER);
+
+        /**
+         * Using {@link MediaRecorder.VideoSource.SURFACE} creates a {@link Surface}
+         * for us to use behind the scenes, which the renderer draws into while recording.
+         */
+        mMediaRecorder.setVideoSource(MediaRecorder.VideoSource.SURFACE);
+
+        mMediaRecorder.setOutputFormat(MediaRecorder.OutputFormat.MPEG_4);
+        mMediaRecorder.setOutputFile(mTempOutputFile.getPath());
+
+        mMediaRecorder.setVideoEncoder(MediaRecorder.VideoEncoder.H264);
+        mMediaRecorder.setVideoEncodingBitRate(mConfig.getBitRate());
+        mMediaRecorder.setVideoSize(mConfig.getWidth(), mConfig.getHeight());
+        mMediaRecorder.setVideoFrameRate(mConfig.getFrameRate());
+
+        mMediaRecorder.setAudioEncoder(MediaRecorder.AudioEncoder.AAC);
+        mMediaRecorder.setAudioEncodingBitRate(44800);
+
+        mMediaRecorder.setOrientationHint(mConfig.getOrientationHint());
+
+        /**
+         * There are what seems like an infinite number of ways to fuck up the previous steps,
+         * so prepare() will throw an exception if you fail, and hope that stackoverflow can help.
+         */
+        mMediaRecorder.prepare();
+
+        Log.d(TAG, "MediaRecorder surface: " + mMediaRecorder.getSurface() + " isValid: " + mMediaRecorder.getSurface().isValid());
+    }
+
+    @Override
+    public Surface getInputSurface() {
+        return mMediaRecorder.getSurface();
+    }
+
+    @Override
+    public void start(File outputFile) {
+        mOutputFile = outputFile;
+        mMediaRecorder.start();
+    }
+
+    @Override
+    public void stop() {
+        mMediaRecorder.stop();
+
+        //atomic and basically free, but only works within one filesystem (ie not cache dir -> sdcard)
+        if (mTempOutputFile.renameTo(mOutputFile))
+            return;
+
+        try {
+            copyFile(mTempOutputFile, mOutputFile);
+        }
+        catch (IOException e) {
+            //don't leave half a video behind looking like a finished one
+            mOutputFile.delete();
+            throw new RuntimeException("failed to copy recording to " + mOutputFile, e);
+        }
+        finally {
+            mTempOutputFile.delete();
+        }
+    }
+
+    @Override
+    public void release() {
+        if (mMediaRecorder != null) {
+            mMediaRecorder.release();
+            mMediaRecorder = null;
+        }
+    }
+
+    /**
+     * Copies file recorded to our temp file into the user-defined file upon completion
+     */
+    protected void copyFile(File src, File dst) throws IOException {
+        FileChannel inChannel = new FileInputStream(src).getChannel();
+        FileChannel outChannel = new FileOutputStream(dst).getChannel();
+
+        try {
+            inChannel.transferTo(0, inChannel.size(), outChannel);
+        }
+        finally {
+            inChannel.close();
+            outChannel.close();
+        }
+    }
+}
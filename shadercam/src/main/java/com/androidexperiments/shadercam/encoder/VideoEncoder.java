@@ -0,0 +1,47 @@
+package com.androidexperiments.shadercam.encoder;
+
+import android.view.Surface;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Something that turns frames drawn into an input {@link Surface} into a movie file.
+ * <p>
+ * {@link com.androidexperiments.shadercam.gl.CameraRenderer} wraps {@link #getInputSurface()}
+ * in a {@link com.androidexperiments.shadercam.gl.WindowSurface} and draws every frame into it
+ * while recording, stamping it with the camera timestamp. Lifecycle is
+ * {@link #prepare()} -> {@link #start(File)} -> {@link #stop()} -> {@link #release()}, one
+ * recording per prepare.
+ */
+public interface VideoEncoder
+{
+    /**
+     * Configures the encoder and creates its input surface. Called once before the renderer
+     * sets up GL.
+     */
+    void prepare() throws IOException;
+
+    /**
+     * @return surface to draw frames into, valid after {@link #prepare()}
+     */
+    Surface getInputSurface();
+
+    /**
+     * Starts encoding frames into the given file.
+     */
+    void start(File outputFile) throws IOException;
+
+    /**
+     * Stops encoding and finishes writing the file. Returns once the file is complete.
+     *
+     * @throws RuntimeException if the file couldn't be finished, the recording's Future then fails
+     *                          with it
+     */
+    void stop();
+
+    /**
+     * Frees the codec and its surface. Safe to call more than once.
+     */
+    void release();
+}
@@ -0,0 +1,126 @@
+package com.androidexperiments.shadercam.encoder;
+
+import android.media.MediaFormat;
+
+/**
+ * Settings for the default {@link VideoEncoder}s. Defaults match what shadercam always recorded
+ * with: 720x1280 H.264 at 10 Mbps, 30 fps and a keyframe every second.
+ * <p>
+ * The height is the long edge since we record portrait - if you use a
+ * {@link com.androidexperiments.shadercam.view.SquareTextureView} pass the same value for width
+ * and height to get a square movie instead of a stretched one.
+ */
+public class VideoEncoderConfig
+{
+    /**
+     * use whatever profile the encoder picks by default
+     */
+    public static final int PROFILE_DEFAULT = 0;
+
+    private String mMimeType = MediaFormat.MIMETYPE_VIDEO_AVC;
+    private int mWidth = 720;
+    private int mHeight = 1280;
+    private int mBitRate = 10000000;
+    private int mFrameRate = 30;
+    private int mKeyFrameInterval = 1;
+    private int mProfile = PROFILE_DEFAULT;
+    private int mLevel = 0;
+    private int mOrientationHint = 0;
+
+    public VideoEncoderConfig setMimeType(String mimeType) {
+        mMimeType = mimeType;
+        return this;
+    }
+
+    /**
+     * Encoders can be finicky with odd sizes, stick to 'normal' ones like 720p or 1080p. The
+     * input surface will be this size, and every frame is scaled to fit it.
+     */
+    public VideoEncoderConfig setSize(int width, int height) {
+        mWidth = width;
+        mHeight = height;
+        return this;
+    }
+
+    /**
+     * @param bitRate in bits per second
+     */
+    public VideoEncoderConfig setBitRate(int bitRate) {
+        mBitRate = bitRate;
+        return this;
+    }
+
+    public VideoEncoderConfig setFrameRate(int frameRate) {
+        mFrameRate = frameRate;
+        return this;
+    }
+
+    /**
+     * @param seconds time between sync frames
+     */
+    public VideoEncoderConfig setKeyFrameInterval(int seconds) {
+        mKeyFrameInterval = seconds;
+        return this;
+    }
+
+    /**
+     * @param profile one of {@link android.media.MediaCodecInfo.CodecProfileLevel}s, e.g.
+     *                {@code AVCProfileHigh}. Devices that don't support it fall back to their default.
+     * @param level   matching level, or 0 to let the encoder pick
+     */
+    public VideoEncoderConfig setProfile(int profile, int level) {
+        mProfile = profile;
+        mLevel = level;
+        return this;
+    }
+
+    /**
+     * @param degrees rotation written into the file for players, 0, 90, 180 or 270
+     */
+    public VideoEncoderConfig setOrientationHint(int degrees) {
+        mOrientationHint = degrees;
+        return this;
+    }
+
+    public String getMimeType() {
+        return mMimeType;
+    }
+
+    public int getWidth() {
+        return mWidth;
+    }
+
+    public int getHeight() {
+        return mHeight;
+    }
+
+    public int getBitRate() {
+        return mBitRate;
+    }
+
+    public int getFrameRate() {
+        return mFrameRate;
+    }
+
+    public int getKeyFrameInterval() {
+        return mKeyFrameInterval;
+    }
+
+    public int getProfile() {
+        return mProfile;
+    }
+
+    public int getLevel() {
+        return mLevel;
+    }
+
+    public int getOrientationHint() {
+        return mOrientationHint;
+    }
+
+    @Override
+    public String toString() {
+        return "[VideoEncoderConfig] " + mMimeType + " " + mWidth + "x" + mHeight + " " + mBitRate + "bps "
+                + mFrameRate + "fps, keyframe every " + mKeyFrameInterval + "s, profile: " + mProfile;
+    }
+}
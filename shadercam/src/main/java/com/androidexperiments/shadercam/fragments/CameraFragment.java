@@ -5,6 +5,7 @@ import android.app.AlertDialog;
 import android.app.Dialog;
 import android.content.Context;
 import android.content.DialogInterface;
+import android.graphics.ImageFormat;
 import android.graphics.Matrix;
 import android.graphics.RectF;
 import android.graphics.SurfaceTexture;
@@ -30,8 +31,10 @@ import android.view.Surface;
 import android.view.TextureView;
 import android.widget.Toast;
 
+import com.androidexperiments.shadercam.analysis.AnalysisStream;
+import com.androidexperiments.shadercam.utils.SizeSelectionPolicy;
+
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.List;
 import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
@@ -114,7 +117,7 @@ public class CameraFragment extends Fragment {
      */
     private OnViewportSizeUpdatedListener mOnViewportSizeUpdatedListener;
 
-    private float mVideoSizeAspectRatio;
+    private float mPreviewSizeAspectRatio;
     private float mPreviewSurfaceAspectRatio;
 
     /**
@@ -124,6 +127,16 @@ public class CameraFragment extends Fragment {
 
     private boolean mCameraIsOpen = false;
 
+    /**
+     * optional CPU-side frame stream next to our preview, see {@link #setAnalysisStream(AnalysisStream)}
+     */
+    private AnalysisStream mAnalysisStream;
+
+    /**
+     * picks our preview and video sizes, see {@link #setSizeSelectionPolicy(SizeSelectionPolicy)}
+     */
+    private SizeSelectionPolicy mSizeSelectionPolicy = new SizeSelectionPolicy();
+
     /**
      * Get instance of this fragment that sets retain instance true so it is not affected
      * by device orientation changes and other updates
@@ -225,12 +238,13 @@ public class CameraFragment extends Fragment {
             CameraCharacteristics characteristics = manager.getCameraCharacteristics(cameraId);
             StreamConfigurationMap streamConfigurationMap = characteristics.get(CameraCharacteristics.SCALER_STREAM_CONFIGURATION_MAP);
 
-            //typically these are identical
-            mVideoSize = chooseVideoSize(streamConfigurationMap.getOutputSizes(MediaRecorder.class));
-            mPreviewSize = chooseVideoSize(streamConfigurationMap.getOutputSizes(SurfaceTexture.class));
+            chooseSizes(streamConfigurationMap);
 
             //send back for updates to renderer if needed
-            updateViewportSize(mVideoSizeAspectRatio, mPreviewSurfaceAspectRatio);
+            updateViewportSize(mPreviewSizeAspectRatio, mPreviewSurfaceAspectRatio);
+
+            if (mAnalysisStream != null)
+                mAnalysisStream.configure(streamConfigurationMap.getOutputSizes(ImageFormat.YUV_420_888), mPreviewSize);
 
             Log.i(TAG, "openCamera() videoSize: " + mVideoSize + " previewSize: " + mPreviewSize);
 
@@ -256,7 +270,7 @@ public class CameraFragment extends Fragment {
      * which is called every time we open the camera, to make sure we are using the most up-to-date values for calculating our
      * renderer's glViewport. Without this, TextureView's that aren't exactly the same size as the size of Camera api video
      * will become distorted.
-     * @param videoAspect float of the aspect ratio of the size of video returned in openCamera
+     * @param videoAspect float of the aspect ratio of the preview size chosen in openCamera
      * @param surfaceAspect aspect ratio of our available textureview surface
      */
     public void updateViewportSize(float videoAspect, float surfaceAspect)
@@ -273,15 +287,15 @@ public class CameraFragment extends Fragment {
         }
         else if(videoAspect < surfaceAspect)
         {
-            float ratio = (float)sw / mVideoSize.getHeight();
-            vpW = (int)(mVideoSize.getHeight() * ratio);
-            vpH = (int)(mVideoSize.getWidth() * ratio);
+            float ratio = (float)sw / mPreviewSize.getHeight();
+            vpW = (int)(mPreviewSize.getHeight() * ratio);
+            vpH = (int)(mPreviewSize.getWidth() * ratio);
         }
         else
         {
-            float ratio = (float)sw / mVideoSize.getWidth();
-            vpW = (int)(mVideoSize.getWidth() * ratio);
-            vpH = (int)(mVideoSize.getHeight() * ratio);
+            float ratio = (float)sw / mPreviewSize.getWidth();
+            vpW = (int)(mPreviewSize.getWidth() * ratio);
+            vpH = (int)(mPreviewSize.getHeight() * ratio);
         }
 
         if(mOnViewportSizeUpdatedListener != null)
@@ -331,88 +345,43 @@ public class CameraFragment extends Fragment {
     };
 
     /**
-     * chooseVideoSize makes a few assumptions for the sake of our use-case.
-     *
-     * @param choices The list of available sizes
-     * @return The video size
+     * Runs our size selection policy over the camera's sizes for both outputs. The preview and
+     * recording are picked separately, the preview only has to cover the view while recording
+     * wants the most detail the budget allows.
      */
-    private Size chooseVideoSize(Size[] choices)
+    private void chooseSizes(StreamConfigurationMap map)
     {
         int sw = mTextureView.getWidth(); //surface width
         int sh = mTextureView.getHeight(); //surface height
 
         mPreviewSurfaceAspectRatio = (float)sw / sh;
 
-        Log.i(TAG, "chooseVideoSize() for landscape:" + (mPreviewSurfaceAspectRatio > 1.f) + " aspect: " + mPreviewSurfaceAspectRatio + " : " + Arrays.toString(choices) );
-
-        //rather than in-lining returns, use this size as placeholder so we can calc aspectratio upon completion
-        Size sizeToReturn = null;
+        SizeSelectionPolicy.Candidate preview = mSizeSelectionPolicy.choosePreviewSize(
+                toCandidates(map, SurfaceTexture.class), sw, sh);
+        SizeSelectionPolicy.Candidate video = mSizeSelectionPolicy.chooseRecordSize(
+                toCandidates(map, MediaRecorder.class), preview);
 
-        //video is 'landscape' if over 1.f
-        if(mPreviewSurfaceAspectRatio > 1.f) {
-            for (Size size : choices) {
-                if (size.getHeight() == size.getWidth() * 9 / 16 && size.getHeight() <= 1080) {
-                    sizeToReturn = size;
-                }
-            }
-
-            //final check
-            if(sizeToReturn == null)
-                sizeToReturn = choices[0];
-
-            mVideoSizeAspectRatio = (float) sizeToReturn.getWidth() / sizeToReturn.getHeight();
-        }
-        else //portrait or square
-        {
-            /**
-             * find a potential aspect ratio match so that our video on screen is the same
-             * as what we record out - what u see is what u get
-             */
-            ArrayList<Size> potentials = new ArrayList<>();
-            for (Size size : choices)
-            {
-                // height / width because we're portrait
-                float aspect = (float)size.getHeight() / size.getWidth();
-                if(aspect == mPreviewSurfaceAspectRatio)
-                    potentials.add(size);
-            }
-            Log.i(TAG, "---potentials: " + potentials.size());
-
-            if(potentials.size() > 0)
-            {
-                //check for potential perfect matches (usually full screen surfaces)
-                for(Size potential : potentials)
-                    if(potential.getHeight() == sw) {
-                        sizeToReturn = potential;
-                        break;
-                    }
-                if(sizeToReturn == null)
-                    Log.i(TAG, "---no perfect match, check for 'normal'");
-
-                //if that fails - check for largest 'normal size' video
-                for(Size potential : potentials)
-                    if(potential.getHeight() == 1080 || potential.getHeight() == 720) {
-                        sizeToReturn = potential;
-                        break;
-                    }
-                if(sizeToReturn == null)
-                    Log.i(TAG, "---no 'normal' match, return largest ");
+        mPreviewSize = new Size(preview.width, preview.height);
+        mVideoSize = new Size(video.width, video.height);
 
-                //if not, return largest potential available
-                if(sizeToReturn == null)
-                    sizeToReturn = potentials.get(0);
-            }
+        //camera sizes are always landscape, so flip for portrait views
+        mPreviewSizeAspectRatio = mPreviewSurfaceAspectRatio > 1.f
+                ? (float) preview.width / preview.height
+                : (float) preview.height / preview.width;
 
-            //final check
-            if(sizeToReturn == null)
-                sizeToReturn = choices[0];
+        Log.i(TAG, "chooseSizes() view: " + sw + "x" + sh + " @" + mSizeSelectionPolicy.getTargetFps() + "fps, budget: "
+                + mSizeSelectionPolicy.getMaxPixelsPerSecond() + "px/s -> preview: " + mPreviewSize + " video: " + mVideoSize);
+    }
 
-            //landscape shit
-            mVideoSizeAspectRatio = (float) sizeToReturn.getHeight() / sizeToReturn.getWidth();
+    private static <T> SizeSelectionPolicy.Candidate[] toCandidates(StreamConfigurationMap map, Class<T> output)
+    {
+        Size[] sizes = map.getOutputSizes(output);
+        SizeSelectionPolicy.Candidate[] candidates = new SizeSelectionPolicy.Candidate[sizes.length];
+        for (int i = 0; i < sizes.length; i++) {
+            candidates[i] = new SizeSelectionPolicy.Candidate(sizes[i].getWidth(), sizes[i].getHeight(),
+                    map.getOutputMinFrameDuration(output, sizes[i]));
         }
-
-
-        return sizeToReturn;
+        return candidates;
     }
 
     /**
@@ -426,6 +395,10 @@ public class CameraFragment extends Fragment {
                 mCameraDevice = null;
                 mCameraIsOpen = false;
             }
+
+            //only once the camera is done with its surface
+            if (null != mAnalysisStream)
+                mAnalysisStream.close();
         } catch (InterruptedException e) {
             throw new RuntimeException("Interrupted while trying to lock camera closing.");
         } finally {
@@ -452,6 +425,12 @@ public class CameraFragment extends Fragment {
             surfaces.add(previewSurface);
             mPreviewBuilder.addTarget(previewSurface);
 
+            Surface analysisSurface = mAnalysisStream != null ? mAnalysisStream.getSurface() : null;
+            if (analysisSurface != null) {
+                surfaces.add(analysisSurface);
+                mPreviewBuilder.addTarget(analysisSurface);
+            }
+
             mCameraDevice.createCaptureSession(surfaces, new CameraCaptureSession.StateCallback() {
 
                 @Override
@@ -579,6 +558,30 @@ public class CameraFragment extends Fragment {
         this.mPreviewSurface = previewSurface;
     }
 
+    /**
+     * Adds a reduced resolution YUV stream for CPU analysis to the capture session. Set while
+     * the camera is closed, null to go back to preview only.
+     */
+    public void setAnalysisStream(AnalysisStream analysisStream) {
+        mAnalysisStream = analysisStream;
+    }
+
+    public AnalysisStream getAnalysisStream() {
+        return mAnalysisStream;
+    }
+
+    /**
+     * Swap in a policy with your own fps target and pixel budget. Takes effect the next time the
+     * camera opens.
+     */
+    public void setSizeSelectionPolicy(SizeSelectionPolicy sizeSelectionPolicy) {
+        mSizeSelectionPolicy = sizeSelectionPolicy;
+    }
+
+    public SizeSelectionPolicy getSizeSelectionPolicy() {
+        return mSizeSelectionPolicy;
+    }
+
     public void setOnViewportSizeUpdatedListener(OnViewportSizeUpdatedListener listener) {
         this.mOnViewportSizeUpdatedListener = listener;
     }
@@ -0,0 +1,494 @@
+package com.androidexperiments.shadercam.gl;
+
+import android.content.Context;
+import android.opengl.GLES20;
+import android.opengl.GLES30;
+import android.util.Log;
+
+import com.androidexperiments.shadercam.utils.DirectBufferPool;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Low resolution readback of what {@link CameraRenderer} draws, for analytics that need the
+ * effect's output rather than the raw camera frame.
+ * <p>
+ * Every Nth frame the output is scaled down on the GPU into a small framebuffer, by default
+ * 160x120 grayscale with four luma pixels packed into each RGBA texel, so the read is a quarter
+ * of the size again. On GLES3 the read goes through a pixel buffer object and is collected a frame
+ * later, like {@link FrameReader}; GLES2 reads straight away, which at this size is cheap.
+ * The pixels land in a pooled buffer and are handed to {@link OnReadbackListener}s on a worker
+ * thread, top row first. If listeners fall behind, frames are skipped rather than queued.
+ */
+public class AnalyticsReadback
+{
+    private static final String TAG = AnalyticsReadback.class.getSimpleName();
+    private static final String THREAD_NAME = "AnalyticsReadbackThread";
+
+    /**
+     * one byte of luma per pixel
+     */
+    public static final int FORMAT_GRAY = 0;
+
+    /**
+     * four bytes per pixel, RGBA
+     */
+    public static final int FORMAT_RGBA = 1;
+
+    private static final String GRAY_SHADER = "readback_gray.frag.glsl";
+    private static final String RGBA_SHADER = "readback_rgba.frag.glsl";
+
+    /**
+     * readbacks that may wait on listeners before we start skipping frames
+     */
+    private static final int MAX_IN_FLIGHT = 2;
+
+    /**
+     * Called on our worker thread with each readback.
+     */
+    public interface OnReadbackListener {
+        /**
+         * @param pixels {@code width * height} bytes for {@link #FORMAT_GRAY}, 4x that for
+         *               {@link #FORMAT_RGBA}, top row first. only valid during this call
+         * @param timestampNs timestamp of the camera frame this was drawn from
+         */
+        void onReadback(ByteBuffer pixels, int width, int height, int format, long timestampNs);
+    }
+
+    private final CopyOnWriteArrayList<OnReadbackListener> mListeners = new CopyOnWriteArrayList<>();
+
+    private volatile int mWidth = 160;
+    private volatile int mHeight = 120;
+    private volatile int mFormat = FORMAT_GRAY;
+    private volatile int mInterval = 1;
+
+    private final DirectBufferPool mBufferPool = new DirectBufferPool(MAX_IN_FLIGHT + 1);
+    private final AtomicInteger mInFlight = new AtomicInteger();
+    private int mSkipped = 0;
+
+    //GL thread only from here on
+    private ExecutorService mPublishExecutor;
+    //GL thread only from here on
+    private Context mContext;
+    private ProgramCache mProgramCache;
+    private boolean mUsePbo = false;
+
+    private long mFrameCount = 0;
+
+    /**
+     * width, height and format the targets and pass below were made for
+     */
+    private int mConfiguredWidth;
+    private int mConfiguredHeight;
+    private int mConfiguredFormat = -1;
+
+    private RenderPass mPass;
+    private RenderTarget mOutput;
+
+    /**
+     * effect output copied out of the window surface, when it isn't in a texture already
+     */
+    private RenderTarget mSource;
+
+    private final int[] mPbos = new int[2];
+    private final int[] mPboSizes = new int[2];
+    private final Readback[] mPboReadbacks = new Readback[2];
+    private int mPboIndex = 0;
+
+    /**
+     * reused for every readback: at most {@link #MAX_IN_FLIGHT} are with the listeners and one more
+     * waits in a PBO, so these never run out while we're keeping up
+     */
+    private final Readback[] mReadbacks = new Readback[MAX_IN_FLIGHT + 2];
+
+    public AnalyticsReadback()
+    {
+        for (int i = 0; i < mReadbacks.length; i++)
+            mReadbacks[i] = new Readback();
+    }
+
+    /**
+     * Listeners are called on our worker thread. Nothing is read back while there are none.
+     * Any thread.
+     */
+    public void addListener(OnReadbackListener listener)
+    {
+        mListeners.add(listener);
+    }
+
+    public void removeListener(OnReadbackListener listener)
+    {
+        mListeners.remove(listener);
+    }
+
+    /**
+     * @param width size of the readback, rounded up to a multiple of 4 for {@link #FORMAT_GRAY}
+     */
+    public void setSize(int width, int height)
+    {
+        if (width <= 0 || height <= 0)
+            throw new IllegalArgumentException("bad readback size " + width + "x" + height);
+
+        mWidth = width;
+        mHeight = height;
+    }
+
+    /**
+     * @param format {@link #FORMAT_GRAY} (default) or {@link #FORMAT_RGBA}
+     */
+    public void setFormat(int format)
+    {
+        mFormat = format;
+    }
+
+    /**
+     * @param interval read back every this many frames, 1 (every frame) by default
+     */
+    public void setInterval(int interval)
+    {
+        mInterval = Math.max(1, interval);
+    }
+
+    /**
+     * Render thread, with our context current.
+     */
+    void setup(Context context, ProgramCache programCache, int glVersion)
+    {
+        mContext = context;
+        mProgramCache = programCache;
+        mUsePbo = glVersion >= 3;
+        mPublishExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                return new Thread(runnable, THREAD_NAME);
+            }
+        });
+        if (mUsePbo)
+            GLES20.glGenBuffers(2, mPbos, 0);
+    }
+
+    /**
+     * Reads back the frame that was just drawn if it's our turn, and publishes last frame's
+     * PBO read. Render thread, after drawing and before swapping the window surface.
+     *
+     * @param source texture holding this frame's output, or null to take it from the window surface
+     */
+    void onFrameDrawn(RenderTarget source, int surfaceWidth, int surfaceHeight, long timestampNs)
+    {
+        if (mUsePbo) {
+            int mapIndex = 1 - mPboIndex;
+            if (mPboReadbacks[mapIndex] != null)
+                collectPbo(mapIndex);
+        }
+
+        if (mListeners.isEmpty() || ++mFrameCount % mInterval != 0)
+            return;
+
+        Readback readback = mInFlight.get() < MAX_IN_FLIGHT ? obtainReadback() : null;
+        if (readback == null) {
+            if (mSkipped++ % 100 == 0)
+                Log.w(TAG, "listeners are falling behind, skipped " + mSkipped + " readbacks so far");
+            return;
+        }
+
+        configure();
+        readback.set(mConfiguredWidth, mConfiguredHeight, mConfiguredFormat, timestampNs);
+
+        //GLES3 blits down close to our size first, GLES2 can sample a texture as-is
+        if (mUsePbo)
+            source = blitDown(source, surfaceWidth, surfaceHeight);
+        else if (source == null)
+            source = copyWindowSurface(surfaceWidth, surfaceHeight);
+
+        mOutput.bind();
+        mPass.draw(source);
+
+        int size = readback.getByteCount();
+
+        if (mUsePbo) {
+            int index = mPboIndex;
+
+            Gl.api().glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, mPbos[index]);
+            if (mPboSizes[index] != size) {
+                Gl.api().glBufferData(GLES30.GL_PIXEL_PACK_BUFFER, size, null, GLES30.GL_STREAM_READ);
+                mPboSizes[index] = size;
+            }
+            Gl.api().glReadPixels(0, 0, mOutput.getWidth(), mOutput.getHeight(), GLES20.GL_RGBA, GLES20.GL_UNSIGNED_BYTE, 0);
+            Gl.api().glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, 0);
+            Gl.api().checkError("AnalyticsReadback glReadPixels to PBO");
+
+            mPboReadbacks[index] = readback;
+            mPboIndex = 1 - index;
+        }
+        else {
+            ByteBuffer pixels = mBufferPool.acquire(size);
+            Gl.api().glReadPixels(0, 0, mOutput.getWidth(), mOutput.getHeight(), GLES20.GL_RGBA, GLES20.GL_UNSIGNED_BYTE, pixels);
+            Gl.api().checkError("AnalyticsReadback glReadPixels");
+
+            publish(readback, pixels);
+        }
+
+        RenderTarget.bindDefault();
+        GlState.viewport(0, 0, surfaceWidth, surfaceHeight);
+    }
+
+    /**
+     * @return a readback none of our listeners or PBOs are holding on to, or null if there's none
+     */
+    private Readback obtainReadback()
+    {
+        for (int i = 0; i < mReadbacks.length; i++) {
+            Readback readback = mReadbacks[i];
+            if (!readback.inUse) {
+                readback.inUse = true;
+                return readback;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * (re)creates our pass and targets whenever the size or format changed
+     */
+    private void configure()
+    {
+        int format = mFormat;
+        int width = format == FORMAT_GRAY ? (mWidth + 3) / 4 * 4 : mWidth;
+        int height = mHeight;
+
+        if (width == mConfiguredWidth && height == mConfiguredHeight && format == mConfiguredFormat)
+            return;
+
+        releaseTargets();
+
+        if (format == FORMAT_GRAY) {
+            GrayPackPass pass = new GrayPackPass();
+            pass.setLumaSize(width, height);
+            mPass = pass;
+        }
+        else {
+            mPass = new RenderPass(RGBA_SHADER);
+        }
+        mPass.setup(mContext, mProgramCache);
+
+        //gray packs 4 pixels into each texel
+        mOutput = RenderTarget.create(format == FORMAT_GRAY ? width / 4 : width, height, GLES20.GL_RGBA);
+
+        mConfiguredWidth = width;
+        mConfiguredHeight = height;
+        mConfiguredFormat = format;
+
+        Log.d(TAG, "configure() " + width + "x" + height + (format == FORMAT_GRAY ? " gray" : " rgba"));
+    }
+
+    /**
+     * Scales the frame down to twice our size with a filtered blit, so the pass only has to
+     * average 2x2 texels instead of skipping most of a full size frame. GLES3 only.
+     *
+     * @param source where the frame is, or null for the window surface
+     */
+    private RenderTarget blitDown(RenderTarget source, int surfaceWidth, int surfaceHeight)
+    {
+        int sourceWidth = source != null ? source.getWidth() : surfaceWidth;
+        int sourceHeight = source != null ? source.getHeight() : surfaceHeight;
+        int width = Math.min(sourceWidth, mConfiguredWidth * 2);
+        int height = Math.min(sourceHeight, mConfiguredHeight * 2);
+
+        if (mSource == null || !mSource.matches(width, height, GLES20.GL_RGBA)) {
+            if (mSource != null)
+                mSource.release();
+            mSource = RenderTarget.create(width, height, GLES20.GL_RGBA);
+        }
+
+        GlState.bindFramebuffer(GLES30.GL_READ_FRAMEBUFFER, source != null ? source.getFramebufferId() : 0);
+        GlState.bindFramebuffer(GLES30.GL_DRAW_FRAMEBUFFER, mSource.getFramebufferId());
+        Gl.api().glBlitFramebuffer(0, 0, sourceWidth, sourceHeight, 0, 0, width, height,
+                GLES30.GL_COLOR_BUFFER_BIT, GLES20.GL_LINEAR);
+        Gl.api().checkError("AnalyticsReadback glBlitFramebuffer");
+
+        return mSource;
+    }
+
+    /**
+     * GLES2 has no blit, so the window surface gets copied into a texture at full size
+     */
+    private RenderTarget copyWindowSurface(int surfaceWidth, int surfaceHeight)
+    {
+        if (mSource == null || !mSource.matches(surfaceWidth, surfaceHeight, GLES20.GL_RGBA)) {
+            if (mSource != null)
+                mSource.release();
+            mSource = RenderTarget.create(surfaceWidth, surfaceHeight, GLES20.GL_RGBA);
+        }
+
+        RenderTarget.bindDefault();
+        GlState.bindTexture(GLES20.GL_TEXTURE_2D, mSource.getTextureId());
+        Gl.api().glCopyTexSubImage2D(GLES20.GL_TEXTURE_2D, 0, 0, 0, 0, 0, surfaceWidth, surfaceHeight);
+        Gl.api().checkError("AnalyticsReadback glCopyTexSubImage2D");
+
+        return mSource;
+    }
+
+    private void collectPbo(int index)
+    {
+        Readback readback = mPboReadbacks[index];
+        mPboReadbacks[index] = null;
+
+        int size = readback.getByteCount();
+
+        Gl.api().glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, mPbos[index]);
+        ByteBuffer mapped = (ByteBuffer) Gl.api().glMapBufferRange(GLES30.GL_PIXEL_PACK_BUFFER, 0, size, GLES30.GL_MAP_READ_BIT);
+
+        ByteBuffer pixels = null;
+        if (mapped != null) {
+            pixels = mBufferPool.acquire(size);
+            pixels.put(mapped);
+            pixels.flip();
+        }
+
+        Gl.api().glUnmapBuffer(GLES30.GL_PIXEL_PACK_BUFFER);
+        Gl.api().glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, 0);
+
+        if (pixels == null) {
+            Log.e(TAG, "glMapBufferRange failed: 0x" + Integer.toHexString(Gl.api().glGetError()));
+            readback.inUse = false;
+            return;
+        }
+
+        publish(readback, pixels);
+    }
+
+    private void publish(Readback readback, ByteBuffer pixels)
+    {
+        readback.pixels = pixels;
+        mInFlight.incrementAndGet();
+        mPublishExecutor.execute(readback);
+    }
+
+    private void releaseTargets()
+    {
+        if (mPass != null) {
+            mPass.release();
+            mPass = null;
+        }
+        if (mOutput != null) {
+            mOutput.release();
+            mOutput = null;
+        }
+        if (mSource != null) {
+            mSource.release();
+            mSource = null;
+        }
+        mConfiguredFormat = -1;
+    }
+
+    /**
+     * Publishes whatever is still in a PBO and deletes our GL objects. Render thread, before the
+     * context goes away.
+     */
+    void release()
+    {
+        if (mPublishExecutor == null)
+            return;
+
+        if (mUsePbo) {
+            for (int i = 0; i < mPboReadbacks.length; i++) {
+                if (mPboReadbacks[i] != null)
+                    collectPbo(i);
+            }
+            GLES20.glDeleteBuffers(2, mPbos, 0);
+            mPboSizes[0] = mPboSizes[1] = 0;
+        }
+
+        releaseTargets();
+
+        //lets queued readbacks reach their listeners, then lets the thread die
+        mPublishExecutor.shutdown();
+        mPublishExecutor = null;
+    }
+
+    /**
+     * packs 4 horizontally adjacent luma values into each output texel
+     */
+    private static class GrayPackPass extends RenderPass
+    {
+        private GlProgram.Uniform mLumaSizeUniform;
+        private int mLumaWidth;
+        private int mLumaHeight;
+
+        private GrayPackPass()
+        {
+            super(GRAY_SHADER);
+        }
+
+        @Override
+        protected void setupProgramLocations()
+        {
+            super.setupProgramLocations();
+            mLumaSizeUniform = mProgram.getUniform("lumaSize");
+        }
+
+        private void setLumaSize(int width, int height)
+        {
+            mLumaWidth = width;
+            mLumaHeight = height;
+        }
+
+        @Override
+        protected void setUniforms(RenderTarget input)
+        {
+            mLumaSizeUniform.set(mLumaWidth, mLumaHeight);
+        }
+    }
+
+    /**
+     * what one read back frame looks like, and once it's read, its pixels on their way to our
+     * listeners. taken from {@link #mReadbacks} on the render thread, handed back by our worker
+     */
+    private class Readback implements Runnable
+    {
+        private int width;
+        private int height;
+        private int format;
+        private long timestampNs;
+        private ByteBuffer pixels;
+
+        private volatile boolean inUse;
+
+        private void set(int width, int height, int format, long timestampNs)
+        {
+            this.width = width;
+            this.height = height;
+            this.format = format;
+            this.timestampNs = timestampNs;
+        }
+
+        private int getByteCount()
+        {
+            return format == FORMAT_GRAY ? width * height : width * height * 4;
+        }
+
+        @Override
+        public void run()
+        {
+            try {
+                for (OnReadbackListener listener : mListeners) {
+                    pixels.rewind();
+                    listener.onReadback(pixels, width, height, format, timestampNs);
+                }
+            }
+            finally {
+                mBufferPool.release(pixels);
+                pixels = null;
+
+                //free before we count it out, so a render thread that sees room also finds one
+                inUse = false;
+                mInFlight.decrementAndGet();
+            }
+        }
+    }
+}
@@ -1,11 +1,9 @@
 package com.androidexperiments.shadercam.gl;
 
-import android.app.Activity;
 import android.content.Context;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
+import android.graphics.Rect;
 import android.graphics.SurfaceTexture;
-import android.media.MediaRecorder;
 import android.opengl.GLES11Ext;
 import android.opengl.GLES20;
 import android.opengl.GLES30;
@@ -14,38 +12,44 @@ import android.os.Handler;
 import android.os.Looper;
 import android.os.Message;
 import android.util.Log;
-import android.util.SparseIntArray;
-import android.view.Surface;
 import android.widget.Toast;
 
+import com.androidexperiments.shadercam.encoder.MediaCodecVideoEncoder;
+import com.androidexperiments.shadercam.encoder.RecordingRequests;
+import com.androidexperiments.shadercam.encoder.VideoEncoder;
+import com.androidexperiments.shadercam.encoder.VideoEncoderConfig;
 import com.androidexperiments.shadercam.fragments.CameraFragment;
 import com.androidexperiments.shadercam.utils.ShaderUtils;
 
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.lang.ref.WeakReference;
-import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
-import java.nio.FloatBuffer;
-import java.nio.ShortBuffer;
-import java.nio.channels.FileChannel;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
 
 /** *
  * Base camera rendering class. Responsible for rendering to proper window contexts, as well as
- * recording video with built-in media recorder.
+ * recording video through a pluggable {@link VideoEncoder}.
  *
  * Subclass this and add any kind of fun stuff u want, new shaders, textures, uniforms - go to town!
- *
- * TODO: add methods for users to create their own mediarecorders/change basic settings of default mr
  */
 
 public class CameraRenderer extends Thread implements SurfaceTexture.OnFrameAvailableListener
 {
     private static final String TAG = CameraRenderer.class.getSimpleName();
     private static final String THREAD_NAME = "CameraRendererThread";
+    private static final String FINALIZE_THREAD_NAME = "RecordingFinalizeThread";
 
     /**
      * if you create new files, just override these defaults in your subclass and
@@ -81,7 +85,7 @@ public class CameraRenderer extends Thread implements SurfaceTexture.OnFrameAvai
     private WindowSurface mWindowSurface;
 
     /**
-     * primary {@link WindowSurface} for use with mediarecorder
+     * primary {@link WindowSurface} for use with our {@link VideoEncoder}
      */
     private WindowSurface mRecordSurface;
 
@@ -111,8 +115,6 @@ public class CameraRenderer extends Thread implements SurfaceTexture.OnFrameAvai
 
     private static short drawOrder[] = {0, 1, 2, 1, 3, 2};
 
-    private FloatBuffer textureBuffer;
-
     private float textureCoords[] = {
             0.0f, 1.0f,
             1.0f, 1.0f,
@@ -122,58 +124,88 @@ public class CameraRenderer extends Thread implements SurfaceTexture.OnFrameAvai
 
     protected int mCameraShaderProgram;
 
-    private FloatBuffer vertexBuffer;
+    /**
+     * active uniforms and attributes of {@link #mCameraShaderProgram}, introspected once
+     * in {@link #setupProgramLocations()} so we never look them up by name while drawing
+     */
+    protected GlProgram mCameraProgram;
 
-    private ShortBuffer drawListBuffer;
+    /**
+     * {@link #squareCoords} and {@link #textureCoords} interleaved, uploaded once in {@link #setupVertexBuffer()}
+     */
+    private StaticGeometry mQuad;
 
     private int textureCoordinateHandle;
 
     private int positionHandle;
 
+    private GlProgram.Uniform mCamTextureUniform;
+
+    private GlProgram.Uniform mCamTextureTransformUniform;
+
     /**
-     * "arbitrary" maximum number of textures. seems that most phones dont like more than 16
+     * our camera's {@link GLES11Ext#GL_TEXTURE_EXTERNAL_OES} texture, always bound to unit 0
      */
-    public static final int MAX_TEXTURES = 16;
+    private int mCameraTextureId;
 
     /**
-     * for storing all texture ids from genTextures, and used when binding
-     * after genTextures, id[0] is reserved for camera texture
+     * every texture added with {@link #addTexture(Bitmap, String)} and friends. hands out GL
+     * textures on demand and keeps them within {@link #setTextureBudget(long)}
      */
-    private int[] mTexturesIds = new int[MAX_TEXTURES];
+    private final TextureManager mTextureManager = new TextureManager();
 
     /**
-     * array of proper constants for use in creation,
-     * updating, and drawing. most phones max out at 16
-     * same number as {@link #MAX_TEXTURES}
-     *
-     * Used in our implementation of {@link #addTexture(Bitmap, String)}
-     */
-    private int[] mTextureConsts = {
-            GLES20.GL_TEXTURE1,
-            GLES20.GL_TEXTURE2,
-            GLES20.GL_TEXTURE3,
-            GLES20.GL_TEXTURE4,
-            GLES20.GL_TEXTURE5,
-            GLES20.GL_TEXTURE6,
-            GLES20.GL_TEXTURE7,
-            GLES20.GL_TEXTURE8,
-            GLES20.GL_TEXTURE9,
-            GLES20.GL_TEXTURE10,
-            GLES20.GL_TEXTURE11,
-            GLES20.GL_TEXTURE12,
-            GLES20.GL_TEXTURE13,
-            GLES20.GL_TEXTURE14,
-            GLES20.GL_TEXTURE15,
-            GLES20.GL_TEXTURE16,
-    };
+     * background decodes for {@link #addTexture(TextureLoader.Request, String)}, created on first use
+     */
+    private TextureLoader mTextureLoader;
+
+    /**
+     * scratch for {@link #updateTexture(int, Bitmap, Rect...)}
+     */
+    private final DirtyRegion mDirtyRegion = new DirtyRegion();
+
+    /**
+     * producer-driven textures sampled like the camera, see {@link #addOverlay(OverlaySource, String)}
+     */
+    private final ArrayList<Overlay> mOverlays = new ArrayList<>();
 
     /**
      * array of {@link Texture} objects used for looping through
-     * during the render pass. created in {@link #addTexture(int, Bitmap, String, boolean)}
+     * during the render pass. created in {@link #addTexture(Bitmap, String, boolean)}
      * and looped in {@link #setExtraTextures()}
      */
-    private ArrayList<Texture> mTextureArray;
+    private final ArrayList<Texture> mTextureArray = new ArrayList<>();
+
+    /**
+     * optional chain of effect passes drawn after our camera program, see {@link #addRenderPass(RenderPass)}
+     */
+    private ArrayList<RenderPass> mRenderPasses = new ArrayList<>();
+
+    /**
+     * intermediate framebuffers shared by all of our {@link #mRenderPasses}
+     */
+    private RenderTargetPool mRenderTargetPool = new RenderTargetPool();
+
+    /**
+     * when true, the effect is drawn once per frame into {@link #mOffscreenTarget} and then copied
+     * to the preview and recording surfaces, see {@link #setRenderOffscreen(boolean)}
+     */
+    private volatile boolean mRenderOffscreen = false;
+
+    /**
+     * holds this frame's effect output while {@link #mRenderOffscreen} is on
+     */
+    private RenderTarget mOffscreenTarget;
+
+    /**
+     * where the last stage of {@link #draw()} should end up, null for the current window surface
+     */
+    private RenderTarget mOutputTarget;
 
+    /**
+     * plain textured quad used to copy {@link #mOffscreenTarget} to each output surface
+     */
+    private RenderPass mCopyPass = new RenderPass(RenderPass.DEFAULT_FRAGMENT_SHADER);
 
     /**
      * matrix for transforming our camera texture, available immediately after {@link #mPreviewTexture}s
@@ -181,11 +213,48 @@ public class CameraRenderer extends Thread implements SurfaceTexture.OnFrameAvai
      */
     private float[] mCameraTransformMatrix = new float[16];
 
+    /**
+     * optional per-stage timings of {@link #renderFrame(int)}, see {@link #setProfilingEnabled(boolean)}
+     */
+    private final FrameProfiler mProfiler = new FrameProfiler();
+
+    /**
+     * handed to {@link GlApi#beginFrame(long)}, GL thread only
+     */
+    private long mFrameNumber = 0;
+
+    /**
+     * async snapshots of the preview, see {@link #takeSnapshot(File, int, int, FrameReader.OnSnapshotListener)}
+     */
+    private final FrameReader mFrameReader = new FrameReader();
+
+    /**
+     * small periodic readbacks of the effect output for analytics, see {@link #getAnalyticsReadback()}
+     */
+    private final AnalyticsReadback mAnalyticsReadback = new AnalyticsReadback();
+
     /**
      * Handler for communcation with the UI thread. Implementation below at
      * {@link com.androidexperiments.shadercam.gl.CameraRenderer.RenderHandler RenderHandler}
      */
-    private RenderHandler mHandler;
+    private volatile RenderHandler mHandler;
+
+    /**
+     * Control plane of the renderer. Any thread can post {@link RenderCommand}s here, and only our
+     * GL thread takes them off again in {@link #drainCommands()} - at the top of every frame, or
+     * as soon as {@link #mHandler} wakes it up if no frames are coming in.
+     */
+    private final ConcurrentLinkedQueue<RenderCommand> mCommands = new ConcurrentLinkedQueue<>();
+
+    /**
+     * paces our rendering so we always draw the newest camera frame, see {@link #getFrameScheduler()}
+     */
+    private final FrameScheduler mFrameScheduler = new FrameScheduler(new FrameScheduler.Callback() {
+        @Override
+        public void onRenderFrame(int pendingFrames) {
+            renderFrame(pendingFrames);
+        }
+    });
 
     /**
      * Interface listener for some callbacks to the UI thread when rendering is setup and finished.
@@ -199,9 +268,26 @@ public class CameraRenderer extends Thread implements SurfaceTexture.OnFrameAvai
     private int mViewportWidth, mViewportHeight;
 
     /**
-     * boolean for recording so we cans wap the recording buffer into place
+     * whether the encoder is actually running, so we can swap the recording buffer into place.
+     * written by the GL thread only, as it works through {@link #mCommands}
+     */
+    private volatile boolean mIsRecording = false;
+
+    /**
+     * what the user asked for with {@link #startRecording(File)} / {@link #stopRecording()}. flipped
+     * right away on the calling thread, so start/stop pair up without waiting for the GL thread
+     */
+    private final RecordingRequests mRecordingRequests = new RecordingRequests();
+
+    /**
+     * set by {@link #shutdown()}, commands and frames that arrive after it are ignored
      */
-    private boolean mIsRecording = false;
+    private boolean mIsShutdown = false;
+
+    /**
+     * see {@link #setDrawUsesRawGl(boolean)}
+     */
+    private boolean mDrawUsesRawGl = false;
 
     /**
      * Reference to our users CameraFragment to ease setting viewport size. Thought about decoupling but wasn't
@@ -210,50 +296,76 @@ public class CameraRenderer extends Thread implements SurfaceTexture.OnFrameAvai
     private CameraFragment mCameraFragment;
 
     /**
-     * Default {@link MediaRecorder} instance so we can record all the cool shit we make. You can override this,
-     * but make sure you handle the deletion of temp files yourself.
+     * Encoder we draw into while recording, see {@link #setVideoEncoder(VideoEncoder)}. Defaults to a
+     * {@link MediaCodecVideoEncoder} with the default {@link VideoEncoderConfig}.
+     */
+    private VideoEncoder mVideoEncoder;
+
+    /**
+     * file passed by user where to save the video upon completion of recording
      */
-    private MediaRecorder mMediaRecorder;
+    private File mOutputFile;
 
     /**
-     * Bitrate of our recorded video passed to our default {@link MediaRecorder}
+     * finishes recordings off the render thread, see {@link #stopRecording(OnRecordingFinishedListener)}.
+     * single threaded so back to back takes are finalized in order
      */
-    private static final int VIDEO_BIT_RATE = 10000000;
+    private final ExecutorService mFinalizeExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            return new Thread(runnable, FINALIZE_THREAD_NAME);
+        }
+    });
 
-    private static final int VIDEO_WIDTH = 720;
+    private String mFragmentShaderPath;
+    private String mVertexShaderPath;
 
     /**
-     * Height of our recorded video - notice that if we use {@link com.androidexperiments.shadercam.view.SquareTextureView} that
-     * we can pss in the same value as the width here to make sure we render out a square movie. Otherwise, it will stretch the square
-     * textureview preview into a fullsize video. Play with the numbers here and the size of the TextureView you use to see the different types
-     * of output depending on scale values
+     * where our programs and our {@link RenderPass}es come from, null to always compile from source
      */
-    private static final int VIDEO_HEIGHT = 1280;
+    private ProgramCache mProgramCache;
 
     /**
-     * Array of ints for use with screen orientation hint in our MediaRecorder.
-     * See {@link #setupMediaRecorder()} for more info on its usage.
+     * background compiles for {@link #switchShaders(String, String)}, created on first use
      */
-    private static final SparseIntArray ORIENTATIONS = new SparseIntArray();
-    static {
-        ORIENTATIONS.append(Surface.ROTATION_0, 90);
-        ORIENTATIONS.append(Surface.ROTATION_90, 0);
-        ORIENTATIONS.append(Surface.ROTATION_180, 270);
-        ORIENTATIONS.append(Surface.ROTATION_270, 180);
-    }
+    private ShaderCompiler mShaderCompiler;
 
     /**
-     * temp file we write to for recording, then copy to where user wants to save video file
+     * program built from {@link #mFragmentShaderPath} / {@link #mVertexShaderPath}, drawn whenever
+     * no {@link Effect} is selected. {@link #mCameraShaderProgram} is whatever we're drawing right now
      */
-    private File mTempOutputFile;
+    private int mDefaultProgram;
 
     /**
-     * file passed by user where to save the video upon completion of recording
+     * everything passed to {@link #registerEffect(Effect)}, by name. GL thread only
      */
-    private File mOutputFile = null;
+    private final HashMap<String, Effect> mEffects = new HashMap<>();
 
-    private String mFragmentShaderPath;
-    private String mVertexShaderPath;
+    /**
+     * linked programs of our effects, in least recently used order so {@link #trimEffectPrograms()}
+     * can throw out the oldest ones first. GL thread only
+     */
+    private final LinkedHashMap<String, Integer> mEffectPrograms = new LinkedHashMap<>(8, 0.75f, true);
+
+    /**
+     * effects with a compile in flight on {@link #mShaderCompiler}
+     */
+    private final HashSet<Effect> mCompilingEffects = new HashSet<>();
+
+    /**
+     * effect we're drawing, null for {@link #mDefaultProgram}
+     */
+    private Effect mActiveEffect;
+
+    /**
+     * name of the effect we switch to as soon as its program is ready
+     */
+    private String mPendingEffect;
+
+    /**
+     * most effect programs we keep linked at once, see {@link #setMaxResidentEffects(int)}
+     */
+    private volatile int mMaxResidentEffects = 4;
 
     /**
      * Simple ctor to use default shaders
@@ -287,13 +399,13 @@ public class CameraRenderer extends Thread implements SurfaceTexture.OnFrameAvai
 
         this.mFragmentShaderPath = fragPath;
         this.mVertexShaderPath = vertPath;
+
+        this.mProgramCache = ProgramCache.createDefault(context);
     }
 
     private void initialize() {
-        mTextureArray = new ArrayList<>();
-
         setupCameraFragment();
-        setupMediaRecorder();
+        setupVideoEncoder();
         setViewport(mSurfaceWidth, mSurfaceHeight);
 
         if(fragmentShaderCode == null || vertexShaderCode == null) {
@@ -328,88 +440,29 @@ public class CameraRenderer extends Thread implements SurfaceTexture.OnFrameAvai
 
     /**
      * In order to properly make use of our awesome camera fragment and its renderers, we want
-     * to record the cool shit we do - so lets use the stock {@link MediaRecorder} class to do that.
-     * Because, i mean, why would I want to waste a month writing and implementing my own version
-     * when this should do it all on its own, right? ...right? :(
+     * to record the cool shit we do. The encoder hands us a {@link android.view.Surface} that
+     * we wrap in {@link #mRecordSurface} in {@link #initGL()}.
      */
-    private void setupMediaRecorder() {
-        File outputDir = mContext.getCacheDir();
-        try {
-            mTempOutputFile = File.createTempFile("temp_mov", "mp4", outputDir);
-        } catch (IOException e) {
-            throw new RuntimeException("Temp file could not be created. Message: " + e.getMessage());
-        }
-
-        mMediaRecorder = new MediaRecorder();
-
-        //set the sources
-        /**
-         * {@link MediaRecorder.AudioSource.CAMCORDER} is nice because on some fancier
-         * phones microphones will be aligned towards whatever camera is being used, giving us better
-         * directional audio. And if it doesn't have that, it will fallback to the default Microphone.
-         */
-        mMediaRecorder.setAudioSource(MediaRecorder.AudioSource.CAMCORDER);
-
-        /**
-         * Using {@link MediaRecorder.VideoSource.SURFACE} creates a {@link Surface}
-         * for us to use behind the scenes. We then pass this service to our {@link ExampleRenderer}
-         * later on for creation of our EGL contexts to render to.
-         *
-         * {@link MediaRecorder.VideoSource.SURFACE} is also the default for rendering
-         * out Camera2 api data without any shader manipulation at all.
-         */
-        mMediaRecorder.setVideoSource(MediaRecorder.VideoSource.SURFACE);
-
-        //set output
-        mMediaRecorder.setOutputFormat(MediaRecorder.OutputFormat.MPEG_4);
-
-        /**
-         * This would eventually be worth making a parameter at each call to {@link #setupMediaRecorder()}
-         * so that you can pass in a timestamp or unique file name each time to setup up.
-         */
-        mMediaRecorder.setOutputFile(mTempOutputFile.getPath());
-
-        /**
-         * Media Recorder can be finicky with certain video sizes, so lets make sure we pass it
-         * something 'normal' - ie 720p or 1080p. this will create a surface of the same size,
-         * which will be used by our renderer for drawing once recording is enabled
-         */
-        mMediaRecorder.setVideoEncoder(MediaRecorder.VideoEncoder.H264);
-        mMediaRecorder.setVideoEncodingBitRate(VIDEO_BIT_RATE);
-        mMediaRecorder.setVideoSize(VIDEO_WIDTH, VIDEO_HEIGHT);
-        mMediaRecorder.setVideoFrameRate(30);
-
-        //setup audio
-        mMediaRecorder.setAudioEncoder(MediaRecorder.AudioEncoder.AAC);
-        mMediaRecorder.setAudioEncodingBitRate(44800);
-
-        /**
-         * we can determine the rotation and orientation of our screen here for dynamic usage
-         * but since we know our app will be portrait only, setting the media recorder to
-         * 720x1280 rather than 1280x720 and letting orientation be 0 will keep everything looking normal
-         */
-        int rotation = ((Activity)mContext).getWindowManager().getDefaultDisplay().getRotation();
-        int orientation = ORIENTATIONS.get(rotation); Log.d(TAG, "orientation: " + orientation);
-        mMediaRecorder.setOrientationHint(0);
+    private void setupVideoEncoder() {
+        if(mVideoEncoder == null)
+            mVideoEncoder = new MediaCodecVideoEncoder();
 
         try {
             /**
-             * There are what seems like an infinite number of ways to fuck up the previous steps,
+             * There are what seems like an infinite number of ways to fuck up encoder settings,
              * so prepare() will throw an exception if you fail, and hope that stackoverflow can help.
              */
-            mMediaRecorder.prepare();
+            mVideoEncoder.prepare();
         }
         catch (IOException e) {
-            Toast.makeText(mContext, "MediaRecorder failed on prepare()", Toast.LENGTH_LONG).show();
-            Log.e(TAG, "MediaRecorder failed on prepare() " + e.getMessage());
+            Toast.makeText(mContext, "VideoEncoder failed on prepare()", Toast.LENGTH_LONG).show();
+            Log.e(TAG, "VideoEncoder failed on prepare() " + e.getMessage());
         }
-
-        Log.d(TAG, "MediaRecorder surface: " + mMediaRecorder.getSurface() + " isValid: " + mMediaRecorder.getSurface().isValid());
     }
 
     /**
      * Initialize all necessary components for GLES rendering, creating window surfaces for drawing
-     * the preview as well as the surface that will be used by MediaRecorder for recording
+     * the preview as well as the surface that will be used by our {@link VideoEncoder} for recording
      */
     public void initGL() {
         mEglCore = new EglCore(null, EglCore.FLAG_RECORDABLE | EglCore.FLAG_TRY_GLES3);
@@ -417,9 +470,14 @@ public class CameraRenderer extends Thread implements SurfaceTexture.OnFrameAvai
         //create preview surface
         mWindowSurface = new WindowSurface(mEglCore, mSurfaceTexture);
         mWindowSurface.makeCurrent();
+        GlState.invalidate();
+
+        mProfiler.setup(getGlVersion());
+        mFrameReader.setup(getGlVersion());
+        mAnalyticsReadback.setup(mContext, mProgramCache, getGlVersion());
 
         //create recording surface
-        mRecordSurface = new WindowSurface(mEglCore, mMediaRecorder.getSurface(), false);
+        mRecordSurface = new WindowSurface(mEglCore, mVideoEncoder.getInputSurface(), false);
 
         initGLComponents();
     }
@@ -431,6 +489,12 @@ public class CameraRenderer extends Thread implements SurfaceTexture.OnFrameAvai
         setupTextures();
         setupCameraTexture();
         setupShaders();
+        mDefaultProgram = mCameraShaderProgram;
+        setupProgramLocations();
+        setupRenderPasses();
+
+        if (mProgramCache != null)
+            Log.d(TAG, "programs ready: " + mProgramCache);
 
         onSetupComplete();
     }
@@ -443,18 +507,59 @@ public class CameraRenderer extends Thread implements SurfaceTexture.OnFrameAvai
     public void deinitGL() {
         deinitGLComponents();
 
+        GlState.logStats();
+        Log.i(TAG, "eglMakeCurrent issued: " + mEglCore.getMakeCurrentIssued() + ", elided: " + mEglCore.getMakeCurrentElided());
+
+        mProfiler.release();
+        mFrameReader.release();
+        mAnalyticsReadback.release();
+
+        if (mShaderCompiler != null)
+            mShaderCompiler.release();
+
+        if (mTextureLoader != null)
+            mTextureLoader.release();
+
         mWindowSurface.release();
         mRecordSurface.release();
 
         mEglCore.release();
 
-        if(mMediaRecorder != null)
-            mMediaRecorder.release();
+        releaseVideoEncoder();
+
+        //lets any recording that is still being finalized finish, then lets the thread die
+        mFinalizeExecutor.shutdown();
     }
 
     protected void deinitGLComponents() {
-        GLES20.glDeleteTextures(MAX_TEXTURES, mTexturesIds, 0);
-        GLES20.glDeleteProgram(mCameraShaderProgram);
+        GLES20.glDeleteTextures(1, new int[]{mCameraTextureId}, 0);
+        GlState.onTextureDeleted(mCameraTextureId);
+        for (Effect effect : mEffects.values())
+            effect.releaseTextures(this);
+        mTextureManager.releaseAll();
+        mTextureArray.clear();
+
+        for (int i = 0; i < mOverlays.size(); i++)
+            mOverlays.get(i).source.release();
+        mOverlays.clear();
+
+        HashSet<Integer> programs = new HashSet<>(mEffectPrograms.values());
+        programs.add(mDefaultProgram);
+        programs.add(mCameraShaderProgram);
+        for (int program : programs)
+            GLES20.glDeleteProgram(program);
+
+        mEffectPrograms.clear();
+        mCompilingEffects.clear();
+        mActiveEffect = null;
+        mPendingEffect = null;
+
+        for (int i = 0; i < mRenderPasses.size(); i++)
+            mRenderPasses.get(i).release();
+        mCopyPass.release();
+        mRenderTargetPool.releaseAll();
+
+        mQuad.release();
 
         mPreviewTexture.release();
         mPreviewTexture.setOnFrameAvailableListener(null);
@@ -473,33 +578,25 @@ public class CameraRenderer extends Thread implements SurfaceTexture.OnFrameAvai
     }
 
     protected void setupVertexBuffer() {
-        // Draw list buffer
-        ByteBuffer dlb = ByteBuffer.allocateDirect(drawOrder.length * 2);
-        dlb.order(ByteOrder.nativeOrder());
-        drawListBuffer = dlb.asShortBuffer();
-        drawListBuffer.put(drawOrder);
-        drawListBuffer.position(0);
+        //x, y, u, v per corner
+        float[] vertices = new float[squareCoords.length + textureCoords.length];
+        for (int i = 0; i < squareCoords.length / 2; i++) {
+            vertices[i * 4] = squareCoords[i * 2];
+            vertices[i * 4 + 1] = squareCoords[i * 2 + 1];
+            vertices[i * 4 + 2] = textureCoords[i * 2];
+            vertices[i * 4 + 3] = textureCoords[i * 2 + 1];
+        }
 
-        // Initialize the texture holder
-        ByteBuffer bb = ByteBuffer.allocateDirect(squareCoords.length * 4);
-        bb.order(ByteOrder.nativeOrder());
-        vertexBuffer = bb.asFloatBuffer();
-        vertexBuffer.put(squareCoords);
-        vertexBuffer.position(0);
+        mQuad = new StaticGeometry(vertices, 4, drawOrder)
+                .addAttribute(2)
+                .addAttribute(2);
+        mQuad.setup(getGlVersion());
     }
 
     protected void setupTextures()
     {
-        ByteBuffer texturebb = ByteBuffer.allocateDirect(textureCoords.length * 4);
-        texturebb.order(ByteOrder.nativeOrder());
-
-        textureBuffer = texturebb.asFloatBuffer();
-        textureBuffer.put(textureCoords);
-        textureBuffer.position(0);
-
-        // Generate the max amount texture ids
-        GLES20.glGenTextures(MAX_TEXTURES, mTexturesIds, 0);
-        checkGlError("Texture generate");
+        //extra textures get their ids once they're added
+        mTextureManager.setup(getGlVersion());
     }
 
     /**
@@ -507,12 +604,16 @@ public class CameraRenderer extends Thread implements SurfaceTexture.OnFrameAvai
      * but rather as {@link GLES11Ext#GL_TEXTURE_EXTERNAL_OES}, which we bind here
      */
     protected void setupCameraTexture() {
-        //set texture[0] to camera texture
-        GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
-        GLES20.glBindTexture(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, mTexturesIds[0]);
+        int[] ids = new int[1];
+        GLES20.glGenTextures(1, ids, 0);
+        mCameraTextureId = ids[0];
+        checkGlError("Texture generate");
+
+        //camera texture lives on unit 0
+        GlState.bindTexture(0, GLES11Ext.GL_TEXTURE_EXTERNAL_OES, mCameraTextureId);
         checkGlError("Texture bind");
 
-        mPreviewTexture = new SurfaceTexture(mTexturesIds[0]);
+        mPreviewTexture = new SurfaceTexture(mCameraTextureId);
         mPreviewTexture.setOnFrameAvailableListener(this);
     }
 
@@ -520,306 +621,1002 @@ public class CameraRenderer extends Thread implements SurfaceTexture.OnFrameAvai
      * Handling this manually here but check out another impl at {@link GlUtil#createProgram(String, String)}
      */
     protected void setupShaders() {
-        int vertexShaderHandle = GLES20.glCreateShader(GLES20.GL_VERTEX_SHADER);
-        GLES20.glShaderSource(vertexShaderHandle, vertexShaderCode);
-        GLES20.glCompileShader(vertexShaderHandle);
-        checkGlError("Vertex shader compile");
-
-        Log.d(TAG, "vertexShader info log:\n " + GLES20.glGetShaderInfoLog(vertexShaderHandle));
+        if (mProgramCache != null)
+            mCameraShaderProgram = mProgramCache.getProgram(vertexShaderCode, fragmentShaderCode);
+        else
+            mCameraShaderProgram = GlUtil.createProgram(vertexShaderCode, fragmentShaderCode);
 
-        int fragmentShaderHandle = GLES20.glCreateShader(GLES20.GL_FRAGMENT_SHADER);
-        GLES20.glShaderSource(fragmentShaderHandle, fragmentShaderCode);
-        GLES20.glCompileShader(fragmentShaderHandle);
-        checkGlError("Pixel shader compile");
+        if (mCameraShaderProgram == 0)
+            Log.e(TAG, "Error while creating camera program, see the compile/link log above");
+    }
 
-        Log.d(TAG, "fragmentShader info log:\n " + GLES20.glGetShaderInfoLog(fragmentShaderHandle));
+    /**
+     * Introspects our linked program and caches every location we need while drawing.
+     * Override this (and call super) to grab {@link GlProgram.Uniform} handles for your own
+     * uniforms, then set them in {@link #setUniformsAndAttribs()}.
+     */
+    protected void setupProgramLocations() {
+        mCameraProgram = GlProgram.introspect(mCameraShaderProgram);
 
-        mCameraShaderProgram = GLES20.glCreateProgram();
-        GLES20.glAttachShader(mCameraShaderProgram, vertexShaderHandle);
-        GLES20.glAttachShader(mCameraShaderProgram, fragmentShaderHandle);
-        GLES20.glLinkProgram(mCameraShaderProgram);
-        checkGlError("Shader program compile");
+        mCamTextureUniform = mCameraProgram.getUniform("camTexture");
+        mCamTextureTransformUniform = mCameraProgram.getUniform("camTextureTransform");
+        textureCoordinateHandle = mCameraProgram.getAttribLocation("camTexCoordinate");
+        positionHandle = mCameraProgram.getAttribLocation("position");
 
-        int[] status = new int[1];
-        GLES20.glGetProgramiv(mCameraShaderProgram, GLES20.GL_LINK_STATUS, status, 0);
-        if (status[0] != GLES20.GL_TRUE) {
-            String error = GLES20.glGetProgramInfoLog(mCameraShaderProgram);
-            Log.e("SurfaceTest", "Error while linking program:\n" + error);
+        for (int i = 0; i < mTextureArray.size(); i++) {
+            Texture tex = mTextureArray.get(i);
+            tex.uniform = findSampler(tex.uniformName);
         }
+
+        for (int i = 0; i < mOverlays.size(); i++)
+            mOverlays.get(i).setupLocations(mCameraProgram);
     }
 
     /**
-     * called when all setup is complete on basic GL stuffs
-     * override for adding textures and other shaders and make sure to call
-     * super so that we can let them know we're done
+     * Swaps our camera program for one built from these assets, without tearing the renderer
+     * down. The shaders are loaded, compiled and linked on a background thread with a shared
+     * context, and the old program keeps drawing until the new one is ready. Any thread.
+     *
+     * @param fragPath file name of your fragment shader inside the /assets/ folder
+     * @param vertPath file name of your vertex shader inside the /assets/ folder
      */
-    protected void onSetupComplete() {
-        mOnRendererReadyListener.onRendererReady();
+    public void switchShaders(String fragPath, String vertPath) {
+        postCommand(RenderCommand.switchShaders(fragPath, vertPath));
     }
 
-    @Override
-    public synchronized void start() {
-        initialize();
+    /**
+     * GL thread side of {@link #switchShaders(String, String)}
+     */
+    private void compileShaders(final String fragPath, final String vertPath) {
+        getShaderCompiler().compileAssets(mContext, fragPath, vertPath, new ShaderCompiler.OnProgramReadyListener() {
+            @Override
+            public void onProgramReady(int program) {
+                if (program == 0) {
+                    Log.e(TAG, "switchShaders() failed for " + fragPath + ", " + vertPath + ", keeping current program");
+                    return;
+                }
 
-        if(mOnRendererReadyListener == null)
-            throw new RuntimeException("OnRenderReadyListener is not set! Set listener prior to calling start()");
+                //new default replaces the old one, and any selected effect along with it
+                boolean drawingDefault = mCameraShaderProgram == mDefaultProgram;
+                int oldDefault = mDefaultProgram;
 
-        super.start();
+                mDefaultProgram = program;
+                mFragmentShaderPath = fragPath;
+                mVertexShaderPath = vertPath;
+
+                mPendingEffect = null;
+                activateEffect(null, program);
+
+                if (!drawingDefault)
+                    releaseIfOrphaned(oldDefault);
+            }
+        });
+    }
+
+    private ShaderCompiler getShaderCompiler() {
+        if (mShaderCompiler == null)
+            mShaderCompiler = new ShaderCompiler(mEglCore, mProgramCache);
+        return mShaderCompiler;
     }
 
+    // ------------------------------------------------------------
+    // effects
+    // ------------------------------------------------------------
 
     /**
-     * primary loop - this does all the good things
+     * Makes an {@link Effect} available to {@link #setEffect(String)}. Effects marked with
+     * {@link Effect#setPreload(boolean)} start compiling right away, everything else compiles
+     * the first time it's selected. Registering a second effect under the same name replaces
+     * the first. Any thread.
      */
-    @Override
-    public void run()
-    {
-        Looper.prepare();
+    public void registerEffect(Effect effect) {
+        if (effect == null)
+            throw new IllegalArgumentException("effect can't be null");
 
-        //create handler for communication from UI
-        mHandler = new RenderHandler(this);
+        postCommand(RenderCommand.registerEffect(effect));
+    }
 
-        //initialize all GL on this context
-        initGL();
+    /**
+     * Switches to a registered {@link Effect} between two frames. If its program isn't linked yet
+     * it's compiled in the background and the current one keeps drawing until it's ready. Any thread.
+     *
+     * @param name name of the effect, or null to go back to our own shaders
+     */
+    public void setEffect(String name) {
+        postCommand(RenderCommand.setEffect(name));
+    }
 
-        //LOOOOOOOOOOOOOOOOP
-        Looper.loop();
+    /**
+     * Swaps the {@link GlApi} the render loop calls GL through, between two frames. Wrap
+     * {@link Gl#api()} in a {@link TracingGlApi} to count calls or capture frames.
+     *
+     * @param api null goes back to calling GL directly
+     */
+    public void setGlApi(GlApi api) {
+        postCommand(RenderCommand.setGlApi(api));
+    }
 
-        //we're done here
-        deinitGL();
+    /**
+     * Caps how many effect programs stay linked at once. When we go over, the least recently
+     * used ones are deleted and get compiled again (usually straight out of the
+     * {@link ProgramCache}) next time they're selected. The effect on screen is never evicted.
+     */
+    public void setMaxResidentEffects(int maxResidentEffects) {
+        if (maxResidentEffects < 1)
+            throw new IllegalArgumentException("need room for at least one effect, got " + maxResidentEffects);
 
-        mOnRendererReadyListener.onRendererFinished();
+        mMaxResidentEffects = maxResidentEffects;
     }
 
     /**
-     * stop our thread, and make sure we kill a recording if its still happening
-     *
-     * this should only be called from our handler to ensure thread-safe
+     * GL thread side of {@link #registerEffect(Effect)}
      */
-    public void shutdown() {
-        synchronized (this) {
-            if (mIsRecording)
-                stopRecording();
-            else //not recording but still needs release
-                mMediaRecorder.release();
+    private void addEffect(Effect effect) {
+        String name = effect.getName();
+        Effect old = mEffects.put(name, effect);
+
+        if (old != null) {
+            Integer program = mEffectPrograms.remove(name);
+            if (program != null)
+                releaseIfOrphaned(program); //if it's on screen it goes once we switch away
+
+            //keep showing the old one until the replacement is linked, its textures go with it then
+            if (old == mActiveEffect)
+                mPendingEffect = name;
+            else if (old != effect)
+                old.recycleTextures(this);
         }
 
-        //kill ouy thread
-        Looper.myLooper().quit();
+        if (effect.isPreload() || name.equals(mPendingEffect))
+            compileEffect(effect);
     }
 
-    @Override
-    public void onFrameAvailable(SurfaceTexture surfaceTexture)
-    {
-        boolean swapResult;
-
-        synchronized (this)
-        {
-            updatePreviewTexture();
-
-            if(mEglCore.getGlVersion() >= 3)
-            {
-                draw();
+    /**
+     * GL thread side of {@link #setEffect(String)}
+     */
+    private void selectEffect(String name) {
+        if (name == null) {
+            mPendingEffect = null;
+            activateEffect(null, mDefaultProgram);
+            return;
+        }
 
-                if(mIsRecording) {
-                    mRecordSurface.makeCurrentReadFrom(mWindowSurface);
+        Effect effect = mEffects.get(name);
+        if (effect == null) {
+            Log.e(TAG, "setEffect() unknown effect " + name + ", did you register it?");
+            return;
+        }
 
-                    GlUtil.checkGlError("before glBlitFramebuffer");
+        Integer program = mEffectPrograms.get(name); //also marks it as recently used
+        if (program != null) {
+            mPendingEffect = null;
+            activateEffect(effect, program);
+            return;
+        }
 
-                    GLES30.glBlitFramebuffer(
-                            0, 0, mWindowSurface.getWidth(), mWindowSurface.getHeight(),
-                            0, 0, mRecordSurface.getWidth(), mRecordSurface.getHeight(), //must match the mediarecorder surface size
-                            GLES30.GL_COLOR_BUFFER_BIT, GLES30.GL_NEAREST
-                    );
+        mPendingEffect = name;
+        compileEffect(effect);
+    }
 
-                    int err;
-                    if ((err = GLES30.glGetError()) != GLES30.GL_NO_ERROR)
-                        Log.w(TAG, "ERROR: glBlitFramebuffer failed: 0x" + Integer.toHexString(err));
+    private void compileEffect(final Effect effect) {
+        if (!mCompilingEffects.add(effect))
+            return;
 
-                    mRecordSurface.setPresentationTime(surfaceTexture.getTimestamp());
-                    mRecordSurface.swapBuffers();
+        ShaderCompiler.OnProgramReadyListener listener = new ShaderCompiler.OnProgramReadyListener() {
+            @Override
+            public void onProgramReady(int program) {
+                mCompilingEffects.remove(effect);
+                String name = effect.getName();
+
+                //replaced while we were compiling
+                if (mEffects.get(name) != effect) {
+                    if (program != 0)
+                        GLES20.glDeleteProgram(program);
+                    return;
                 }
 
-                //swap main buff
-                mWindowSurface.makeCurrent();
-                swapResult = mWindowSurface.swapBuffers();
-            }
-            else //gl v2
-            {
-                draw();
-
-                if(mIsRecording) {
-                    // Draw for recording, swap.
-                    mRecordSurface.makeCurrent();
-
-                    setViewport(mRecordSurface.getWidth(), mRecordSurface.getHeight());
-                    draw();
+                if (program == 0) {
+                    Log.e(TAG, "failed to compile " + effect + ", keeping current program");
+                    if (name.equals(mPendingEffect))
+                        mPendingEffect = null;
+                    return;
+                }
 
-                    mRecordSurface.setPresentationTime(surfaceTexture.getTimestamp());
-                    mRecordSurface.swapBuffers();
+                mEffectPrograms.put(name, program);
 
-                    setViewport(mWindowSurface.getWidth(), mWindowSurface.getHeight());
+                if (name.equals(mPendingEffect)) {
+                    mPendingEffect = null;
+                    activateEffect(effect, program);
                 }
 
-                mWindowSurface.makeCurrent();
-                swapResult = mWindowSurface.swapBuffers();
+                trimEffectPrograms();
             }
+        };
 
-            if (!swapResult) {
-                // This can happen if the Activity stops without waiting for us to halt.
-                Log.e(TAG, "swapBuffers failed, killing renderer thread");
-                shutdown();
-            }
-        }
+        if (effect.isFromSource())
+            getShaderCompiler().compile(effect.getVertexShaderCode(), effect.getFragmentShaderCode(), listener);
+        else
+            getShaderCompiler().compileAssets(mContext, effect.getFragmentShaderPath(), effect.getVertexShaderPath(), listener);
     }
 
     /**
-     * main draw routine
+     * Starts drawing with this program from the next frame on.
+     *
+     * @param effect the effect it belongs to, null for {@link #mDefaultProgram}
      */
-    public void draw()
-    {
-        GLES20.glViewport(0, 0, mViewportWidth, mViewportHeight);
+    private void activateEffect(Effect effect, int program) {
+        int outgoing = mCameraShaderProgram;
+        Effect outgoingEffect = mActiveEffect;
 
-        GLES20.glClearColor(1.0f, 0.0f, 0.0f, 0.0f);
-        GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT);
+        mActiveEffect = effect;
+        mCameraShaderProgram = program;
+        setupProgramLocations();
 
-        //set shader
-        GLES20.glUseProgram(mCameraShaderProgram);
+        if (effect != null) {
+            effect.uploadTextures(this);
+            effect.onProgramReady(mCameraProgram);
+        }
 
-        setUniformsAndAttribs();
-        setExtraTextures();
-        drawElements();
-        onDrawCleanup();
+        releaseIfOrphaned(outgoing);
+        if (outgoingEffect != null && outgoingEffect != effect
+                && mEffects.get(outgoingEffect.getName()) != outgoingEffect)
+            outgoingEffect.recycleTextures(this); //was replaced while on screen
+        trimEffectPrograms();
+
+        Log.d(TAG, "drawing with " + (effect != null ? effect : "default program") + ", " + mCameraProgram);
     }
 
     /**
-     * update the SurfaceTexture to the latest camera image
+     * deletes least recently used effect programs until we're within {@link #mMaxResidentEffects}
      */
-    protected void updatePreviewTexture()
-    {
-        mPreviewTexture.updateTexImage();
-        mPreviewTexture.getTransformMatrix(mCameraTransformMatrix);
+    private void trimEffectPrograms() {
+        Iterator<Map.Entry<String, Integer>> it = mEffectPrograms.entrySet().iterator();
+        while (mEffectPrograms.size() > mMaxResidentEffects && it.hasNext()) {
+            Map.Entry<String, Integer> entry = it.next();
+            if (entry.getValue() == mCameraShaderProgram)
+                continue;
+
+            it.remove();
+            GLES20.glDeleteProgram(entry.getValue());
+            GlState.onProgramDeleted(entry.getValue());
+
+            Effect effect = mEffects.get(entry.getKey());
+            if (effect != null)
+                effect.releaseTextures(this);
+            Log.d(TAG, "evicted program of effect " + entry.getKey());
+        }
     }
 
     /**
-     * base amount of attributes needed for rendering camera to screen
+     * deletes a program we stopped drawing with, unless it's the default or still pooled
      */
-    protected void setUniformsAndAttribs()
-    {
-        int textureParamHandle = GLES20.glGetUniformLocation(mCameraShaderProgram, "camTexture");
-        int textureTranformHandle = GLES20.glGetUniformLocation(mCameraShaderProgram, "camTextureTransform");
-        textureCoordinateHandle = GLES20.glGetAttribLocation(mCameraShaderProgram, "camTexCoordinate");
-        positionHandle = GLES20.glGetAttribLocation(mCameraShaderProgram, "position");
-
-
-        GLES20.glEnableVertexAttribArray(positionHandle);
-        GLES20.glVertexAttribPointer(positionHandle, 2, GLES20.GL_FLOAT, false, 4 * 2, vertexBuffer);
+    private void releaseIfOrphaned(int program) {
+        if (program == 0 || program == mDefaultProgram || program == mCameraShaderProgram
+                || mEffectPrograms.containsValue(program))
+            return;
 
-        //camera texture
-        GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
-        GLES20.glBindTexture(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, mTexturesIds[0]);
-        GLES20.glUniform1i(textureParamHandle, 0);
-
-        GLES20.glEnableVertexAttribArray(textureCoordinateHandle);
-        GLES20.glVertexAttribPointer(textureCoordinateHandle, 2, GLES20.GL_FLOAT, false, 4 * 2, textureBuffer);
-
-        GLES20.glUniformMatrix4fv(textureTranformHandle, 1, false, mCameraTransformMatrix, 0);
+        GLES20.glDeleteProgram(program);
+        GlState.onProgramDeleted(program);
     }
 
     /**
-     * creates a new texture with specified resource id and returns the
-     * tex id num upon completion
-     * @param resource_id
-     * @param uniformName
-     * @return
+     * link programs for any passes added before GL was ready
      */
-    public int addTexture(int resource_id, String uniformName)
-    {
-        int texId = mTextureConsts[mTextureArray.size()];
-        if(mTextureArray.size() + 1 >= MAX_TEXTURES)
-            throw new IllegalStateException("Too many textures! Please don't use so many :(");
-
-        Bitmap bmp = BitmapFactory.decodeResource(mContext.getResources(), resource_id);
+    protected void setupRenderPasses() {
+        for (int i = 0; i < mRenderPasses.size(); i++) {
+            RenderPass pass = mRenderPasses.get(i);
+            if (!pass.isSetup())
+                pass.setup(mContext, mProgramCache);
+        }
+    }
 
-        return addTexture(texId, bmp, uniformName, true);
+    /**
+     * called when all setup is complete on basic GL stuffs
+     * override for adding textures and other shaders and make sure to call
+     * super so that we can let them know we're done
+     */
+    protected void onSetupComplete() {
+        mOnRendererReadyListener.onRendererReady();
     }
 
-    public int addTexture(Bitmap bitmap, String uniformName)
-    {
-        int texId = mTextureConsts[mTextureArray.size()];
-        if(mTextureArray.size() + 1 >= MAX_TEXTURES)
-            throw new IllegalStateException("Too many textures! Please don't use so many :(");
+    @Override
+    public synchronized void start() {
+        initialize();
+
+        if(mOnRendererReadyListener == null)
+            throw new RuntimeException("OnRenderReadyListener is not set! Set listener prior to calling start()");
 
-        return addTexture(texId, bitmap, uniformName, true);
+        super.start();
     }
 
-    public int addTexture(int texId, Bitmap bitmap, String uniformName, boolean recycle)
-    {
-        int num = mTextureArray.size() + 1;
 
-        GLES20.glActiveTexture(texId);
-        checkGlError("Texture generate");
-        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, mTexturesIds[num]);
-        checkGlError("Texture bind");
-        GLES20.glTexParameterf(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_NEAREST);
-        GLES20.glTexParameterf(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_NEAREST);
-        GLUtils.texImage2D(GLES20.GL_TEXTURE_2D, 0, bitmap, 0);
+    /**
+     * primary loop - this does all the good things
+     */
+    @Override
+    public void run()
+    {
+        Looper.prepare();
+
+        //create handler for communication from UI
+        mHandler = new RenderHandler(this);
+        mFrameScheduler.attach();
+
+        //initialize all GL on this context
+        initGL();
+
+        //anything posted before our handler existed
+        drainCommands();
+
+        //LOOOOOOOOOOOOOOOOP
+        Looper.loop();
+
+        //we're done here
+        cancelPendingCommands();
+        deinitGL();
+
+        mOnRendererReadyListener.onRendererFinished();
+    }
+
+    /**
+     * stop our thread, and make sure we kill a recording if its still happening
+     *
+     * GL thread only - from anywhere else use {@link RenderHandler#sendShutdown()}
+     */
+    public void shutdown() {
+        if (mIsShutdown)
+            return;
+        mIsShutdown = true;
+
+        mFrameScheduler.detach();
+
+        if (mIsRecording) {
+            mRecordingRequests.requestStop();
+            finishRecording(new RecordingFinalizer(null));
+        }
+        else //not recording but still needs release
+            releaseVideoEncoder();
+
+        //kill ouy thread
+        Looper.myLooper().quit();
+    }
+
+    /**
+     * Posts a command for the GL thread and makes sure it wakes up to run it.
+     */
+    private void postCommand(RenderCommand command) {
+        mCommands.offer(command);
+
+        RenderHandler handler = mHandler;
+        if (handler != null)
+            handler.sendDrainCommands();
+    }
+
+    /**
+     * Runs every pending {@link RenderCommand} in the order it was posted. GL thread only.
+     */
+    private void drainCommands() {
+        RenderCommand command;
+        while (!mIsShutdown && (command = mCommands.poll()) != null) {
+            switch (command.what) {
+                case RenderCommand.START_RECORDING:
+                    beginRecording(command.outputFile, command.token);
+                    break;
+                case RenderCommand.STOP_RECORDING:
+                    finishRecording(command.finalizer);
+                    break;
+                case RenderCommand.SHUTDOWN:
+                    shutdown();
+                    break;
+                case RenderCommand.SWITCH_SHADERS:
+                    compileShaders(command.fragPath, command.vertPath);
+                    break;
+                case RenderCommand.REGISTER_EFFECT:
+                    addEffect(command.effect);
+                    break;
+                case RenderCommand.SET_EFFECT:
+                    selectEffect(command.effectName);
+                    break;
+                case RenderCommand.SET_GL_API:
+                    Gl.setApi(command.glApi);
+                    break;
+                default:
+                    throw new RuntimeException("unknown command " + command.what);
+            }
+        }
+    }
+
+    /**
+     * nothing will run the commands left after shutdown, so don't leave anyone waiting on them
+     */
+    private void cancelPendingCommands() {
+        RenderCommand command;
+        while ((command = mCommands.poll()) != null) {
+            if (command.finalizer != null)
+                command.finalizer.future.cancel(false);
+        }
+    }
+
+    @Override
+    public void onFrameAvailable(SurfaceTexture surfaceTexture)
+    {
+        mFrameScheduler.onFrameAvailable();
+    }
+
+    /**
+     * Draws the newest camera frame to the screen, and the recording if we're recording. Called by
+     * {@link #mFrameScheduler} once per render, however many frames came in since the last one.
+     */
+    private void renderFrame(int pendingFrames)
+    {
+        boolean swapResult;
+
+        drainCommands();
+        if (mIsShutdown)
+            return;
+
+        if (mShaderCompiler != null)
+            mShaderCompiler.deliverResults();
+
+        if (mTextureLoader != null)
+            mTextureLoader.uploadPending();
+
+        mProfiler.beginFrame();
+        Gl.api().beginFrame(mFrameNumber++);
+        mProfiler.beginStage(FrameProfiler.STAGE_UPDATE_TEXTURE);
 
-        if(recycle)
-            bitmap.recycle();
+        //each updateTexImage() latches the next queued buffer, so step past the stale ones
+        for (int i = 1; i < pendingFrames; i++)
+            mPreviewTexture.updateTexImage();
 
-        Texture tex = new Texture(num, texId, uniformName);
+        updatePreviewTexture();
+        latchOverlays();
+        //updateTexImage() binds its texture on the active unit behind our back, nothing else
+        GlState.invalidateTexture(GLES11Ext.GL_TEXTURE_EXTERNAL_OES);
 
-        if(!mTextureArray.contains(tex)) {
-            mTextureArray.add(tex);
-            Log.d(TAG, "addedTexture() " + mTexturesIds[num] + " : " + tex);
+        mProfiler.endStage(FrameProfiler.STAGE_UPDATE_TEXTURE);
+
+        if(mRenderOffscreen)
+        {
+            //run the whole effect once, then hand each surface a cheap copy at its own size
+            mProfiler.beginStage(FrameProfiler.STAGE_DRAW);
+            drawOffscreen();
+            mProfiler.endStage(FrameProfiler.STAGE_DRAW);
+
+            if(mIsRecording) {
+                mProfiler.beginStage(FrameProfiler.STAGE_RECORD);
+                mRecordSurface.makeCurrent();
+                copyOffscreen(mRecordSurface.getWidth(), mRecordSurface.getHeight());
+
+                mRecordSurface.setPresentationTime(mPreviewTexture.getTimestamp());
+                mRecordSurface.swapBuffers();
+                mProfiler.endStage(FrameProfiler.STAGE_RECORD);
+            }
+
+            mProfiler.beginStage(FrameProfiler.STAGE_SWAP);
+            mWindowSurface.makeCurrent();
+            copyOffscreen(mViewportWidth, mViewportHeight);
+            mFrameReader.onFrameDrawn(mWindowSurface.getWidth(), mWindowSurface.getHeight());
+            mAnalyticsReadback.onFrameDrawn(mOffscreenTarget, mWindowSurface.getWidth(), mWindowSurface.getHeight(),
+                    mPreviewTexture.getTimestamp());
+            swapResult = mWindowSurface.swapBuffers();
+            mProfiler.endStage(FrameProfiler.STAGE_SWAP);
+
+            mRenderTargetPool.release(mOffscreenTarget);
+            mOffscreenTarget = null;
         }
+        else if(getGlVersion() >= 3)
+        {
+            mProfiler.beginStage(FrameProfiler.STAGE_DRAW);
+            draw();
+            onDrawFinished();
+            mProfiler.endStage(FrameProfiler.STAGE_DRAW);
+
+            if(mIsRecording) {
+                mProfiler.beginStage(FrameProfiler.STAGE_RECORD);
+                mRecordSurface.makeCurrentReadFrom(mWindowSurface);
+
+                Gl.api().checkError("before glBlitFramebuffer");
+
+                Gl.api().glBlitFramebuffer(
+                        0, 0, mWindowSurface.getWidth(), mWindowSurface.getHeight(),
+                        0, 0, mRecordSurface.getWidth(), mRecordSurface.getHeight(), //must match the encoder surface size
+                        GLES30.GL_COLOR_BUFFER_BIT, GLES30.GL_NEAREST
+                );
+
+                int err;
+                if ((err = Gl.api().glGetError()) != GLES30.GL_NO_ERROR)
+                    Log.w(TAG, "ERROR: glBlitFramebuffer failed: 0x" + Integer.toHexString(err));
+
+                mRecordSurface.setPresentationTime(mPreviewTexture.getTimestamp());
+                mRecordSurface.swapBuffers();
+                mProfiler.endStage(FrameProfiler.STAGE_RECORD);
+            }
 
-        return num;
+            //swap main buff
+            mProfiler.beginStage(FrameProfiler.STAGE_SWAP);
+            mWindowSurface.makeCurrent();
+            mFrameReader.onFrameDrawn(mWindowSurface.getWidth(), mWindowSurface.getHeight());
+            mAnalyticsReadback.onFrameDrawn(null, mWindowSurface.getWidth(), mWindowSurface.getHeight(),
+                    mPreviewTexture.getTimestamp());
+            swapResult = mWindowSurface.swapBuffers();
+            mProfiler.endStage(FrameProfiler.STAGE_SWAP);
+        }
+        else //gl v2
+        {
+            mProfiler.beginStage(FrameProfiler.STAGE_DRAW);
+            draw();
+            onDrawFinished();
+            mProfiler.endStage(FrameProfiler.STAGE_DRAW);
+
+            if(mIsRecording) {
+                // Draw for recording, swap.
+                mProfiler.beginStage(FrameProfiler.STAGE_RECORD);
+                mRecordSurface.makeCurrent();
+
+                setViewport(mRecordSurface.getWidth(), mRecordSurface.getHeight());
+                draw();
+                onDrawFinished();
+
+                mRecordSurface.setPresentationTime(mPreviewTexture.getTimestamp());
+                mRecordSurface.swapBuffers();
+
+                setViewport(mWindowSurface.getWidth(), mWindowSurface.getHeight());
+                mProfiler.endStage(FrameProfiler.STAGE_RECORD);
+            }
+
+            mProfiler.beginStage(FrameProfiler.STAGE_SWAP);
+            mWindowSurface.makeCurrent();
+            mFrameReader.onFrameDrawn(mWindowSurface.getWidth(), mWindowSurface.getHeight());
+            mAnalyticsReadback.onFrameDrawn(null, mWindowSurface.getWidth(), mWindowSurface.getHeight(),
+                    mPreviewTexture.getTimestamp());
+            swapResult = mWindowSurface.swapBuffers();
+            mProfiler.endStage(FrameProfiler.STAGE_SWAP);
+        }
+
+        Gl.api().endFrame();
+        mProfiler.endFrame();
+
+        if (!swapResult) {
+            // This can happen if the Activity stops without waiting for us to halt.
+            Log.e(TAG, "swapBuffers failed, killing renderer thread");
+            shutdown();
+        }
+    }
+
+    /**
+     * main draw routine
+     */
+    public void draw()
+    {
+        if (mRenderPasses.isEmpty()) {
+            drawCamera();
+            return;
+        }
+
+        drawRenderPasses();
+    }
+
+    /**
+     * Runs the camera program into a pooled target, then every pass in order. Each pass releases
+     * its input back to {@link #mRenderTargetPool} once it's drawn, so the next pass picks that
+     * same texture up for its output and a chain of any length ping-pongs between two textures.
+     * Only the last pass draws to the current window surface (or to the offscreen target while
+     * {@link #setRenderOffscreen(boolean)} is on).
+     */
+    protected void drawRenderPasses()
+    {
+        RenderTarget input = mRenderTargetPool.acquire(mViewportWidth, mViewportHeight, GLES20.GL_RGBA);
+        input.bind();
+        drawCamera();
+
+        int count = mRenderPasses.size();
+        for (int i = 0; i < count; i++)
+        {
+            RenderPass pass = mRenderPasses.get(i);
+            RenderTarget output = null;
+
+            if (i < count - 1) {
+                output = mRenderTargetPool.acquire(pass.getOutputWidth(mViewportWidth),
+                        pass.getOutputHeight(mViewportHeight), pass.getOutputFormat());
+                output.bind();
+            }
+            else {
+                bindOutput();
+            }
+
+            pass.draw(input);
+
+            mRenderTargetPool.release(input);
+            input = output;
+        }
+    }
+
+    /**
+     * draws the camera feed through our main program into whatever framebuffer is bound
+     */
+    protected void drawCamera()
+    {
+        GlState.viewport(0, 0, mViewportWidth, mViewportHeight);
+
+        Gl.api().glClearColor(1.0f, 0.0f, 0.0f, 0.0f);
+        Gl.api().glClear(GLES20.GL_COLOR_BUFFER_BIT);
+
+        //set shader
+        GlState.useProgram(mCameraShaderProgram);
+
+        setUniformsAndAttribs();
+        setExtraTextures();
+        drawElements();
+        onDrawCleanup();
+    }
+
+    /**
+     * draws the full effect into {@link #mOffscreenTarget} instead of the window surface
+     */
+    private void drawOffscreen()
+    {
+        if (!mCopyPass.isSetup())
+            mCopyPass.setup(mContext, mProgramCache);
+
+        mOffscreenTarget = mRenderTargetPool.acquire(mViewportWidth, mViewportHeight, GLES20.GL_RGBA);
+        mOutputTarget = mOffscreenTarget;
+        mOffscreenTarget.bind();
+
+        draw();
+        onDrawFinished();
+
+        mOutputTarget = null;
+    }
+
+    /**
+     * Call with true if your {@link #draw()} binds programs, textures, framebuffers or the
+     * viewport with GLES directly (or through {@link Gl#api()}) instead of {@link GlState}, e.g.
+     * to draw texample2 text on top. We then forget our shadow of those after every draw. Off by
+     * default, since everything the library draws goes through {@link GlState}.
+     */
+    protected void setDrawUsesRawGl(boolean drawUsesRawGl)
+    {
+        mDrawUsesRawGl = drawUsesRawGl;
+    }
+
+    private void onDrawFinished()
+    {
+        if (mDrawUsesRawGl)
+            GlState.invalidate();
+    }
+
+    /**
+     * copies this frame's {@link #mOffscreenTarget} to the current window surface
+     */
+    private void copyOffscreen(int width, int height)
+    {
+        RenderTarget.bindDefault();
+        GlState.viewport(0, 0, width, height);
+        mCopyPass.draw(mOffscreenTarget);
+    }
+
+    /**
+     * binds whatever the last stage of {@link #draw()} should render into
+     */
+    private void bindOutput()
+    {
+        if (mOutputTarget != null) {
+            mOutputTarget.bind();
+        }
+        else {
+            RenderTarget.bindDefault();
+            GlState.viewport(0, 0, mViewportWidth, mViewportHeight);
+        }
+    }
+
+    /**
+     * update the SurfaceTexture to the latest camera image
+     */
+    protected void updatePreviewTexture()
+    {
+        mPreviewTexture.updateTexImage();
+        mPreviewTexture.getTransformMatrix(mCameraTransformMatrix);
+    }
+
+    /**
+     * base amount of attributes needed for rendering camera to screen. if you bind textures of
+     * your own in an override, use {@link GlState} so our shadow of the bindings stays right
+     */
+    protected void setUniformsAndAttribs()
+    {
+        mQuad.bind(positionHandle, textureCoordinateHandle);
+
+        //camera texture
+        GlState.bindTexture(0, GLES11Ext.GL_TEXTURE_EXTERNAL_OES, mCameraTextureId);
+        mCamTextureUniform.set(0);
+
+        mCamTextureTransformUniform.setMatrix4(mCameraTransformMatrix);
+
+        if (mActiveEffect != null)
+            mActiveEffect.setUniforms();
+    }
+
+    /**
+     * creates a new texture with specified resource id and returns its handle right away. the
+     * resource is decoded in the background at no more than our surface size, see
+     * {@link #addTexture(TextureLoader.Request, String)}
+     * @param resource_id
+     * @param uniformName
+     * @return handle for {@link #updateTexture(int, Bitmap)} and {@link #removeTexture(int)}
+     */
+    public int addTexture(int resource_id, String uniformName)
+    {
+        return addTexture(TextureLoader.Request.fromResource(mContext, resource_id), uniformName);
+    }
+
+    /**
+     * Adds a texture that's decoded on a background thread and uploaded a frame or so later.
+     * It's drawn as a placeholder until then (see {@link #getTextureLoader()}). Requests without
+     * a target size are decoded at no more than our surface size.
+     * @return handle for {@link #updateTexture(int, Bitmap)} and {@link #removeTexture(int)}
+     */
+    public int addTexture(TextureLoader.Request request, String uniformName)
+    {
+        if (!request.hasTargetSize())
+            request.setTargetSize(mSurfaceWidth, mSurfaceHeight);
+
+        return trackTexture(getTextureLoader().load(request), uniformName);
+    }
+
+    /**
+     * decodes and uploads the textures of {@link #addTexture(TextureLoader.Request, String)},
+     * created on first use. GL thread only
+     */
+    public TextureLoader getTextureLoader()
+    {
+        if (mTextureLoader == null)
+            mTextureLoader = new TextureLoader(mTextureManager);
+        return mTextureLoader;
+    }
+
+    public int addTexture(Bitmap bitmap, String uniformName)
+    {
+        return addTexture(bitmap, uniformName, true);
+    }
+
+    /**
+     * uploads the bitmap right away
+     * @param recycle whether to recycle the bitmap once it's uploaded
+     * @return handle for {@link #updateTexture(int, Bitmap)} and {@link #removeTexture(int)}
+     */
+    public int addTexture(Bitmap bitmap, String uniformName, boolean recycle)
+    {
+        return trackTexture(mTextureManager.create(bitmap, recycle), uniformName);
+    }
+
+    /**
+     * @deprecated texture units are handed out when drawing now, {@code texId} is ignored.
+     * use {@link #addTexture(Bitmap, String, boolean)}
+     */
+    @Deprecated
+    public int addTexture(int texId, Bitmap bitmap, String uniformName, boolean recycle)
+    {
+        return addTexture(bitmap, uniformName, recycle);
+    }
+
+    private int trackTexture(int handle, String uniformName)
+    {
+        Texture tex = new Texture(handle, uniformName);
+        if (mCameraProgram != null)
+            tex.uniform = findSampler(uniformName);
+
+        mTextureArray.add(tex);
+        Log.d(TAG, "addedTexture() " + tex + ", " + mTextureManager);
+
+        return handle;
+    }
+
+    /**
+     * stops drawing a texture added with one of the addTexture() calls and frees it
+     * @param handle what addTexture() returned
+     */
+    public void removeTexture(int handle)
+    {
+        for (int i = 0; i < mTextureArray.size(); i++) {
+            if (mTextureArray.get(i).handle == handle) {
+                mTextureArray.remove(i);
+                mTextureManager.release(handle);
+                return;
+            }
+        }
+    }
+
+    /**
+     * @param budgetBytes estimated GPU memory our extra textures should stay under, least
+     *                    recently drawn ones are evicted first. call from the render thread
+     */
+    public void setTextureBudget(long budgetBytes)
+    {
+        mTextureManager.setBudget(budgetBytes);
+    }
+
+    public TextureManager getTextureManager()
+    {
+        return mTextureManager;
+    }
+
+    /**
+     * Sets up an overlay and samples it as {@code samplerExternalOES uniformName} from now on,
+     * with its transform in {@code mat4 uniformNameTransform} if the shader has one. Producers
+     * can start drawing into {@link OverlaySource#getSurface()} once this returns. Call from
+     * the render thread, {@link #onSetupComplete()} is a good spot.
+     */
+    public void addOverlay(OverlaySource source, String uniformName)
+    {
+        source.setup();
+
+        Overlay overlay = new Overlay(source, uniformName);
+        if (mCameraProgram != null)
+            overlay.setupLocations(mCameraProgram);
+        mOverlays.add(overlay);
+    }
+
+    /**
+     * stops sampling an overlay and releases its surface. call from the render thread
+     */
+    public void removeOverlay(OverlaySource source)
+    {
+        for (int i = 0; i < mOverlays.size(); i++) {
+            if (mOverlays.get(i).source == source) {
+                mOverlays.remove(i);
+                source.release();
+                return;
+            }
+        }
+    }
+
+    /**
+     * grabs whatever our overlays' producers drew since the last frame
+     */
+    private void latchOverlays()
+    {
+        for (int i = 0; i < mOverlays.size(); i++)
+            mOverlays.get(i).source.latch();
+    }
+
+    /**
+     * Appends a pass to the effect chain drawn after our camera program. Call before
+     * {@link #start()}, or from the render thread (e.g. in {@link #onSetupComplete()}).
+     */
+    public void addRenderPass(RenderPass pass)
+    {
+        mRenderPasses.add(pass);
+
+        //already running on the GL thread, link right away
+        if (mEglCore != null && !pass.isSetup())
+            pass.setup(mContext, mProgramCache);
+    }
+
+    /**
+     * Render the effect once per frame into an offscreen texture, then copy it to the preview
+     * and (while recording) to the recording surface with a plain textured quad. Without this,
+     * GLES2 devices run the full {@link #draw()} once per surface, so shader cost doubles exactly
+     * while the encoder is busy. Safe to toggle from any thread, takes effect on the next frame.
+     */
+    public void setRenderOffscreen(boolean renderOffscreen)
+    {
+        mRenderOffscreen = renderOffscreen;
+    }
+
+    public boolean isRenderingOffscreen()
+    {
+        return mRenderOffscreen;
+    }
+
+    /**
+     * Removes a pass from the effect chain and deletes its program. Call from the render thread.
+     */
+    public void removeRenderPass(RenderPass pass)
+    {
+        if (mRenderPasses.remove(pass))
+            pass.release();
     }
 
     /**
      * updates specific texture and recycles bitmap used for updating
-     * @param texNum
+     * @param handle what addTexture() returned
      * @param drawingCache
      */
-    public void updateTexture(int texNum, Bitmap drawingCache)
+    public void updateTexture(int handle, Bitmap drawingCache)
     {
-        GLES20.glActiveTexture(mTextureConsts[texNum - 1]);
-        checkGlError("Texture generate");
-        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, mTexturesIds[texNum]);
-        checkGlError("Texture bind");
-        GLUtils.texSubImage2D(GLES20.GL_TEXTURE_2D, 0, 0, 0, drawingCache);
-        checkGlError("Tex Sub Image");
+        mTextureManager.update(handle, drawingCache);
 
         drawingCache.recycle();
     }
 
     /**
-     * override this and copy if u want to add your own mTexturesIds
+     * updates only the parts of a texture that changed, e.g. the invalidated bits of a view's
+     * drawing cache. the bitmap still has to hold the complete new contents, and isn't recycled
+     * so you can keep drawing into the same one
+     * @param handle what addTexture() returned
+     * @param dirtyRects changed areas in bitmap pixels, merged before uploading
+     */
+    public void updateTexture(int handle, Bitmap bitmap, Rect... dirtyRects)
+    {
+        mDirtyRegion.clear();
+        for (Rect rect : dirtyRects)
+            mDirtyRegion.add(rect);
+
+        mTextureManager.update(handle, bitmap, mDirtyRegion);
+    }
+
+    /**
+     * keeps a second copy of a texture that gets updated often, so uploading the next frame's
+     * pixels never waits on the GPU still drawing the last one. costs twice the memory
+     */
+    public void setTextureDoubleBuffered(int handle, boolean doubleBuffered)
+    {
+        mTextureManager.setDoubleBuffered(handle, doubleBuffered);
+    }
+
+    /**
+     * override this and copy if u want to add your own textures
      * if u need different uv coordinates, refer to {@link #setupTextures()}
      * for how to create your own buffer
      */
     protected void setExtraTextures()
     {
+        //unit 0 is the camera, everything our program actually samples gets the next free one
+        int unit = 1;
         for(int i = 0; i < mTextureArray.size(); i++)
         {
             Texture tex = mTextureArray.get(i);
-            int imageParamHandle = GLES20.glGetUniformLocation(mCameraShaderProgram, tex.uniformName);
+            if (tex.uniform == null)
+                continue;
+
+            if (unit >= mTextureManager.getMaxTextureUnits()) {
+                Log.w(TAG, "out of texture units, not binding " + tex);
+                break;
+            }
 
-            GLES20.glActiveTexture(tex.texId);
-            GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, mTexturesIds[tex.texNum]);
-            GLES20.glUniform1i(imageParamHandle, tex.texNum);
+            mTextureManager.bind(tex.handle, unit);
+            tex.uniform.set(unit);
+            unit++;
+        }
+
+        //only the effect that's drawing, another one may sample the same name
+        if (mActiveEffect != null)
+            unit = mActiveEffect.bindTextures(mTextureManager, unit);
+
+        for(int i = 0; i < mOverlays.size(); i++)
+        {
+            Overlay overlay = mOverlays.get(i);
+            if (overlay.uniform == null)
+                continue;
+
+            if (unit >= mTextureManager.getMaxTextureUnits()) {
+                Log.w(TAG, "out of texture units, not binding " + overlay.source);
+                break;
+            }
+
+            overlay.source.bind(unit);
+            overlay.uniform.set(unit);
+            if (overlay.transformUniform != null)
+                overlay.transformUniform.setMatrix4(overlay.source.getTransformMatrix());
+            unit++;
         }
     }
 
+    /**
+     * @return the sampler uniform of {@link #mCameraProgram}, or null if it doesn't sample it
+     */
+    private GlProgram.Uniform findSampler(String uniformName)
+    {
+        return mCameraProgram.hasUniform(uniformName) ? mCameraProgram.getUniform(uniformName) : null;
+    }
+
     protected void drawElements() {
-        GLES20.glDrawElements(GLES20.GL_TRIANGLES, drawOrder.length, GLES20.GL_UNSIGNED_SHORT, drawListBuffer);
+        mQuad.draw(GLES20.GL_TRIANGLES);
     }
 
     protected void onDrawCleanup() {
-        GLES20.glDisableVertexAttribArray(positionHandle);
-        GLES20.glDisableVertexAttribArray(textureCoordinateHandle);
+        mQuad.unbind();
     }
 
     /**
@@ -841,6 +1638,14 @@ public class CameraRenderer extends Thread implements SurfaceTexture.OnFrameAvai
         mViewportHeight = viewportHeight;
     }
 
+    /**
+     * @return major version of the GLES context we render with, 2 or 3. Only valid once
+     * {@link #initGL()} has created it
+     */
+    protected int getGlVersion() {
+        return mEglCore.getGlVersion();
+    }
+
     public float[] getCameraTransformMatrix() {
         return mCameraTransformMatrix;
     }
@@ -849,6 +1654,70 @@ public class CameraRenderer extends Thread implements SurfaceTexture.OnFrameAvai
         return mPreviewTexture;
     }
 
+    /**
+     * Swap in a {@link ProgramCache} of your own, or pass null to compile every program from
+     * source. Call before {@link #start()}.
+     */
+    public void setProgramCache(ProgramCache programCache) {
+        mProgramCache = programCache;
+    }
+
+    /**
+     * @return the cache our programs go through, handy for hit/miss stats, or null if disabled
+     */
+    public ProgramCache getProgramCache() {
+        return mProgramCache;
+    }
+
+    /**
+     * Saves the next frame drawn to the screen without stalling the preview. The read back is
+     * asynchronous and the encoding happens on a worker thread. Any thread.
+     *
+     * @param format  {@link FrameReader#FORMAT_PNG}, {@link FrameReader#FORMAT_JPEG} or {@link FrameReader#FORMAT_RAW}
+     * @param quality 0-100, only used for jpeg
+     * @param listener optional, called from the worker thread once the file is written
+     */
+    public void takeSnapshot(File file, int format, int quality, FrameReader.OnSnapshotListener listener) {
+        mFrameReader.requestSnapshot(file, format, quality, listener);
+    }
+
+    /**
+     * Saves the next frame as a png, see {@link #takeSnapshot(File, int, int, FrameReader.OnSnapshotListener)}
+     */
+    public void takeSnapshot(File file, FrameReader.OnSnapshotListener listener) {
+        takeSnapshot(file, FrameReader.FORMAT_PNG, 100, listener);
+    }
+
+    /**
+     * Low resolution copies of what we draw, for analytics that want to see the effect. Add a
+     * listener to start receiving them and set the size, format and interval there; any thread.
+     */
+    public AnalyticsReadback getAnalyticsReadback() {
+        return mAnalyticsReadback;
+    }
+
+    /**
+     * Turns per-stage CPU (and where supported, GPU) timing of every frame on or off. Off by
+     * default; read the results through {@link #getProfiler()}.
+     */
+    public void setProfilingEnabled(boolean enabled) {
+        mProfiler.setEnabled(enabled);
+    }
+
+    /**
+     * @return our {@link FrameProfiler}, safe to pull percentiles from any thread
+     */
+    public FrameProfiler getProfiler() {
+        return mProfiler;
+    }
+
+    /**
+     * @return our {@link FrameScheduler}, for frame counters or to turn on vsync alignment
+     */
+    public FrameScheduler getFrameScheduler() {
+        return mFrameScheduler;
+    }
+
     public RenderHandler getRenderHandler() {
         return mHandler;
     }
@@ -859,64 +1728,125 @@ public class CameraRenderer extends Thread implements SurfaceTexture.OnFrameAvai
     }
 
     /**
-     * Triggers our built-in MediaRecorder to start recording
+     * Starts our {@link VideoEncoder} recording every rendered frame. Safe to call from any thread,
+     * the encoder is started on the GL thread before the next frame is drawn.
      * @param outputFile a {@link File} where we'll be saving the completed render
      */
     public void startRecording(File outputFile) {
-        mOutputFile = outputFile;
-
-        if(mOutputFile == null)
+        if(outputFile == null)
             throw new RuntimeException("No output file specified! Make sure to call setOutputFile prior to recording!");
 
-        synchronized (this) {
-            mIsRecording = true;
-            mMediaRecorder.start();
+        //held until the command is queued, so it can't overtake a stop that got in just before it
+        synchronized (mRecordingRequests) {
+            long token = mRecordingRequests.requestStart();
+            if(token == RecordingRequests.NOT_STARTED) {
+                Log.w(TAG, "startRecording() called while already recording, ignoring");
+                return;
+            }
+
+            postCommand(RenderCommand.startRecording(outputFile, token));
         }
     }
 
     /**
-     * stops our mediarecorder if its still running and starts our copy from temp to regular
+     * Same as {@link #stopRecording(OnRecordingFinishedListener)} without a listener.
      */
-    public void stopRecording() {
-        synchronized (this) {
-            if(!mIsRecording)
-                return;
-
-            mMediaRecorder.stop();
-            mMediaRecorder.release();
+    public Future<File> stopRecording() {
+        return stopRecording(null);
+    }
 
-            mIsRecording = false;
+    /**
+     * Stops drawing into our encoder from the next frame on and finishes the file on a background
+     * thread, so the preview keeps running while the encoder flushes and the file is written out.
+     * Safe to call from any thread, never waits on the GL thread.
+     *
+     * @param listener optional, called on the finalizing thread once the file is done
+     * @return completes with the output file once it's ready to use, or null if we weren't recording.
+     *         cancelled if the encoder never got started, or the renderer shut down first
+     */
+    public Future<File> stopRecording(OnRecordingFinishedListener listener) {
+        RecordingFinalizer finalizer = new RecordingFinalizer(listener);
+        synchronized (mRecordingRequests) {
+            if(!mRecordingRequests.requestStop())
+                return null;
 
-            try {
-                copyFile(mTempOutputFile, mOutputFile);
-            } catch (IOException e) {
-                e.printStackTrace();
-            }
+            postCommand(RenderCommand.stopRecording(finalizer));
         }
+        return finalizer.future;
     }
 
+    /**
+     * @return true between {@link #startRecording(File)} and {@link #stopRecording()}. never blocks
+     */
     public boolean isRecording() {
-        synchronized (this) {
-            return mIsRecording;
-        }
+        return mRecordingRequests.isRequested();
     }
 
     /**
-     * Copies file recorded to our temp file into the user-defined file upon completion
+     * GL thread side of {@link #startRecording(File)}
+     *
+     * @param token from {@link RecordingRequests#requestStart()}, so a failure here doesn't clear a
+     *              newer request made after this one was already stopped
      */
-    protected void copyFile(File src, File dst) throws IOException {
-        FileChannel inChannel = new FileInputStream(src).getChannel();
-        FileChannel outChannel = new FileOutputStream(dst).getChannel();
+    private void beginRecording(File outputFile, long token) {
+        if(mVideoEncoder == null) {
+            Log.e(TAG, "VideoEncoder already used for a previous recording, restart the renderer to record again");
+            mRecordingRequests.startFailed(token);
+            return;
+        }
 
         try {
-            inChannel.transferTo(0, inChannel.size(), outChannel);
+            mVideoEncoder.start(outputFile);
+        }
+        catch (IOException e) {
+            Log.e(TAG, "VideoEncoder failed to start writing " + outputFile + ": " + e.getMessage());
+            mRecordingRequests.startFailed(token);
+            return;
         }
-        finally {
-            if (inChannel != null)
-                inChannel.close();
 
-            if (outChannel != null)
-                outChannel.close();
+        mOutputFile = outputFile;
+        mIsRecording = true;
+    }
+
+    /**
+     * GL thread side of {@link #stopRecording(OnRecordingFinishedListener)}. Hands the encoder to
+     * {@link #mFinalizeExecutor}, the render loop won't touch it anymore.
+     */
+    private void finishRecording(RecordingFinalizer finalizer) {
+        if(!mIsRecording) {
+            finalizer.future.cancel(false);
+            return;
+        }
+
+        mIsRecording = false;
+
+        finalizer.encoder = mVideoEncoder;
+        finalizer.outputFile = mOutputFile;
+        mVideoEncoder = null;
+
+        mFinalizeExecutor.execute(finalizer.future);
+    }
+
+    /**
+     * Swap in your own {@link VideoEncoder}, or one with a custom {@link VideoEncoderConfig}, e.g. a
+     * {@link com.androidexperiments.shadercam.encoder.MediaRecorderVideoEncoder} to record audio too.
+     * Call before {@link #start()}; the renderer prepares it and owns it from then on.
+     */
+    public void setVideoEncoder(VideoEncoder videoEncoder) {
+        mVideoEncoder = videoEncoder;
+    }
+
+    public VideoEncoder getVideoEncoder() {
+        return mVideoEncoder;
+    }
+
+    /**
+     * releases our encoder unless a finished recording already handed it off to {@link #mFinalizeExecutor}
+     */
+    private void releaseVideoEncoder() {
+        if(mVideoEncoder != null) {
+            mVideoEncoder.release();
+            mVideoEncoder = null;
         }
     }
 
@@ -925,37 +1855,169 @@ public class CameraRenderer extends Thread implements SurfaceTexture.OnFrameAvai
     }
 
     /**
-     * Internal class for storing refs to mTexturesIds for rendering
+     * Internal class for storing refs to {@link #mTextureManager} handles for rendering
      */
     private class Texture {
-        public int texNum;
-        public int texId;
+        public int handle;
         public String uniformName;
 
-        private Texture(int texNum, int texId, String uniformName) {
-            this.texNum = texNum;
-            this.texId = texId;
+        /**
+         * {@link #uniformName} in our program, resolved once on setup. null if the program
+         * doesn't sample it
+         */
+        public GlProgram.Uniform uniform;
+
+        private Texture(int handle, String uniformName) {
+            this.handle = handle;
             this.uniformName = uniformName;
         }
         @Override
         public String toString() {
-            return "[Texture] num: " + texNum + " id: " + texId + ", uniformName: " + uniformName;
+            return "[Texture] handle: " + handle + ", uniformName: " + uniformName;
         }
 
     }
 
+    /**
+     * an {@link OverlaySource} and where our program samples it
+     */
+    private static class Overlay {
+        private final OverlaySource source;
+        private final String uniformName;
+
+        private GlProgram.Uniform uniform;
+        private GlProgram.Uniform transformUniform;
+
+        private Overlay(OverlaySource source, String uniformName) {
+            this.source = source;
+            this.uniformName = uniformName;
+        }
+
+        private void setupLocations(GlProgram program) {
+            uniform = program.hasUniform(uniformName) ? program.getUniform(uniformName) : null;
+            String transformName = uniformName + "Transform";
+            transformUniform = program.hasUniform(transformName) ? program.getUniform(transformName) : null;
+        }
+    }
+
+    /**
+     * A request for the GL thread, posted to {@link #mCommands}
+     */
+    private static class RenderCommand {
+        private static final int START_RECORDING = 0;
+        private static final int STOP_RECORDING = 1;
+        private static final int SHUTDOWN = 2;
+        private static final int SWITCH_SHADERS = 3;
+        private static final int REGISTER_EFFECT = 4;
+        private static final int SET_EFFECT = 5;
+        private static final int SET_GL_API = 6;
+
+        private final int what;
+        private final File outputFile;
+        private final RecordingFinalizer finalizer;
+        private final String fragPath;
+        private final String vertPath;
+        private final Effect effect;
+        private final String effectName;
+        private final GlApi glApi;
+        private final long token;
+
+        private RenderCommand(int what, File outputFile, RecordingFinalizer finalizer) {
+            this(what, outputFile, finalizer, null, null, null, null, null, RecordingRequests.NOT_STARTED);
+        }
+
+        private RenderCommand(int what, File outputFile, RecordingFinalizer finalizer, String fragPath, String vertPath,
+                              Effect effect, String effectName, GlApi glApi, long token) {
+            this.what = what;
+            this.outputFile = outputFile;
+            this.finalizer = finalizer;
+            this.fragPath = fragPath;
+            this.vertPath = vertPath;
+            this.effect = effect;
+            this.effectName = effectName;
+            this.glApi = glApi;
+            this.token = token;
+        }
+
+        private static RenderCommand startRecording(File outputFile, long token) {
+            return new RenderCommand(START_RECORDING, outputFile, null, null, null, null, null, null, token);
+        }
+
+        private static RenderCommand stopRecording(RecordingFinalizer finalizer) {
+            return new RenderCommand(STOP_RECORDING, null, finalizer);
+        }
+
+        private static RenderCommand shutdown() {
+            return new RenderCommand(SHUTDOWN, null, null);
+        }
+
+        private static RenderCommand switchShaders(String fragPath, String vertPath) {
+            return new RenderCommand(SWITCH_SHADERS, null, null, fragPath, vertPath, null, null, null, RecordingRequests.NOT_STARTED);
+        }
+
+        private static RenderCommand registerEffect(Effect effect) {
+            return new RenderCommand(REGISTER_EFFECT, null, null, null, null, effect, null, null, RecordingRequests.NOT_STARTED);
+        }
+
+        private static RenderCommand setEffect(String name) {
+            return new RenderCommand(SET_EFFECT, null, null, null, null, null, name, null, RecordingRequests.NOT_STARTED);
+        }
+
+        private static RenderCommand setGlApi(GlApi api) {
+            return new RenderCommand(SET_GL_API, null, null, null, null, null, null, api, RecordingRequests.NOT_STARTED);
+        }
+    }
+
+    /**
+     * Stops and releases an encoder on {@link #mFinalizeExecutor}. Created by whoever calls
+     * {@link #stopRecording(OnRecordingFinishedListener)}, filled in by the GL thread before it
+     * runs {@link #future}.
+     */
+    private static class RecordingFinalizer implements Callable<File> {
+        private final OnRecordingFinishedListener listener;
+        private final FutureTask<File> future = new FutureTask<>(this);
+
+        private VideoEncoder encoder;
+        private File outputFile;
+
+        private RecordingFinalizer(OnRecordingFinishedListener listener) {
+            this.listener = listener;
+        }
+
+        @Override
+        public File call() throws Exception {
+            try {
+                encoder.stop();
+            }
+            catch (RuntimeException e) {
+                Log.e(TAG, "failed to finish recording " + outputFile, e);
+                if(listener != null)
+                    listener.onRecordingFailed(outputFile, e);
+                throw e;
+            }
+            finally {
+                encoder.release();
+            }
+
+            if(listener != null)
+                listener.onRecordingFinished(outputFile);
+
+            return outputFile;
+        }
+    }
+
     /**
      * {@link Handler} responsible for communication between this render thread and the UI thread.
      *
-     * For now, the only thing we really need to worry about is shutting down the thread upon completion
-     * of recording, since we cannot access the {@link android.media.MediaRecorder} surface once
-     * {@link MediaRecorder#stop()} is called.
+     * All it does is wake the render thread up to work through its command queue, most importantly
+     * shutting down the thread upon completion of recording, since we cannot draw into the
+     * {@link VideoEncoder} surface once {@link VideoEncoder#stop()} is called.
      */
     public static class RenderHandler extends Handler
     {
         private static final String TAG = RenderHandler.class.getSimpleName();
 
-        private static final int MSG_SHUTDOWN = 0;
+        private static final int MSG_DRAIN_COMMANDS = 0;
 
         /**
          * Our camera renderer ref, weak since we're dealing with static class so it doesn't leak
@@ -974,7 +2036,19 @@ public class CameraRenderer extends Thread implements SurfaceTexture.OnFrameAvai
          * Call from UI thread.
          */
         public void sendShutdown() {
-            sendMessage(obtainMessage(RenderHandler.MSG_SHUTDOWN));
+            CameraRenderer renderer = mWeakRenderer.get();
+            if (renderer != null)
+                renderer.postCommand(RenderCommand.shutdown());
+        }
+
+        /**
+         * Wakes the render thread up to run its pending commands, in case no camera frame comes
+         * along to do it. Any thread.
+         */
+        private void sendDrainCommands() {
+            //one pending wake up is enough, it drains everything queued by then
+            if (!hasMessages(MSG_DRAIN_COMMANDS))
+                sendEmptyMessage(MSG_DRAIN_COMMANDS);
         }
 
         @Override
@@ -988,8 +2062,8 @@ public class CameraRenderer extends Thread implements SurfaceTexture.OnFrameAvai
 
             int what = msg.what;
             switch (what) {
-                case MSG_SHUTDOWN:
-                    renderer.shutdown();
+                case MSG_DRAIN_COMMANDS:
+                    renderer.drainCommands();
                     break;
                 default:
                     throw new RuntimeException("unknown message " + what);
@@ -997,6 +2071,22 @@ public class CameraRenderer extends Thread implements SurfaceTexture.OnFrameAvai
         }
     }
 
+    /**
+     * Callbacks for {@link #stopRecording(OnRecordingFinishedListener)}. Both are called from a
+     * background thread, so post back to the UI thread yourself if you need to.
+     */
+    public interface OnRecordingFinishedListener {
+        /**
+         * The encoder has stopped and the file is complete.
+         */
+        void onRecordingFinished(File outputFile);
+
+        /**
+         * The encoder threw while stopping, the file is probably unusable.
+         */
+        void onRecordingFailed(File outputFile, Exception e);
+    }
+
     /**
      * Interface for callbacks when render thread completes its setup
      */
@@ -0,0 +1,135 @@
+package com.androidexperiments.shadercam.gl;
+
+import android.graphics.Canvas;
+import android.graphics.PorterDuff;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.util.Log;
+import android.view.Surface;
+
+/**
+ * Software-rendered {@link OverlaySource}: subclass, draw into the {@link Canvas} you get in
+ * {@link #onDraw(Canvas)}, and the frame goes straight to the overlay's buffer queue.
+ * <p>
+ * Drawing happens on a thread of its own, either whenever {@link #requestDraw()} is called or
+ * continuously with {@link #setFrameInterval(long)}. The canvas is cleared to transparent
+ * before every draw.
+ */
+public abstract class CanvasOverlaySource extends OverlaySource
+{
+    private static final String TAG = CanvasOverlaySource.class.getSimpleName();
+    private static final String THREAD_NAME = "OverlayDrawThread";
+
+    /**
+     * guards {@link #mDrawSurface}, so the surface can't go away halfway through a draw
+     */
+    private final Object mDrawLock = new Object();
+    private Surface mDrawSurface;
+
+    private HandlerThread mDrawThread;
+    private volatile Handler mDrawHandler;
+
+    private volatile long mFrameIntervalMs = 0;
+
+    private final Runnable mDrawRunnable = new Runnable() {
+        @Override
+        public void run() {
+            drawFrame();
+
+            long interval = mFrameIntervalMs;
+            Handler handler = mDrawHandler;
+            if (interval > 0 && handler != null)
+                handler.postDelayed(this, interval);
+        }
+    };
+
+    public CanvasOverlaySource(int width, int height)
+    {
+        super(width, height);
+    }
+
+    /**
+     * Draw your overlay. Called on our draw thread with an already cleared canvas.
+     */
+    protected abstract void onDraw(Canvas canvas);
+
+    /**
+     * Schedules a draw, any thread. Requests before the overlay is set up are dropped.
+     */
+    public void requestDraw()
+    {
+        Handler handler = mDrawHandler;
+        if (handler != null) {
+            //collapses back to back requests into one draw
+            handler.removeCallbacks(mDrawRunnable);
+            handler.post(mDrawRunnable);
+        }
+    }
+
+    /**
+     * @param frameIntervalMs redraw every this many ms, 0 to only draw on {@link #requestDraw()}
+     */
+    public void setFrameInterval(long frameIntervalMs)
+    {
+        mFrameIntervalMs = frameIntervalMs;
+        requestDraw();
+    }
+
+    @Override
+    protected void onSurfaceReady(Surface surface)
+    {
+        synchronized (mDrawLock) {
+            mDrawSurface = surface;
+        }
+
+        mDrawThread = new HandlerThread(THREAD_NAME);
+        mDrawThread.start();
+        mDrawHandler = new Handler(mDrawThread.getLooper());
+
+        requestDraw();
+    }
+
+    @Override
+    protected void onSurfaceDestroyed()
+    {
+        Handler handler = mDrawHandler;
+        mDrawHandler = null;
+        if (handler != null)
+            handler.removeCallbacks(mDrawRunnable);
+
+        //waits for a draw in progress
+        synchronized (mDrawLock) {
+            mDrawSurface = null;
+        }
+
+        if (mDrawThread != null) {
+            mDrawThread.quitSafely();
+            mDrawThread = null;
+        }
+    }
+
+    private void drawFrame()
+    {
+        synchronized (mDrawLock) {
+            if (mDrawSurface == null)
+                return;
+
+            Canvas canvas;
+            try {
+                canvas = mDrawSurface.lockCanvas(null);
+            }
+            catch (RuntimeException e) {
+                Log.e(TAG, "lockCanvas() failed: " + e.getMessage());
+                return;
+            }
+
+            try {
+                canvas.drawColor(0, PorterDuff.Mode.CLEAR);
+                onDraw(canvas);
+            }
+            finally {
+                mDrawSurface.unlockCanvasAndPost(canvas);
+            }
+        }
+    }
+}
@@ -0,0 +1,284 @@
+package com.androidexperiments.shadercam.gl;
+
+import android.opengl.GLES20;
+import android.opengl.GLES30;
+
+import java.nio.Buffer;
+
+/**
+ * Straight through to {@link GLES20}/{@link GLES30}, what {@link Gl#api()} is unless someone
+ * swaps it out.
+ */
+public class DirectGlApi implements GlApi
+{
+    @Override
+    public void glUseProgram(int program)
+    {
+        GLES20.glUseProgram(program);
+    }
+
+    @Override
+    public void glActiveTexture(int texture)
+    {
+        GLES20.glActiveTexture(texture);
+    }
+
+    @Override
+    public void glBindTexture(int target, int texture)
+    {
+        GLES20.glBindTexture(target, texture);
+    }
+
+    @Override
+    public void glBindFramebuffer(int target, int framebuffer)
+    {
+        GLES20.glBindFramebuffer(target, framebuffer);
+    }
+
+    @Override
+    public void glViewport(int x, int y, int width, int height)
+    {
+        GLES20.glViewport(x, y, width, height);
+    }
+
+    @Override
+    public void glScissor(int x, int y, int width, int height)
+    {
+        GLES20.glScissor(x, y, width, height);
+    }
+
+    @Override
+    public void glEnable(int cap)
+    {
+        GLES20.glEnable(cap);
+    }
+
+    @Override
+    public void glDisable(int cap)
+    {
+        GLES20.glDisable(cap);
+    }
+
+    @Override
+    public void glBlendFunc(int sfactor, int dfactor)
+    {
+        GLES20.glBlendFunc(sfactor, dfactor);
+    }
+
+    @Override
+    public void glClearColor(float red, float green, float blue, float alpha)
+    {
+        GLES20.glClearColor(red, green, blue, alpha);
+    }
+
+    @Override
+    public void glUniform1i(int location, int x)
+    {
+        GLES20.glUniform1i(location, x);
+    }
+
+    @Override
+    public void glUniform1f(int location, float x)
+    {
+        GLES20.glUniform1f(location, x);
+    }
+
+    @Override
+    public void glUniform2f(int location, float x, float y)
+    {
+        GLES20.glUniform2f(location, x, y);
+    }
+
+    @Override
+    public void glUniform3f(int location, float x, float y, float z)
+    {
+        GLES20.glUniform3f(location, x, y, z);
+    }
+
+    @Override
+    public void glUniform4f(int location, float x, float y, float z, float w)
+    {
+        GLES20.glUniform4f(location, x, y, z, w);
+    }
+
+    @Override
+    public void glUniformMatrix4fv(int location, int count, boolean transpose, float[] value, int offset)
+    {
+        GLES20.glUniformMatrix4fv(location, count, transpose, value, offset);
+    }
+
+    @Override
+    public void glBindBuffer(int target, int buffer)
+    {
+        GLES20.glBindBuffer(target, buffer);
+    }
+
+    @Override
+    public void glBufferData(int target, int size, Buffer data, int usage)
+    {
+        GLES20.glBufferData(target, size, data, usage);
+    }
+
+    @Override
+    public void glBufferSubData(int target, int offset, int size, Buffer data)
+    {
+        GLES20.glBufferSubData(target, offset, size, data);
+    }
+
+    @Override
+    public void glBindVertexArray(int array)
+    {
+        GLES30.glBindVertexArray(array);
+    }
+
+    @Override
+    public void glEnableVertexAttribArray(int index)
+    {
+        GLES20.glEnableVertexAttribArray(index);
+    }
+
+    @Override
+    public void glDisableVertexAttribArray(int index)
+    {
+        GLES20.glDisableVertexAttribArray(index);
+    }
+
+    @Override
+    public void glVertexAttribPointer(int index, int size, int type, boolean normalized, int stride, int offset)
+    {
+        GLES20.glVertexAttribPointer(index, size, type, normalized, stride, offset);
+    }
+
+    @Override
+    public void glVertexAttribPointer(int index, int size, int type, boolean normalized, int stride, Buffer ptr)
+    {
+        GLES20.glVertexAttribPointer(index, size, type, normalized, stride, ptr);
+    }
+
+    @Override
+    public void glVertexAttribDivisor(int index, int divisor)
+    {
+        GLES30.glVertexAttribDivisor(index, divisor);
+    }
+
+    @Override
+    public void glClear(int mask)
+    {
+        GLES20.glClear(mask);
+    }
+
+    @Override
+    public void glDrawArrays(int mode, int first, int count)
+    {
+        GLES20.glDrawArrays(mode, first, count);
+    }
+
+    @Override
+    public void glDrawElements(int mode, int count, int type, int offset)
+    {
+        GLES20.glDrawElements(mode, count, type, offset);
+    }
+
+    @Override
+    public void glDrawElements(int mode, int count, int type, Buffer indices)
+    {
+        GLES20.glDrawElements(mode, count, type, indices);
+    }
+
+    @Override
+    public void glDrawArraysInstanced(int mode, int first, int count, int instanceCount)
+    {
+        GLES30.glDrawArraysInstanced(mode, first, count, instanceCount);
+    }
+
+    @Override
+    public void glBlitFramebuffer(int srcX0, int srcY0, int srcX1, int srcY1, int dstX0, int dstY0, int dstX1, int dstY1, int mask, int filter)
+    {
+        GLES30.glBlitFramebuffer(srcX0, srcY0, srcX1, srcY1, dstX0, dstY0, dstX1, dstY1, mask, filter);
+    }
+
+    @Override
+    public void glPixelStorei(int pname, int param)
+    {
+        GLES20.glPixelStorei(pname, param);
+    }
+
+    @Override
+    public void glTexSubImage2D(int target, int level, int xoffset, int yoffset, int width, int height,
+                                int format, int type, Buffer pixels)
+    {
+        GLES20.glTexSubImage2D(target, level, xoffset, yoffset, width, height, format, type, pixels);
+    }
+
+    @Override
+    public void glCopyTexSubImage2D(int target, int level, int xoffset, int yoffset, int x, int y, int width, int height)
+    {
+        GLES20.glCopyTexSubImage2D(target, level, xoffset, yoffset, x, y, width, height);
+    }
+
+    @Override
+    public void glReadPixels(int x, int y, int width, int height, int format, int type, Buffer pixels)
+    {
+        GLES20.glReadPixels(x, y, width, height, format, type, pixels);
+    }
+
+    @Override
+    public void glReadPixels(int x, int y, int width, int height, int format, int type, int offset)
+    {
+        GLES30.glReadPixels(x, y, width, height, format, type, offset);
+    }
+
+    @Override
+    public Buffer glMapBufferRange(int target, int offset, int length, int access)
+    {
+        return GLES30.glMapBufferRange(target, offset, length, access);
+    }
+
+    @Override
+    public boolean glUnmapBuffer(int target)
+    {
+        return GLES30.glUnmapBuffer(target);
+    }
+
+    @Override
+    public int glGetError()
+    {
+        return GLES20.glGetError();
+    }
+
+    @Override
+    public void glGetIntegerv(int pname, int[] params, int offset)
+    {
+        GLES20.glGetIntegerv(pname, params, offset);
+    }
+
+    @Override
+    public void glBeginQuery(int target, int id)
+    {
+        GLES30.glBeginQuery(target, id);
+    }
+
+    @Override
+    public void glEndQuery(int target)
+    {
+        GLES30.glEndQuery(target);
+    }
+
+    @Override
+    public void glGetQueryObjectuiv(int id, int pname, int[] params, int offset)
+    {
+        GLES30.glGetQueryObjectuiv(id, pname, params, offset);
+    }
+
+    @Override
+    public void beginFrame(long frameNumber) {}
+
+    @Override
+    public void endFrame() {}
+
+    @Override
+    public void checkError(String op)
+    {
+        GlUtil.checkGlError(op);
+    }
+}
@@ -0,0 +1,124 @@
+package com.androidexperiments.shadercam.gl;
+
+import android.graphics.Rect;
+
+import java.util.ArrayList;
+
+/**
+ * The parts of a texture that changed since it was last uploaded, kept as a handful of
+ * rectangles.
+ * <p>
+ * Rectangles that overlap or sit close together are merged as they're added, since one slightly
+ * bigger upload beats two small ones. Past {@link #MAX_RECTS} everything collapses into one
+ * bounding box.
+ * <p>
+ * Not thread-safe.
+ */
+public class DirtyRegion {
+    public static final int MAX_RECTS = 8;
+
+    /**
+     * how many extra pixels a merge may upload before we'd rather keep two rects, roughly what
+     * the overhead of another glTexSubImage2D call costs
+     */
+    private static final int MERGE_SLACK_PIXELS = 64 * 64;
+
+    private final ArrayList<Rect> mRects = new ArrayList<>();
+    private final Rect mScratch = new Rect();
+
+    public void add(Rect rect) {
+        add(rect.left, rect.top, rect.right, rect.bottom);
+    }
+
+    public void add(int left, int top, int right, int bottom) {
+        if (left >= right || top >= bottom)
+            return;
+
+        Rect merged = new Rect(left, top, right, bottom);
+
+        //keep folding in whatever is cheap to merge with, merges can make new ones worthwhile
+        boolean mergedAny = true;
+        while (mergedAny) {
+            mergedAny = false;
+            for (int i = mRects.size() - 1; i >= 0; i--) {
+                Rect other = mRects.get(i);
+                mScratch.set(merged);
+                mScratch.union(other);
+                if (area(mScratch) <= area(merged) + area(other) + MERGE_SLACK_PIXELS) {
+                    merged.set(mScratch);
+                    mRects.remove(i);
+                    mergedAny = true;
+                }
+            }
+        }
+        mRects.add(merged);
+
+        if (mRects.size() > MAX_RECTS) {
+            Rect bounds = getBounds();
+            mRects.clear();
+            mRects.add(bounds);
+        }
+    }
+
+    public void add(DirtyRegion region) {
+        for (int i = 0; i < region.mRects.size(); i++)
+            add(region.mRects.get(i));
+    }
+
+    /**
+     * Cuts every rect down to a {@code width x height} texture, dropping what falls outside.
+     */
+    public void clip(int width, int height) {
+        for (int i = mRects.size() - 1; i >= 0; i--) {
+            if (!mRects.get(i).intersect(0, 0, width, height))
+                mRects.remove(i);
+        }
+    }
+
+    public void set(DirtyRegion region) {
+        clear();
+        add(region);
+    }
+
+    public void clear() {
+        mRects.clear();
+    }
+
+    public boolean isEmpty() {
+        return mRects.isEmpty();
+    }
+
+    public int getRectCount() {
+        return mRects.size();
+    }
+
+    public Rect getRect(int index) {
+        return mRects.get(index);
+    }
+
+    /**
+     * @return total pixels we'd upload, pixels where rects overlap count twice
+     */
+    public long getArea() {
+        long area = 0;
+        for (int i = 0; i < mRects.size(); i++)
+            area += area(mRects.get(i));
+        return area;
+    }
+
+    public Rect getBounds() {
+        Rect bounds = new Rect();
+        for (int i = 0; i < mRects.size(); i++)
+            bounds.union(mRects.get(i));
+        return bounds;
+    }
+
+    private static long area(Rect rect) {
+        return (long) rect.width() * rect.height();
+    }
+
+    @Override
+    public String toString() {
+        return "[DirtyRegion] rects: " + mRects.size() + ", area: " + getArea();
+    }
+}
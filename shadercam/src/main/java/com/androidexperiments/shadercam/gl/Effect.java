@@ -0,0 +1,247 @@
+package com.androidexperiments.shadercam.gl;
+
+import android.graphics.Bitmap;
+
+import java.util.ArrayList;
+
+/**
+ * A named look for {@link CameraRenderer}: a camera program plus the uniforms and textures it
+ * needs, registered with {@link CameraRenderer#registerEffect(Effect)} and switched to with
+ * {@link CameraRenderer#setEffect(String)} without restarting anything.
+ * <p>
+ * The program sees the same attributes and uniforms as the default camera shaders
+ * ({@code camTexture}, {@code camTextureTransform}, ...). Fixed uniform values can be declared
+ * with {@link #setUniform(String, float...)}; for anything that changes per frame, subclass and
+ * override {@link #onProgramReady(GlProgram)} and {@link #setUniforms()}, the same way you would
+ * with {@link CameraRenderer}.
+ */
+public class Effect
+{
+    /**
+     * vertex shader used when an effect only brings its own fragment shader
+     */
+    public static final String DEFAULT_VERTEX_SHADER = "camera.vert.glsl";
+
+    private final String mName;
+
+    private final String mFragmentShaderPath;
+    private final String mVertexShaderPath;
+
+    private final String mVertexShaderCode;
+    private final String mFragmentShaderCode;
+
+    private boolean mPreload = false;
+
+    private final ArrayList<String> mUniformNames = new ArrayList<>();
+    private final ArrayList<float[]> mUniformValues = new ArrayList<>();
+    private final ArrayList<GlProgram.Uniform> mUniforms = new ArrayList<>();
+
+    private final ArrayList<Bitmap> mTextureBitmaps = new ArrayList<>();
+    private final ArrayList<String> mTextureUniformNames = new ArrayList<>();
+    private final ArrayList<Integer> mTextureHandles = new ArrayList<>();
+    private final ArrayList<GlProgram.Uniform> mTextureSamplers = new ArrayList<>();
+    private boolean mTexturesUploaded = false;
+
+    /**
+     * Effect using the default camera vertex shader.
+     * @param fragPath file name of your fragment shader inside the /assets/ folder
+     */
+    public Effect(String name, String fragPath) {
+        this(name, fragPath, DEFAULT_VERTEX_SHADER);
+    }
+
+    /**
+     * @param fragPath file name of your fragment shader inside the /assets/ folder
+     * @param vertPath file name of your vertex shader inside the /assets/ folder
+     */
+    public Effect(String name, String fragPath, String vertPath) {
+        mName = name;
+        mFragmentShaderPath = fragPath;
+        mVertexShaderPath = vertPath;
+        mVertexShaderCode = null;
+        mFragmentShaderCode = null;
+    }
+
+    private Effect(String name, String vertexShaderCode, String fragmentShaderCode, boolean fromSource) {
+        mName = name;
+        mFragmentShaderPath = null;
+        mVertexShaderPath = null;
+        mVertexShaderCode = vertexShaderCode;
+        mFragmentShaderCode = fragmentShaderCode;
+    }
+
+    /**
+     * Effect built from shader source strings instead of assets.
+     */
+    public static Effect fromSource(String name, String vertexShaderCode, String fragmentShaderCode) {
+        return new Effect(name, vertexShaderCode, fragmentShaderCode, true);
+    }
+
+    /**
+     * @param preload true to compile as soon as the effect is registered rather than the first
+     *                time it's selected
+     */
+    public Effect setPreload(boolean preload) {
+        mPreload = preload;
+        return this;
+    }
+
+    /**
+     * Declares a fixed float, vec2, vec3 or vec4 uniform, set every frame this effect draws.
+     * Call before registering.
+     */
+    public Effect setUniform(String name, float... values) {
+        if (values.length < 1 || values.length > 4)
+            throw new IllegalArgumentException("uniform " + name + " needs 1 to 4 values, got " + values.length);
+
+        mUniformNames.add(name);
+        mUniformValues.add(values.clone());
+        return this;
+    }
+
+    /**
+     * Adds a texture for this effect's {@code sampler2D uniformName}. Uploaded the first time the
+     * effect is selected, and again if its program was evicted in the meantime, so the bitmap is
+     * kept until the effect is replaced and recycled then. Only bound while this effect is the
+     * one drawing, so other effects can use the same sampler name. Call before registering.
+     */
+    public Effect addTexture(Bitmap bitmap, String uniformName) {
+        mTextureBitmaps.add(bitmap);
+        mTextureUniformNames.add(uniformName);
+        return this;
+    }
+
+    /**
+     * Grab {@link GlProgram.Uniform} handles here. Called on the GL thread every time the effect
+     * becomes active. Make sure to call super.
+     */
+    protected void onProgramReady(GlProgram program) {
+        mUniforms.clear();
+        for (int i = 0; i < mUniformNames.size(); i++) {
+            mUniforms.add(program.getUniform(mUniformNames.get(i)));
+        }
+
+        //null for the ones the program doesn't sample, they don't get a unit
+        mTextureSamplers.clear();
+        for (int i = 0; i < mTextureUniformNames.size(); i++) {
+            String name = mTextureUniformNames.get(i);
+            mTextureSamplers.add(program.hasUniform(name) ? program.getUniform(name) : null);
+        }
+    }
+
+    /**
+     * Sets our uniforms, called on the GL thread right before every draw with this effect. Make
+     * sure to call super.
+     */
+    protected void setUniforms() {
+        for (int i = 0; i < mUniforms.size(); i++) {
+            GlProgram.Uniform uniform = mUniforms.get(i);
+            float[] v = mUniformValues.get(i);
+
+            switch (v.length) {
+                case 1: uniform.set(v[0]); break;
+                case 2: uniform.set(v[0], v[1]); break;
+                case 3: uniform.set(v[0], v[1], v[2]); break;
+                default: uniform.set(v[0], v[1], v[2], v[3]); break;
+            }
+        }
+    }
+
+    /**
+     * Uploads our textures into the renderer's {@link TextureManager}, unless they're already up.
+     * They're kept here rather than with the renderer's own textures, so only the active effect's
+     * get bound.
+     */
+    void uploadTextures(CameraRenderer renderer) {
+        if (mTexturesUploaded)
+            return;
+        mTexturesUploaded = true;
+
+        TextureManager textures = renderer.getTextureManager();
+        for (int i = 0; i < mTextureBitmaps.size(); i++) {
+            mTextureHandles.add(textures.create(mTextureBitmaps.get(i), false));
+        }
+    }
+
+    /**
+     * Binds the textures our program samples to consecutive units and points the samplers at
+     * them, called on the GL thread before every draw with this effect.
+     *
+     * @param unit first free texture unit
+     * @return the next free unit
+     */
+    int bindTextures(TextureManager textures, int unit) {
+        for (int i = 0; i < mTextureSamplers.size() && i < mTextureHandles.size(); i++) {
+            GlProgram.Uniform sampler = mTextureSamplers.get(i);
+            if (sampler == null)
+                continue;
+
+            if (unit >= textures.getMaxTextureUnits())
+                break;
+
+            textures.bind(mTextureHandles.get(i), unit);
+            sampler.set(unit);
+            unit++;
+        }
+        return unit;
+    }
+
+    /**
+     * Frees whatever {@link #uploadTextures(CameraRenderer)} put on the GPU, for when our program
+     * is evicted. They're uploaded again if we're selected later.
+     */
+    void releaseTextures(CameraRenderer renderer) {
+        TextureManager textures = renderer.getTextureManager();
+        for (int i = 0; i < mTextureHandles.size(); i++) {
+            textures.release(mTextureHandles.get(i));
+        }
+        mTextureHandles.clear();
+        mTexturesUploaded = false;
+    }
+
+    /**
+     * {@link #releaseTextures(CameraRenderer)} for good, once we've been replaced by another
+     * effect with the same name.
+     */
+    void recycleTextures(CameraRenderer renderer) {
+        releaseTextures(renderer);
+
+        for (int i = 0; i < mTextureBitmaps.size(); i++) {
+            mTextureBitmaps.get(i).recycle();
+        }
+        mTextureBitmaps.clear();
+    }
+
+    public String getName() {
+        return mName;
+    }
+
+    public boolean isPreload() {
+        return mPreload;
+    }
+
+    boolean isFromSource() {
+        return mFragmentShaderCode != null;
+    }
+
+    String getVertexShaderCode() {
+        return mVertexShaderCode;
+    }
+
+    String getFragmentShaderCode() {
+        return mFragmentShaderCode;
+    }
+
+    String getVertexShaderPath() {
+        return mVertexShaderPath;
+    }
+
+    String getFragmentShaderPath() {
+        return mFragmentShaderPath;
+    }
+
+    @Override
+    public String toString() {
+        return "[Effect] " + mName + (isFromSource() ? " (source)" : " " + mFragmentShaderPath + ", " + mVertexShaderPath);
+    }
+}
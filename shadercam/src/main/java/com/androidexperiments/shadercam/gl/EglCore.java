@@ -55,6 +55,15 @@ public final class EglCore {
     private EGLConfig mEGLConfig = null;
     private int mGlVersion = -1;
 
+    // scratch for querySurface(), which is called every frame while recording
+    private final int[] mQueryValue = new int[1];
+
+    // surfaces we last made current, so makeCurrent() can skip eglMakeCurrent when nothing changes
+    private EGLSurface mCurrentDrawSurface = EGL14.EGL_NO_SURFACE;
+    private EGLSurface mCurrentReadSurface = EGL14.EGL_NO_SURFACE;
+    private long mMakeCurrentIssued = 0;
+    private long mMakeCurrentElided = 0;
+
 
     /**
      * Prepares EGL display and context.
@@ -195,6 +204,7 @@ public final class EglCore {
         mEGLDisplay = EGL14.EGL_NO_DISPLAY;
         mEGLContext = EGL14.EGL_NO_CONTEXT;
         mEGLConfig = null;
+        forgetCurrent();
     }
 
     @Override
@@ -219,6 +229,11 @@ public final class EglCore {
      */
     public void releaseSurface(EGLSurface eglSurface) {
         EGL14.eglDestroySurface(mEGLDisplay, eglSurface);
+
+        // a new surface could come back with the same handle, don't mistake it for this one
+        if (eglSurface.equals(mCurrentDrawSurface) || eglSurface.equals(mCurrentReadSurface)) {
+            forgetCurrent();
+        }
     }
 
     /**
@@ -266,13 +281,7 @@ public final class EglCore {
      * Makes our EGL context current, using the supplied surface for both "draw" and "read".
      */
     public void makeCurrent(EGLSurface eglSurface) {
-        if (mEGLDisplay == EGL14.EGL_NO_DISPLAY) {
-            // called makeCurrent() before create?
-            Log.d(TAG, "NOTE: makeCurrent w/o display");
-        }
-        if (!EGL14.eglMakeCurrent(mEGLDisplay, eglSurface, eglSurface, mEGLContext)) {
-            throw new RuntimeException("eglMakeCurrent failed");
-        }
+        makeCurrent(eglSurface, eglSurface);
     }
 
     /**
@@ -283,15 +292,50 @@ public final class EglCore {
             // called makeCurrent() before create?
             Log.d(TAG, "NOTE: makeCurrent w/o display");
         }
+
+        // the render loop asks for the same surfaces every frame, eglMakeCurrent isn't free
+        if (drawSurface.equals(mCurrentDrawSurface) && readSurface.equals(mCurrentReadSurface)) {
+            mMakeCurrentElided++;
+            return;
+        }
+
+        mMakeCurrentIssued++;
         if (!EGL14.eglMakeCurrent(mEGLDisplay, drawSurface, readSurface, mEGLContext)) {
+            forgetCurrent();
             throw new RuntimeException("eglMakeCurrent(draw,read) failed");
         }
+        mCurrentDrawSurface = drawSurface;
+        mCurrentReadSurface = readSurface;
+    }
+
+    /**
+     * Forgets which surfaces we made current, so the next makeCurrent() goes through. Call this
+     * if anything else changes the current surface or context on our thread.
+     */
+    public void forgetCurrent() {
+        mCurrentDrawSurface = EGL14.EGL_NO_SURFACE;
+        mCurrentReadSurface = EGL14.EGL_NO_SURFACE;
+    }
+
+    /**
+     * @return eglMakeCurrent calls makeCurrent() actually made
+     */
+    public long getMakeCurrentIssued() {
+        return mMakeCurrentIssued;
+    }
+
+    /**
+     * @return makeCurrent() calls skipped because the surfaces were already current
+     */
+    public long getMakeCurrentElided() {
+        return mMakeCurrentElided;
     }
 
     /**
      * Makes no context current.
      */
     public void makeNothingCurrent() {
+        forgetCurrent();
         if (!EGL14.eglMakeCurrent(mEGLDisplay, EGL14.EGL_NO_SURFACE, EGL14.EGL_NO_SURFACE,
                 EGL14.EGL_NO_CONTEXT)) {
             throw new RuntimeException("eglMakeCurrent failed");
@@ -326,9 +370,8 @@ public final class EglCore {
      * Performs a simple surface query.
      */
     public int querySurface(EGLSurface eglSurface, int what) {
-        int[] value = new int[1];
-        EGL14.eglQuerySurface(mEGLDisplay, eglSurface, what, value, 0);
-        return value[0];
+        EGL14.eglQuerySurface(mEGLDisplay, eglSurface, what, mQueryValue, 0);
+        return mQueryValue[0];
     }
 
     /**
@@ -338,6 +381,13 @@ public final class EglCore {
         return EGL14.eglQueryString(mEGLDisplay, what);
     }
 
+    /**
+     * Returns our EGL context, e.g. to pass as the sharedContext of another EglCore.
+     */
+    public EGLContext getContext() {
+        return mEGLContext;
+    }
+
     /**
      * Returns the GLES version this context is configured for (currently 2 or 3).
      */
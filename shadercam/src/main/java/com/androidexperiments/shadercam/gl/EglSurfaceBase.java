@@ -152,7 +152,9 @@ public class EglSurfaceBase {
     /**
      * Saves the EGL surface to a file.
      * <p>
-     * Expects that this object's EGL surface is current.
+     * Expects that this object's EGL surface is current. Reads back and encodes synchronously on
+     * the calling thread, use {@link FrameReader} (via {@link CameraRenderer#takeSnapshot}) to
+     * capture without stalling rendering.
      */
     public void saveFrame(File file) throws IOException {
         if (!mEglCore.isCurrent(mEGLSurface)) {
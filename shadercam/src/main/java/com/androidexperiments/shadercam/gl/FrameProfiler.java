@@ -0,0 +1,311 @@
+package com.androidexperiments.shadercam.gl;
+
+import android.opengl.GLES20;
+import android.opengl.GLES30;
+import android.util.Log;
+
+import java.util.Arrays;
+
+/**
+ * Opt-in timing of each stage of a {@link CameraRenderer} frame.
+ * <p>
+ * CPU time is measured with {@link System#nanoTime()} around each stage. On GLES3 contexts that
+ * expose {@code GL_EXT_disjoint_timer_query}, GPU time is measured too, with a small ring of
+ * timer queries per stage that are read back a few frames later so we never wait on the GPU.
+ * Samples go into one {@link SampleRing} per stage and clock, so the render thread never
+ * allocates or locks.
+ * <p>
+ * Any thread can pull percentiles with {@link #getPercentiles(int, boolean, Percentiles)}; the
+ * sorting happens on that thread, in a {@link Percentiles} it owns.
+ */
+public class FrameProfiler {
+    private static final String TAG = FrameProfiler.class.getSimpleName();
+
+    /**
+     * latching the camera frame(s), {@link CameraRenderer#updatePreviewTexture()}
+     */
+    public static final int STAGE_UPDATE_TEXTURE = 0;
+
+    /**
+     * drawing the effect, {@link CameraRenderer#draw()}
+     */
+    public static final int STAGE_DRAW = 1;
+
+    /**
+     * getting the frame into the recording surface, blit or redraw plus its swap
+     */
+    public static final int STAGE_RECORD = 2;
+
+    /**
+     * presenting to the window: swapBuffers, plus the copy when rendering offscreen
+     */
+    public static final int STAGE_SWAP = 3;
+
+    /**
+     * whole frame, CPU only
+     */
+    public static final int STAGE_FRAME = 4;
+
+    public static final int STAGE_COUNT = 5;
+
+    private static final String[] STAGE_NAMES = {"update", "draw", "record", "swap", "frame"};
+
+    /**
+     * samples kept per stage, about 4 seconds at 30fps
+     */
+    public static final int DEFAULT_CAPACITY = 128;
+
+    /**
+     * from GL_EXT_disjoint_timer_query, which android.opengl doesn't define
+     */
+    private static final int GL_TIME_ELAPSED_EXT = 0x88BF;
+    private static final int GL_GPU_DISJOINT_EXT = 0x8FBB;
+
+    /**
+     * frames a query may stay in flight before we give up on timing that stage for a frame
+     */
+    private static final int QUERY_DEPTH = 4;
+
+    private final SampleRing[] mCpuSamples = new SampleRing[STAGE_COUNT];
+    private final SampleRing[] mGpuSamples = new SampleRing[STAGE_COUNT];
+
+    private final long[] mStageStart = new long[STAGE_COUNT];
+
+    private volatile boolean mEnabled = false;
+
+    private volatile boolean mGpuTimingSupported = false;
+    private boolean mQueriesCreated = false;
+
+    private final int[] mQueryIds = new int[STAGE_COUNT * QUERY_DEPTH];
+    private final boolean[] mQueryPending = new boolean[STAGE_COUNT * QUERY_DEPTH];
+    private final int[] mQueryNext = new int[STAGE_COUNT];
+
+    /**
+     * query slot of the stage that is currently being timed on the GPU, -1 if none
+     */
+    private int mActiveQuery = -1;
+
+    private final int[] mQueryResult = new int[1];
+
+    public FrameProfiler() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param capacity samples kept per stage
+     */
+    public FrameProfiler(int capacity) {
+        for (int i = 0; i < STAGE_COUNT; i++) {
+            mCpuSamples[i] = new SampleRing(capacity);
+            mGpuSamples[i] = new SampleRing(capacity);
+        }
+    }
+
+    /**
+     * Checks for GPU timer support. Render thread, with our context current.
+     *
+     * @param glVersion major version of the current context
+     */
+    void setup(int glVersion) {
+        String extensions = GLES20.glGetString(GLES20.GL_EXTENSIONS);
+        mGpuTimingSupported = glVersion >= 3 && extensions != null
+                && extensions.contains("GL_EXT_disjoint_timer_query");
+
+        Log.d(TAG, "GPU timing supported: " + mGpuTimingSupported);
+    }
+
+    /**
+     * Deletes our timer queries. Render thread, before the context goes away.
+     */
+    void release() {
+        if (mQueriesCreated) {
+            GLES30.glDeleteQueries(mQueryIds.length, mQueryIds, 0);
+            mQueriesCreated = false;
+        }
+    }
+
+    public void setEnabled(boolean enabled) {
+        mEnabled = enabled;
+    }
+
+    public boolean isEnabled() {
+        return mEnabled;
+    }
+
+    /**
+     * @return true if {@link #getPercentiles(int, boolean, Percentiles)} can report GPU times
+     */
+    public boolean isGpuTimingSupported() {
+        return mGpuTimingSupported;
+    }
+
+    /**
+     * Starts a frame, collecting any GPU timings that finished since the last one. Render thread.
+     */
+    void beginFrame() {
+        if (!mEnabled)
+            return;
+
+        if (mGpuTimingSupported)
+            collectQueries();
+
+        mStageStart[STAGE_FRAME] = System.nanoTime();
+    }
+
+    void endFrame() {
+        if (!mEnabled)
+            return;
+
+        mCpuSamples[STAGE_FRAME].add(System.nanoTime() - mStageStart[STAGE_FRAME]);
+    }
+
+    /**
+     * Starts timing a stage. Stages must not overlap, GL only allows one timer query at a time.
+     */
+    void beginStage(int stage) {
+        if (!mEnabled)
+            return;
+
+        if (mGpuTimingSupported)
+            beginQuery(stage);
+
+        mStageStart[stage] = System.nanoTime();
+    }
+
+    void endStage(int stage) {
+        //close the query even if we got disabled mid-stage, or the next begin would fail
+        if (mActiveQuery != -1) {
+            Gl.api().glEndQuery(GL_TIME_ELAPSED_EXT);
+            mQueryPending[mActiveQuery] = true;
+            mActiveQuery = -1;
+        }
+
+        if (!mEnabled)
+            return;
+
+        mCpuSamples[stage].add(System.nanoTime() - mStageStart[stage]);
+    }
+
+    private void beginQuery(int stage) {
+        if (!mQueriesCreated) {
+            GLES30.glGenQueries(mQueryIds.length, mQueryIds, 0);
+            mQueriesCreated = true;
+        }
+
+        int slot = stage * QUERY_DEPTH + mQueryNext[stage];
+        if (mQueryPending[slot]) {
+            //gpu is more than QUERY_DEPTH frames behind, skip rather than stall
+            return;
+        }
+
+        Gl.api().glBeginQuery(GL_TIME_ELAPSED_EXT, mQueryIds[slot]);
+        mActiveQuery = slot;
+        mQueryNext[stage] = (mQueryNext[stage] + 1) % QUERY_DEPTH;
+    }
+
+    private void collectQueries() {
+        //a disjoint event (power state change etc) makes every result in flight meaningless
+        Gl.api().glGetIntegerv(GL_GPU_DISJOINT_EXT, mQueryResult, 0);
+        boolean disjoint = mQueryResult[0] != 0;
+
+        for (int slot = 0; slot < mQueryPending.length; slot++) {
+            if (!mQueryPending[slot])
+                continue;
+
+            Gl.api().glGetQueryObjectuiv(mQueryIds[slot], GLES30.GL_QUERY_RESULT_AVAILABLE, mQueryResult, 0);
+            if (mQueryResult[0] == 0)
+                continue;
+
+            Gl.api().glGetQueryObjectuiv(mQueryIds[slot], GLES30.GL_QUERY_RESULT, mQueryResult, 0);
+            mQueryPending[slot] = false;
+
+            if (!disjoint)
+                mGpuSamples[slot / QUERY_DEPTH].add(mQueryResult[0] & 0xffffffffL);
+        }
+    }
+
+    /**
+     * Computes percentiles over the samples currently held for a stage. Any thread; allocates
+     * only the first time a given {@link Percentiles} is used.
+     *
+     * @param gpu true for GPU time, false for CPU time
+     * @return {@code out}, for chaining
+     */
+    public Percentiles getPercentiles(int stage, boolean gpu, Percentiles out) {
+        SampleRing ring = gpu ? mGpuSamples[stage] : mCpuSamples[stage];
+        out.compute(stage, gpu, ring);
+        return out;
+    }
+
+    public static String getStageName(int stage) {
+        return STAGE_NAMES[stage];
+    }
+
+    /**
+     * Logs every stage we have samples for. Allocates, so call from a reader thread.
+     */
+    public void logPercentiles() {
+        Percentiles percentiles = new Percentiles();
+        for (int stage = 0; stage < STAGE_COUNT; stage++) {
+            if (getPercentiles(stage, false, percentiles).count > 0)
+                Log.d(TAG, percentiles.toString());
+            if (getPercentiles(stage, true, percentiles).count > 0)
+                Log.d(TAG, percentiles.toString());
+        }
+    }
+
+    /**
+     * Reusable holder for one stage's timings, all in nanoseconds.
+     */
+    public static class Percentiles {
+        public int stage;
+        public boolean gpu;
+
+        /**
+         * samples these were computed from
+         */
+        public int count;
+
+        public long p50;
+        public long p95;
+        public long p99;
+        public long max;
+
+        private long[] mScratch = new long[0];
+
+        private void compute(int stage, boolean gpu, SampleRing ring) {
+            if (mScratch.length < ring.getCapacity())
+                mScratch = new long[ring.getCapacity()];
+
+            this.stage = stage;
+            this.gpu = gpu;
+            this.count = ring.copyTo(mScratch);
+
+            if (count == 0) {
+                p50 = p95 = p99 = max = 0;
+                return;
+            }
+
+            Arrays.sort(mScratch, 0, count);
+            p50 = percentile(0.50f);
+            p95 = percentile(0.95f);
+            p99 = percentile(0.99f);
+            max = mScratch[count - 1];
+        }
+
+        /**
+         * nearest rank
+         */
+        private long percentile(float fraction) {
+            int rank = (int) Math.ceil(fraction * count);
+            return mScratch[Math.max(0, rank - 1)];
+        }
+
+        @Override
+        public String toString() {
+            return getStageName(stage) + (gpu ? " gpu" : " cpu") + " n=" + count
+                    + " p50: " + p50 / 1000 + "us p95: " + p95 / 1000 + "us p99: " + p99 / 1000
+                    + "us max: " + max / 1000 + "us";
+        }
+    }
+}
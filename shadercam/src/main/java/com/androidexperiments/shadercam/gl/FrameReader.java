@@ -0,0 +1,299 @@
+package com.androidexperiments.shadercam.gl;
+
+import android.graphics.Bitmap;
+import android.opengl.GLES20;
+import android.opengl.GLES30;
+import android.util.Log;
+
+import com.androidexperiments.shadercam.utils.DirectBufferPool;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Asynchronous snapshots of what {@link CameraRenderer} draws to the screen.
+ * <p>
+ * On GLES3 the read goes into one of two pixel buffer objects and is only mapped a frame later,
+ * once the GPU has long finished it, so the render thread never waits on the pipeline. GLES2 has
+ * no PBOs and falls back to a plain glReadPixels. Either way the pixels land in a pooled direct
+ * buffer and are flipped and encoded (PNG, JPEG or raw RGBA) on a worker thread, so bursts of
+ * snapshots don't hitch the preview.
+ */
+public class FrameReader
+{
+    private static final String TAG = FrameReader.class.getSimpleName();
+    private static final String THREAD_NAME = "SnapshotEncodeThread";
+
+    public static final int FORMAT_PNG = 0;
+    public static final int FORMAT_JPEG = 1;
+
+    /**
+     * tightly packed RGBA rows, top row first
+     */
+    public static final int FORMAT_RAW = 2;
+
+    private static final int BYTES_PER_PIXEL = 4;
+
+    /**
+     * Callbacks for {@link #requestSnapshot(File, int, int, OnSnapshotListener)}, called from the
+     * encoding thread.
+     */
+    public interface OnSnapshotListener {
+        void onSnapshotSaved(File file);
+
+        void onSnapshotFailed(File file, Exception e);
+    }
+
+    private final ConcurrentLinkedQueue<Request> mRequests = new ConcurrentLinkedQueue<>();
+
+    private final DirectBufferPool mBufferPool = new DirectBufferPool(4);
+
+    private final ExecutorService mEncodeExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            return new Thread(runnable, THREAD_NAME);
+        }
+    });
+
+    private boolean mUsePbo = false;
+
+    private final int[] mPbos = new int[2];
+    private final int[] mPboSizes = new int[2];
+    private final Request[] mPboRequests = new Request[2];
+
+    /**
+     * PBO the next read goes into, the other one is mapped
+     */
+    private int mPboIndex = 0;
+
+    /**
+     * encode thread only, reused while snapshots keep the same size
+     */
+    private Bitmap mBitmap;
+
+    /**
+     * Picks PBOs or the GLES2 fallback. Render thread, with our context current.
+     */
+    void setup(int glVersion) {
+        mUsePbo = glVersion >= 3;
+        if (mUsePbo)
+            GLES20.glGenBuffers(2, mPbos, 0);
+    }
+
+    /**
+     * Queues up a snapshot of the next frame. Any thread.
+     *
+     * @param format  one of {@link #FORMAT_PNG}, {@link #FORMAT_JPEG} or {@link #FORMAT_RAW}
+     * @param quality 0-100, only used by {@link #FORMAT_JPEG}
+     */
+    public void requestSnapshot(File file, int format, int quality, OnSnapshotListener listener) {
+        mRequests.offer(new Request(file, format, quality, listener));
+    }
+
+    /**
+     * Captures the frame that was just drawn if anyone asked for it, and hands off last frame's
+     * PBO read. Render thread, after drawing and before swapping the window surface.
+     */
+    void onFrameDrawn(int width, int height) {
+        if (mUsePbo) {
+            int mapIndex = 1 - mPboIndex;
+            if (mPboRequests[mapIndex] != null)
+                collectPbo(mapIndex);
+        }
+
+        Request request = mRequests.poll();
+        if (request == null)
+            return;
+
+        request.width = width;
+        request.height = height;
+        int size = width * height * BYTES_PER_PIXEL;
+
+        RenderTarget.bindDefault();
+
+        if (mUsePbo) {
+            int index = mPboIndex;
+
+            Gl.api().glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, mPbos[index]);
+            if (mPboSizes[index] != size) {
+                Gl.api().glBufferData(GLES30.GL_PIXEL_PACK_BUFFER, size, null, GLES30.GL_STREAM_READ);
+                mPboSizes[index] = size;
+            }
+            Gl.api().glReadPixels(0, 0, width, height, GLES20.GL_RGBA, GLES20.GL_UNSIGNED_BYTE, 0);
+            Gl.api().glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, 0);
+            Gl.api().checkError("FrameReader glReadPixels to PBO");
+
+            mPboRequests[index] = request;
+            mPboIndex = 1 - index;
+        }
+        else {
+            ByteBuffer pixels = mBufferPool.acquire(size);
+            Gl.api().glReadPixels(0, 0, width, height, GLES20.GL_RGBA, GLES20.GL_UNSIGNED_BYTE, pixels);
+            Gl.api().checkError("FrameReader glReadPixels");
+
+            encode(request, pixels);
+        }
+    }
+
+    private void collectPbo(int index) {
+        Request request = mPboRequests[index];
+        mPboRequests[index] = null;
+
+        int size = request.width * request.height * BYTES_PER_PIXEL;
+
+        Gl.api().glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, mPbos[index]);
+        ByteBuffer mapped = (ByteBuffer) Gl.api().glMapBufferRange(GLES30.GL_PIXEL_PACK_BUFFER, 0, size, GLES30.GL_MAP_READ_BIT);
+
+        ByteBuffer pixels = null;
+        if (mapped != null) {
+            pixels = mBufferPool.acquire(size);
+            pixels.put(mapped);
+            pixels.flip();
+        }
+
+        Gl.api().glUnmapBuffer(GLES30.GL_PIXEL_PACK_BUFFER);
+        Gl.api().glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, 0);
+
+        if (pixels == null) {
+            fail(request, new RuntimeException("glMapBufferRange failed: 0x" + Integer.toHexString(Gl.api().glGetError())));
+            return;
+        }
+
+        encode(request, pixels);
+    }
+
+    private void encode(final Request request, final ByteBuffer pixels) {
+        mEncodeExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    flipVertically(pixels, request.width * BYTES_PER_PIXEL, request.height);
+                    write(request, pixels);
+
+                    if (request.listener != null)
+                        request.listener.onSnapshotSaved(request.file);
+                }
+                catch (Exception e) {
+                    fail(request, e);
+                }
+                finally {
+                    mBufferPool.release(pixels);
+                }
+            }
+        });
+    }
+
+    private void write(Request request, ByteBuffer pixels) throws IOException {
+        if (request.format == FORMAT_RAW) {
+            FileChannel channel = new FileOutputStream(request.file).getChannel();
+            try {
+                while (pixels.hasRemaining())
+                    channel.write(pixels);
+            }
+            finally {
+                channel.close();
+            }
+        }
+        else {
+            if (mBitmap == null || mBitmap.getWidth() != request.width || mBitmap.getHeight() != request.height) {
+                if (mBitmap != null)
+                    mBitmap.recycle();
+                mBitmap = Bitmap.createBitmap(request.width, request.height, Bitmap.Config.ARGB_8888);
+            }
+            //Bitmap's "copy pixels" wants the same byte order GL gives us
+            mBitmap.copyPixelsFromBuffer(pixels);
+
+            OutputStream out = new BufferedOutputStream(new FileOutputStream(request.file));
+            try {
+                if (request.format == FORMAT_JPEG)
+                    mBitmap.compress(Bitmap.CompressFormat.JPEG, request.quality, out);
+                else
+                    mBitmap.compress(Bitmap.CompressFormat.PNG, 100, out); //quality is ignored for png
+            }
+            finally {
+                out.close();
+            }
+        }
+
+        Log.d(TAG, "Saved " + request.width + "x" + request.height + " frame as '" + request.file + "'");
+    }
+
+    /**
+     * GL rows start at the bottom, files want the top row first
+     */
+    private static void flipVertically(ByteBuffer pixels, int rowBytes, int height) {
+        byte[] top = new byte[rowBytes];
+        byte[] bottom = new byte[rowBytes];
+
+        for (int y = 0; y < height / 2; y++) {
+            int topOffset = y * rowBytes;
+            int bottomOffset = (height - 1 - y) * rowBytes;
+
+            pixels.position(topOffset);
+            pixels.get(top);
+            pixels.position(bottomOffset);
+            pixels.get(bottom);
+
+            pixels.position(topOffset);
+            pixels.put(bottom);
+            pixels.position(bottomOffset);
+            pixels.put(top);
+        }
+        pixels.rewind();
+    }
+
+    private static void fail(Request request, Exception e) {
+        Log.e(TAG, "snapshot " + request.file + " failed", e);
+        if (request.listener != null)
+            request.listener.onSnapshotFailed(request.file, e);
+    }
+
+    /**
+     * Finishes any read still in a PBO, fails requests that never got a frame and deletes our
+     * buffers. Render thread, before the context goes away.
+     */
+    void release() {
+        if (mUsePbo) {
+            for (int i = 0; i < mPboRequests.length; i++) {
+                if (mPboRequests[i] != null)
+                    collectPbo(i);
+            }
+            GLES20.glDeleteBuffers(2, mPbos, 0);
+            mPboSizes[0] = mPboSizes[1] = 0;
+        }
+
+        Request request;
+        while ((request = mRequests.poll()) != null) {
+            fail(request, new IllegalStateException("renderer shut down before the snapshot was taken"));
+        }
+
+        //lets queued encodes finish, then lets the thread die
+        mEncodeExecutor.shutdown();
+    }
+
+    private static class Request {
+        private final File file;
+        private final int format;
+        private final int quality;
+        private final OnSnapshotListener listener;
+
+        private int width;
+        private int height;
+
+        private Request(File file, int format, int quality, OnSnapshotListener listener) {
+            this.file = file;
+            this.format = format;
+            this.quality = quality;
+            this.listener = listener;
+        }
+    }
+}
@@ -0,0 +1,161 @@
+package com.androidexperiments.shadercam.gl;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.view.Choreographer;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Decides when {@link CameraRenderer} draws, so a slow effect never works through a backlog of
+ * old camera frames.
+ * <p>
+ * Every frame-available callback just bumps a pending count. The first one schedules a single
+ * render behind whatever is already queued on the render thread, either right away or on the next
+ * display vsync, and any frames that arrive before it runs are folded into that one render. The
+ * renderer then latches past the stale frames and only draws the newest.
+ * <p>
+ * Counters can be read from any thread.
+ */
+public class FrameScheduler implements Choreographer.FrameCallback
+{
+    /**
+     * Called on the render thread when it's time to draw.
+     */
+    public interface Callback {
+        /**
+         * @param pendingFrames camera frames that arrived since the last render, at least 1.
+         *                      all but the newest should be skipped
+         */
+        void onRenderFrame(int pendingFrames);
+    }
+
+    private final Callback mCallback;
+
+    private Handler mHandler;
+
+    private final AtomicInteger mPendingFrames = new AtomicInteger();
+
+    /**
+     * render thread only, true while a render is queued on {@link #mHandler} or the choreographer
+     */
+    private boolean mRenderScheduled = false;
+
+    private volatile boolean mVsyncAligned = false;
+
+    private final AtomicLong mFramesReceived = new AtomicLong();
+    private final AtomicLong mFramesRendered = new AtomicLong();
+    private final AtomicLong mFramesDropped = new AtomicLong();
+
+    private final Runnable mRenderRunnable = new Runnable() {
+        @Override
+        public void run() {
+            render();
+        }
+    };
+
+    public FrameScheduler(Callback callback) {
+        mCallback = callback;
+    }
+
+    /**
+     * Binds us to the render thread. Call from that thread once its {@link Looper} is prepared.
+     */
+    void attach() {
+        mHandler = new Handler(Looper.myLooper());
+    }
+
+    /**
+     * Drops any render that is still scheduled. Render thread only.
+     */
+    void detach() {
+        if (mHandler != null)
+            mHandler.removeCallbacks(mRenderRunnable);
+        Choreographer.getInstance().removeFrameCallback(this);
+        mRenderScheduled = false;
+    }
+
+    /**
+     * A new camera frame is ready. Render thread only, which is where {@link CameraRenderer} gets
+     * its frame-available callbacks.
+     */
+    public void onFrameAvailable() {
+        mFramesReceived.incrementAndGet();
+        mPendingFrames.incrementAndGet();
+
+        if (mRenderScheduled)
+            return;
+        mRenderScheduled = true;
+
+        if (mVsyncAligned)
+            Choreographer.getInstance().postFrameCallback(this);
+        else
+            //goes behind any frame callbacks already waiting, so they all end up in this render
+            mHandler.post(mRenderRunnable);
+    }
+
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        render();
+    }
+
+    private void render() {
+        mRenderScheduled = false;
+
+        int pending = mPendingFrames.getAndSet(0);
+        if (pending == 0)
+            return;
+
+        mFramesDropped.addAndGet(pending - 1);
+        mFramesRendered.incrementAndGet();
+
+        mCallback.onRenderFrame(pending);
+    }
+
+    /**
+     * @param vsyncAligned true to render on the display's vsync via {@link Choreographer}, which
+     *                     adds up to a frame of latency but avoids rendering frames the display
+     *                     will never show. false (default) renders as soon as the thread is free
+     */
+    public void setVsyncAligned(boolean vsyncAligned) {
+        mVsyncAligned = vsyncAligned;
+    }
+
+    public boolean isVsyncAligned() {
+        return mVsyncAligned;
+    }
+
+    /**
+     * @return camera frames delivered to us
+     */
+    public long getFramesReceived() {
+        return mFramesReceived.get();
+    }
+
+    /**
+     * @return frames we actually drew
+     */
+    public long getFramesRendered() {
+        return mFramesRendered.get();
+    }
+
+    /**
+     * @return frames skipped because a newer one was already waiting by the time we got to render
+     */
+    public long getFramesDropped() {
+        return mFramesDropped.get();
+    }
+
+    public void resetCounters() {
+        mFramesReceived.set(0);
+        mFramesRendered.set(0);
+        mFramesDropped.set(0);
+    }
+
+    @Override
+    public String toString() {
+        return "[FrameScheduler] received: " + getFramesReceived() + " rendered: " + getFramesRendered()
+                + " dropped: " + getFramesDropped() + (mVsyncAligned ? " (vsync)" : "");
+    }
+}
@@ -0,0 +1,32 @@
+package com.androidexperiments.shadercam.gl;
+
+/**
+ * Holds the {@link GlApi} the render loop goes through. There's one GL context per renderer and
+ * the library only ever runs one renderer at a time, so this is a static rather than something
+ * threaded through every class that draws.
+ * <p>
+ * Swap it between frames on the render thread, e.g. with {@link CameraRenderer#setGlApi(GlApi)},
+ * or before any GL thread exists in JVM tests.
+ */
+public final class Gl
+{
+    private static GlApi sApi = new DirectGlApi();
+
+    private Gl() {}
+
+    public static GlApi api()
+    {
+        return sApi;
+    }
+
+    /**
+     * @param api null goes back to a {@link DirectGlApi}
+     */
+    public static void setApi(GlApi api)
+    {
+        sApi = api != null ? api : new DirectGlApi();
+
+        //whatever we shadowed was issued through the old api, which may not have been GL at all
+        GlState.invalidate();
+    }
+}
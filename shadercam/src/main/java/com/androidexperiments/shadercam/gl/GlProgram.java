@@ -0,0 +1,330 @@
+package com.androidexperiments.shadercam.gl;
+
+import android.opengl.GLES20;
+import android.util.Log;
+import android.util.SparseArray;
+
+import java.util.ArrayList;
+
+/**
+ * Introspected view of a linked GL program.
+ * <p>
+ * All active uniforms and attributes are enumerated once with glGetActiveUniform() /
+ * glGetActiveAttrib() right after linking, and their locations are kept in int-keyed tables.
+ * Renderers grab {@link Uniform} handles during setup and set values through them every frame,
+ * so the hot path never hands a string to the driver.
+ */
+public class GlProgram {
+    private static final String TAG = GlProgram.class.getSimpleName();
+
+    /**
+     * Location GL reports for a name that isn't active in the program. Setting a uniform at this
+     * location is silently ignored by GL, which is exactly what we want for optional uniforms.
+     */
+    public static final int INVALID_LOCATION = -1;
+
+    private final int mProgramHandle;
+
+    /**
+     * active uniforms and attributes keyed by the hash of their name. the name is checked on
+     * lookup, and {@link #findVariable(ArrayList, String)} covers the (unlikely) collision case
+     */
+    private final SparseArray<Uniform> mUniforms = new SparseArray<>();
+    private final SparseArray<Variable> mAttributes = new SparseArray<>();
+
+    private final ArrayList<Uniform> mUniformList = new ArrayList<>();
+    private final ArrayList<Variable> mAttributeList = new ArrayList<>();
+
+    private GlProgram(int programHandle) {
+        mProgramHandle = programHandle;
+    }
+
+    /**
+     * Enumerates the active uniforms and attributes of an already linked program. Call from the
+     * thread that owns the GL context, once per link.
+     */
+    public static GlProgram introspect(int programHandle) {
+        GlProgram program = new GlProgram(programHandle);
+        program.enumerate();
+        return program;
+    }
+
+    private void enumerate() {
+        int[] count = new int[1];
+        int[] size = new int[1];
+        int[] type = new int[1];
+
+        GLES20.glGetProgramiv(mProgramHandle, GLES20.GL_ACTIVE_UNIFORMS, count, 0);
+        for (int i = 0; i < count[0]; i++) {
+            String name = stripArraySuffix(
+                    GLES20.glGetActiveUniform(mProgramHandle, i, size, 0, type, 0));
+            int location = GLES20.glGetUniformLocation(mProgramHandle, name);
+
+            Uniform uniform = new Uniform(name, location, type[0], size[0]);
+            mUniformList.add(uniform);
+            putVariable(mUniforms, uniform);
+        }
+
+        GLES20.glGetProgramiv(mProgramHandle, GLES20.GL_ACTIVE_ATTRIBUTES, count, 0);
+        for (int i = 0; i < count[0]; i++) {
+            String name = stripArraySuffix(
+                    GLES20.glGetActiveAttrib(mProgramHandle, i, size, 0, type, 0));
+            int location = GLES20.glGetAttribLocation(mProgramHandle, name);
+
+            Variable attribute = new Variable(name, location, type[0], size[0]);
+            mAttributeList.add(attribute);
+            putVariable(mAttributes, attribute);
+        }
+
+        GlUtil.checkGlError("GlProgram introspect");
+        Log.d(TAG, "program " + mProgramHandle + ": " + mUniformList.size() + " uniforms, "
+                + mAttributeList.size() + " attributes");
+    }
+
+    /**
+     * arrays are reported as "name[0]", but we want to look them up by their plain name
+     */
+    private static String stripArraySuffix(String name) {
+        if (name.endsWith("[0]")) {
+            return name.substring(0, name.length() - 3);
+        }
+        return name;
+    }
+
+    private static <T extends Variable> void putVariable(SparseArray<T> table, T variable) {
+        int key = variable.name.hashCode();
+        if (table.get(key) == null) {
+            table.put(key, variable);
+        }
+    }
+
+    private static <T extends Variable> T getVariable(SparseArray<T> table, ArrayList<T> list, String name) {
+        T variable = table.get(name.hashCode());
+        if (variable != null && variable.name.equals(name)) {
+            return variable;
+        }
+        return findVariable(list, name);
+    }
+
+    private static <T extends Variable> T findVariable(ArrayList<T> list, String name) {
+        for (int i = 0; i < list.size(); i++) {
+            T variable = list.get(i);
+            if (variable.name.equals(name)) {
+                return variable;
+            }
+        }
+        return null;
+    }
+
+    public int getHandle() {
+        return mProgramHandle;
+    }
+
+    /**
+     * Returns a handle for the named uniform. Uniforms that aren't active (never declared, or
+     * optimized away by the compiler) get a handle at {@link #INVALID_LOCATION} so callers don't
+     * need to null check; setting it is a no-op in GL.
+     */
+    public Uniform getUniform(String name) {
+        Uniform uniform = getVariable(mUniforms, mUniformList, name);
+        if (uniform == null) {
+            Log.w(TAG, "uniform '" + name + "' is not active in program " + mProgramHandle);
+            return new Uniform(name, INVALID_LOCATION, 0, 0);
+        }
+        return uniform;
+    }
+
+    /**
+     * @return location of the named uniform, or {@link #INVALID_LOCATION} if it's not active
+     */
+    public int getUniformLocation(String name) {
+        Uniform uniform = getVariable(mUniforms, mUniformList, name);
+        return uniform != null ? uniform.location : INVALID_LOCATION;
+    }
+
+    /**
+     * @return location of the named attribute, or {@link #INVALID_LOCATION} if it's not active
+     */
+    public int getAttribLocation(String name) {
+        Variable attribute = getVariable(mAttributes, mAttributeList, name);
+        return attribute != null ? attribute.location : INVALID_LOCATION;
+    }
+
+    public boolean hasUniform(String name) {
+        return getVariable(mUniforms, mUniformList, name) != null;
+    }
+
+    public boolean hasAttribute(String name) {
+        return getVariable(mAttributes, mAttributeList, name) != null;
+    }
+
+    public int getUniformCount() {
+        return mUniformList.size();
+    }
+
+    public int getAttributeCount() {
+        return mAttributeList.size();
+    }
+
+    @Override
+    public String toString() {
+        return "[GlProgram] handle: " + mProgramHandle + " uniforms: " + mUniformList
+                + " attributes: " + mAttributeList;
+    }
+
+    /**
+     * An active uniform or attribute as reported by GL.
+     */
+    public static class Variable {
+        public final String name;
+        public final int location;
+
+        /**
+         * GL type constant, e.g. {@link GLES20#GL_FLOAT_VEC4}
+         */
+        public final int type;
+
+        /**
+         * number of elements, greater than 1 for arrays
+         */
+        public final int size;
+
+        private Variable(String name, int location, int type, int size) {
+            this.name = name;
+            this.location = location;
+            this.type = type;
+            this.size = size;
+        }
+
+        @Override
+        public String toString() {
+            return name + "@" + location;
+        }
+    }
+
+    /**
+     * Typed handle for setting a uniform on the currently bound program. Grab these once after
+     * the program is linked and reuse them every frame.
+     * <p>
+     * Each handle remembers the last value it set, which GL keeps with the program, and skips
+     * setting the same value again. If you set this uniform with GLES20 directly as well, call
+     * {@link #invalidate()} afterwards.
+     */
+    public static class Uniform extends Variable {
+        private static final int VALUE_UNKNOWN = 0;
+        private static final int VALUE_INT = 1;
+        private static final int VALUE_FLOAT = 2;
+        private static final int VALUE_MATRIX4 = 3;
+
+        private int mValueType = VALUE_UNKNOWN;
+
+        /**
+         * components in the last float value
+         */
+        private int mComponents;
+        private int mInt;
+        private float mX, mY, mZ, mW;
+        private float[] mMatrix;
+
+        private Uniform(String name, int location, int type, int size) {
+            super(name, location, type, size);
+        }
+
+        public boolean isActive() {
+            return location != INVALID_LOCATION;
+        }
+
+        public void set(int x) {
+            if (!isActive() || (mValueType == VALUE_INT && mInt == x)) {
+                GlState.countElided();
+                return;
+            }
+            GlState.countIssued();
+            Gl.api().glUniform1i(location, x);
+            mValueType = VALUE_INT;
+            mInt = x;
+        }
+
+        public void set(float x) {
+            if (isUnchanged(1, x, 0.f, 0.f, 0.f))
+                return;
+            Gl.api().glUniform1f(location, x);
+        }
+
+        public void set(float x, float y) {
+            if (isUnchanged(2, x, y, 0.f, 0.f))
+                return;
+            Gl.api().glUniform2f(location, x, y);
+        }
+
+        public void set(float x, float y, float z) {
+            if (isUnchanged(3, x, y, z, 0.f))
+                return;
+            Gl.api().glUniform3f(location, x, y, z);
+        }
+
+        public void set(float x, float y, float z, float w) {
+            if (isUnchanged(4, x, y, z, w))
+                return;
+            Gl.api().glUniform4f(location, x, y, z, w);
+        }
+
+        public void setMatrix4(float[] matrix) {
+            if (!isActive() || (mValueType == VALUE_MATRIX4 && equals(mMatrix, matrix, 0, 16))) {
+                GlState.countElided();
+                return;
+            }
+            GlState.countIssued();
+            Gl.api().glUniformMatrix4fv(location, 1, false, matrix, 0);
+
+            if (mMatrix == null)
+                mMatrix = new float[16];
+            System.arraycopy(matrix, 0, mMatrix, 0, 16);
+            mValueType = VALUE_MATRIX4;
+        }
+
+        /**
+         * Sets a matrix array. These aren't remembered, comparing them would cost about as
+         * much as setting them.
+         */
+        public void setMatrix4(int count, float[] matrices, int offset) {
+            GlState.countIssued();
+            Gl.api().glUniformMatrix4fv(location, count, false, matrices, offset);
+            mValueType = VALUE_UNKNOWN;
+        }
+
+        /**
+         * Forgets the last value, so the next set goes through to GL.
+         */
+        public void invalidate() {
+            mValueType = VALUE_UNKNOWN;
+        }
+
+        /**
+         * @return true if setting this float value would change nothing, otherwise remembers it
+         */
+        private boolean isUnchanged(int components, float x, float y, float z, float w) {
+            if (!isActive() || (mValueType == VALUE_FLOAT && mComponents == components
+                    && mX == x && mY == y && mZ == z && mW == w)) {
+                GlState.countElided();
+                return true;
+            }
+            GlState.countIssued();
+            mValueType = VALUE_FLOAT;
+            mComponents = components;
+            mX = x;
+            mY = y;
+            mZ = z;
+            mW = w;
+            return false;
+        }
+
+        private static boolean equals(float[] a, float[] b, int offset, int count) {
+            for (int i = 0; i < count; i++) {
+                if (a[i] != b[offset + i])
+                    return false;
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,260 @@
+package com.androidexperiments.shadercam.gl;
+
+import android.opengl.GLES11Ext;
+import android.opengl.GLES20;
+import android.opengl.GLES30;
+import android.util.Log;
+
+import java.util.Arrays;
+
+/**
+ * Shadow copy of the GL bindings the render loop changes every frame: current program, active
+ * texture unit, 2D and external textures per unit, framebuffers and viewport. Calls that wouldn't
+ * change anything never reach the driver. Uniform values are shadowed per program by
+ * {@link GlProgram.Uniform}.
+ * <p>
+ * Everything in the library that binds these goes through here, on the render thread only, so
+ * the shadow carries over from frame to frame. Code that calls GLES20 directly for any of them
+ * (a subclass drawing its own geometry, texample2) must call {@link #invalidate()} afterwards so
+ * we stop trusting our copy; {@link CameraRenderer} does that after every draw for subclasses
+ * that ask for it, and whenever the context changes. {@code SurfaceTexture.updateTexImage()}
+ * only touches the external texture, see {@link #invalidateTexture(int)}.
+ * <p>
+ * {@link #getIssuedCount()} and {@link #getElidedCount()} count what got through and what didn't.
+ */
+public final class GlState
+{
+    private static final String TAG = GlState.class.getSimpleName();
+
+    /**
+     * GLES2 guarantees 8 fragment units, nobody offers more than this
+     */
+    private static final int MAX_UNITS = 32;
+
+    private static final int TARGET_2D = 0;
+    private static final int TARGET_EXTERNAL = 1;
+
+    /**
+     * what we store when we don't know what's bound
+     */
+    private static final int UNKNOWN = -1;
+
+    private static int sProgram = UNKNOWN;
+    private static int sActiveUnit = UNKNOWN;
+    private static final int[][] sTextures = new int[2][MAX_UNITS];
+    private static int sDrawFramebuffer = UNKNOWN;
+    private static int sReadFramebuffer = UNKNOWN;
+    private static final int[] sViewport = new int[4];
+
+    private static long sIssued = 0;
+    private static long sElided = 0;
+
+    static {
+        invalidate();
+    }
+
+    private GlState() {}
+
+    public static void useProgram(int program)
+    {
+        if (program == sProgram) {
+            sElided++;
+            return;
+        }
+        sIssued++;
+        Gl.api().glUseProgram(program);
+        sProgram = program;
+    }
+
+    /**
+     * @param unit texture unit index, without {@link GLES20#GL_TEXTURE0}
+     */
+    public static void activeTexture(int unit)
+    {
+        if (unit == sActiveUnit) {
+            sElided++;
+            return;
+        }
+        sIssued++;
+        Gl.api().glActiveTexture(GLES20.GL_TEXTURE0 + unit);
+        sActiveUnit = unit;
+    }
+
+    /**
+     * Binds on the active unit. Only {@link GLES20#GL_TEXTURE_2D} and external textures are
+     * shadowed, other targets go straight through.
+     */
+    public static void bindTexture(int target, int texture)
+    {
+        int index = targetIndex(target);
+        if (index == UNKNOWN || sActiveUnit == UNKNOWN || sActiveUnit >= MAX_UNITS) {
+            sIssued++;
+            Gl.api().glBindTexture(target, texture);
+            return;
+        }
+
+        if (sTextures[index][sActiveUnit] == texture) {
+            sElided++;
+            return;
+        }
+        sIssued++;
+        Gl.api().glBindTexture(target, texture);
+        sTextures[index][sActiveUnit] = texture;
+    }
+
+    /**
+     * {@link #activeTexture(int)} and {@link #bindTexture(int, int)} in one go
+     */
+    public static void bindTexture(int unit, int target, int texture)
+    {
+        activeTexture(unit);
+        bindTexture(target, texture);
+    }
+
+    /**
+     * @param target {@link GLES20#GL_FRAMEBUFFER}, or the GLES3 read/draw targets
+     */
+    public static void bindFramebuffer(int target, int framebuffer)
+    {
+        boolean draw = target != GLES30.GL_READ_FRAMEBUFFER;
+        boolean read = target != GLES30.GL_DRAW_FRAMEBUFFER;
+
+        if ((!draw || sDrawFramebuffer == framebuffer) && (!read || sReadFramebuffer == framebuffer)) {
+            sElided++;
+            return;
+        }
+        sIssued++;
+        Gl.api().glBindFramebuffer(target, framebuffer);
+        if (draw)
+            sDrawFramebuffer = framebuffer;
+        if (read)
+            sReadFramebuffer = framebuffer;
+    }
+
+    public static void viewport(int x, int y, int width, int height)
+    {
+        if (sViewport[0] == x && sViewport[1] == y && sViewport[2] == width && sViewport[3] == height) {
+            sElided++;
+            return;
+        }
+        sIssued++;
+        Gl.api().glViewport(x, y, width, height);
+        sViewport[0] = x;
+        sViewport[1] = y;
+        sViewport[2] = width;
+        sViewport[3] = height;
+    }
+
+    /**
+     * Call after glDeleteTextures. GL unbinds deleted textures, and the name may come back for
+     * a new texture we'd otherwise think is already bound.
+     */
+    public static void onTextureDeleted(int texture)
+    {
+        for (int[] units : sTextures) {
+            for (int i = 0; i < units.length; i++) {
+                if (units[i] == texture)
+                    units[i] = UNKNOWN;
+            }
+        }
+    }
+
+    /**
+     * Call after glDeleteProgram, see {@link #onTextureDeleted(int)}.
+     */
+    public static void onProgramDeleted(int program)
+    {
+        if (sProgram == program)
+            sProgram = UNKNOWN;
+    }
+
+    /**
+     * Call after glDeleteFramebuffers, see {@link #onTextureDeleted(int)}.
+     */
+    public static void onFramebufferDeleted(int framebuffer)
+    {
+        if (sDrawFramebuffer == framebuffer)
+            sDrawFramebuffer = UNKNOWN;
+        if (sReadFramebuffer == framebuffer)
+            sReadFramebuffer = UNKNOWN;
+    }
+
+    /**
+     * Forgets what's bound to this target on the active unit, for calls that bind there behind
+     * our back like {@code SurfaceTexture.updateTexImage()}. On every unit if we don't know which
+     * one is active.
+     */
+    public static void invalidateTexture(int target)
+    {
+        int index = targetIndex(target);
+        if (index == UNKNOWN)
+            return;
+
+        if (sActiveUnit == UNKNOWN || sActiveUnit >= MAX_UNITS)
+            Arrays.fill(sTextures[index], UNKNOWN);
+        else
+            sTextures[index][sActiveUnit] = UNKNOWN;
+    }
+
+    /**
+     * Forgets everything we know, the next call of each kind goes through to GL.
+     */
+    public static void invalidate()
+    {
+        sProgram = UNKNOWN;
+        sActiveUnit = UNKNOWN;
+        for (int[] units : sTextures)
+            Arrays.fill(units, UNKNOWN);
+        sDrawFramebuffer = UNKNOWN;
+        sReadFramebuffer = UNKNOWN;
+        Arrays.fill(sViewport, UNKNOWN);
+    }
+
+    static void countIssued()
+    {
+        sIssued++;
+    }
+
+    static void countElided()
+    {
+        sElided++;
+    }
+
+    /**
+     * @return state changes that reached GL, uniforms included
+     */
+    public static long getIssuedCount()
+    {
+        return sIssued;
+    }
+
+    /**
+     * @return state changes we skipped because they wouldn't have changed anything
+     */
+    public static long getElidedCount()
+    {
+        return sElided;
+    }
+
+    public static void resetCounters()
+    {
+        sIssued = 0;
+        sElided = 0;
+    }
+
+    public static void logStats()
+    {
+        long total = sIssued + sElided;
+        Log.i(TAG, "state changes issued: " + sIssued + ", elided: " + sElided
+                + (total > 0 ? " (" + sElided * 100 / total + "%)" : ""));
+    }
+
+    private static int targetIndex(int target)
+    {
+        if (target == GLES20.GL_TEXTURE_2D)
+            return TARGET_2D;
+        if (target == GLES11Ext.GL_TEXTURE_EXTERNAL_OES)
+            return TARGET_EXTERNAL;
+        return UNKNOWN;
+    }
+}
@@ -21,9 +21,11 @@ import android.opengl.GLES30;
 import android.opengl.Matrix;
 import android.util.Log;
 
+import com.androidexperiments.shadercam.utils.BufferUtils;
+
 import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
 import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
 
 /**
  * Some OpenGL utility functions. From Grafika
@@ -38,8 +40,6 @@ public class GlUtil {
         Matrix.setIdentityM(IDENTITY_MATRIX, 0);
     }
 
-    private static final int SIZEOF_FLOAT = 4;
-
 
     private GlUtil() {}     // do not instantiate
 
@@ -164,13 +164,27 @@ public class GlUtil {
      * Allocates a direct float buffer, and populates it with the float array data.
      */
     public static FloatBuffer createFloatBuffer(float[] coords) {
-        // Allocate a direct ByteBuffer, using 4 bytes per float, and copy coords into it.
-        ByteBuffer bb = ByteBuffer.allocateDirect(coords.length * SIZEOF_FLOAT);
-        bb.order(ByteOrder.nativeOrder());
-        FloatBuffer fb = bb.asFloatBuffer();
-        fb.put(coords);
-        fb.position(0);
-        return fb;
+        return BufferUtils.createFloatBuffer(coords);
+    }
+
+    /**
+     * Allocates a direct short buffer, and populates it with the short array data.
+     */
+    public static ShortBuffer createShortBuffer(short[] values) {
+        return BufferUtils.createShortBuffer(values);
+    }
+
+    /**
+     * Major version of the current context, from the GL_VERSION string ("OpenGL ES 3.2 ...") since
+     * GL_MAJOR_VERSION doesn't exist on 2.0 contexts.
+     */
+    public static int getGlMajorVersion() {
+        String version = GLES20.glGetString(GLES20.GL_VERSION);
+        if (version == null || !version.startsWith("OpenGL ES ") || version.length() < 11) {
+            return 2;
+        }
+        int major = version.charAt(10) - '0';
+        return major >= 2 && major <= 9 ? major : 2;
     }
 
     /**
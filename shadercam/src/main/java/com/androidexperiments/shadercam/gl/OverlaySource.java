@@ -0,0 +1,189 @@
+package com.androidexperiments.shadercam.gl;
+
+import android.graphics.SurfaceTexture;
+import android.opengl.GLES11Ext;
+import android.opengl.GLES20;
+import android.opengl.Matrix;
+import android.util.Log;
+import android.view.Surface;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A dynamic overlay that producers draw straight into, sampled by {@link CameraRenderer} as an
+ * external texture the same way as the camera feed.
+ * <p>
+ * Once the renderer has set it up (see {@link CameraRenderer#addOverlay(OverlaySource, String)})
+ * anything that can render into a {@link Surface} can produce frames: a canvas, a
+ * {@code MediaPlayer}, a virtual display, another GL context. Frames go through a
+ * {@link SurfaceTexture} buffer queue, so there's no bitmap to allocate, upload or recycle per
+ * frame. The renderer latches the newest frame before drawing.
+ * <p>
+ * In your fragment shader:
+ * <pre>
+ * #extension GL_OES_EGL_image_external : require
+ * uniform samplerExternalOES myOverlay;
+ * uniform mat4 myOverlayTransform; //optional, maps texture coordinates like camTextureTransform
+ * </pre>
+ * See {@link CanvasOverlaySource} for a software-rendered producer.
+ */
+public class OverlaySource implements SurfaceTexture.OnFrameAvailableListener
+{
+    private static final String TAG = OverlaySource.class.getSimpleName();
+
+    private final int mWidth;
+    private final int mHeight;
+
+    private int mTextureId;
+    private SurfaceTexture mSurfaceTexture;
+    private volatile Surface mSurface;
+
+    /**
+     * frames queued by the producer that we haven't latched yet
+     */
+    private final AtomicInteger mPendingFrames = new AtomicInteger();
+
+    private final float[] mTransformMatrix = new float[16];
+
+    private boolean mHasFrame = false;
+
+    /**
+     * @param width size of the buffers producers draw into
+     */
+    public OverlaySource(int width, int height)
+    {
+        mWidth = width;
+        mHeight = height;
+        Matrix.setIdentityM(mTransformMatrix, 0);
+    }
+
+    /**
+     * Creates our texture and producer surface. Called by {@link CameraRenderer} on its GL thread.
+     */
+    void setup()
+    {
+        int[] ids = new int[1];
+        GLES20.glGenTextures(1, ids, 0);
+        mTextureId = ids[0];
+
+        GlState.bindTexture(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, mTextureId);
+        GLES20.glTexParameteri(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_LINEAR);
+        GLES20.glTexParameteri(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_LINEAR);
+        GLES20.glTexParameteri(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, GLES20.GL_TEXTURE_WRAP_S, GLES20.GL_CLAMP_TO_EDGE);
+        GLES20.glTexParameteri(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, GLES20.GL_TEXTURE_WRAP_T, GLES20.GL_CLAMP_TO_EDGE);
+        GlUtil.checkGlError("OverlaySource texture");
+
+        mSurfaceTexture = new SurfaceTexture(mTextureId);
+        mSurfaceTexture.setDefaultBufferSize(mWidth, mHeight);
+        mSurfaceTexture.setOnFrameAvailableListener(this);
+        mSurface = new Surface(mSurfaceTexture);
+
+        Log.d(TAG, "setup() " + this);
+        onSurfaceReady(mSurface);
+    }
+
+    /**
+     * Called once the producer surface exists, on the GL thread. Start your producer here, and
+     * keep it short.
+     */
+    protected void onSurfaceReady(Surface surface)
+    {
+    }
+
+    /**
+     * Called right before the surface goes away, on the GL thread. Stop producing here.
+     */
+    protected void onSurfaceDestroyed()
+    {
+    }
+
+    @Override
+    public void onFrameAvailable(SurfaceTexture surfaceTexture)
+    {
+        mPendingFrames.incrementAndGet();
+    }
+
+    /**
+     * Latches the newest frame the producer queued, skipping older ones. GL thread.
+     */
+    void latch()
+    {
+        int pending = mPendingFrames.getAndSet(0);
+        if (pending == 0)
+            return;
+
+        //each updateTexImage() latches the next queued buffer, so step past the stale ones
+        for (int i = 0; i < pending; i++)
+            mSurfaceTexture.updateTexImage();
+
+        mSurfaceTexture.getTransformMatrix(mTransformMatrix);
+        mHasFrame = true;
+    }
+
+    /**
+     * Binds our texture to {@code GL_TEXTURE0 + unit}. GL thread.
+     */
+    void bind(int unit)
+    {
+        GlState.bindTexture(unit, GLES11Ext.GL_TEXTURE_EXTERNAL_OES, mTextureId);
+    }
+
+    /**
+     * Releases the surface and texture. Called by {@link CameraRenderer} on its GL thread.
+     */
+    void release()
+    {
+        if (mSurfaceTexture == null)
+            return;
+
+        onSurfaceDestroyed();
+
+        mSurface.release();
+        mSurface = null;
+        mSurfaceTexture.setOnFrameAvailableListener(null);
+        mSurfaceTexture.release();
+        mSurfaceTexture = null;
+
+        GLES20.glDeleteTextures(1, new int[]{mTextureId}, 0);
+        GlState.onTextureDeleted(mTextureId);
+        mTextureId = 0;
+        mHasFrame = false;
+    }
+
+    /**
+     * @return what producers draw into, null until the renderer has set us up
+     */
+    public Surface getSurface()
+    {
+        return mSurface;
+    }
+
+    /**
+     * @return whether a frame has been latched yet, until then the texture has no contents
+     */
+    public boolean hasFrame()
+    {
+        return mHasFrame;
+    }
+
+    float[] getTransformMatrix()
+    {
+        return mTransformMatrix;
+    }
+
+    public int getWidth()
+    {
+        return mWidth;
+    }
+
+    public int getHeight()
+    {
+        return mHeight;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "[OverlaySource] tex: " + mTextureId + " " + mWidth + "x" + mHeight;
+    }
+}
@@ -0,0 +1,381 @@
+package com.androidexperiments.shadercam.gl;
+
+import android.content.Context;
+import android.opengl.GLES20;
+import android.opengl.GLES30;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Disk cache of linked program binaries, so we only pay for compiling a shader the first time a
+ * device ever sees it.
+ * <p>
+ * Programs are keyed by a hash of their sources, attribute bindings, and the GL renderer and
+ * version strings, so a driver update never loads a stale binary. On GLES3 contexts that support
+ * at least one binary format, the output of glGetProgramBinary() is written to a memory-mapped
+ * file after a source compile, and fed back through glProgramBinary() next time. Anything that
+ * goes wrong on the way in - missing file, bad header, driver rejecting the binary - falls back to
+ * compiling from source, which then refreshes the entry.
+ * <p>
+ * Safe to share between GL threads, each call works on whatever context is current.
+ */
+public class ProgramCache
+{
+    private static final String TAG = ProgramCache.class.getSimpleName();
+
+    private static final String DEFAULT_DIRECTORY = "shadercam_programs";
+    private static final String FILE_EXTENSION = ".bin";
+
+    /**
+     * "SCPB", so we don't feed random files to the driver
+     */
+    private static final int MAGIC = 0x53435042;
+
+    /**
+     * magic, binary format, binary length
+     */
+    private static final int HEADER_SIZE = 3 * 4;
+
+    /**
+     * GL keeps one error flag per error type, so this many glGetError calls clear all of them
+     */
+    private static final int MAX_PENDING_ERRORS = 8;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final File mDirectory;
+
+    private final AtomicInteger mHits = new AtomicInteger();
+    private final AtomicInteger mMisses = new AtomicInteger();
+    private final AtomicLong mLoadTimeNs = new AtomicLong();
+    private final AtomicLong mCompileTimeNs = new AtomicLong();
+
+    /**
+     * @param directory where binaries are kept, created if needed
+     */
+    public ProgramCache(File directory) {
+        mDirectory = directory;
+    }
+
+    /**
+     * Cache in the app's cache dir, which the system may clear whenever it likes - fine for us.
+     */
+    public static ProgramCache createDefault(Context context) {
+        return new ProgramCache(new File(context.getCacheDir(), DEFAULT_DIRECTORY));
+    }
+
+    /**
+     * Same as {@link #getProgram(String, String, String[])} without attribute bindings.
+     */
+    public int getProgram(String vertexSource, String fragmentSource) {
+        return getProgram(vertexSource, fragmentSource, null);
+    }
+
+    /**
+     * Returns a linked program for these sources, from disk if we can and compiled otherwise.
+     * Call on a thread with a current GL context.
+     *
+     * @param attributeBindings attribute names to bind to locations 0..n-1 before linking, or null
+     * @return program handle, or 0 if it failed to compile or link
+     */
+    public int getProgram(String vertexSource, String fragmentSource, String[] attributeBindings) {
+        String version = GLES20.glGetString(GLES20.GL_VERSION);
+        String renderer = GLES20.glGetString(GLES20.GL_RENDERER);
+
+        boolean binarySupported = isBinarySupported();
+        String key = binarySupported ? createKey(vertexSource, fragmentSource, attributeBindings, renderer, version) : null;
+
+        if (key != null) {
+            long start = System.nanoTime();
+            int program = loadBinary(key);
+            if (program != 0) {
+                long elapsed = System.nanoTime() - start;
+                mHits.incrementAndGet();
+                mLoadTimeNs.addAndGet(elapsed);
+                Log.d(TAG, "hit " + key + " loaded in " + elapsed / 1000 + "us");
+                return program;
+            }
+        }
+
+        long start = System.nanoTime();
+        int program = compile(vertexSource, fragmentSource, attributeBindings, binarySupported);
+        long elapsed = System.nanoTime() - start;
+
+        mMisses.incrementAndGet();
+        mCompileTimeNs.addAndGet(elapsed);
+        Log.d(TAG, (key != null ? "miss " + key : "binaries unsupported,") + " compiled in " + elapsed / 1000 + "us");
+
+        if (program != 0 && key != null)
+            saveBinary(key, program);
+
+        return program;
+    }
+
+    private static boolean isBinarySupported() {
+        //the GLES30 entry points aren't there on 2.0 contexts
+        if (GlUtil.getGlMajorVersion() < 3) {
+            return false;
+        }
+
+        int[] formats = new int[1];
+        GLES20.glGetIntegerv(GLES30.GL_NUM_PROGRAM_BINARY_FORMATS, formats, 0);
+        return formats[0] > 0;
+    }
+
+    private static String createKey(String vertexSource, String fragmentSource, String[] attributeBindings,
+                                    String renderer, String version) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-1");
+        }
+        catch (NoSuchAlgorithmException e) {
+            Log.w(TAG, "no SHA-1, program cache disabled");
+            return null;
+        }
+
+        update(digest, vertexSource);
+        update(digest, fragmentSource);
+        if (attributeBindings != null) {
+            for (String name : attributeBindings)
+                update(digest, name);
+        }
+        update(digest, renderer);
+        update(digest, version);
+
+        byte[] hash = digest.digest();
+        StringBuilder key = new StringBuilder(hash.length * 2);
+        for (byte b : hash) {
+            key.append(Character.forDigit((b >> 4) & 0xf, 16));
+            key.append(Character.forDigit(b & 0xf, 16));
+        }
+        return key.toString();
+    }
+
+    private static void update(MessageDigest digest, String value) {
+        if (value != null)
+            digest.update(value.getBytes(UTF_8));
+        //separator, so "ab"+"c" and "a"+"bc" don't hash the same
+        digest.update((byte) 0);
+    }
+
+    private int compile(String vertexSource, String fragmentSource, String[] attributeBindings, boolean retrievable) {
+        int vertexShader = GlUtil.loadShader(GLES20.GL_VERTEX_SHADER, vertexSource);
+        if (vertexShader == 0)
+            return 0;
+
+        int fragmentShader = GlUtil.loadShader(GLES20.GL_FRAGMENT_SHADER, fragmentSource);
+        if (fragmentShader == 0) {
+            GLES20.glDeleteShader(vertexShader);
+            return 0;
+        }
+
+        int program = GLES20.glCreateProgram();
+        GLES20.glAttachShader(program, vertexShader);
+        GLES20.glAttachShader(program, fragmentShader);
+
+        if (attributeBindings != null) {
+            for (int i = 0; i < attributeBindings.length; i++)
+                GLES20.glBindAttribLocation(program, i, attributeBindings[i]);
+        }
+
+        if (retrievable)
+            GLES30.glProgramParameteri(program, GLES30.GL_PROGRAM_BINARY_RETRIEVABLE_HINT, GLES20.GL_TRUE);
+
+        GLES20.glLinkProgram(program);
+
+        //the program keeps what it needs, these just get flagged and go away with it
+        GLES20.glDeleteShader(vertexShader);
+        GLES20.glDeleteShader(fragmentShader);
+
+        int[] linkStatus = new int[1];
+        GLES20.glGetProgramiv(program, GLES20.GL_LINK_STATUS, linkStatus, 0);
+        if (linkStatus[0] != GLES20.GL_TRUE) {
+            Log.e(TAG, "Could not link program: " + GLES20.glGetProgramInfoLog(program));
+            GLES20.glDeleteProgram(program);
+            return 0;
+        }
+        return program;
+    }
+
+    private int loadBinary(String key) {
+        File file = getFile(key);
+        if (!file.exists())
+            return 0;
+
+        RandomAccessFile raf = null;
+        try {
+            raf = new RandomAccessFile(file, "r");
+            FileChannel channel = raf.getChannel();
+            if (channel.size() < HEADER_SIZE)
+                throw new IOException("truncated header");
+
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            mapped.order(ByteOrder.nativeOrder());
+
+            int magic = mapped.getInt();
+            int format = mapped.getInt();
+            int length = mapped.getInt();
+            if (magic != MAGIC || length <= 0 || length > mapped.remaining())
+                throw new IOException("bad header");
+
+            ByteBuffer binary = mapped.slice();
+
+            int program = GLES20.glCreateProgram();
+            GLES30.glProgramBinary(program, format, binary, length);
+
+            int[] linkStatus = new int[1];
+            GLES20.glGetProgramiv(program, GLES20.GL_LINK_STATUS, linkStatus, 0);
+            if (linkStatus[0] != GLES20.GL_TRUE) {
+                //driver changed its mind about this binary, recompile and overwrite it
+                GLES20.glDeleteProgram(program);
+                throw new IOException("binary rejected by driver");
+            }
+            return program;
+        }
+        catch (IOException e) {
+            Log.w(TAG, "dropping cached program " + key + ": " + e.getMessage());
+            file.delete();
+            return 0;
+        }
+        finally {
+            close(raf);
+        }
+    }
+
+    /**
+     * drops errors left over from whoever called GL before us, so they don't look like ours
+     */
+    private static void clearErrors() {
+        for (int i = 0; i < MAX_PENDING_ERRORS; i++) {
+            if (GLES20.glGetError() == GLES20.GL_NO_ERROR)
+                return;
+        }
+    }
+
+    private void saveBinary(String key, int program) {
+        int[] length = new int[1];
+        int[] format = new int[1];
+        GLES20.glGetProgramiv(program, GLES30.GL_PROGRAM_BINARY_LENGTH, length, 0);
+        if (length[0] <= 0)
+            return;
+
+        clearErrors();
+
+        ByteBuffer binary = ByteBuffer.allocateDirect(length[0]).order(ByteOrder.nativeOrder());
+        int bufSize = length[0];
+        length[0] = 0;
+        GLES30.glGetProgramBinary(program, bufSize, length, 0, format, 0, binary);
+        if (GLES20.glGetError() != GLES20.GL_NO_ERROR || length[0] <= 0) {
+            Log.w(TAG, "glGetProgramBinary failed for " + key);
+            return;
+        }
+
+        if (!mDirectory.isDirectory() && !mDirectory.mkdirs()) {
+            Log.w(TAG, "could not create " + mDirectory);
+            return;
+        }
+
+        //write next to the real file and rename, so concurrent readers never see half an entry
+        File file = getFile(key);
+        File temp = new File(mDirectory, key + "." + Thread.currentThread().getId() + ".tmp");
+
+        RandomAccessFile raf = null;
+        try {
+            raf = new RandomAccessFile(temp, "rw");
+            MappedByteBuffer mapped = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + length[0]);
+            mapped.order(ByteOrder.nativeOrder());
+
+            mapped.putInt(MAGIC);
+            mapped.putInt(format[0]);
+            mapped.putInt(length[0]);
+            binary.limit(length[0]);
+            mapped.put(binary);
+            mapped.force();
+        }
+        catch (IOException e) {
+            Log.w(TAG, "could not write cached program " + key + ": " + e.getMessage());
+            temp.delete();
+            return;
+        }
+        finally {
+            close(raf);
+        }
+
+        if (!temp.renameTo(file))
+            temp.delete();
+    }
+
+    private File getFile(String key) {
+        return new File(mDirectory, key + FILE_EXTENSION);
+    }
+
+    private static void close(RandomAccessFile raf) {
+        if (raf == null)
+            return;
+
+        try {
+            raf.close();
+        }
+        catch (IOException e) {
+            Log.w(TAG, "close failed: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Deletes every cached binary.
+     */
+    public void clear() {
+        File[] files = mDirectory.listFiles();
+        if (files == null)
+            return;
+
+        for (File file : files)
+            file.delete();
+    }
+
+    /**
+     * @return programs loaded from disk
+     */
+    public int getHitCount() {
+        return mHits.get();
+    }
+
+    /**
+     * @return programs compiled from source, including the ones we couldn't cache
+     */
+    public int getMissCount() {
+        return mMisses.get();
+    }
+
+    /**
+     * @return total time spent loading binaries, in nanoseconds
+     */
+    public long getLoadTimeNs() {
+        return mLoadTimeNs.get();
+    }
+
+    /**
+     * @return total time spent compiling from source, in nanoseconds
+     */
+    public long getCompileTimeNs() {
+        return mCompileTimeNs.get();
+    }
+
+    @Override
+    public String toString() {
+        return "[ProgramCache] hits: " + getHitCount() + " (" + getLoadTimeNs() / 1000000 + "ms) misses: "
+                + getMissCount() + " (" + getCompileTimeNs() / 1000000 + "ms)";
+    }
+}
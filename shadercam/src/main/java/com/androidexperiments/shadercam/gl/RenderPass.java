@@ -0,0 +1,227 @@
+package com.androidexperiments.shadercam.gl;
+
+import android.content.Context;
+import android.opengl.GLES20;
+import android.util.Log;
+
+import com.androidexperiments.shadercam.utils.ShaderUtils;
+
+import java.io.IOException;
+import java.nio.FloatBuffer;
+
+/**
+ * One stage of a {@link CameraRenderer} effect chain.
+ * <p>
+ * A pass draws a fullscreen quad with its own program, sampling the previous stage's output as
+ * {@code inputTexture} (a {@code sampler2D}), and writes into its output: a pooled
+ * {@link RenderTarget} for intermediate passes, or the window surface for the last one.
+ * <p>
+ * Subclass and override {@link #setupProgramLocations()} / {@link #setUniforms(RenderTarget)}
+ * to feed your own uniforms, the same way you would with {@link CameraRenderer}.
+ */
+public class RenderPass
+{
+    private static final String TAG = RenderPass.class.getSimpleName();
+
+    /**
+     * passthrough vertex shader for fullscreen passes, ships in the assets of shadercam
+     */
+    public static final String DEFAULT_VERTEX_SHADER = "pass.vert.glsl";
+
+    /**
+     * passthrough fragment shader, copies its input as-is
+     */
+    public static final String DEFAULT_FRAGMENT_SHADER = "pass.frag.glsl";
+
+    private static final float[] QUAD_COORDS = {
+            -1.0f, 1.0f,   // top left
+            1.0f, 1.0f,    // top right
+            -1.0f, -1.0f,  // bottom left
+            1.0f, -1.0f,   // bottom right
+    };
+
+    private static final float[] QUAD_TEXTURE_COORDS = {
+            0.0f, 1.0f,
+            1.0f, 1.0f,
+            0.0f, 0.0f,
+            1.0f, 0.0f,
+    };
+
+    /**
+     * if you set these in ctor of subclass, loader will ignore the asset paths
+     */
+    protected String vertexShaderCode;
+
+    protected String fragmentShaderCode;
+
+    private final String mFragmentShaderPath;
+    private final String mVertexShaderPath;
+
+    protected GlProgram mProgram;
+
+    private FloatBuffer mVertexBuffer;
+    private FloatBuffer mTextureBuffer;
+
+    private int mPositionHandle;
+    private int mTextureCoordinateHandle;
+    private GlProgram.Uniform mInputTextureUniform;
+    private GlProgram.Uniform mInputTexelSizeUniform;
+
+    /**
+     * size of our output relative to the renderer viewport, use < 1 for cheap downsampled passes
+     */
+    private float mOutputScale = 1.f;
+
+    private int mOutputFormat = GLES20.GL_RGBA;
+
+    /**
+     * Pass using the default vertex shader.
+     * @param fragPath file name of your fragment shader inside the /assets/ folder
+     */
+    public RenderPass(String fragPath)
+    {
+        this(fragPath, DEFAULT_VERTEX_SHADER);
+    }
+
+    /**
+     * @param fragPath file name of your fragment shader inside the /assets/ folder
+     * @param vertPath file name of your vertex shader inside the /assets/ folder
+     */
+    public RenderPass(String fragPath, String vertPath)
+    {
+        mFragmentShaderPath = fragPath;
+        mVertexShaderPath = vertPath;
+    }
+
+    /**
+     * Loads and links our program. Called by {@link CameraRenderer} on its GL thread.
+     *
+     * @param programCache where to get the linked program from, null to compile from source
+     */
+    void setup(Context context, ProgramCache programCache)
+    {
+        if (fragmentShaderCode == null || vertexShaderCode == null) {
+            try {
+                fragmentShaderCode = ShaderUtils.getStringFromFileInAssets(context, mFragmentShaderPath);
+                vertexShaderCode = ShaderUtils.getStringFromFileInAssets(context, mVertexShaderPath);
+            }
+            catch (IOException e) {
+                throw new RuntimeException("RenderPass could not load shaders " + mFragmentShaderPath
+                        + ", " + mVertexShaderPath + ": " + e.getMessage());
+            }
+        }
+
+        mVertexBuffer = GlUtil.createFloatBuffer(QUAD_COORDS);
+        mTextureBuffer = GlUtil.createFloatBuffer(QUAD_TEXTURE_COORDS);
+
+        int program = programCache != null
+                ? programCache.getProgram(vertexShaderCode, fragmentShaderCode)
+                : GlUtil.createProgram(vertexShaderCode, fragmentShaderCode);
+        if (program == 0) {
+            throw new RuntimeException("RenderPass failed to link " + mFragmentShaderPath);
+        }
+        mProgram = GlProgram.introspect(program);
+        setupProgramLocations();
+
+        Log.d(TAG, "setup() " + mFragmentShaderPath + " -> " + mProgram);
+    }
+
+    /**
+     * Grab {@link GlProgram.Uniform} handles here. Make sure to call super.
+     */
+    protected void setupProgramLocations()
+    {
+        mPositionHandle = mProgram.getAttribLocation("position");
+        mTextureCoordinateHandle = mProgram.getAttribLocation("texCoordinate");
+        mInputTextureUniform = mProgram.getUniform("inputTexture");
+        mInputTexelSizeUniform = mProgram.getUniform("inputTexelSize");
+    }
+
+    /**
+     * Draws this pass into whatever framebuffer and viewport are currently bound.
+     *
+     * @param input output of the previous stage
+     */
+    void draw(RenderTarget input)
+    {
+        GlState.useProgram(mProgram.getHandle());
+
+        GlState.bindTexture(0, GLES20.GL_TEXTURE_2D, input.getTextureId());
+        mInputTextureUniform.set(0);
+        mInputTexelSizeUniform.set(1.f / input.getWidth(), 1.f / input.getHeight());
+
+        Gl.api().glEnableVertexAttribArray(mPositionHandle);
+        Gl.api().glVertexAttribPointer(mPositionHandle, 2, GLES20.GL_FLOAT, false, 4 * 2, mVertexBuffer);
+        Gl.api().glEnableVertexAttribArray(mTextureCoordinateHandle);
+        Gl.api().glVertexAttribPointer(mTextureCoordinateHandle, 2, GLES20.GL_FLOAT, false, 4 * 2, mTextureBuffer);
+
+        setUniforms(input);
+
+        Gl.api().glDrawArrays(GLES20.GL_TRIANGLE_STRIP, 0, 4);
+
+        Gl.api().glDisableVertexAttribArray(mPositionHandle);
+        Gl.api().glDisableVertexAttribArray(mTextureCoordinateHandle);
+    }
+
+    /**
+     * override to set your own uniforms or bind extra textures (on units other than 0)
+     * right before the quad is drawn
+     */
+    protected void setUniforms(RenderTarget input)
+    {
+    }
+
+    /**
+     * Deletes our program. Called by {@link CameraRenderer} when GL is torn down.
+     */
+    void release()
+    {
+        if (mProgram != null) {
+            GLES20.glDeleteProgram(mProgram.getHandle());
+            GlState.onProgramDeleted(mProgram.getHandle());
+            mProgram = null;
+        }
+    }
+
+    public boolean isSetup()
+    {
+        return mProgram != null;
+    }
+
+    /**
+     * Scale of this pass's output relative to the renderer's viewport. Ignored for the last
+     * pass, which always draws to the window surface.
+     */
+    public void setOutputScale(float scale)
+    {
+        mOutputScale = scale;
+    }
+
+    /**
+     * @param format texture format of this pass's output, {@link GLES20#GL_RGBA} by default
+     */
+    public void setOutputFormat(int format)
+    {
+        mOutputFormat = format;
+    }
+
+    int getOutputWidth(int viewportWidth)
+    {
+        return Math.max(1, (int) (viewportWidth * mOutputScale));
+    }
+
+    int getOutputHeight(int viewportHeight)
+    {
+        return Math.max(1, (int) (viewportHeight * mOutputScale));
+    }
+
+    int getOutputFormat()
+    {
+        return mOutputFormat;
+    }
+
+    public GlProgram getProgram()
+    {
+        return mProgram;
+    }
+}
@@ -0,0 +1,115 @@
+package com.androidexperiments.shadercam.gl;
+
+import android.opengl.GLES20;
+
+/**
+ * Offscreen color target: a framebuffer object with a single 2D texture attached, which later
+ * passes can sample from.
+ * <p>
+ * Create, bind and release from the thread that owns the GL context.
+ */
+public class RenderTarget {
+    private final int mFramebufferId;
+    private final int mTextureId;
+    private final int mWidth;
+    private final int mHeight;
+    private final int mFormat;
+
+    private RenderTarget(int framebufferId, int textureId, int width, int height, int format) {
+        mFramebufferId = framebufferId;
+        mTextureId = textureId;
+        mWidth = width;
+        mHeight = height;
+        mFormat = format;
+    }
+
+    /**
+     * Creates a new framebuffer backed by a texture of the given size.
+     *
+     * @param format texture format, e.g. {@link GLES20#GL_RGBA} or {@link GLES20#GL_RGB}
+     */
+    public static RenderTarget create(int width, int height, int format) {
+        int[] ids = new int[1];
+
+        GLES20.glGenTextures(1, ids, 0);
+        int textureId = ids[0];
+        GlState.bindTexture(GLES20.GL_TEXTURE_2D, textureId);
+        GLES20.glTexImage2D(GLES20.GL_TEXTURE_2D, 0, format, width, height, 0,
+                format, GLES20.GL_UNSIGNED_BYTE, null);
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_LINEAR);
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_LINEAR);
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_S, GLES20.GL_CLAMP_TO_EDGE);
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_T, GLES20.GL_CLAMP_TO_EDGE);
+        GlUtil.checkGlError("RenderTarget texture");
+
+        GLES20.glGenFramebuffers(1, ids, 0);
+        int framebufferId = ids[0];
+        GlState.bindFramebuffer(GLES20.GL_FRAMEBUFFER, framebufferId);
+        GLES20.glFramebufferTexture2D(GLES20.GL_FRAMEBUFFER, GLES20.GL_COLOR_ATTACHMENT0,
+                GLES20.GL_TEXTURE_2D, textureId, 0);
+
+        int status = GLES20.glCheckFramebufferStatus(GLES20.GL_FRAMEBUFFER);
+        GlState.bindFramebuffer(GLES20.GL_FRAMEBUFFER, 0);
+        if (status != GLES20.GL_FRAMEBUFFER_COMPLETE) {
+            throw new RuntimeException("Framebuffer not complete, status 0x" + Integer.toHexString(status)
+                    + " for " + width + "x" + height);
+        }
+        GlUtil.checkGlError("RenderTarget framebuffer");
+
+        return new RenderTarget(framebufferId, textureId, width, height, format);
+    }
+
+    /**
+     * Directs rendering into this target and sets the viewport to cover all of it.
+     */
+    public void bind() {
+        GlState.bindFramebuffer(GLES20.GL_FRAMEBUFFER, mFramebufferId);
+        GlState.viewport(0, 0, mWidth, mHeight);
+    }
+
+    /**
+     * Switches rendering back to the window surface of the current EGL context.
+     */
+    public static void bindDefault() {
+        GlState.bindFramebuffer(GLES20.GL_FRAMEBUFFER, 0);
+    }
+
+    /**
+     * Deletes the framebuffer and its texture.
+     */
+    public void release() {
+        GLES20.glDeleteFramebuffers(1, new int[]{mFramebufferId}, 0);
+        GlState.onFramebufferDeleted(mFramebufferId);
+        GLES20.glDeleteTextures(1, new int[]{mTextureId}, 0);
+        GlState.onTextureDeleted(mTextureId);
+    }
+
+    public boolean matches(int width, int height, int format) {
+        return mWidth == width && mHeight == height && mFormat == format;
+    }
+
+    public int getFramebufferId() {
+        return mFramebufferId;
+    }
+
+    public int getTextureId() {
+        return mTextureId;
+    }
+
+    public int getWidth() {
+        return mWidth;
+    }
+
+    public int getHeight() {
+        return mHeight;
+    }
+
+    public int getFormat() {
+        return mFormat;
+    }
+
+    @Override
+    public String toString() {
+        return "[RenderTarget] fb: " + mFramebufferId + " tex: " + mTextureId + " " + mWidth + "x" + mHeight;
+    }
+}
@@ -0,0 +1,67 @@
+package com.androidexperiments.shadercam.gl;
+
+import android.util.Log;
+
+import java.util.ArrayList;
+
+/**
+ * Pool of {@link RenderTarget}s keyed by size and format.
+ * <p>
+ * Passes acquire a target for their output and release their input as soon as they're done
+ * sampling it, so a chain of same-sized passes ping-pongs between two textures no matter how
+ * long it is. Targets are only created when no free one matches, and are kept around across
+ * frames until {@link #releaseAll()}.
+ * <p>
+ * Not thread-safe, use from the GL thread only.
+ */
+public class RenderTargetPool {
+    private static final String TAG = RenderTargetPool.class.getSimpleName();
+
+    private final ArrayList<RenderTarget> mFree = new ArrayList<>();
+    private final ArrayList<RenderTarget> mAll = new ArrayList<>();
+
+    /**
+     * @return a free target of exactly this size and format, creating one if needed
+     */
+    public RenderTarget acquire(int width, int height, int format) {
+        for (int i = 0; i < mFree.size(); i++) {
+            RenderTarget target = mFree.get(i);
+            if (target.matches(width, height, format)) {
+                mFree.remove(i);
+                return target;
+            }
+        }
+
+        RenderTarget target = RenderTarget.create(width, height, format);
+        mAll.add(target);
+        Log.d(TAG, "created " + target + ", pool size: " + mAll.size());
+        return target;
+    }
+
+    /**
+     * Hands a target back so later passes (or frames) can reuse it.
+     */
+    public void release(RenderTarget target) {
+        if (target != null && !mFree.contains(target)) {
+            mFree.add(target);
+        }
+    }
+
+    /**
+     * Deletes every target this pool has created. Call before the GL context goes away.
+     */
+    public void releaseAll() {
+        for (int i = 0; i < mAll.size(); i++) {
+            mAll.get(i).release();
+        }
+        mAll.clear();
+        mFree.clear();
+    }
+
+    /**
+     * @return how many targets currently exist, free or in use
+     */
+    public int size() {
+        return mAll.size();
+    }
+}
@@ -0,0 +1,67 @@
+package com.androidexperiments.shadercam.gl;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Fixed-size ring of the most recent long samples, written by one thread and read by any number
+ * of others without locks.
+ * <p>
+ * The writer never allocates or waits. Readers copy out the newest samples; a reader racing the
+ * writer may see a slot that was just overwritten by a newer sample, which is fine for the
+ * timing stats this is meant for.
+ */
+public class SampleRing {
+    private final AtomicLongArray mSamples;
+    private final int mCapacity;
+
+    /**
+     * total samples ever written, the next write goes to {@code mCount % mCapacity}
+     */
+    private final AtomicLong mCount = new AtomicLong();
+
+    public SampleRing(int capacity) {
+        if (capacity <= 0)
+            throw new IllegalArgumentException("capacity must be positive, got " + capacity);
+
+        mCapacity = capacity;
+        mSamples = new AtomicLongArray(capacity);
+    }
+
+    /**
+     * Adds a sample, overwriting the oldest one once full. Single writer only.
+     */
+    public void add(long value) {
+        long count = mCount.get();
+        mSamples.lazySet((int) (count % mCapacity), value);
+        mCount.lazySet(count + 1);
+    }
+
+    /**
+     * Copies the newest samples, oldest first, into {@code dst}. Any thread.
+     *
+     * @param dst at least {@link #getCapacity()} long to get everything we hold
+     * @return number of samples copied
+     */
+    public int copyTo(long[] dst) {
+        long count = mCount.get();
+        int size = (int) Math.min(count, Math.min(mCapacity, dst.length));
+
+        long first = count - size;
+        for (int i = 0; i < size; i++) {
+            dst[i] = mSamples.get((int) ((first + i) % mCapacity));
+        }
+        return size;
+    }
+
+    /**
+     * @return samples written since creation, including the ones already overwritten
+     */
+    public long getCount() {
+        return mCount.get();
+    }
+
+    public int getCapacity() {
+        return mCapacity;
+    }
+}
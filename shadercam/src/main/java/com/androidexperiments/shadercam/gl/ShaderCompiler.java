@@ -0,0 +1,170 @@
+package com.androidexperiments.shadercam.gl;
+
+import android.content.Context;
+import android.opengl.EGLSurface;
+import android.opengl.GLES20;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.util.Log;
+
+import com.androidexperiments.shadercam.utils.ShaderUtils;
+
+import java.io.IOException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Compiles and links programs on a background thread, so a render thread can switch effects
+ * without stalling a frame.
+ * <p>
+ * The worker owns a second {@link EglCore} that shares objects with the render thread's context,
+ * made current on a tiny pbuffer. Finished programs are queued up, and only handed to their
+ * {@link OnProgramReadyListener} when the render thread calls {@link #deliverResults()}, so the
+ * swap happens between frames on the thread that draws with them.
+ */
+public class ShaderCompiler
+{
+    private static final String TAG = ShaderCompiler.class.getSimpleName();
+    private static final String THREAD_NAME = "ShaderCompileThread";
+
+    /**
+     * Called on the render thread from {@link #deliverResults()}.
+     */
+    public interface OnProgramReadyListener {
+        /**
+         * @param program linked program, usable on the render thread's context, or 0 if it failed
+         */
+        void onProgramReady(int program);
+    }
+
+    private final HandlerThread mThread;
+    private final Handler mHandler;
+
+    private final ConcurrentLinkedQueue<Result> mResults = new ConcurrentLinkedQueue<>();
+
+    private final ProgramCache mProgramCache;
+
+    /**
+     * worker thread only
+     */
+    private EglCore mEglCore;
+    private EGLSurface mSurface;
+
+    /**
+     * Starts the worker. Call from the render thread.
+     *
+     * @param sharedWith   the render thread's core, programs we link will be usable there
+     * @param programCache optional, so background compiles hit the disk cache too
+     */
+    public ShaderCompiler(final EglCore sharedWith, ProgramCache programCache) {
+        mProgramCache = programCache;
+
+        mThread = new HandlerThread(THREAD_NAME);
+        mThread.start();
+        mHandler = new Handler(mThread.getLooper());
+
+        final int flags = sharedWith.getGlVersion() >= 3 ? EglCore.FLAG_TRY_GLES3 : 0;
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                mEglCore = new EglCore(sharedWith.getContext(), flags);
+                mSurface = mEglCore.createOffscreenSurface(1, 1);
+                mEglCore.makeCurrent(mSurface);
+            }
+        });
+    }
+
+    /**
+     * Compiles and links these sources in the background. Any thread.
+     */
+    public void compile(final String vertexSource, final String fragmentSource, final OnProgramReadyListener listener) {
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                link(vertexSource, fragmentSource, listener);
+            }
+        });
+    }
+
+    /**
+     * Loads two shaders from the /assets/ folder and compiles them in the background, so not even
+     * the file reads happen on the calling thread. Any thread.
+     */
+    public void compileAssets(final Context context, final String fragPath, final String vertPath,
+                              final OnProgramReadyListener listener) {
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                String vertexSource;
+                String fragmentSource;
+                try {
+                    fragmentSource = ShaderUtils.getStringFromFileInAssets(context, fragPath);
+                    vertexSource = ShaderUtils.getStringFromFileInAssets(context, vertPath);
+                }
+                catch (IOException e) {
+                    Log.e(TAG, "could not load " + fragPath + ", " + vertPath + ": " + e.getMessage());
+                    mResults.offer(new Result(0, listener));
+                    return;
+                }
+
+                link(vertexSource, fragmentSource, listener);
+            }
+        });
+    }
+
+    private void link(String vertexSource, String fragmentSource, OnProgramReadyListener listener) {
+        long start = System.nanoTime();
+
+        int program = mProgramCache != null
+                ? mProgramCache.getProgram(vertexSource, fragmentSource)
+                : GlUtil.createProgram(vertexSource, fragmentSource);
+
+        //make sure the driver is completely done before another context starts using it
+        GLES20.glFinish();
+
+        Log.d(TAG, "program " + program + " ready in " + (System.nanoTime() - start) / 1000 + "us");
+        mResults.offer(new Result(program, listener));
+    }
+
+    /**
+     * Hands every finished program to its listener, in the order they were requested. Call from
+     * the render thread, between frames.
+     */
+    public void deliverResults() {
+        Result result;
+        while ((result = mResults.poll()) != null) {
+            result.listener.onProgramReady(result.program);
+        }
+    }
+
+    /**
+     * Stops the worker once pending compiles are done, and releases its context. Programs that
+     * were never delivered are deleted. Call from the render thread, before its context goes away.
+     */
+    public void release() {
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                Result result;
+                while ((result = mResults.poll()) != null) {
+                    if (result.program != 0)
+                        GLES20.glDeleteProgram(result.program);
+                }
+
+                mEglCore.makeNothingCurrent();
+                mEglCore.releaseSurface(mSurface);
+                mEglCore.release();
+            }
+        });
+        mThread.quitSafely();
+    }
+
+    private static class Result {
+        private final int program;
+        private final OnProgramReadyListener listener;
+
+        private Result(int program, OnProgramReadyListener listener) {
+            this.program = program;
+            this.listener = listener;
+        }
+    }
+}
@@ -0,0 +1,231 @@
+package com.androidexperiments.shadercam.gl;
+
+import android.opengl.GLES20;
+import android.opengl.GLES30;
+
+import java.util.Arrays;
+
+/**
+ * Indexed geometry that never changes, uploaded once into a vertex and an index buffer object so
+ * the driver doesn't have to copy client-side arrays on every draw.
+ * <p>
+ * Vertices are interleaved, with attributes laid out in the order they're added. On GLES3 the
+ * attribute setup is recorded into a vertex array object, so binding is a single call; it gets
+ * recorded again if the attribute locations change, e.g. when a different program is in use.
+ * <p>
+ * GL thread only.
+ */
+public class StaticGeometry
+{
+    private static final int FLOAT_SIZE = 4;
+    private static final int SHORT_SIZE = 2;
+
+    private final float[] mVertices;
+    private final short[] mIndices;
+    private final int mComponentsPerVertex;
+
+    private int[] mAttributeSizes = new int[0];
+    private int[] mAttributeOffsets = new int[0];
+
+    private int mVertexBufferId;
+    private int mIndexBufferId;
+
+    private boolean mUseVao = false;
+    private int mVaoId;
+
+    /**
+     * for generating and deleting {@link #mVaoId}, which happens again whenever the locations change
+     */
+    private final int[] mVaoIds = new int[1];
+
+    /**
+     * locations {@link #mVaoId} was recorded with, or the ones enabled by the last GLES2 bind.
+     * one per attribute, only valid while {@link #mHasBound}
+     */
+    private int[] mBoundLocations = new int[0];
+    private boolean mHasBound = false;
+
+    /**
+     * what {@link #bind(int, int)} was just asked for, kept around so binding never allocates
+     */
+    private int[] mRequestedLocations = new int[0];
+
+    /**
+     * @param vertices interleaved vertex data
+     * @param componentsPerVertex floats per vertex, all attributes together
+     */
+    public StaticGeometry(float[] vertices, int componentsPerVertex, short[] indices)
+    {
+        mVertices = vertices;
+        mComponentsPerVertex = componentsPerVertex;
+        mIndices = indices;
+    }
+
+    /**
+     * Describes the next attribute in each vertex. Call before {@link #setup(int)}.
+     *
+     * @param components floats in this attribute
+     */
+    public StaticGeometry addAttribute(int components)
+    {
+        int count = mAttributeSizes.length;
+        int offset = count == 0 ? 0 : mAttributeOffsets[count - 1] + mAttributeSizes[count - 1] * FLOAT_SIZE;
+
+        mAttributeSizes = Arrays.copyOf(mAttributeSizes, count + 1);
+        mAttributeOffsets = Arrays.copyOf(mAttributeOffsets, count + 1);
+        mAttributeSizes[count] = components;
+        mAttributeOffsets[count] = offset;
+
+        mBoundLocations = new int[count + 1];
+        mRequestedLocations = new int[count + 1];
+        return this;
+    }
+
+    /**
+     * Uploads the vertices and indices.
+     */
+    public void setup(int glVersion)
+    {
+        mUseVao = glVersion >= 3;
+
+        int[] ids = new int[2];
+        GLES20.glGenBuffers(2, ids, 0);
+        mVertexBufferId = ids[0];
+        mIndexBufferId = ids[1];
+
+        GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, mVertexBufferId);
+        GLES20.glBufferData(GLES20.GL_ARRAY_BUFFER, mVertices.length * FLOAT_SIZE,
+                GlUtil.createFloatBuffer(mVertices), GLES20.GL_STATIC_DRAW);
+        GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, 0);
+
+        GLES20.glBindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, mIndexBufferId);
+        GLES20.glBufferData(GLES20.GL_ELEMENT_ARRAY_BUFFER, mIndices.length * SHORT_SIZE,
+                GlUtil.createShortBuffer(mIndices), GLES20.GL_STATIC_DRAW);
+        GLES20.glBindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, 0);
+
+        GlUtil.checkGlError("StaticGeometry setup");
+    }
+
+    /**
+     * {@link #bind(int[])} for a single attribute
+     */
+    public void bind(int location)
+    {
+        if (mRequestedLocations.length > 0)
+            mRequestedLocations[0] = location;
+        bindRequested();
+    }
+
+    /**
+     * {@link #bind(int[])} for two attributes, e.g. position and texture coordinates, without
+     * allocating an array every frame
+     */
+    public void bind(int location0, int location1)
+    {
+        if (mRequestedLocations.length > 0)
+            mRequestedLocations[0] = location0;
+        if (mRequestedLocations.length > 1)
+            mRequestedLocations[1] = location1;
+        bindRequested();
+    }
+
+    /**
+     * Points the attributes at our buffers and binds our indices.
+     *
+     * @param locations one per attribute, in the order they were added. attributes at
+     *                  {@link GlProgram#INVALID_LOCATION} are skipped. reuse the array from frame
+     *                  to frame, it's copied
+     */
+    public void bind(int[] locations)
+    {
+        for (int i = 0; i < mRequestedLocations.length; i++)
+            mRequestedLocations[i] = i < locations.length ? locations[i] : GlProgram.INVALID_LOCATION;
+        bindRequested();
+    }
+
+    private void bindRequested()
+    {
+        boolean unchanged = mHasBound && Arrays.equals(mRequestedLocations, mBoundLocations);
+
+        if (mUseVao) {
+            if (mVaoId != 0 && unchanged) {
+                Gl.api().glBindVertexArray(mVaoId);
+                return;
+            }
+
+            //locations changed, record a fresh vao rather than undoing the old one's state
+            if (mVaoId != 0) {
+                mVaoIds[0] = mVaoId;
+                GLES30.glDeleteVertexArrays(1, mVaoIds, 0);
+            }
+
+            GLES30.glGenVertexArrays(1, mVaoIds, 0);
+            mVaoId = mVaoIds[0];
+            Gl.api().glBindVertexArray(mVaoId);
+        }
+
+        Gl.api().glBindBuffer(GLES20.GL_ARRAY_BUFFER, mVertexBufferId);
+        int stride = mComponentsPerVertex * FLOAT_SIZE;
+        for (int i = 0; i < mRequestedLocations.length; i++) {
+            if (mRequestedLocations[i] == GlProgram.INVALID_LOCATION)
+                continue;
+
+            Gl.api().glEnableVertexAttribArray(mRequestedLocations[i]);
+            Gl.api().glVertexAttribPointer(mRequestedLocations[i], mAttributeSizes[i], GLES20.GL_FLOAT, false, stride, mAttributeOffsets[i]);
+        }
+        //the pointers keep the buffer, unbind it so client-side arrays elsewhere keep working
+        Gl.api().glBindBuffer(GLES20.GL_ARRAY_BUFFER, 0);
+
+        Gl.api().glBindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, mIndexBufferId);
+
+        if (!unchanged) {
+            System.arraycopy(mRequestedLocations, 0, mBoundLocations, 0, mBoundLocations.length);
+            mHasBound = true;
+        }
+    }
+
+    /**
+     * Draws all our indices. Only between {@link #bind(int[])} and {@link #unbind()}.
+     */
+    public void draw(int mode)
+    {
+        Gl.api().glDrawElements(mode, mIndices.length, GLES20.GL_UNSIGNED_SHORT, 0);
+    }
+
+    /**
+     * Leaves the attribute and index state the way unbuffered drawing expects it.
+     */
+    public void unbind()
+    {
+        if (mUseVao) {
+            Gl.api().glBindVertexArray(0);
+            return;
+        }
+
+        if (mHasBound) {
+            for (int i = 0; i < mBoundLocations.length; i++) {
+                if (mBoundLocations[i] != GlProgram.INVALID_LOCATION)
+                    Gl.api().glDisableVertexAttribArray(mBoundLocations[i]);
+            }
+        }
+        Gl.api().glBindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, 0);
+    }
+
+    public void release()
+    {
+        if (mVaoId != 0) {
+            GLES30.glDeleteVertexArrays(1, new int[]{mVaoId}, 0);
+            mVaoId = 0;
+        }
+        if (mVertexBufferId != 0) {
+            GLES20.glDeleteBuffers(2, new int[]{mVertexBufferId, mIndexBufferId}, 0);
+            mVertexBufferId = mIndexBufferId = 0;
+        }
+        mHasBound = false;
+    }
+
+    public int getIndexCount()
+    {
+        return mIndices.length;
+    }
+}
@@ -0,0 +1,310 @@
+package com.androidexperiments.shadercam.gl;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Gets bitmaps into a {@link TextureManager} without stalling the render loop.
+ * <p>
+ * {@link #load(Request)} hands back a texture handle right away, showing a placeholder. The
+ * bitmap is decoded (and downsampled to the request's target size) on a small worker pool, and
+ * the finished decode is uploaded by {@link #uploadPending()}, which the renderer calls once per
+ * frame and which only uploads a few textures each time, so a burst of big overlays gets spread
+ * over several frames instead of dropping one.
+ * <p>
+ * Textures of the {@link TextureManager} that get evicted go through the same queue when they're
+ * needed again, see {@link TextureManager.Reloader}.
+ * <p>
+ * Everything but the decoding happens on the GL thread.
+ */
+public class TextureLoader {
+    private static final String TAG = TextureLoader.class.getSimpleName();
+    private static final String THREAD_NAME = "TextureDecodeThread";
+    private static final int DECODE_THREADS = 2;
+
+    /**
+     * Something to decode into a texture, and how. Also the {@link TextureManager.Loader} used
+     * to bring the texture back should it get evicted.
+     */
+    public static abstract class Request implements TextureManager.Loader {
+        private final String mKey;
+
+        private int mTargetWidth = 0;
+        private int mTargetHeight = 0;
+        private Bitmap.Config mConfig = Bitmap.Config.ARGB_8888;
+
+        protected Request(String key) {
+            mKey = key;
+        }
+
+        public static Request fromResource(final Context context, final int resourceId) {
+            return new Request("res:" + resourceId) {
+                @Override
+                protected InputStream open() throws IOException {
+                    return context.getResources().openRawResource(resourceId);
+                }
+            };
+        }
+
+        public static Request fromAsset(final Context context, final String fileName) {
+            return new Request("asset:" + fileName) {
+                @Override
+                protected InputStream open() throws IOException {
+                    return context.getAssets().open(fileName);
+                }
+            };
+        }
+
+        public static Request fromFile(final File file) {
+            return new Request("file:" + file.getAbsolutePath()) {
+                @Override
+                protected InputStream open() throws IOException {
+                    return new FileInputStream(file);
+                }
+            };
+        }
+
+        /**
+         * opens a fresh stream over the encoded image, called twice per decode
+         */
+        protected abstract InputStream open() throws IOException;
+
+        /**
+         * Decodes no larger than needed to fill this size, keeping the aspect ratio. Without a
+         * target size the image is decoded at full resolution.
+         */
+        public Request setTargetSize(int width, int height) {
+            mTargetWidth = width;
+            mTargetHeight = height;
+            return this;
+        }
+
+        /**
+         * @param config e.g. {@link Bitmap.Config#RGB_565} for opaque overlays at half the memory
+         */
+        public Request setConfig(Bitmap.Config config) {
+            mConfig = config;
+            return this;
+        }
+
+        public boolean hasTargetSize() {
+            return mTargetWidth > 0 && mTargetHeight > 0;
+        }
+
+        /**
+         * identifies the image, textures are shared between requests with the same key
+         */
+        public String getKey() {
+            return mKey + "@" + mTargetWidth + "x" + mTargetHeight + ":" + mConfig;
+        }
+
+        /**
+         * Decodes the image: reads the bounds first, then decodes with the largest power of two
+         * sample size that still covers the target size, then scales down the rest of the way.
+         *
+         * @return the bitmap, or null if it couldn't be decoded
+         */
+        @Override
+        public Bitmap load() {
+            BitmapFactory.Options options = new BitmapFactory.Options();
+            options.inPreferredConfig = mConfig;
+            options.inScaled = false;
+
+            try {
+                if (hasTargetSize()) {
+                    options.inJustDecodeBounds = true;
+                    decode(options);
+                    options.inJustDecodeBounds = false;
+                    options.inSampleSize = calculateSampleSize(options.outWidth, options.outHeight);
+                }
+
+                Bitmap bitmap = decode(options);
+                if (bitmap == null || !hasTargetSize())
+                    return bitmap;
+
+                return scaleDown(bitmap);
+            }
+            catch (IOException e) {
+                Log.e(TAG, "failed to decode " + mKey + ": " + e.getMessage());
+                return null;
+            }
+        }
+
+        private Bitmap decode(BitmapFactory.Options options) throws IOException {
+            InputStream in = open();
+            try {
+                return BitmapFactory.decodeStream(in, null, options);
+            }
+            finally {
+                in.close();
+            }
+        }
+
+        private int calculateSampleSize(int width, int height) {
+            int sampleSize = 1;
+            while (width / (sampleSize * 2) >= mTargetWidth && height / (sampleSize * 2) >= mTargetHeight)
+                sampleSize *= 2;
+            return sampleSize;
+        }
+
+        /**
+         * sampling only gets us within 2x of the target, so finish off with a filtered scale
+         */
+        private Bitmap scaleDown(Bitmap bitmap) {
+            float scale = Math.max((float) mTargetWidth / bitmap.getWidth(), (float) mTargetHeight / bitmap.getHeight());
+            if (scale >= 1.f)
+                return bitmap;
+
+            Bitmap scaled = Bitmap.createScaledBitmap(bitmap,
+                    Math.max(1, Math.round(bitmap.getWidth() * scale)),
+                    Math.max(1, Math.round(bitmap.getHeight() * scale)), true);
+            if (scaled != bitmap)
+                bitmap.recycle();
+            return scaled;
+        }
+
+        @Override
+        public String toString() {
+            return "[Request] " + getKey();
+        }
+    }
+
+    /**
+     * a finished decode waiting for the GL thread
+     */
+    private static class Decoded {
+        private final int handle;
+        private final TextureManager.Loader loader;
+        private final Bitmap bitmap;
+
+        private Decoded(int handle, TextureManager.Loader loader, Bitmap bitmap) {
+            this.handle = handle;
+            this.loader = loader;
+            this.bitmap = bitmap;
+        }
+    }
+
+    private final TextureManager mTextureManager;
+
+    private final ExecutorService mDecodeExecutor = Executors.newFixedThreadPool(DECODE_THREADS, new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, THREAD_NAME);
+            thread.setPriority(Thread.MIN_PRIORITY); //stay out of the way of the camera and render threads
+            return thread;
+        }
+    });
+
+    private final ConcurrentLinkedQueue<Decoded> mDecoded = new ConcurrentLinkedQueue<>();
+
+    private int mMaxUploadsPerFrame = 1;
+    private int mPlaceholderColor = 0x00000000;
+
+    public TextureLoader(TextureManager textureManager) {
+        mTextureManager = textureManager;
+        mTextureManager.setReloader(new TextureManager.Reloader() {
+            @Override
+            public void reload(int handle, TextureManager.Loader loader) {
+                decode(handle, loader);
+            }
+
+            @Override
+            public int getPlaceholderColor() {
+                return mPlaceholderColor;
+            }
+        });
+    }
+
+    /**
+     * Starts loading a texture in the background.
+     *
+     * @return handle of the texture, drawn as a placeholder until the upload is done
+     */
+    public int load(final Request request) {
+        String key = request.getKey();
+        int handle = mTextureManager.acquire(key);
+        if (handle != TextureManager.NO_TEXTURE)
+            return handle;
+
+        handle = mTextureManager.createPending(key, request, mPlaceholderColor);
+        decode(handle, request);
+        return handle;
+    }
+
+    private void decode(final int handle, final TextureManager.Loader loader) {
+        mDecodeExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                long start = System.nanoTime();
+                Bitmap bitmap = loader.load();
+                if (bitmap != null) {
+                    Log.d(TAG, "decoded " + loader + " " + bitmap.getWidth() + "x" + bitmap.getHeight()
+                            + " in " + (System.nanoTime() - start) / 1000000 + "ms");
+                }
+                mDecoded.offer(new Decoded(handle, loader, bitmap));
+            }
+        });
+    }
+
+    /**
+     * Uploads up to {@link #setMaxUploadsPerFrame(int)} finished decodes. GL thread, once a frame.
+     * Failed decodes and textures that went away in the meantime don't count towards that.
+     */
+    public void uploadPending() {
+        Decoded decoded;
+        int uploads = 0;
+        while (uploads < mMaxUploadsPerFrame && (decoded = mDecoded.poll()) != null) {
+            if (decoded.bitmap == null) {
+                Log.e(TAG, "keeping placeholder for " + decoded.loader);
+                mTextureManager.failPending(decoded.handle);
+                continue;
+            }
+
+            if (mTextureManager.finishPending(decoded.handle, decoded.bitmap))
+                uploads++;
+            else
+                Log.d(TAG, decoded.loader + " was released or replaced before it finished loading");
+
+            decoded.bitmap.recycle();
+        }
+    }
+
+    /**
+     * @param maxUploadsPerFrame how many textures {@link #uploadPending()} uploads at most, 1 by default
+     */
+    public void setMaxUploadsPerFrame(int maxUploadsPerFrame) {
+        mMaxUploadsPerFrame = Math.max(1, maxUploadsPerFrame);
+    }
+
+    /**
+     * @param color ARGB color textures show until they're loaded, transparent by default
+     */
+    public void setPlaceholderColor(int color) {
+        mPlaceholderColor = color;
+    }
+
+    /**
+     * Stops decoding and drops anything not uploaded yet.
+     */
+    public void release() {
+        mTextureManager.setReloader(null);
+        mDecodeExecutor.shutdownNow();
+
+        Decoded decoded;
+        while ((decoded = mDecoded.poll()) != null) {
+            if (decoded.bitmap != null)
+                decoded.bitmap.recycle();
+        }
+    }
+}
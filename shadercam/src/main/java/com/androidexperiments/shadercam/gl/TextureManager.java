@@ -0,0 +1,622 @@
+package com.androidexperiments.shadercam.gl;
+
+import android.graphics.Bitmap;
+import android.graphics.Rect;
+import android.opengl.GLES20;
+import android.opengl.GLES30;
+import android.opengl.GLUtils;
+import android.util.Log;
+
+import com.androidexperiments.shadercam.utils.DirectBufferPool;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+
+/**
+ * Owns the extra 2D textures of a {@link CameraRenderer}.
+ * <p>
+ * Textures are referred to by handles rather than GL names or texture units: GL textures are only
+ * generated when something is uploaded, and units are handed out at bind time, so there's no
+ * fixed limit on how many textures you can register - only on how many one program samples.
+ * <p>
+ * Every texture is refcounted. Once its last reference is released it's deleted, unless it was
+ * created with a key, in which case it stays cached for {@link #acquire(String)} until the memory
+ * budget needs the room. When the estimated size of everything resident goes over
+ * {@link #setBudget(long)}, the least recently bound textures are evicted first: unreferenced ones
+ * are deleted, referenced ones that have a {@link Loader} drop their GL texture and are loaded
+ * again the next time they're bound - in the background behind a placeholder if there's a
+ * {@link Reloader}. Referenced textures without a loader are never evicted.
+ * <p>
+ * Not thread-safe, use from the GL thread only.
+ */
+public class TextureManager {
+    private static final String TAG = TextureManager.class.getSimpleName();
+
+    /**
+     * never handed out, means "no texture"
+     */
+    public static final int NO_TEXTURE = 0;
+
+    public static final long DEFAULT_BUDGET_BYTES = 32 * 1024 * 1024;
+
+    /**
+     * Brings an evicted texture back, called the next time it's bound: on the GL thread, or by
+     * the {@link Reloader} if there is one.
+     */
+    public interface Loader {
+        /**
+         * @return the texture's pixels, recycled once uploaded. null if it can't be loaded
+         */
+        Bitmap load();
+    }
+
+    /**
+     * Loads evicted textures off the GL thread, see {@link TextureLoader}.
+     */
+    public interface Reloader {
+        /**
+         * Called from {@link #bind(int, int)} when an evicted texture is needed again. Should run
+         * the loader in the background and hand the result to {@link #finishPending(int, Bitmap)}
+         * or {@link #failPending(int)}; the texture shows a placeholder until then.
+         */
+        void reload(int handle, Loader loader);
+
+        /**
+         * @return ARGB color of the placeholder
+         */
+        int getPlaceholderColor();
+    }
+
+    private final HashMap<Integer, Entry> mEntries = new HashMap<>();
+    private final HashMap<String, Entry> mEntriesByKey = new HashMap<>();
+
+    private int mNextHandle = NO_TEXTURE + 1;
+
+    /**
+     * stamp of the last bind, see {@link Entry#lastBound}
+     */
+    private long mBindCount = 0;
+
+    private long mBudgetBytes = DEFAULT_BUDGET_BYTES;
+    private long mResidentBytes = 0;
+    private int mEvictionCount = 0;
+    private boolean mWarnedOverBudget = false;
+
+    private int mMaxTextureUnits = 8; //the least GLES2 guarantees for fragment shaders
+
+    private int mGlVersion = 2;
+
+    private Reloader mReloader;
+
+    /**
+     * staging for partial updates, see {@link #update(int, Bitmap, DirtyRegion)}
+     */
+    private final DirectBufferPool mUploadBuffers = new DirectBufferPool(1);
+    private final DirtyRegion mUploadRegion = new DirtyRegion();
+    private final DirtyRegion mBandRegion = new DirtyRegion();
+
+    /**
+     * Queries how many texture units fragment shaders get. Call once the context is current.
+     */
+    public void setup(int glVersion) {
+        mGlVersion = glVersion;
+
+        int[] units = new int[1];
+        GLES20.glGetIntegerv(GLES20.GL_MAX_TEXTURE_IMAGE_UNITS, units, 0);
+        if (units[0] > 0)
+            mMaxTextureUnits = units[0];
+
+        Log.d(TAG, "setup() texture units: " + mMaxTextureUnits + ", budget: " + mBudgetBytes + " bytes");
+    }
+
+    /**
+     * Uploads a bitmap into a new texture with one reference.
+     *
+     * @param recycle whether to recycle the bitmap once it's uploaded
+     * @return handle of the new texture
+     */
+    public int create(Bitmap bitmap, boolean recycle) {
+        return create(null, bitmap, recycle, null);
+    }
+
+    /**
+     * Creates a texture that's only uploaded when it's first bound, and can be evicted and
+     * loaded again even while it's referenced. If a texture with this key is already known,
+     * takes a reference to that one instead.
+     *
+     * @param key identifies what gets loaded, e.g. a resource or asset name
+     * @return handle of the texture
+     */
+    public int create(String key, Loader loader) {
+        int handle = acquire(key);
+        if (handle != NO_TEXTURE)
+            return handle;
+
+        return create(key, null, false, loader);
+    }
+
+    /**
+     * Like {@link #create(String, Loader)}, but puts a 1x1 placeholder in place right away for
+     * whoever loads the real pixels in the background, see {@link TextureLoader}. The texture
+     * isn't evicted until {@link #finishPending(int, Bitmap)} delivers them.
+     *
+     * @param placeholderColor ARGB color drawn until then
+     * @return handle of the texture
+     */
+    public int createPending(String key, Loader loader, int placeholderColor) {
+        int handle = acquire(key);
+        if (handle != NO_TEXTURE)
+            return handle;
+
+        handle = create(key, createPlaceholder(placeholderColor), true, loader);
+        mEntries.get(handle).pending = true;
+        return handle;
+    }
+
+    private static Bitmap createPlaceholder(int color) {
+        Bitmap placeholder = Bitmap.createBitmap(1, 1, Bitmap.Config.ARGB_8888);
+        placeholder.eraseColor(color);
+        return placeholder;
+    }
+
+    /**
+     * Swaps a pending texture's placeholder for its real pixels. Doesn't recycle the bitmap.
+     *
+     * @return false if the texture was released or updated in the meantime, nothing's uploaded then
+     */
+    public boolean finishPending(int handle, Bitmap bitmap) {
+        Entry entry = mEntries.get(handle);
+        if (entry == null || !entry.pending)
+            return false;
+
+        entry.pending = false;
+        upload(entry, bitmap);
+        trim(entry);
+        return true;
+    }
+
+    /**
+     * For when a pending texture's pixels couldn't be loaded: it keeps the placeholder, but can
+     * be evicted again, and is retried if it's bound after that.
+     */
+    public void failPending(int handle) {
+        Entry entry = mEntries.get(handle);
+        if (entry != null)
+            entry.pending = false;
+    }
+
+    /**
+     * @param reloader loads evicted textures in the background, null to load them on the GL thread
+     *                 as they're bound
+     */
+    public void setReloader(Reloader reloader) {
+        mReloader = reloader;
+    }
+
+    private int create(String key, Bitmap bitmap, boolean recycle, Loader loader) {
+        Entry entry = new Entry(mNextHandle++, key, loader);
+        mEntries.put(entry.handle, entry);
+        if (key != null)
+            mEntriesByKey.put(key, entry);
+
+        if (bitmap != null) {
+            upload(entry, bitmap);
+            if (recycle)
+                bitmap.recycle();
+        }
+
+        entry.lastBound = ++mBindCount;
+        trim(entry);
+        return entry.handle;
+    }
+
+    /**
+     * Takes another reference to a texture created with a key.
+     *
+     * @return its handle, or {@link #NO_TEXTURE} if nothing with that key is around
+     */
+    public int acquire(String key) {
+        Entry entry = key != null ? mEntriesByKey.get(key) : null;
+        if (entry == null)
+            return NO_TEXTURE;
+
+        entry.refCount++;
+        return entry.handle;
+    }
+
+    /**
+     * Drops a reference. The handle shouldn't be used after its last reference is gone.
+     */
+    public void release(int handle) {
+        Entry entry = mEntries.get(handle);
+        if (entry == null || entry.refCount == 0)
+            return;
+
+        entry.refCount--;
+        if (entry.refCount == 0 && entry.key == null)
+            delete(entry);
+        else
+            trim(null); //unreferenced now, so it can go if we're over budget
+    }
+
+    /**
+     * Replaces the pixels of a texture, in place if the size matches. The texture's loader
+     * (if any) is dropped since it would bring the old pixels back, so it won't be evicted
+     * while referenced anymore.
+     */
+    public void update(int handle, Bitmap bitmap) {
+        update(handle, bitmap, null);
+    }
+
+    /**
+     * Uploads only the parts of the bitmap that changed. The bitmap has to hold the texture's
+     * complete new contents, and is staged through a pooled direct buffer so only the dirty
+     * rects go over to the GPU: as-is on GLES3, widened to full rows on GLES2 which can't
+     * upload from the middle of a row. Anything that isn't an ARGB_8888 bitmap of the same
+     * size as the texture is uploaded whole.
+     *
+     * @param dirty what changed, null for everything. clipped to the bitmap
+     */
+    public void update(int handle, Bitmap bitmap, DirtyRegion dirty) {
+        Entry entry = mEntries.get(handle);
+        if (entry == null)
+            throw new IllegalArgumentException("unknown texture handle " + handle);
+
+        entry.loader = null;
+        entry.pending = false;
+
+        int width = bitmap.getWidth();
+        int height = bitmap.getHeight();
+        boolean resident = entry.textureId != 0 && (!entry.doubleBuffered || entry.backTextureId != 0);
+
+        if (!resident || entry.width != width || entry.height != height) {
+            upload(entry, bitmap);
+            trim(entry);
+            return;
+        }
+
+        //everything the texture we're about to write is missing
+        mUploadRegion.clear();
+        if (dirty == null || bitmap.getConfig() != Bitmap.Config.ARGB_8888)
+            mUploadRegion.add(0, 0, width, height);
+        else
+            mUploadRegion.add(dirty);
+        mUploadRegion.clip(width, height);
+
+        if (!entry.doubleBuffered) {
+            uploadRegion(entry.textureId, bitmap, mUploadRegion);
+            return;
+        }
+
+        //write the one we're not sampling from, then flip. it also missed the previous update
+        mUploadRegion.add(entry.backStale);
+        uploadRegion(entry.backTextureId, bitmap, mUploadRegion);
+
+        int front = entry.textureId;
+        entry.textureId = entry.backTextureId;
+        entry.backTextureId = front;
+
+        entry.backStale.clear();
+        if (dirty == null)
+            entry.backStale.add(0, 0, width, height);
+        else
+            entry.backStale.add(dirty);
+        entry.backStale.clip(width, height);
+    }
+
+    /**
+     * Double-buffered textures keep a second GL texture (and twice the memory) so updates never
+     * write into the one the GPU may still be sampling from for the last frame, which would
+     * otherwise make the upload wait on it. Takes effect on the next update.
+     */
+    public void setDoubleBuffered(int handle, boolean doubleBuffered) {
+        Entry entry = mEntries.get(handle);
+        if (entry == null || entry.doubleBuffered == doubleBuffered)
+            return;
+
+        entry.doubleBuffered = doubleBuffered;
+        if (!doubleBuffered && entry.backTextureId != 0) {
+            GLES20.glDeleteTextures(1, new int[]{entry.backTextureId}, 0);
+            GlState.onTextureDeleted(entry.backTextureId);
+            entry.backTextureId = 0;
+            entry.backStale.clear();
+
+            mResidentBytes -= entry.bytes / 2;
+            entry.bytes -= entry.bytes / 2;
+        }
+    }
+
+    private void uploadRegion(int textureId, Bitmap bitmap, DirtyRegion region) {
+        if (region.isEmpty())
+            return;
+
+        int rowBytes = bitmap.getRowBytes();
+        boolean rowLength = mGlVersion >= 3;
+
+        if (bitmap.getConfig() != Bitmap.Config.ARGB_8888 || (!rowLength && rowBytes != bitmap.getWidth() * 4)) {
+            //not plain RGBA, or padded rows we can't express on GLES2
+            GlState.bindTexture(GLES20.GL_TEXTURE_2D, textureId);
+            GLUtils.texSubImage2D(GLES20.GL_TEXTURE_2D, 0, 0, 0, bitmap);
+            Gl.api().checkError("TextureManager update");
+            return;
+        }
+
+        ByteBuffer pixels = mUploadBuffers.acquire(rowBytes * bitmap.getHeight());
+        bitmap.copyPixelsToBuffer(pixels);
+
+        GlState.bindTexture(GLES20.GL_TEXTURE_2D, textureId);
+        if (rowLength) {
+            Gl.api().glPixelStorei(GLES30.GL_UNPACK_ROW_LENGTH, rowBytes / 4);
+        }
+        else {
+            //whole rows are contiguous in the buffer, so upload bands that span the width
+            DirtyRegion bands = mBandRegion;
+            bands.clear();
+            for (int i = 0; i < region.getRectCount(); i++)
+                bands.add(0, region.getRect(i).top, bitmap.getWidth(), region.getRect(i).bottom);
+            region = bands;
+        }
+
+        for (int i = 0; i < region.getRectCount(); i++) {
+            Rect rect = region.getRect(i);
+            pixels.position(rect.top * rowBytes + rect.left * 4);
+            Gl.api().glTexSubImage2D(GLES20.GL_TEXTURE_2D, 0, rect.left, rect.top, rect.width(), rect.height(),
+                    GLES20.GL_RGBA, GLES20.GL_UNSIGNED_BYTE, pixels);
+        }
+
+        if (rowLength)
+            Gl.api().glPixelStorei(GLES30.GL_UNPACK_ROW_LENGTH, 0);
+        Gl.api().checkError("TextureManager uploadRegion");
+
+        mUploadBuffers.release(pixels);
+    }
+
+    /**
+     * Binds a texture to {@code GL_TEXTURE0 + unit}, loading it first if it was evicted, or
+     * binding a placeholder and handing it to the {@link Reloader} if we have one.
+     *
+     * @return the GL texture name, 0 if the texture isn't available
+     */
+    public int bind(int handle, int unit) {
+        Entry entry = mEntries.get(handle);
+        if (entry == null)
+            return 0;
+
+        entry.lastBound = ++mBindCount;
+
+        if (entry.textureId == 0) {
+            if (entry.loader == null)
+                return 0;
+
+            if (mReloader != null) {
+                //a decode can take longer than a frame, so draw the placeholder while it runs
+                Bitmap placeholder = createPlaceholder(mReloader.getPlaceholderColor());
+                upload(entry, placeholder);
+                placeholder.recycle();
+                entry.pending = true;
+
+                mReloader.reload(handle, entry.loader);
+            }
+            else {
+                Bitmap bitmap = entry.loader.load();
+                if (bitmap == null) {
+                    Log.e(TAG, "failed to load " + entry);
+                    return 0;
+                }
+                upload(entry, bitmap);
+                bitmap.recycle();
+                trim(entry);
+            }
+        }
+
+        GlState.bindTexture(unit, GLES20.GL_TEXTURE_2D, entry.textureId);
+        return entry.textureId;
+    }
+
+    /**
+     * Deletes every texture, referenced or not. Call before the GL context goes away.
+     */
+    public void releaseAll() {
+        for (Entry entry : mEntries.values())
+            deleteTexture(entry);
+
+        mEntries.clear();
+        mEntriesByKey.clear();
+        mResidentBytes = 0;
+        mUploadBuffers.clear();
+    }
+
+    /**
+     * (re)specifies the whole texture, and its back buffer if it has one
+     */
+    private void upload(Entry entry, Bitmap bitmap) {
+        entry.textureId = specify(entry.textureId, bitmap);
+        if (entry.doubleBuffered)
+            entry.backTextureId = specify(entry.backTextureId, bitmap);
+        entry.backStale.clear();
+
+        mResidentBytes -= entry.bytes;
+        entry.width = bitmap.getWidth();
+        entry.height = bitmap.getHeight();
+        entry.bytes = estimateBytes(bitmap) * (entry.doubleBuffered ? 2 : 1);
+        mResidentBytes += entry.bytes;
+    }
+
+    private static int specify(int textureId, Bitmap bitmap) {
+        if (textureId == 0) {
+            int[] ids = new int[1];
+            GLES20.glGenTextures(1, ids, 0);
+            textureId = ids[0];
+        }
+
+        GlState.bindTexture(GLES20.GL_TEXTURE_2D, textureId);
+        GLES20.glTexParameterf(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_NEAREST);
+        GLES20.glTexParameterf(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_NEAREST);
+        GLUtils.texImage2D(GLES20.GL_TEXTURE_2D, 0, bitmap, 0);
+        GlUtil.checkGlError("TextureManager upload");
+
+        return textureId;
+    }
+
+    /**
+     * texImage2D keeps 565 and alpha-only bitmaps at 2 and 1 bytes per pixel, everything else at 4
+     */
+    private static long estimateBytes(Bitmap bitmap) {
+        int bytesPerPixel = 4;
+        Bitmap.Config config = bitmap.getConfig();
+        if (config == Bitmap.Config.RGB_565 || config == Bitmap.Config.ARGB_4444)
+            bytesPerPixel = 2;
+        else if (config == Bitmap.Config.ALPHA_8)
+            bytesPerPixel = 1;
+
+        return (long) bitmap.getWidth() * bitmap.getHeight() * bytesPerPixel;
+    }
+
+    /**
+     * evicts least recently bound textures until we're within budget
+     *
+     * @param keep texture that's in use right now and shouldn't be evicted, can be null
+     */
+    private void trim(Entry keep) {
+        if (mResidentBytes <= mBudgetBytes)
+            return;
+
+        ArrayList<Entry> candidates = new ArrayList<>();
+        for (Entry entry : mEntries.values()) {
+            if (entry != keep && entry.textureId != 0 && !entry.pending && (entry.refCount == 0 || entry.loader != null))
+                candidates.add(entry);
+        }
+        Collections.sort(candidates, new Comparator<Entry>() {
+            @Override
+            public int compare(Entry a, Entry b) {
+                return a.lastBound < b.lastBound ? -1 : (a.lastBound == b.lastBound ? 0 : 1);
+            }
+        });
+
+        for (int i = 0; i < candidates.size() && mResidentBytes > mBudgetBytes; i++) {
+            Entry entry = candidates.get(i);
+            Log.d(TAG, "evicting " + entry);
+
+            if (entry.refCount == 0)
+                delete(entry);
+            else
+                deleteTexture(entry);
+
+            mEvictionCount++;
+        }
+
+        if (mResidentBytes > mBudgetBytes && !mWarnedOverBudget) {
+            mWarnedOverBudget = true;
+            Log.w(TAG, "over budget with nothing left to evict: " + this);
+        }
+    }
+
+    private void delete(Entry entry) {
+        deleteTexture(entry);
+        mEntries.remove(entry.handle);
+        if (entry.key != null)
+            mEntriesByKey.remove(entry.key);
+    }
+
+    private void deleteTexture(Entry entry) {
+        if (entry.textureId != 0) {
+            GLES20.glDeleteTextures(1, new int[]{entry.textureId}, 0);
+            GlState.onTextureDeleted(entry.textureId);
+            entry.textureId = 0;
+        }
+        if (entry.backTextureId != 0) {
+            GLES20.glDeleteTextures(1, new int[]{entry.backTextureId}, 0);
+            GlState.onTextureDeleted(entry.backTextureId);
+            entry.backTextureId = 0;
+        }
+        entry.backStale.clear();
+        mResidentBytes -= entry.bytes;
+        entry.bytes = 0;
+    }
+
+    /**
+     * @param budgetBytes estimated texture memory we try to stay under
+     */
+    public void setBudget(long budgetBytes) {
+        mBudgetBytes = budgetBytes;
+        mWarnedOverBudget = false;
+        trim(null);
+    }
+
+    public long getBudget() {
+        return mBudgetBytes;
+    }
+
+    public long getResidentBytes() {
+        return mResidentBytes;
+    }
+
+    /**
+     * @return how many textures exist, resident or not
+     */
+    public int size() {
+        return mEntries.size();
+    }
+
+    public int getEvictionCount() {
+        return mEvictionCount;
+    }
+
+    /**
+     * @return how many units a fragment shader can sample from, unit 0 included
+     */
+    public int getMaxTextureUnits() {
+        return mMaxTextureUnits;
+    }
+
+    @Override
+    public String toString() {
+        return "[TextureManager] textures: " + mEntries.size() + ", resident: " + mResidentBytes
+                + "/" + mBudgetBytes + " bytes, evictions: " + mEvictionCount;
+    }
+
+    private static class Entry {
+        private final int handle;
+        private final String key;
+        private Loader loader;
+
+        private int textureId;
+        private int width;
+        private int height;
+        private long bytes;
+
+        private int refCount = 1;
+        private long lastBound;
+
+        /**
+         * showing a placeholder while the real pixels load
+         */
+        private boolean pending;
+
+        /**
+         * see {@link #setDoubleBuffered(int, boolean)}. {@link #textureId} is the one we sample
+         */
+        private boolean doubleBuffered;
+        private int backTextureId;
+
+        /**
+         * what {@link #backTextureId} is missing compared to the front
+         */
+        private final DirtyRegion backStale = new DirtyRegion();
+
+        private Entry(int handle, String key, Loader loader) {
+            this.handle = handle;
+            this.key = key;
+            this.loader = loader;
+        }
+
+        @Override
+        public String toString() {
+            return "[Texture] handle: " + handle + (key != null ? " " + key : "") + " id: " + textureId
+                    + " " + width + "x" + height + ", refs: " + refCount;
+        }
+    }
+}
@@ -0,0 +1,740 @@
+package com.androidexperiments.shadercam.gl;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.Buffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Wraps another {@link GlApi}, counting every call that goes through it per frame and in total,
+ * and recording the command stream of the frames you ask for: the next few with
+ * {@link #captureFrames(int)}, or any that take longer than
+ * {@link #setSlowFrameThresholdNs(long)}. The captured frames end up in a
+ * {@link GlFrameCapture}, see {@link #writeCapture(File)}.
+ * <p>
+ * Also decides what {@link #checkError(String)} does, see {@link #setErrorPolicy(int)}, so the
+ * glGetError calls in hot paths can be turned off, or turned up to every single call.
+ * <p>
+ * Install on the render thread with {@link CameraRenderer#setGlApi(GlApi)}. The settings and
+ * results can be used from any thread.
+ */
+public class TracingGlApi implements GlApi
+{
+    private static final String TAG = TracingGlApi.class.getSimpleName();
+
+    /**
+     * never call glGetError, {@link #checkError(String)} does nothing
+     */
+    public static final int ERRORS_NEVER = 0;
+
+    /**
+     * drain glGetError once at the end of each frame and log whatever turned up. the default
+     */
+    public static final int ERRORS_PER_FRAME = 1;
+
+    /**
+     * glGetError after every call, throwing on the first error like
+     * {@link GlUtil#checkGlError(String)}. slow, for finding the call that causes one
+     */
+    public static final int ERRORS_PER_CALL = 2;
+
+    /**
+     * GL keeps a flag per error type, no point draining more than this
+     */
+    private static final int MAX_ERRORS_PER_FRAME = 8;
+
+    private static final int GL_NO_ERROR = 0;
+
+    /**
+     * What one frame cost in calls.
+     */
+    public static class FrameStats
+    {
+        public final long frameNumber;
+        public final long durationNs;
+        public final int calls;
+        public final int drawCalls;
+
+        /**
+         * binds, enables, pointers and uniforms
+         */
+        public final int stateChanges;
+        public final int errors;
+
+        FrameStats(long frameNumber, long durationNs, int calls, int drawCalls, int stateChanges, int errors)
+        {
+            this.frameNumber = frameNumber;
+            this.durationNs = durationNs;
+            this.calls = calls;
+            this.drawCalls = drawCalls;
+            this.stateChanges = stateChanges;
+            this.errors = errors;
+        }
+
+        @Override
+        public String toString()
+        {
+            return "frame " + frameNumber + ": " + durationNs / 1000 + "us, " + calls + " calls, "
+                    + drawCalls + " draws, " + stateChanges + " state changes, " + errors + " errors";
+        }
+    }
+
+    private final GlApi mDelegate;
+
+    /**
+     * this frame's commands, only written while {@link #mRecording}
+     */
+    private final RecordingGlApi mCommands = new RecordingGlApi();
+
+    private volatile int mErrorPolicy = ERRORS_PER_FRAME;
+    private volatile long mSlowFrameNs = 0;
+
+    //render thread only
+    private final int[] mFrameCalls = new int[RecordingGlApi.OP_COUNT];
+    private boolean mRecording = false;
+    private long mFrameNumber;
+    private long mFrameStartNs;
+    private int mFrameErrors;
+
+    //guarded by this
+    private final long[] mTotalCalls = new long[RecordingGlApi.OP_COUNT];
+    private long mTotalFrames = 0;
+    private long mTotalErrors = 0;
+    private FrameStats mLastFrame;
+    private int mFramesToCapture = 0;
+    private int mMaxCapturedFrames = 8;
+    private final ArrayList<GlFrameCapture.Frame> mCaptured = new ArrayList<>();
+
+    public TracingGlApi(GlApi delegate)
+    {
+        mDelegate = delegate;
+    }
+
+    public GlApi getDelegate()
+    {
+        return mDelegate;
+    }
+
+    /**
+     * @param policy {@link #ERRORS_NEVER}, {@link #ERRORS_PER_FRAME} or {@link #ERRORS_PER_CALL}
+     */
+    public void setErrorPolicy(int policy)
+    {
+        mErrorPolicy = policy;
+    }
+
+    public int getErrorPolicy()
+    {
+        return mErrorPolicy;
+    }
+
+    /**
+     * Records the command stream of the next {@code count} frames into the capture.
+     */
+    public synchronized void captureFrames(int count)
+    {
+        mFramesToCapture += count;
+    }
+
+    /**
+     * Records every frame, keeping the ones that took at least this long from
+     * {@link #beginFrame(long)} to {@link #endFrame()}. Recording isn't free, the threshold
+     * should be generous.
+     *
+     * @param thresholdNs 0 turns it off, the default
+     */
+    public void setSlowFrameThresholdNs(long thresholdNs)
+    {
+        mSlowFrameNs = thresholdNs;
+    }
+
+    /**
+     * @param max frames the capture holds before the oldest ones get dropped, 8 by default
+     */
+    public synchronized void setMaxCapturedFrames(int max)
+    {
+        mMaxCapturedFrames = Math.max(1, max);
+        trimCapture();
+    }
+
+    /**
+     * @return the frames captured so far
+     */
+    public synchronized GlFrameCapture getCapture()
+    {
+        return new GlFrameCapture(mCaptured);
+    }
+
+    public synchronized void clearCapture()
+    {
+        mCaptured.clear();
+    }
+
+    public void writeCapture(File file) throws IOException
+    {
+        getCapture().write(file);
+    }
+
+    /**
+     * @return null before the first frame ends
+     */
+    public synchronized FrameStats getLastFrameStats()
+    {
+        return mLastFrame;
+    }
+
+    /**
+     * @param op one of the {@link RecordingGlApi} OP_ constants
+     */
+    public synchronized long getTotalCallCount(int op)
+    {
+        return op > 0 && op < RecordingGlApi.OP_COUNT ? mTotalCalls[op] : 0;
+    }
+
+    public synchronized long getFrameCount()
+    {
+        return mTotalFrames;
+    }
+
+    public synchronized void resetCounters()
+    {
+        Arrays.fill(mTotalCalls, 0);
+        mTotalFrames = 0;
+        mTotalErrors = 0;
+    }
+
+    /**
+     * Writes the average calls per frame, most frequent first, to the log.
+     */
+    public synchronized void logStats()
+    {
+        if (mTotalFrames == 0)
+            return;
+
+        Log.i(TAG, mTotalFrames + " frames, " + mTotalErrors + " gl errors, last " + mLastFrame);
+
+        Integer[] ops = new Integer[RecordingGlApi.OP_COUNT];
+        for (int op = 0; op < ops.length; op++)
+            ops[op] = op;
+        Arrays.sort(ops, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return Long.compare(mTotalCalls[b], mTotalCalls[a]);
+            }
+        });
+
+        for (int op : ops) {
+            if (mTotalCalls[op] == 0)
+                break;
+            Log.i(TAG, String.format("%-28s %8.1f/frame", RecordingGlApi.getOpName(op), (double) mTotalCalls[op] / mTotalFrames));
+        }
+    }
+
+    @Override
+    public void beginFrame(long frameNumber)
+    {
+        //calls made between frames count towards the totals but not towards a frame
+        addToTotals();
+
+        mFrameNumber = frameNumber;
+        mFrameErrors = 0;
+
+        synchronized (this) {
+            mRecording = mFramesToCapture > 0 || mSlowFrameNs > 0;
+        }
+        mCommands.clear();
+        if (mRecording)
+            mCommands.beginFrame(frameNumber);
+
+        mDelegate.beginFrame(frameNumber);
+        mFrameStartNs = System.nanoTime();
+    }
+
+    @Override
+    public void endFrame()
+    {
+        mDelegate.endFrame();
+
+        if (mErrorPolicy == ERRORS_PER_FRAME) {
+            for (int i = 0; i < MAX_ERRORS_PER_FRAME; i++) {
+                int error = mDelegate.glGetError();
+                if (error == GL_NO_ERROR)
+                    break;
+                mFrameErrors++;
+                Log.e(TAG, "frame " + mFrameNumber + ": glError 0x" + Integer.toHexString(error));
+            }
+        }
+
+        long durationNs = System.nanoTime() - mFrameStartNs;
+
+        int calls = 0;
+        int drawCalls = 0;
+        int stateChanges = 0;
+        for (int op = 1; op < RecordingGlApi.OP_COUNT; op++) {
+            calls += mFrameCalls[op];
+            if (RecordingGlApi.isDrawCall(op))
+                drawCalls += mFrameCalls[op];
+            else if (RecordingGlApi.isStateChange(op) || RecordingGlApi.isUniform(op))
+                stateChanges += mFrameCalls[op];
+        }
+        FrameStats stats = new FrameStats(mFrameNumber, durationNs, calls, drawCalls, stateChanges, mFrameErrors);
+
+        synchronized (this) {
+            mTotalFrames++;
+            mTotalErrors += mFrameErrors;
+            mLastFrame = stats;
+
+            boolean requested = mFramesToCapture > 0;
+            boolean slow = mSlowFrameNs > 0 && durationNs >= mSlowFrameNs;
+            if (mRecording && (requested || slow)) {
+                if (requested)
+                    mFramesToCapture--;
+                mCaptured.add(new GlFrameCapture.Frame(mFrameNumber, durationNs, mCommands.copy()));
+                trimCapture();
+            }
+        }
+        addToTotals();
+        mRecording = false;
+    }
+
+    @Override
+    public void checkError(String op)
+    {
+        //the other policies deal with errors where they're set up to
+        if (mErrorPolicy == ERRORS_PER_CALL)
+            mDelegate.checkError(op);
+    }
+
+    @Override
+    public void glUseProgram(int program)
+    {
+        if (trace(RecordingGlApi.OP_USE_PROGRAM))
+            mCommands.glUseProgram(program);
+        mDelegate.glUseProgram(program);
+        afterCall(RecordingGlApi.OP_USE_PROGRAM);
+    }
+
+    @Override
+    public void glActiveTexture(int texture)
+    {
+        if (trace(RecordingGlApi.OP_ACTIVE_TEXTURE))
+            mCommands.glActiveTexture(texture);
+        mDelegate.glActiveTexture(texture);
+        afterCall(RecordingGlApi.OP_ACTIVE_TEXTURE);
+    }
+
+    @Override
+    public void glBindTexture(int target, int texture)
+    {
+        if (trace(RecordingGlApi.OP_BIND_TEXTURE))
+            mCommands.glBindTexture(target, texture);
+        mDelegate.glBindTexture(target, texture);
+        afterCall(RecordingGlApi.OP_BIND_TEXTURE);
+    }
+
+    @Override
+    public void glBindFramebuffer(int target, int framebuffer)
+    {
+        if (trace(RecordingGlApi.OP_BIND_FRAMEBUFFER))
+            mCommands.glBindFramebuffer(target, framebuffer);
+        mDelegate.glBindFramebuffer(target, framebuffer);
+        afterCall(RecordingGlApi.OP_BIND_FRAMEBUFFER);
+    }
+
+    @Override
+    public void glViewport(int x, int y, int width, int height)
+    {
+        if (trace(RecordingGlApi.OP_VIEWPORT))
+            mCommands.glViewport(x, y, width, height);
+        mDelegate.glViewport(x, y, width, height);
+        afterCall(RecordingGlApi.OP_VIEWPORT);
+    }
+
+    @Override
+    public void glScissor(int x, int y, int width, int height)
+    {
+        if (trace(RecordingGlApi.OP_SCISSOR))
+            mCommands.glScissor(x, y, width, height);
+        mDelegate.glScissor(x, y, width, height);
+        afterCall(RecordingGlApi.OP_SCISSOR);
+    }
+
+    @Override
+    public void glEnable(int cap)
+    {
+        if (trace(RecordingGlApi.OP_ENABLE))
+            mCommands.glEnable(cap);
+        mDelegate.glEnable(cap);
+        afterCall(RecordingGlApi.OP_ENABLE);
+    }
+
+    @Override
+    public void glDisable(int cap)
+    {
+        if (trace(RecordingGlApi.OP_DISABLE))
+            mCommands.glDisable(cap);
+        mDelegate.glDisable(cap);
+        afterCall(RecordingGlApi.OP_DISABLE);
+    }
+
+    @Override
+    public void glBlendFunc(int sfactor, int dfactor)
+    {
+        if (trace(RecordingGlApi.OP_BLEND_FUNC))
+            mCommands.glBlendFunc(sfactor, dfactor);
+        mDelegate.glBlendFunc(sfactor, dfactor);
+        afterCall(RecordingGlApi.OP_BLEND_FUNC);
+    }
+
+    @Override
+    public void glClearColor(float red, float green, float blue, float alpha)
+    {
+        if (trace(RecordingGlApi.OP_CLEAR_COLOR))
+            mCommands.glClearColor(red, green, blue, alpha);
+        mDelegate.glClearColor(red, green, blue, alpha);
+        afterCall(RecordingGlApi.OP_CLEAR_COLOR);
+    }
+
+    @Override
+    public void glUniform1i(int location, int x)
+    {
+        if (trace(RecordingGlApi.OP_UNIFORM_1I))
+            mCommands.glUniform1i(location, x);
+        mDelegate.glUniform1i(location, x);
+        afterCall(RecordingGlApi.OP_UNIFORM_1I);
+    }
+
+    @Override
+    public void glUniform1f(int location, float x)
+    {
+        if (trace(RecordingGlApi.OP_UNIFORM_1F))
+            mCommands.glUniform1f(location, x);
+        mDelegate.glUniform1f(location, x);
+        afterCall(RecordingGlApi.OP_UNIFORM_1F);
+    }
+
+    @Override
+    public void glUniform2f(int location, float x, float y)
+    {
+        if (trace(RecordingGlApi.OP_UNIFORM_2F))
+            mCommands.glUniform2f(location, x, y);
+        mDelegate.glUniform2f(location, x, y);
+        afterCall(RecordingGlApi.OP_UNIFORM_2F);
+    }
+
+    @Override
+    public void glUniform3f(int location, float x, float y, float z)
+    {
+        if (trace(RecordingGlApi.OP_UNIFORM_3F))
+            mCommands.glUniform3f(location, x, y, z);
+        mDelegate.glUniform3f(location, x, y, z);
+        afterCall(RecordingGlApi.OP_UNIFORM_3F);
+    }
+
+    @Override
+    public void glUniform4f(int location, float x, float y, float z, float w)
+    {
+        if (trace(RecordingGlApi.OP_UNIFORM_4F))
+            mCommands.glUniform4f(location, x, y, z, w);
+        mDelegate.glUniform4f(location, x, y, z, w);
+        afterCall(RecordingGlApi.OP_UNIFORM_4F);
+    }
+
+    @Override
+    public void glUniformMatrix4fv(int location, int count, boolean transpose, float[] value, int offset)
+    {
+        if (trace(RecordingGlApi.OP_UNIFORM_MATRIX_4FV))
+            mCommands.glUniformMatrix4fv(location, count, transpose, value, offset);
+        mDelegate.glUniformMatrix4fv(location, count, transpose, value, offset);
+        afterCall(RecordingGlApi.OP_UNIFORM_MATRIX_4FV);
+    }
+
+    @Override
+    public void glBindBuffer(int target, int buffer)
+    {
+        if (trace(RecordingGlApi.OP_BIND_BUFFER))
+            mCommands.glBindBuffer(target, buffer);
+        mDelegate.glBindBuffer(target, buffer);
+        afterCall(RecordingGlApi.OP_BIND_BUFFER);
+    }
+
+    @Override
+    public void glBufferData(int target, int size, Buffer data, int usage)
+    {
+        if (trace(RecordingGlApi.OP_BUFFER_DATA))
+            mCommands.glBufferData(target, size, data, usage);
+        mDelegate.glBufferData(target, size, data, usage);
+        afterCall(RecordingGlApi.OP_BUFFER_DATA);
+    }
+
+    @Override
+    public void glBufferSubData(int target, int offset, int size, Buffer data)
+    {
+        if (trace(RecordingGlApi.OP_BUFFER_SUB_DATA))
+            mCommands.glBufferSubData(target, offset, size, data);
+        mDelegate.glBufferSubData(target, offset, size, data);
+        afterCall(RecordingGlApi.OP_BUFFER_SUB_DATA);
+    }
+
+    @Override
+    public void glBindVertexArray(int array)
+    {
+        if (trace(RecordingGlApi.OP_BIND_VERTEX_ARRAY))
+            mCommands.glBindVertexArray(array);
+        mDelegate.glBindVertexArray(array);
+        afterCall(RecordingGlApi.OP_BIND_VERTEX_ARRAY);
+    }
+
+    @Override
+    public void glEnableVertexAttribArray(int index)
+    {
+        if (trace(RecordingGlApi.OP_ENABLE_VERTEX_ATTRIB_ARRAY))
+            mCommands.glEnableVertexAttribArray(index);
+        mDelegate.glEnableVertexAttribArray(index);
+        afterCall(RecordingGlApi.OP_ENABLE_VERTEX_ATTRIB_ARRAY);
+    }
+
+    @Override
+    public void glDisableVertexAttribArray(int index)
+    {
+        if (trace(RecordingGlApi.OP_DISABLE_VERTEX_ATTRIB_ARRAY))
+            mCommands.glDisableVertexAttribArray(index);
+        mDelegate.glDisableVertexAttribArray(index);
+        afterCall(RecordingGlApi.OP_DISABLE_VERTEX_ATTRIB_ARRAY);
+    }
+
+    @Override
+    public void glVertexAttribPointer(int index, int size, int type, boolean normalized, int stride, int offset)
+    {
+        if (trace(RecordingGlApi.OP_VERTEX_ATTRIB_POINTER))
+            mCommands.glVertexAttribPointer(index, size, type, normalized, stride, offset);
+        mDelegate.glVertexAttribPointer(index, size, type, normalized, stride, offset);
+        afterCall(RecordingGlApi.OP_VERTEX_ATTRIB_POINTER);
+    }
+
+    @Override
+    public void glVertexAttribPointer(int index, int size, int type, boolean normalized, int stride, Buffer ptr)
+    {
+        if (trace(RecordingGlApi.OP_VERTEX_ATTRIB_POINTER_CLIENT))
+            mCommands.glVertexAttribPointer(index, size, type, normalized, stride, ptr);
+        mDelegate.glVertexAttribPointer(index, size, type, normalized, stride, ptr);
+        afterCall(RecordingGlApi.OP_VERTEX_ATTRIB_POINTER_CLIENT);
+    }
+
+    @Override
+    public void glVertexAttribDivisor(int index, int divisor)
+    {
+        if (trace(RecordingGlApi.OP_VERTEX_ATTRIB_DIVISOR))
+            mCommands.glVertexAttribDivisor(index, divisor);
+        mDelegate.glVertexAttribDivisor(index, divisor);
+        afterCall(RecordingGlApi.OP_VERTEX_ATTRIB_DIVISOR);
+    }
+
+    @Override
+    public void glClear(int mask)
+    {
+        if (trace(RecordingGlApi.OP_CLEAR))
+            mCommands.glClear(mask);
+        mDelegate.glClear(mask);
+        afterCall(RecordingGlApi.OP_CLEAR);
+    }
+
+    @Override
+    public void glDrawArrays(int mode, int first, int count)
+    {
+        if (trace(RecordingGlApi.OP_DRAW_ARRAYS))
+            mCommands.glDrawArrays(mode, first, count);
+        mDelegate.glDrawArrays(mode, first, count);
+        afterCall(RecordingGlApi.OP_DRAW_ARRAYS);
+    }
+
+    @Override
+    public void glDrawElements(int mode, int count, int type, int offset)
+    {
+        if (trace(RecordingGlApi.OP_DRAW_ELEMENTS))
+            mCommands.glDrawElements(mode, count, type, offset);
+        mDelegate.glDrawElements(mode, count, type, offset);
+        afterCall(RecordingGlApi.OP_DRAW_ELEMENTS);
+    }
+
+    @Override
+    public void glDrawElements(int mode, int count, int type, Buffer indices)
+    {
+        if (trace(RecordingGlApi.OP_DRAW_ELEMENTS_CLIENT))
+            mCommands.glDrawElements(mode, count, type, indices);
+        mDelegate.glDrawElements(mode, count, type, indices);
+        afterCall(RecordingGlApi.OP_DRAW_ELEMENTS_CLIENT);
+    }
+
+    @Override
+    public void glDrawArraysInstanced(int mode, int first, int count, int instanceCount)
+    {
+        if (trace(RecordingGlApi.OP_DRAW_ARRAYS_INSTANCED))
+            mCommands.glDrawArraysInstanced(mode, first, count, instanceCount);
+        mDelegate.glDrawArraysInstanced(mode, first, count, instanceCount);
+        afterCall(RecordingGlApi.OP_DRAW_ARRAYS_INSTANCED);
+    }
+
+    @Override
+    public void glBlitFramebuffer(int srcX0, int srcY0, int srcX1, int srcY1, int dstX0, int dstY0, int dstX1, int dstY1, int mask, int filter)
+    {
+        if (trace(RecordingGlApi.OP_BLIT_FRAMEBUFFER))
+            mCommands.glBlitFramebuffer(srcX0, srcY0, srcX1, srcY1, dstX0, dstY0, dstX1, dstY1, mask, filter);
+        mDelegate.glBlitFramebuffer(srcX0, srcY0, srcX1, srcY1, dstX0, dstY0, dstX1, dstY1, mask, filter);
+        afterCall(RecordingGlApi.OP_BLIT_FRAMEBUFFER);
+    }
+
+    @Override
+    public void glPixelStorei(int pname, int param)
+    {
+        if (trace(RecordingGlApi.OP_PIXEL_STOREI))
+            mCommands.glPixelStorei(pname, param);
+        mDelegate.glPixelStorei(pname, param);
+        afterCall(RecordingGlApi.OP_PIXEL_STOREI);
+    }
+
+    @Override
+    public void glTexSubImage2D(int target, int level, int xoffset, int yoffset, int width, int height,
+                                int format, int type, Buffer pixels)
+    {
+        if (trace(RecordingGlApi.OP_TEX_SUB_IMAGE_2D))
+            mCommands.glTexSubImage2D(target, level, xoffset, yoffset, width, height, format, type, pixels);
+        mDelegate.glTexSubImage2D(target, level, xoffset, yoffset, width, height, format, type, pixels);
+        afterCall(RecordingGlApi.OP_TEX_SUB_IMAGE_2D);
+    }
+
+    @Override
+    public void glCopyTexSubImage2D(int target, int level, int xoffset, int yoffset, int x, int y, int width, int height)
+    {
+        if (trace(RecordingGlApi.OP_COPY_TEX_SUB_IMAGE_2D))
+            mCommands.glCopyTexSubImage2D(target, level, xoffset, yoffset, x, y, width, height);
+        mDelegate.glCopyTexSubImage2D(target, level, xoffset, yoffset, x, y, width, height);
+        afterCall(RecordingGlApi.OP_COPY_TEX_SUB_IMAGE_2D);
+    }
+
+    @Override
+    public void glReadPixels(int x, int y, int width, int height, int format, int type, Buffer pixels)
+    {
+        if (trace(RecordingGlApi.OP_READ_PIXELS))
+            mCommands.glReadPixels(x, y, width, height, format, type, pixels);
+        mDelegate.glReadPixels(x, y, width, height, format, type, pixels);
+        afterCall(RecordingGlApi.OP_READ_PIXELS);
+    }
+
+    @Override
+    public void glReadPixels(int x, int y, int width, int height, int format, int type, int offset)
+    {
+        if (trace(RecordingGlApi.OP_READ_PIXELS_PBO))
+            mCommands.glReadPixels(x, y, width, height, format, type, offset);
+        mDelegate.glReadPixels(x, y, width, height, format, type, offset);
+        afterCall(RecordingGlApi.OP_READ_PIXELS_PBO);
+    }
+
+    @Override
+    public Buffer glMapBufferRange(int target, int offset, int length, int access)
+    {
+        if (trace(RecordingGlApi.OP_MAP_BUFFER_RANGE))
+            mCommands.glMapBufferRange(target, offset, length, access);
+        Buffer result = mDelegate.glMapBufferRange(target, offset, length, access);
+        afterCall(RecordingGlApi.OP_MAP_BUFFER_RANGE);
+        return result;
+    }
+
+    @Override
+    public boolean glUnmapBuffer(int target)
+    {
+        if (trace(RecordingGlApi.OP_UNMAP_BUFFER))
+            mCommands.glUnmapBuffer(target);
+        boolean result = mDelegate.glUnmapBuffer(target);
+        afterCall(RecordingGlApi.OP_UNMAP_BUFFER);
+        return result;
+    }
+
+    @Override
+    public int glGetError()
+    {
+        if (trace(RecordingGlApi.OP_GET_ERROR))
+            mCommands.glGetError();
+        int result = mDelegate.glGetError();
+        afterCall(RecordingGlApi.OP_GET_ERROR);
+        return result;
+    }
+
+    @Override
+    public void glGetIntegerv(int pname, int[] params, int offset)
+    {
+        if (trace(RecordingGlApi.OP_GET_INTEGERV))
+            mCommands.glGetIntegerv(pname, params, offset);
+        mDelegate.glGetIntegerv(pname, params, offset);
+        afterCall(RecordingGlApi.OP_GET_INTEGERV);
+    }
+
+    @Override
+    public void glBeginQuery(int target, int id)
+    {
+        if (trace(RecordingGlApi.OP_BEGIN_QUERY))
+            mCommands.glBeginQuery(target, id);
+        mDelegate.glBeginQuery(target, id);
+        afterCall(RecordingGlApi.OP_BEGIN_QUERY);
+    }
+
+    @Override
+    public void glEndQuery(int target)
+    {
+        if (trace(RecordingGlApi.OP_END_QUERY))
+            mCommands.glEndQuery(target);
+        mDelegate.glEndQuery(target);
+        afterCall(RecordingGlApi.OP_END_QUERY);
+    }
+
+    @Override
+    public void glGetQueryObjectuiv(int id, int pname, int[] params, int offset)
+    {
+        if (trace(RecordingGlApi.OP_GET_QUERY_OBJECTUIV))
+            mCommands.glGetQueryObjectuiv(id, pname, params, offset);
+        mDelegate.glGetQueryObjectuiv(id, pname, params, offset);
+        afterCall(RecordingGlApi.OP_GET_QUERY_OBJECTUIV);
+    }
+
+    /**
+     * counts the call, and tells whether to record it
+     */
+    private boolean trace(int op)
+    {
+        mFrameCalls[op]++;
+        return mRecording;
+    }
+
+    private void afterCall(int op)
+    {
+        if (mErrorPolicy != ERRORS_PER_CALL || op == RecordingGlApi.OP_GET_ERROR)
+            return;
+
+        int error = mDelegate.glGetError();
+        if (error != GL_NO_ERROR) {
+            mFrameErrors++;
+            String msg = RecordingGlApi.getOpName(op) + ": glError 0x" + Integer.toHexString(error);
+            Log.e(TAG, msg);
+            throw new RuntimeException(msg);
+        }
+    }
+
+    private void addToTotals()
+    {
+        synchronized (this) {
+            for (int op = 1; op < RecordingGlApi.OP_COUNT; op++)
+                mTotalCalls[op] += mFrameCalls[op];
+        }
+        Arrays.fill(mFrameCalls, 0);
+    }
+
+    private void trimCapture()
+    {
+        while (mCaptured.size() > mMaxCapturedFrames)
+            mCaptured.remove(0);
+    }
+}
@@ -0,0 +1,69 @@
+package com.androidexperiments.shadercam.utils;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Small pool of native-order direct {@link ByteBuffer}s, so code that needs big scratch buffers
+ * over and over (frame readbacks, mostly) doesn't allocate megabytes each time.
+ * <p>
+ * Buffers can be acquired on one thread and released on another.
+ */
+public class DirectBufferPool
+{
+    private final ConcurrentLinkedQueue<ByteBuffer> mFree = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger mFreeCount = new AtomicInteger();
+    private final int mMaxPooled;
+
+    /**
+     * @param maxPooled how many free buffers to hold on to, the rest are left to the GC
+     */
+    public DirectBufferPool(int maxPooled) {
+        mMaxPooled = maxPooled;
+    }
+
+    /**
+     * @return a cleared buffer with its limit set to {@code size}, reused if a big enough one is free
+     */
+    public ByteBuffer acquire(int size) {
+        ByteBuffer buffer;
+        while ((buffer = mFree.poll()) != null) {
+            mFreeCount.decrementAndGet();
+
+            if (buffer.capacity() >= size) {
+                buffer.clear();
+                buffer.limit(size);
+                return buffer;
+            }
+            //too small for what we need now, sizes rarely go back down so let it go
+        }
+
+        return ByteBuffer.allocateDirect(size).order(ByteOrder.nativeOrder());
+    }
+
+    /**
+     * Hands a buffer back. Don't touch it afterwards.
+     */
+    public void release(ByteBuffer buffer) {
+        if (buffer == null || !buffer.isDirect())
+            return;
+
+        if (mFreeCount.incrementAndGet() <= mMaxPooled) {
+            mFree.offer(buffer);
+        }
+        else {
+            mFreeCount.decrementAndGet();
+        }
+    }
+
+    /**
+     * Drops every free buffer.
+     */
+    public void clear() {
+        while (mFree.poll() != null) {
+            mFreeCount.decrementAndGet();
+        }
+    }
+}
@@ -4,10 +4,7 @@ import android.content.Context;
 import android.view.View;
 import android.view.Window;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
 
 /**
  * Utilites for ShaderCamera
@@ -28,16 +25,7 @@ public class ShaderUtils
 
     public static String getStringFromFileInAssets(Context ctx, String filename, boolean useNewline) throws IOException
     {
-        InputStream is = ctx.getAssets().open(filename);
-        BufferedReader reader = new BufferedReader(new InputStreamReader(is));
-        StringBuilder builder = new StringBuilder();
-        String line;
-        while((line = reader.readLine()) != null)
-        {
-            builder.append(line + (useNewline ? "\n" : ""));
-        }
-        is.close();
-        return builder.toString();
+        return StreamUtils.readString(ctx.getAssets().open(filename), useNewline);
     }
 
 